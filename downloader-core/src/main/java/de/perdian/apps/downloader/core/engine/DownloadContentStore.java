@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a single copy of every content downloaded by a {@link DownloadEngine}, addressed by the
+ * SHA-256 hash of its bytes. The store directory itself is the index: the blob of a content is
+ * located at {@code <directory>/<first two characters of the hash>/<hash>}.
+ *
+ * Whenever possible blobs and target files are hard links to each other, so that a content
+ * downloaded under several names occupies the disk only once. If the file system doesn't support
+ * hard links between the store directory and the target file (for example because they reside
+ * on different devices) the content is copied instead, which still allows the engine to skip
+ * the transfer of a request whose content is already known (see
+ * {@link DownloadRequest#getContentHash()}).
+ *
+ * Since all links share the same data, a linked target file must never be modified in place.
+ * The engine therefore never links the target files of requests that are going to be
+ * post-processed, but uses copies for them.
+ *
+ * @author Christian Robert
+ */
+
+public class DownloadContentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadContentStore.class);
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private Path directory = null;
+
+    public DownloadContentStore(Path directory) {
+        this.setDirectory(Objects.requireNonNull(directory, "Parameter 'directory' must not be null!"));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(this.getClass().getSimpleName());
+        result.append("[directory=").append(this.getDirectory());
+        return result.append("]").toString();
+    }
+
+    /**
+     * Creates the digest with which the hash of a content is computed while it is being written
+     */
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Hash algorithm not available: " + HASH_ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Converts the result of a digest created by {@link #createDigest()} into a hash
+     */
+    public String formatHash(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the hash of the content of the given file
+     */
+    public String computeHash(Path file) throws IOException {
+        MessageDigest digest = this.createDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream fileStream = Files.newInputStream(file)) {
+            for (int bufferSize = fileStream.read(buffer); bufferSize > -1; bufferSize = fileStream.read(buffer)) {
+                digest.update(buffer, 0, bufferSize);
+            }
+        }
+        return this.formatHash(digest);
+    }
+
+    /**
+     * Checks whether the content with the given hash is available within the store
+     */
+    public boolean contains(String hash) {
+        Path blobFile = this.resolveBlob(hash);
+        return blobFile != null && Files.exists(blobFile);
+    }
+
+    /**
+     * Makes the content with the given hash available at the target file, either as hard link to
+     * the blob or - if linking isn't possible or not allowed - as copy of it.
+     *
+     * @return
+     *     {@code true} if the content has been found within the store and has been made available
+     *     at the target file, {@code false} if the content is unknown
+     */
+    public boolean restore(String hash, Path targetFile, boolean linkAllowed) throws IOException {
+        Path blobFile = this.resolveBlob(hash);
+        if (blobFile == null || !Files.exists(blobFile)) {
+            return false;
+        } else {
+            Path temporaryFile = targetFile.resolveSibling(targetFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            if (!linkAllowed || !DownloadContentStore.createLink(temporaryFile, blobFile)) {
+                Files.copy(blobFile, temporaryFile);
+            }
+            Files.move(temporaryFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+    }
+
+    /**
+     * Records the content of the given file, whose hash has already been computed. If the content
+     * is already known the file is replaced by a hard link to the existing blob (if allowed),
+     * otherwise the file becomes the blob for the content.
+     *
+     * @return
+     *     {@code true} if the file now shares its data with content that has been downloaded
+     *     before, {@code false} otherwise
+     */
+    public boolean store(String hash, Path file, boolean linkAllowed) throws IOException {
+        Path blobFile = this.resolveBlob(hash);
+        if (blobFile == null) {
+            throw new IllegalArgumentException("Invalid content hash: " + hash);
+        } else if (Files.exists(blobFile)) {
+            if (linkAllowed && !Files.isSameFile(blobFile, file) && Files.size(blobFile) == Files.size(file)) {
+                Path temporaryFile = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+                if (DownloadContentStore.createLink(temporaryFile, blobFile)) {
+                    log.debug("Replacing file with link to content {}: {}", hash, file);
+                    Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+                    return true;
+                }
+            }
+            return false;
+        } else {
+            Files.createDirectories(blobFile.getParent());
+            Path temporaryFile = blobFile.resolveSibling(hash + "." + UUID.randomUUID() + ".tmp");
+            if (!linkAllowed || !DownloadContentStore.createLink(temporaryFile, file)) {
+                Files.copy(file, temporaryFile);
+            }
+            log.debug("Adding content {} from file: {}", hash, file);
+            Files.move(temporaryFile, blobFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the location of the blob for the given hash, or {@code null} if the value isn't a
+     * valid hash (so that a hash taken from a request can never point outside of the store)
+     */
+    Path resolveBlob(String hash) {
+        String normalizedHash = hash == null ? null : hash.toLowerCase(Locale.ROOT);
+        if (normalizedHash == null || !HASH_PATTERN.matcher(normalizedHash).matches()) {
+            return null;
+        } else {
+            return this.getDirectory().resolve(normalizedHash.substring(0, 2)).resolve(normalizedHash);
+        }
+    }
+
+    private static boolean createLink(Path link, Path existingFile) throws IOException {
+        try {
+            Files.createLink(link, existingFile);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.trace("Cannot create link from {} to: {}", link, existingFile, e);
+            return false;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+    private void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+}
@@ -15,31 +15,141 @@
  */
 package de.perdian.apps.downloader.core.engine;
 
+import de.perdian.apps.downloader.core.support.FileChannelOutputStream;
+import de.perdian.apps.downloader.core.support.LatencyRecordingOutputStream;
 import de.perdian.apps.downloader.core.support.ProgressListener;
+import de.perdian.apps.downloader.core.support.TokenBucket;
+import de.perdian.apps.downloader.core.support.TokenBucketOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An engine represents the central manager object, into which new requests that are supposed to
  * download information from an external resource can be added and from which information about the
  * currently active operations and waiting requests can be requested.
  *
+ * The engine doesn't use a central lock to coordinate its scheduling state. Waiting requests are
+ * kept in a concurrent sorted set and the number of occupied processor slots is tracked by an
+ * atomic counter, so that submitting threads and completing processor threads never have to wait
+ * for each other. Whoever manages to remove a request from the waiting set is the one responsible
+ * for executing it.
+ *
+ * Besides the global {@code processorCount} the number of operations running in parallel against
+ * a single host can be limited as well (see {@link #setProcessorCountPerHost(int)} and
+ * {@link #setProcessorCountForHost(String, Integer)}). Requests whose host is currently saturated
+ * are skipped when a processor slot becomes available, so that requests for other hosts can use
+ * the free slot instead of waiting behind them.
+ *
+ * Operations writing into the same {@link FileStore} are grouped into a storage lane, for which
+ * the number of concurrent writers can be limited (see {@link #setWriterCountPerStore(int)} and
+ * {@link #setWriterCountForStore(FileStore, Integer)}). A request whose lane is saturated is put
+ * back into the queue and parked there until a writer leaves the lane, so that a saturated device
+ * (like a slow network mount) occupies neither processor slots nor threads and doesn't block
+ * operations writing into other stores. Parking happens before the operation is announced to the
+ * listeners, so a parked request is only reported once it actually starts writing. The average write latency of every store is available
+ * using {@link #getStoreWriteLatencies()}.
+ *
+ * The rate at which data is written by all operations together can be limited using
+ * {@link #setBandwidthLimit(long)}, whereas a limit for a single operation can be defined within
+ * the {@link DownloadRequest}. The available bandwidth is shared between all active operations.
+ *
+ * Requests with the same priority are executed in the order in which they have been submitted.
+ * If fair queuing is enabled (see {@link #setFairQueuing(boolean)}) the processor slots are
+ * shared between the request groups instead (see {@link DownloadRequest#getGroupKey()}), so that
+ * a group submitting thousands of requests doesn't block groups submitting only a few of them.
+ * How large the share of a group is can be defined using {@link #setGroupWeight(String, Integer)}.
+ *
+ * To prevent requests with a low priority from waiting forever while requests with a higher
+ * priority keep arriving, the priority of a waiting request can be raised by one for every
+ * {@code priorityAgingInterval} it has been waiting (see {@link #setPriorityAgingInterval(Duration)}).
+ * The longest time a request has been waiting in the queue is available using
+ * {@link #getMaximumQueueWait()}.
+ *
+ * If deadline scheduling is enabled (see {@link #setDeadlineScheduling(boolean)}) requests with
+ * the same priority are ordered by their deadline (see {@link DownloadRequest#getDeadline()}). The
+ * engine predicts when a waiting request has to be started at the latest to meet its deadline,
+ * using the estimated size of the request and the throughput of the previous transfers. Once that
+ * point in time has come closer than the {@code deadlineLeadTime}, the request is moved to the
+ * front of the queue ahead of all other priorities and
+ * {@link DownloadSchedulingListener#onRequestDeadlineAtRisk(DownloadRequestWrapper)} is fired.
+ *
+ * An operation failing with a transient error can be retried automatically as defined by the
+ * {@link DownloadRetryPolicy} of the engine or of the request itself. While waiting for its next
+ * attempt the request is put back into the waiting queue without occupying a processor slot.
+ *
+ * Creating the {@link DownloadTask} of a request might require a lengthy discovery (like scraping
+ * a web page). To keep a processor slot from waiting for it, the tasks of the next requests in the
+ * queue can be discovered in advance on a separate pool of threads (see
+ * {@link #setTaskDiscoveryLookAhead(int)}). A task that hasn't been used within the
+ * {@code taskDiscoveryMaxAge} is discovered again, so that the resource it points to is still
+ * valid once the transfer starts.
+ *
+ * The post-processors of a request (see {@link DownloadRequest#getPostProcessors()}) are not
+ * executed within the processor slot of the operation but on a separate pool of threads (see
+ * {@link #setPostProcessorCount(int)}). As soon as the data has been written into the target file
+ * the slot is released and the operation changes into
+ * {@link DownloadOperationStatus#POST_PROCESSING}, so that the next transfer can already be
+ * started while the post-processors are busy.
+ *
+ * The number of requests waiting inside the queue can be limited (see {@link #setQueueCapacity(int)}),
+ * in which case a submitter is either blocked or rejected once the queue is full (see
+ * {@link DownloadQueueOverflowPolicy}). For queues too large to be kept on the heap at all, the
+ * requests providing a recipe can be spilled into a {@link DownloadRequestSpillStore} instead:
+ * the queue then becomes a hot window holding the requests to be executed next, while all
+ * others are kept on disk ordered by their priority and read back whenever the window has room.
+ * A spilled request isn't kept on the heap at all: its wrapper is only referenced weakly (unless
+ * its result is being observed, see {@link DownloadRequestWrapper#toCompletableFuture()}) and a new
+ * wrapper is created once the request is read back, if the original one isn't used anymore.
+ *
+ * An engine is running as soon as it has been created. It can be paused (see {@link #pause()}),
+ * after which requests are still accepted but no further operations are started until
+ * {@link #start()} is called again. Closing the engine (see {@link #close(Duration)}) stops the
+ * intake of new requests and gives the active operations a limited amount of time to complete.
+ * Whatever is still running afterwards is suspended: the transfer stops, the partially written
+ * target file is forced to disk once and a resume state is written next to it, so that the
+ * transfer can be continued from that position when the request is submitted into an engine
+ * again (for example by a {@code JournalingSchedulingListener} after a restart).
+ *
+ * The processor threads on which the actual transfers are performed are taken from an
+ * {@link ExecutorService} that can be passed into the engine upon creation. The number of
+ * transfers running in parallel is always limited by the {@code processorCount} and never by the
+ * executor itself, so an executor creating a new virtual thread for every operation (see
+ * {@link Executors#newVirtualThreadPerTaskExecutor()}) is a perfect match for transfers that
+ * spend most of their time waiting for the network.
+ *
  * @author Christian Robert
  */
 
-public class DownloadEngine {
+public class DownloadEngine implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(DownloadEngine.class);
 
@@ -47,39 +157,198 @@ public class DownloadEngine {
     private ExecutorService executorService = null;
     private List<DownloadEngineConfigurationListener> engineConfigurationListeners = null;
     private List<DownloadSchedulingListener> schedulingListeners = null;
-    private Queue<DownloadRequestWrapper> waitingRequests = null;
-    private List<DownloadOperation> activeOperations = null;
+    private DownloadRequestQueue waitingRequests = null;
+    private Set<DownloadOperation> activeOperations = null;
+    private Map<String, DownloadRequestWrapper> inFlightRequests = null;
+    private DownloadRequestSpillQueue spilledRequests = null;
+    private AtomicInteger activeSlotCount = null;
+    private AtomicInteger completingOperationCount = null;
+    private Map<String, AtomicInteger> activeHostSlotCounts = null;
+    private Map<String, Integer> hostProcessorCounts = null;
+    private Map<String, Integer> groupWeights = null;
+    private Map<FileStore, DownloadStorageLane> storageLanes = null;
+    private Map<FileStore, Integer> storeWriterCounts = null;
+    private DownloadFairQueuingClock fairQueuingClock = null;
+    private DownloadThroughputEstimator throughputEstimator = null;
+    private volatile Duration deadlineLeadTime = Duration.ofMinutes(1);
+    private volatile Duration priorityAgingInterval = null;
+    private AtomicLong maximumQueueWaitMillis = null;
+    private AtomicLong schedulingVersion = null;
+    private TokenBucket bandwidthTokenBucket = null;
+    private AtomicLong requestSequence = null;
+    private ScheduledThreadPoolExecutor timerScheduler = null;
+    private ThreadPoolExecutor postProcessingExecutor = null;
+    private ThreadPoolExecutor discoveryExecutor = null;
+    private volatile Duration taskDiscoveryMaxAge = Duration.ofMinutes(5);
+    private volatile Duration checkpointTimeout = Duration.ofSeconds(10);
+    private Map<CompletableFuture<Void>, Long> idleFutures = null;
+    private AtomicLong idleFutureSequence = null;
+    private volatile DownloadRetryPolicy retryPolicy = new DownloadRetryPolicy();
     private Path targetDirectory = null;
-    private int processorCount = 1;
+    private volatile DownloadContentStore contentStore = null;
+    private volatile DownloadQueueOverflowPolicy queueOverflowPolicy = DownloadQueueOverflowPolicy.BLOCK;
+    private volatile Duration queueBlockTimeout = Duration.ofMinutes(1);
+    private volatile int queueCapacity = 0;
+    private volatile int processorCount = 1;
+    private volatile int processorCountPerHost = 0;
+    private volatile int writerCountPerStore = 0;
+    private volatile int postProcessingQueueCapacity = 100;
+    private volatile int taskDiscoveryLookAhead = 0;
+    private volatile boolean fairQueuing = false;
+    private volatile boolean deadlineScheduling = false;
+    private volatile boolean paused = false;
+    private volatile boolean shutdown = false;
 
     public DownloadEngine(Path targetDirectory) {
-        this.setExecutorService(Executors.newCachedThreadPool());
+        this(targetDirectory, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Creates a new engine
+     *
+     * @param targetDirectory
+     *     the directory into which the downloaded files will be written
+     * @param executorService
+     *     the executor providing the threads on which the operations will be executed. The engine
+     *     takes over the ownership of the executor and will shut it down when the engine itself is
+     *     being shut down.
+     */
+    public DownloadEngine(Path targetDirectory, ExecutorService executorService) {
+        this.setExecutorService(Objects.requireNonNull(executorService, "Parameter 'executorService' must not be null!"));
         this.setEngineConfigurationListeners(new CopyOnWriteArrayList<>());
         this.setSchedulingListeners(new CopyOnWriteArrayList<>());
-        this.setWaitingRequests(new PriorityQueue<>(10, new DownloadRequestWrapper.PriorityComparator()));
-        this.setActiveOperations(new ArrayList<>());
+        this.setWaitingRequests(new DownloadRequestQueue());
+        this.setActiveOperations(ConcurrentHashMap.newKeySet());
+        this.setInFlightRequests(new ConcurrentHashMap<>());
+        this.setSpilledRequests(new DownloadRequestSpillQueue(this));
+        this.setActiveSlotCount(new AtomicInteger());
+        this.setCompletingOperationCount(new AtomicInteger());
+        this.setActiveHostSlotCounts(new ConcurrentHashMap<>());
+        this.setHostProcessorCounts(new ConcurrentHashMap<>());
+        this.setGroupWeights(new ConcurrentHashMap<>());
+        this.setStorageLanes(new ConcurrentHashMap<>());
+        this.setStoreWriterCounts(new ConcurrentHashMap<>());
+        this.setFairQueuingClock(new DownloadFairQueuingClock());
+        this.setThroughputEstimator(new DownloadThroughputEstimator());
+        this.setMaximumQueueWaitMillis(new AtomicLong());
+        this.setSchedulingVersion(new AtomicLong());
+        this.setBandwidthTokenBucket(new TokenBucket(0));
+        this.setRequestSequence(new AtomicLong());
+        this.setTimerScheduler(DownloadEngine.createTimerScheduler());
+        this.setPostProcessingExecutor(DownloadEngine.createWorkerExecutor("download-engine-post-processor-", Runtime.getRuntime().availableProcessors()));
+        this.setDiscoveryExecutor(DownloadEngine.createWorkerExecutor("download-engine-discovery-", 1));
+        this.setIdleFutures(new ConcurrentHashMap<>());
+        this.setIdleFutureSequence(new AtomicLong());
         this.setTargetDirectory(targetDirectory);
         this.setProcessorCount(1);
     }
 
+    private static ScheduledThreadPoolExecutor createTimerScheduler() {
+        ScheduledThreadPoolExecutor timerScheduler = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("download-engine-timer").daemon().factory());
+        timerScheduler.setKeepAliveTime(10, TimeUnit.SECONDS);
+        timerScheduler.allowCoreThreadTimeOut(true);
+        return timerScheduler;
+    }
+
+    private static ThreadPoolExecutor createWorkerExecutor(String threadNamePrefix, int threadCount) {
+        ThreadPoolExecutor workerExecutor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), Thread.ofPlatform().name(threadNamePrefix, 0).daemon().factory());
+        workerExecutor.allowCoreThreadTimeOut(true);
+        return workerExecutor;
+    }
+
+    private static void resizeWorkerExecutor(ThreadPoolExecutor workerExecutor, int threadCount) {
+        if (threadCount > workerExecutor.getMaximumPoolSize()) {
+            workerExecutor.setMaximumPoolSize(threadCount);
+            workerExecutor.setCorePoolSize(threadCount);
+        } else {
+            workerExecutor.setCorePoolSize(threadCount);
+            workerExecutor.setMaximumPoolSize(threadCount);
+        }
+    }
+
     /**
      * Submits a series of download requests into this engine.
      *
+     * In contrast to calling {@link #submit(DownloadRequest)} for every single request, the whole
+     * batch is validated before any of the requests is accepted, all accepted requests are
+     * announced to the listeners using a single {@link DownloadSchedulingListener#onRequestsScheduled(List)}
+     * event and are added to the waiting queue in one pass, after which the engine looks for
+     * requests that can be started only once. If the batch doesn't fit into the waiting queue
+     * (see {@link #setQueueCapacity(int)}) it is split up into as many passes as needed.
+     *
      * @param request
      *     the requests containing all the information from which a download operation can be
      *     constructed.
      * @return
-     *     a list of {@link DownloadRequestWrapper} which the engine has accepted
+     *     a list of {@link DownloadRequestWrapper} which the engine has accepted, containing the
+     *     wrapper of the request in flight for every request that has been coalesced with it (see
+     *     {@link #submit(DownloadRequest)})
      */
     public List<DownloadRequestWrapper> submitAll(Collection<DownloadRequest> requests) {
-        List<DownloadRequestWrapper> acceptedRequestWrappers = new ArrayList<>();
-        Optional.ofNullable(requests).orElseGet(Collections::emptyList).forEach(request -> {
-            DownloadRequestWrapper requestWrapper = this.submit(request);
-            if (requestWrapper != null) {
-                acceptedRequestWrappers.add(requestWrapper);
+        List<DownloadRequest> requestList = new ArrayList<>(Optional.ofNullable(requests).orElseGet(Collections::emptyList));
+        requestList.forEach(DownloadEngine::validateRequest);
+        if (requestList.isEmpty()) {
+            return Collections.emptyList();
+        } else if (this.isShutdown()) {
+            log.info("{} requests rejected since engine has been shut down", requestList.size());
+            return Collections.emptyList();
+        } else {
+
+            List<DownloadRequestWrapper> resultRequestWrappers = new ArrayList<>(requestList.size());
+            List<DownloadRequestWrapper> acceptedRequestWrappers = new ArrayList<>(requestList.size());
+            Instant scheduledTime = null;
+            for (DownloadRequest request : requestList) {
+                DownloadRequestWrapper requestWrapper = this.createRequestWrapper(request);
+                DownloadRequestWrapper inFlightRequestWrapper = this.registerInFlightRequest(requestWrapper);
+                if (inFlightRequestWrapper != null) {
+                    resultRequestWrappers.add(inFlightRequestWrapper);
+                } else {
+
+                    // The requests accepted so far haven't reached the queue yet, so if they
+                    // already fill it up we need to put them into the queue before waiting for
+                    // any room to become available - otherwise we would wait for ourselves
+                    if (!acceptedRequestWrappers.isEmpty() && !this.hasQueueCapacity(acceptedRequestWrappers.size())) {
+                        this.scheduleRequestWrappers(acceptedRequestWrappers);
+                        acceptedRequestWrappers.clear();
+                        scheduledTime = null;
+                    }
+                    if (this.admitRequest(requestWrapper, acceptedRequestWrappers.size()) && this.fireRequestSubmitted(requestWrapper)) {
+                        resultRequestWrappers.add(requestWrapper);
+                        scheduledTime = scheduledTime == null ? this.getClock().instant() : scheduledTime;
+                        this.initializeRequestWrapper(requestWrapper, scheduledTime, this.getRequestSequence().incrementAndGet());
+                        if (!this.isSpillRequired(requestWrapper, acceptedRequestWrappers.size())) {
+                            acceptedRequestWrappers.add(requestWrapper);
+                        } else if (!this.spillRequest(requestWrapper)) {
+                            this.scheduleRequest(requestWrapper);
+                        }
+                    }
+
+                }
             }
-        });
-        return Collections.unmodifiableList(acceptedRequestWrappers);
+            if (!acceptedRequestWrappers.isEmpty()) {
+                this.scheduleRequestWrappers(acceptedRequestWrappers);
+            }
+            log.info("{} of {} requests accepted", resultRequestWrappers.size(), requestList.size());
+            return Collections.unmodifiableList(resultRequestWrappers);
+
+        }
+    }
+
+    /**
+     * Puts a batch of accepted requests into the waiting queue. The wrappers have already been
+     * initialized when being accepted, since the decision whether a request has to be spilled
+     * depends on its position within the queue.
+     */
+    private void scheduleRequestWrappers(List<DownloadRequestWrapper> acceptedRequestWrappers) {
+        List<DownloadRequestWrapper> acceptedRequestWrappersView = Collections.unmodifiableList(new ArrayList<>(acceptedRequestWrappers));
+
+        // Same as for a single request: the listeners are informed before the requests become
+        // visible inside the waiting queue
+        this.getSchedulingListeners().forEach(l -> l.onRequestsScheduled(acceptedRequestWrappersView));
+        this.getWaitingRequests().addAll(acceptedRequestWrappersView);
+        this.getSchedulingVersion().incrementAndGet();
+        this.checkWaitingRequests();
+        acceptedRequestWrappersView.forEach(this::scheduleDeadlineCheck);
     }
 
     /**
@@ -87,171 +356,1236 @@ public class DownloadEngine {
      * not an operation for this request can be started immediately or if it needs to be put in any
      * kind of queue and await a free download slot.
      *
+     * If an equal request (one with the same {@code id} or {@code sourceKey}) is still waiting or
+     * being executed, the request is coalesced with it: no second transfer is started, but the
+     * wrapper of the request in flight is returned, so that the caller shares its outcome.
+     *
+     * If the waiting queue has reached its {@code queueCapacity} the request is handled as
+     * defined by the {@code queueOverflowPolicy}: the calling thread may be blocked until there is
+     * room for the request again, the request may be rejected or it may be written into the
+     * {@code queueSpillStore}. A spilled request has already been announced to the listeners, but
+     * it is no longer in flight until it has been read back into the queue: an equal request
+     * submitted in the meantime is accepted on its own, and the spilled request is coalesced with
+     * it once being read back.
+     *
      * @param request
      *     the request containing all the information from which a download can be constructed.
      * @return
      *     a {@link DownloadRequestWrapper} if the engine has accepted the request and scheduled it
-     *     for execution or {@code null} if the engine instance rejected the operation and will not
-     *     execute the transfer process.
+     *     for execution (or has coalesced it with a request in flight) or {@code null} if the
+     *     engine instance rejected the operation and will not execute the transfer process.
      */
     public DownloadRequestWrapper submit(DownloadRequest request) {
+        DownloadEngine.validateRequest(request);
+        if (this.isShutdown()) {
+            log.info("Request rejected since engine has been shut down: {}", request);
+            return null;
+        } else {
+            DownloadRequestWrapper requestWrapper = this.createRequestWrapper(request);
+            DownloadRequestWrapper inFlightRequestWrapper = this.registerInFlightRequest(requestWrapper);
+            if (inFlightRequestWrapper != null) {
+                return inFlightRequestWrapper;
+            } else if (!this.admitRequest(requestWrapper, 0)) {
+                return null;
+            } else {
+                return this.acceptRequest(requestWrapper);
+            }
+        }
+    }
+
+    private DownloadRequestWrapper acceptRequest(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
+        if (!this.fireRequestSubmitted(requestWrapper)) {
+            return null;
+        } else {
+
+            log.info("Request accepted: {}", request);
+            this.initializeRequestWrapper(requestWrapper, this.getClock().instant(), this.getRequestSequence().incrementAndGet());
+            if (!this.isSpillRequired(requestWrapper, 0) || !this.spillRequest(requestWrapper)) {
+                this.scheduleRequest(requestWrapper);
+            }
+            return requestWrapper;
+
+        }
+    }
+
+    /**
+     * Starts an accepted request right away if a processor slot is available or puts it into the
+     * waiting queue otherwise
+     */
+    private void scheduleRequest(DownloadRequestWrapper requestWrapper) {
+        if (!this.isPaused() && this.acquireSlots(DownloadEngine.resolveHost(requestWrapper), false)) {
+            this.executeRequest(requestWrapper);
+        } else {
+
+            // The listeners are informed before the request becomes visible inside the
+            // waiting queue, so that no listener will ever see an operation starting for a
+            // request that it hasn't been told about
+            this.getSchedulingListeners().forEach(l -> l.onRequestScheduled(requestWrapper));
+            this.getWaitingRequests().add(requestWrapper);
+            this.getSchedulingVersion().incrementAndGet();
+
+            // A processor slot might have been freed while we were adding the request to the
+            // queue, in which case the completing processor might have missed it
+            this.checkWaitingRequests();
+            this.scheduleDeadlineCheck(requestWrapper);
+
+        }
+    }
+
+    /**
+     * Makes sure the waiting queue has room for the given request according to the
+     * {@code queueCapacity} and the {@code queueOverflowPolicy}. A request that is rejected gets
+     * its future completed with a {@link DownloadRejectedException}. A request that can be
+     * spilled is admitted right away, but it is only written into the spill store once the
+     * listeners have accepted it (see {@link #spillRequest(DownloadRequestWrapper)}).
+     *
+     * The capacity is checked without reserving a place inside the queue, so submitters passing
+     * the check at the same time may exceed it by the number of those submitters.
+     *
+     * @param pendingCount
+     *     the number of requests that have already been admitted but not yet been put into the
+     *     queue
+     * @return
+     *     {@code true} if the request may be put into the queue, {@code false} otherwise
+     */
+    private boolean admitRequest(DownloadRequestWrapper requestWrapper, int pendingCount) {
+        DownloadRequest request = requestWrapper.getRequest();
+        DownloadQueueOverflowPolicy overflowPolicy = this.getQueueOverflowPolicy();
+        if (this.hasQueueCapacity(pendingCount) || this.isSpillable(requestWrapper)) {
+            return true;
+        } else if (overflowPolicy == DownloadQueueOverflowPolicy.REJECT) {
+            log.info("Request rejected since queue capacity of {} has been reached: {}", this.getQueueCapacity(), request);
+            requestWrapper.getResultFuture().completeExceptionally(new DownloadRejectedException("Queue capacity reached"));
+            return false;
+        } else {
+            try {
+                Duration blockTimeout = this.getQueueBlockTimeout();
+                if (this.getWaitingRequests().awaitCapacity(() -> this.isShutdown() || this.hasQueueCapacity(pendingCount), blockTimeout) && !this.isShutdown()) {
+                    return true;
+                } else {
+                    log.info("Request rejected since no queue capacity became available within {}: {}", blockTimeout, request);
+                    requestWrapper.getResultFuture().completeExceptionally(new DownloadRejectedException("Queue capacity reached"));
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.info("Request rejected since submitter has been interrupted while waiting for queue capacity: {}", request);
+                requestWrapper.getResultFuture().completeExceptionally(new DownloadRejectedException("Interrupted while waiting for queue capacity"));
+                return false;
+            }
+        }
+    }
+
+    private boolean hasQueueCapacity(int pendingCount) {
+        int queueCapacity = this.getQueueCapacity();
+        return queueCapacity <= 0 || this.getWaitingRequests().size() + pendingCount < queueCapacity;
+    }
+
+    /**
+     * Checks whether the request may be written into the spill store instead of the waiting
+     * queue. A request with a deadline is never spilled: it may have to be promoted to the front of
+     * the queue at any time to meet its deadline, which the engine can only do while the request is
+     * kept in memory.
+     */
+    private boolean isSpillable(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
+        if (this.getQueueOverflowPolicy() != DownloadQueueOverflowPolicy.SPILL || !this.getSpilledRequests().isSpillable(request)) {
+            return false;
+        } else {
+            return !this.isDeadlineScheduling() || request.getDeadline() == null;
+        }
+    }
+
+    /**
+     * Checks whether an accepted request has to be written into the spill store. Even if the queue
+     * has room, a request is only put into it if the queue would order it before all spilled
+     * requests, since those will be read back into the queue first.
+     */
+    private boolean isSpillRequired(DownloadRequestWrapper requestWrapper, int pendingCount) {
+        if (!this.isSpillable(requestWrapper)) {
+            return false;
+        } else {
+            return !this.hasQueueCapacity(pendingCount) || !this.getSpilledRequests().precedes(requestWrapper);
+        }
+    }
+
+    /**
+     * Writes an accepted request into the spill store. The request is no longer in flight while
+     * being spilled, so that neither the engine nor the wrapper of the request need to be kept on
+     * the heap (see {@link DownloadRequestSpillQueue}).
+     *
+     * @return
+     *     {@code true} if the request has been spilled, {@code false} if it couldn't be written
+     *     and has to be put into the queue instead
+     */
+    private boolean spillRequest(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
+        synchronized (requestWrapper) {
+
+            // The request may be read back by another thread as soon as it has been written, but
+            // that thread has to wait for the wrapper to be released before handing it over
+            try {
+                if (!this.getSpilledRequests().spill(requestWrapper)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                log.warn("Cannot spill request to disk, keeping it in memory instead: " + request, e);
+                return false;
+            }
+            DownloadEngine.resolveInFlightKeys(request).forEach(inFlightKey -> this.getInFlightRequests().remove(inFlightKey, requestWrapper));
+            log.debug("Request spilled to disk: {}", request);
+            this.getSchedulingListeners().forEach(l -> l.onRequestSpilled(requestWrapper));
+
+        }
+        this.checkWaitingRequests();
+        return true;
+    }
+
+    /**
+     * Moves requests from the spill store back into the waiting queue for as long as the queue
+     * has room for them
+     */
+    private void readSpilledRequests() {
+        this.getSpilledRequests().read(() -> this.hasQueueCapacity(0), this::acceptSpilledRequest);
+    }
+
+    /**
+     * Puts a request that has been read back from the spill store into the waiting queue. The
+     * request has already been accepted before being spilled, so it keeps the time at which it has
+     * been scheduled and its position inside the queue. Called while holding the lock of the
+     * wrapper.
+     */
+    private void acceptSpilledRequest(DownloadRequestWrapper requestWrapper) {
+        if (this.restoreSpilledRequest(requestWrapper)) {
+            this.getSchedulingListeners().forEach(l -> l.onRequestScheduled(requestWrapper));
+            this.getWaitingRequests().add(requestWrapper);
+            this.getSchedulingVersion().incrementAndGet();
+        }
+    }
+
+    /**
+     * Makes a request that has been taken out of the spill store known to the engine again: the
+     * listeners are informed and the request is registered as request in flight again. If an equal
+     * request has been submitted while the request has been spilled, the request is coalesced with
+     * that one instead and shares its outcome.
+     *
+     * @return
+     *     {@code true} if the request has to be executed, {@code false} if it has been coalesced
+     *     with a request in flight
+     */
+    private boolean restoreSpilledRequest(DownloadRequestWrapper requestWrapper) {
+        this.getSchedulingListeners().forEach(l -> l.onRequestRestored(requestWrapper));
+        DownloadRequestWrapper inFlightRequestWrapper = this.registerInFlightRequest(requestWrapper);
+        if (inFlightRequestWrapper == null) {
+            return true;
+        } else {
+            this.getFairQueuingClock().onRequestRemoved(requestWrapper, DownloadEngine.resolveGroupKey(requestWrapper));
+            inFlightRequestWrapper.getResultFuture().whenComplete((result, error) -> {
+                if (error != null) {
+                    requestWrapper.getResultFuture().completeExceptionally(error);
+                } else {
+                    requestWrapper.getResultFuture().complete(result);
+                }
+            });
+            return false;
+        }
+    }
+
+    /**
+     * Keeps the wrapper of a spilled request on the heap, since its result is being observed
+     */
+    void retainSpilledRequest(DownloadRequestWrapper requestWrapper) {
+        synchronized (requestWrapper) {
+            this.getSpilledRequests().retain(requestWrapper);
+        }
+    }
+
+    /**
+     * Submits a new download request into this engine and provides a future through which the
+     * outcome of the download can be observed without registering a {@link DownloadSchedulingListener}.
+     *
+     * @param request
+     *     the request containing all the information from which a download can be constructed.
+     * @return
+     *     a future completing with the {@link DownloadResult} once the transfer has been finished
+     *     successfully. If the engine rejects the request the future is already completed with a
+     *     {@link DownloadRejectedException}. See {@link DownloadRequestWrapper#toCompletableFuture()}
+     *     for all other outcomes.
+     */
+    public CompletableFuture<DownloadResult> submitAsync(DownloadRequest request) {
+        DownloadRequestWrapper requestWrapper = this.submit(request);
+        if (requestWrapper == null) {
+            return CompletableFuture.failedFuture(new DownloadRejectedException("Request rejected: " + request.getTitle()));
+        } else {
+            return requestWrapper.toCompletableFuture();
+        }
+    }
+
+    static void validateRequest(DownloadRequest request) {
         if (request == null) {
             throw new NullPointerException("Parameter 'request' must not be null!");
         } else if (request.getTitle() == null) {
             throw new NullPointerException("Property 'title' of request must not be null!");
         } else if (request.getTaskFactory() == null) {
             throw new NullPointerException("Property 'taskFactory' of request must not be null!");
-        } else {
-            if (!this.fireRequestSubmitted(request)) {
-                return null;
-            } else {
+        }
+    }
 
-                log.info("Request accepted: {}", request);
-                DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
-                requestWrapper.setOwner(this);
-                requestWrapper.setRequest(request);
-                requestWrapper.setScheduledTime(this.getClock().instant());
+    private DownloadRequestWrapper createRequestWrapper(DownloadRequest request) {
+        DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
+        requestWrapper.setOwner(this);
+        requestWrapper.setRequest(request);
+        requestWrapper.setMemoryEstimate(DownloadRequestQueue.estimateMemory(request));
+        return requestWrapper;
+    }
 
-                synchronized (this) {
-                    if (!this.executeRequest(requestWrapper, false)) {
-                        this.getWaitingRequests().add(requestWrapper);
-                        this.getSchedulingListeners().forEach(l -> l.onRequestScheduled(requestWrapper));
-                    }
-                }
-                return requestWrapper;
+    /**
+     * Prepares the wrapper of an accepted request for being put into the waiting queue
+     */
+    private void initializeRequestWrapper(DownloadRequestWrapper requestWrapper, Instant scheduledTime, long sequence) {
+        DownloadRequest request = requestWrapper.getRequest();
+        requestWrapper.setScheduledTime(scheduledTime);
+        requestWrapper.setSequence(sequence);
+        requestWrapper.setPriority(request.getPriority());
+        requestWrapper.setAgedPriority(this.computeAgedPriority(requestWrapper, this.getPriorityAgingInterval()));
+        if (this.isFairQueuing()) {
+            this.getFairQueuingClock().assignTags(requestWrapper, request.getGroupKey(), this.getGroupWeight(request.getGroupKey()));
+        }
+        if (this.isDeadlineScheduling()) {
+            requestWrapper.setDeadline(request.getDeadline());
+        }
+    }
 
+    /**
+     * Registers the wrapper as the one executing the resource described by the {@code id} and
+     * {@code sourceKey} of its request, until its result future has been completed. If another
+     * request for the same resource is already in flight, nothing is registered and the wrapper
+     * of that request is returned instead.
+     */
+    private DownloadRequestWrapper registerInFlightRequest(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
+        List<String> registeredKeys = new ArrayList<>(2);
+        for (String inFlightKey : DownloadEngine.resolveInFlightKeys(request)) {
+            DownloadRequestWrapper inFlightRequestWrapper = this.getInFlightRequests().putIfAbsent(inFlightKey, requestWrapper);
+            if (inFlightRequestWrapper != null) {
+                registeredKeys.forEach(registeredKey -> this.getInFlightRequests().remove(registeredKey, requestWrapper));
+                log.info("Request coalesced with request in flight: {}", request);
+                this.getSchedulingListeners().forEach(l -> l.onRequestCoalesced(request, inFlightRequestWrapper));
+                return inFlightRequestWrapper;
+            } else {
+                registeredKeys.add(inFlightKey);
             }
         }
+        if (!registeredKeys.isEmpty()) {
+            requestWrapper.getResultFuture().whenComplete((result, error) -> registeredKeys.forEach(registeredKey -> this.getInFlightRequests().remove(registeredKey, requestWrapper)));
+        }
+        return null;
+    }
+
+    private static List<String> resolveInFlightKeys(DownloadRequest request) {
+        if (request.getId() == null && request.getSourceKey() == null) {
+            return Collections.emptyList();
+        } else if (request.getSourceKey() == null) {
+            return List.of("id:" + request.getId());
+        } else if (request.getId() == null) {
+            return List.of("source:" + request.getSourceKey());
+        } else {
+            return List.of("id:" + request.getId(), "source:" + request.getSourceKey());
+        }
     }
 
-    private boolean fireRequestSubmitted(DownloadRequest request) {
+    /**
+     * Asks the listeners whether the request may be accepted. A rejected request is no longer in
+     * flight, so whoever has been coalesced with it in the meantime is told about the rejection
+     * through the result future.
+     */
+    private boolean fireRequestSubmitted(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
         for (DownloadSchedulingListener listener : this.getSchedulingListeners()) {
             try {
                 listener.onRequestSubmit(request);
             } catch (DownloadRejectedException e) {
                 log.info("Request rejected by listener {}: (Request: {}, Message: {})", listener.getClass().getSimpleName(), request, e.getMessage());
+                requestWrapper.getResultFuture().completeExceptionally(e);
                 return false;
             }
         }
         return true;
     }
 
-    synchronized boolean executeRequest(DownloadRequestWrapper requestWrapper, boolean ignoreSlots) {
-        if (ignoreSlots || this.getProcessorCount() > this.getActiveOperations().size()) {
-
-            // Make sure we remove the operation from the waiting list, so no matter from where we
-            // come we always leave the waiting queue in a consistent state
-            this.getWaitingRequests().remove(requestWrapper);
-
-            boolean requestAlreadyActive = this.getActiveOperations().stream()
-                .map(operation -> operation.getRequestWrapper())
-                .filter(requestWrapperFromOperation -> Objects.equals(requestWrapperFromOperation, requestWrapper))
-                .findAny()
-                .isPresent();
+    void forceStartRequest(DownloadRequestWrapper requestWrapper) {
+
+        // The slot is taken before the request leaves the queue so that the engine never looks
+        // idle while the request is in transit between the queue and the active operations
+        String host = DownloadEngine.resolveHost(requestWrapper);
+        this.acquireSlots(host, true);
+
+        // Only the thread that actually removes the request from the waiting queue (or the spill
+        // store) is allowed to execute it. If the request isn't waiting anymore it has either been
+        // started already or has been cancelled, so there is nothing left for us to do.
+        boolean requestRemoved = false;
+        boolean requestRestored = false;
+        synchronized (requestWrapper) {
+            requestRemoved = this.getWaitingRequests().remove(requestWrapper);
+            requestRestored = !requestRemoved && this.getSpilledRequests().remove(requestWrapper) && this.restoreSpilledRequest(requestWrapper);
+        }
+        if (requestRemoved || requestRestored) {
+            this.executeRequest(requestWrapper);
+        } else {
+            this.releaseSlots(host);
+            this.getSchedulingVersion().incrementAndGet();
+        }
 
-            if (!requestAlreadyActive) {
+    }
 
-                DownloadOperation operation = new DownloadOperation();
-                operation.setStartTime(this.getClock().instant());
-                operation.setStatus(DownloadOperationStatus.ACTIVE);
-                operation.setOwner(this);
-                operation.setRequestWrapper(requestWrapper);
-                requestWrapper.setOperation(operation);
+    /**
+     * Moves a waiting request to the position matching its new priority. Since the position
+     * inside the queue is derived from the priority, the request is taken out of the queue and
+     * inserted again, both being logarithmic operations. Cancelling and force starting the
+     * request lock the request as well, so that they never miss the request while it is
+     * temporarily outside of the queue.
+     *
+     * The position of a spilled request inside the spill store cannot be changed, so the request
+     * is taken out of the store and put into the waiting queue right away, even if that exceeds
+     * the {@code queueCapacity}.
+     */
+    void updateRequestPriority(DownloadRequestWrapper requestWrapper, int priority) {
+        boolean requestMoved = false;
+        synchronized (requestWrapper) {
+            requestWrapper.getRequest().setPriority(priority);
+            requestMoved = this.getWaitingRequests().remove(requestWrapper);
+            boolean requestRestored = !requestMoved && this.getSpilledRequests().remove(requestWrapper) && this.restoreSpilledRequest(requestWrapper);
+            requestWrapper.setPriority(priority);
+            requestWrapper.setAgedPriority(this.computeAgedPriority(requestWrapper, this.getPriorityAgingInterval()));
+            if (requestRestored) {
+                this.getSchedulingListeners().forEach(l -> l.onRequestScheduled(requestWrapper));
+            }
+            if (requestMoved || requestRestored) {
+                this.getWaitingRequests().add(requestWrapper);
+                requestMoved = true;
+            }
+        }
+        if (requestMoved) {
 
-                this.getActiveOperations().add(operation);
-                this.getExecutorService().submit(() -> this.startOperation(operation));
+            // A processor might have looked for the next request while ours was outside of the
+            // queue, so we have to make sure it isn't left behind
+            this.getSchedulingVersion().incrementAndGet();
+            this.checkWaitingRequests();
 
-            }
-            return true;
+        }
+    }
 
+    /**
+     * Computes the key by which a request is ordered inside the queue. With aging enabled the
+     * effective priority of a request at the time {@code now} is
+     * {@code priority + (now - scheduledTime) / priorityAgingInterval}. Since {@code now} is the
+     * same for all requests it doesn't affect their relative order, so the key can be computed
+     * once as {@code priority - scheduledTime / priorityAgingInterval} and the queue never has to
+     * be reordered while time passes.
+     *
+     * The scheduled time is rounded down to whole intervals, so all requests with the same
+     * priority scheduled within the same interval share the same key and are ordered by their
+     * deadline and their fair queuing tag like they are without aging.
+     */
+    private long computeAgedPriority(DownloadRequestWrapper requestWrapper, Duration priorityAgingInterval) {
+        if (priorityAgingInterval == null || requestWrapper.getScheduledTime() == null) {
+            return requestWrapper.getPriority();
         } else {
-            return false;
+            return requestWrapper.getPriority() - Math.floorDiv(requestWrapper.getScheduledTime().toEpochMilli(), priorityAgingInterval.toMillis());
         }
     }
 
-    private void startOperation(DownloadOperation operation) {
-        try {
-
-            log.debug("Starting operation: {}", operation);
-            this.getSchedulingListeners().forEach(l -> l.onOperationStarting(operation));
-            this.startOperationExtractData(operation);
+    /**
+     * Creates the operation for a request and hands it over to a processor thread. The caller
+     * must already have acquired the processor slots for the request.
+     */
+    private void executeRequest(DownloadRequestWrapper requestWrapper) {
+
+        DownloadOperation operation = new DownloadOperation();
+        operation.setStartTime(this.getClock().instant());
+        operation.setStatus(DownloadOperationStatus.ACTIVE);
+        operation.setOwner(this);
+        operation.setRequestWrapper(requestWrapper);
+        requestWrapper.setOperation(operation);
+        if (requestWrapper.getScheduledTime() != null) {
+            long queueWaitMillis = Duration.between(requestWrapper.getScheduledTime(), operation.getStartTime()).toMillis();
+            this.getMaximumQueueWaitMillis().accumulateAndGet(queueWaitMillis, Math::max);
+        }
+        this.getFairQueuingClock().onRequestStarted(requestWrapper, DownloadEngine.resolveGroupKey(requestWrapper));
 
+        this.getActiveOperations().add(operation);
+        try {
+            this.getExecutorService().execute(() -> this.startOperation(operation));
+        } catch (RejectedExecutionException e) {
             operation.setEndTime(this.getClock().instant());
+            operation.setError(e);
             operation.setStatus(DownloadOperationStatus.COMPLETED);
-            log.info("Operation completed: {} in {}", operation, Duration.between(operation.getStartTime(), operation.getEndTime()));
+            log.warn("Operation rejected by executor: {}", operation, e);
+            this.completeOperation(operation);
+        }
 
-        } catch (Exception e) {
+    }
 
-            operation.setEndTime(this.getClock().instant());
-            operation.setError(e);
-            operation.setStatus(DownloadOperationStatus.COMPLETED);
-            log.info("Exception occured during operation execution: " + operation, e);
+    private boolean acquireSlots(String host, boolean ignoreSlots) {
+        if (!this.acquireSlot(ignoreSlots)) {
+            return false;
+        } else if (!this.acquireHostSlot(host, ignoreSlots)) {
+            this.releaseSlot();
+            return false;
+        } else {
+            return true;
+        }
+    }
 
-        } finally {
-            try {
-                synchronized (this) {
+    private void releaseSlots(String host) {
+        this.releaseHostSlot(host);
+        this.releaseSlot();
+    }
 
-                    // Make sure the operation is removed from the list of currently active operations
-                    this.getActiveOperations().remove(operation);
+    private boolean acquireSlot(boolean ignoreSlots) {
+        return DownloadEngine.acquireSlot(this.getActiveSlotCount(), ignoreSlots ? 0 : this.getProcessorCount());
+    }
 
-                    // After the current processor is finished we want to make sure that the next
-                    // item in the queue get's picked up
-                    this.checkWaitingRequests();
+    private void releaseSlot() {
+        this.getActiveSlotCount().decrementAndGet();
+    }
 
-                }
-            } finally {
-                this.getSchedulingListeners().forEach(l -> l.onOperationCompleted(operation));
-            }
+    private boolean acquireHostSlot(String host, boolean ignoreSlots) {
+        if (host == null) {
+            return true;
+        } else {
+            AtomicInteger activeHostSlotCount = this.getActiveHostSlotCounts().computeIfAbsent(host, key -> new AtomicInteger());
+            return DownloadEngine.acquireSlot(activeHostSlotCount, ignoreSlots ? 0 : this.getProcessorCountForHost(host));
         }
+    }
 
+    private boolean isHostSlotAvailable(String host) {
+        if (host == null) {
+            return true;
+        } else {
+            int maxHostSlotCount = this.getProcessorCountForHost(host);
+            AtomicInteger activeHostSlotCount = this.getActiveHostSlotCounts().get(host);
+            return maxHostSlotCount <= 0 || activeHostSlotCount == null || activeHostSlotCount.get() < maxHostSlotCount;
+        }
     }
 
-    private void startOperationExtractData(DownloadOperation operation) throws Exception {
+    private void releaseHostSlot(String host) {
+        if (host != null) {
+            this.getActiveHostSlotCounts().get(host).decrementAndGet();
+        }
+    }
 
-        ProgressListener progressListener = ProgressListener.compose(operation.getProgressListeners());
-        DownloadRequest request = operation.getRequestWrapper().getRequest();
-        DownloadTask task = request.getTaskFactory().createTask(progressListener);
-        Path targetPath = this.computeTargetPath(task.getTargetFileName());
-        this.getSchedulingListeners().forEach(l -> l.onOperationTransferStarting(task, targetPath, operation));
+    private static boolean acquireSlot(AtomicInteger slotCount, int maxSlotCount) {
+        while (true) {
+            int currentSlotCount = slotCount.get();
+            if (maxSlotCount > 0 && currentSlotCount >= maxSlotCount) {
+                return false;
+            } else if (slotCount.compareAndSet(currentSlotCount, currentSlotCount + 1)) {
+                return true;
+            }
+        }
+    }
 
-        if (DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
-            try {
+    private static String resolveHost(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
+        return request == null ? null : request.getHost();
+    }
 
-                try (OutputStream targetStream = Files.newOutputStream(targetPath, Files.exists(targetPath) ? StandardOpenOption.WRITE : StandardOpenOption.CREATE)) {
-                    task.getDataExtractor().extractData(targetStream, progressListener, operation::getStatus);
-                    targetStream.flush();
-                }
+    private static String resolveGroupKey(DownloadRequestWrapper requestWrapper) {
+        DownloadRequest request = requestWrapper.getRequest();
+        return request == null ? null : request.getGroupKey();
+    }
 
-                List<DownloadPostProcessor> postProcessors = request.getPostProcessors();
-                if (postProcessors != null && !postProcessors.isEmpty()) {
-                    for (DownloadPostProcessor postProcessor : postProcessors) {
-                        postProcessor.afterDownloadCompleted(targetPath, progressListener);
-                    }
-                }
+    private void startOperation(DownloadOperation operation) {
+        boolean operationAnnounced = false;
+        boolean operationHandedOver = false;
+        boolean operationParked = false;
+        try {
 
-            } catch (Exception e) {
-                operation.setError(e);
-                log.warn("Error occured during data extraction [" + operation + "]", e);
+            ProgressListener progressListener = ProgressListener.compose(operation.getProgressListeners());
+            DownloadTask task = this.resolveTask(operation.getRequestWrapper(), progressListener);
+            Path targetPath = this.computeTargetPath(task.getTargetFileName());
+            operation.setTargetFile(targetPath);
+
+            // The storage lane is only known once the task has been resolved. A request that
+            // cannot enter its lane is put back into the queue before the operation is announced,
+            // so that the listeners never see an operation that isn't actually executed.
+            DownloadStorageLane storageLane = this.resolveStorageLane(targetPath);
+            boolean storageLaneAcquired = storageLane != null && storageLane.tryAcquire(this.getWriterCountForStore(storageLane.getFileStore()));
+            operationParked = storageLane != null && !storageLaneAcquired && this.parkRequest(operation, task, storageLane);
+            if (!operationParked) {
+
+                log.debug("Starting operation: {}", operation);
+                operationAnnounced = true;
+                this.getSchedulingListeners().forEach(l -> l.onOperationStarting(operation));
                 try {
-                    Files.deleteIfExists(targetPath);
-                } catch (Exception e2) {
-                    log.debug("Cannot delete target file (after error during transfer) at: " + targetPath, e2);
+                    operationHandedOver = this.startOperationTransferData(operation, task, targetPath, storageLaneAcquired ? storageLane : null, progressListener);
+                } finally {
+                    if (storageLaneAcquired) {
+                        this.releaseStorageLane(storageLane);
+                    }
                 }
-                throw e;
+                if (!operationHandedOver) {
+                    this.finishOperation(operation, null);
+                }
+
+            }
+
+        } catch (Exception e) {
+            if (!operationAnnounced) {
+                this.getSchedulingListeners().forEach(l -> l.onOperationStarting(operation));
+            }
+            this.finishOperation(operation, e);
+        } finally {
+            if (!operationHandedOver && !operationParked) {
+                this.completeOperation(operation);
+            }
+        }
+
+    }
+
+    private void finishOperation(DownloadOperation operation, Exception error) {
+        operation.setEndTime(this.getClock().instant());
+        synchronized (operation) {
+
+            // A suspended operation hasn't transferred all of its data, so it must never look
+            // like a completed one to the listeners
+            if (!DownloadOperationStatus.SUSPENDED.equals(operation.getStatus())) {
+                operation.setStatus(DownloadOperationStatus.COMPLETED);
+            }
+
+        }
+        if (error == null && operation.getSuspendTime() != null) {
+            log.info("Operation suspended: {} after {}", operation, Duration.between(operation.getStartTime(), operation.getEndTime()));
+        } else if (error == null) {
+            log.info("Operation completed: {} in {}", operation, Duration.between(operation.getStartTime(), operation.getEndTime()));
+        } else {
+            operation.setError(error);
+            log.info("Exception occured during operation execution: " + operation, error);
+        }
+    }
+
+    private void completeOperation(DownloadOperation operation) {
+        this.getCompletingOperationCount().incrementAndGet();
+        try {
+
+            // Make sure the operation is removed from the list of currently active operations
+            this.getActiveOperations().remove(operation);
+
+            // A request that is going to be retried is put back into the queue before its slot is
+            // released, so that the engine never looks idle while the request is in between
+            Instant retryTime = this.computeRetryTime(operation);
+            if (retryTime != null) {
+                this.scheduleRetry(operation, retryTime);
+            }
+
+            if (!operation.isSlotsReleased()) {
+                this.releaseSlots(DownloadEngine.resolveHost(operation.getRequestWrapper()));
+            }
+            this.getSchedulingVersion().incrementAndGet();
+
+            // After the current processor is finished we want to make sure that the next
+            // item in the queue get's picked up
+            this.checkWaitingRequests();
+
+        } finally {
+            try {
+                this.getSchedulingListeners().forEach(l -> l.onOperationCompleted(operation));
+                this.completeResultFuture(operation);
             } finally {
-                this.getSchedulingListeners().forEach(l -> l.onOperationTransferCompleted(task, targetPath, operation));
+
+                // The engine is only considered to be idle once the listeners of all completed
+                // operations have been informed, so that whoever waits for the engine to become
+                // idle will see everything the listeners have done
+                this.getCompletingOperationCount().decrementAndGet();
+
+                // If nobody is supposed to add new requests and we just completed the last one
+                // there is no more need for any processor thread
+                if (this.isShutdown() && !this.isBusy()) {
+                    this.getExecutorService().shutdown();
+                    this.getTimerScheduler().shutdown();
+                    this.getPostProcessingExecutor().shutdown();
+                    this.getDiscoveryExecutor().shutdown();
+                }
+                this.checkIdle();
+
+            }
+        }
+    }
+
+    /**
+     * Hands the outcome of an operation to the future of its request. The future is completed
+     * after the listeners have been informed, so that whatever is chained onto it will see any
+     * changes the listeners have made (like moving the target file).
+     */
+    private void completeResultFuture(DownloadOperation operation) {
+        DownloadRequestWrapper requestWrapper = operation.getRequestWrapper();
+        if (requestWrapper != null && requestWrapper.getResultFuture() != null && operation.getRetryTime() == null) {
+            if (operation.getCancelTime() != null) {
+                requestWrapper.getResultFuture().completeExceptionally(new CancellationException(operation.getCancelReason()));
+            } else if (operation.getSuspendTime() != null && operation.getError() == null) {
+                requestWrapper.getResultFuture().completeExceptionally(new CancellationException("Engine closed"));
+            } else if (operation.getError() != null) {
+                requestWrapper.getResultFuture().completeExceptionally(operation.getError());
+            } else {
+                DownloadResult result = new DownloadResult();
+                result.setRequestWrapper(requestWrapper);
+                result.setTargetFile(operation.getTargetFile());
+                result.setStartTime(operation.getStartTime());
+                result.setEndTime(operation.getEndTime());
+                requestWrapper.getResultFuture().complete(result);
+            }
+        }
+    }
+
+    private Instant computeRetryTime(DownloadOperation operation) {
+        DownloadRequestWrapper requestWrapper = operation.getRequestWrapper();
+        DownloadRequest request = requestWrapper == null ? null : requestWrapper.getRequest();
+        if (request == null || operation.getError() == null || operation.getCancelTime() != null || operation.getSuspendTime() != null || operation.getError() instanceof RejectedExecutionException) {
+            return null;
+        } else {
+            DownloadRetryPolicy retryPolicy = request.getRetryPolicy() == null ? this.getRetryPolicy() : request.getRetryPolicy();
+            if (!retryPolicy.isRetryable(operation.getError(), requestWrapper.getAttempt())) {
+                return null;
+            } else {
+                return this.getClock().instant().plus(retryPolicy.computeDelay(requestWrapper.getAttempt()));
+            }
+        }
+    }
+
+    /**
+     * Puts the request of a failed operation back into the waiting queue, where it will not be
+     * picked up before the retry time has been reached. Waiting for the retry time doesn't occupy
+     * a processor slot, so that other requests can be executed in the meantime.
+     */
+    private void scheduleRetry(DownloadOperation operation, Instant retryTime) {
+        DownloadRequestWrapper requestWrapper = operation.getRequestWrapper();
+        log.info("Scheduling attempt {} for request at {}: {}", requestWrapper.getAttempt() + 1, retryTime, requestWrapper.getRequest());
+        operation.setRetryTime(retryTime);
+        requestWrapper.setAttempt(requestWrapper.getAttempt() + 1);
+        requestWrapper.setNotBeforeTime(retryTime);
+        this.getSchedulingListeners().forEach(l -> l.onRequestScheduled(requestWrapper));
+        this.getWaitingRequests().add(requestWrapper);
+        this.scheduleRetryCheck(requestWrapper);
+        this.scheduleDeadlineCheck(requestWrapper);
+    }
+
+    private void scheduleRetryCheck(DownloadRequestWrapper requestWrapper) {
+        Duration delay = Duration.between(this.getClock().instant(), requestWrapper.getNotBeforeTime());
+        try {
+            this.getTimerScheduler().schedule(() -> {
+                if (this.getWaitingRequests().contains(requestWrapper) && this.getClock().instant().isBefore(requestWrapper.getNotBeforeTime())) {
+                    this.scheduleRetryCheck(requestWrapper);
+                } else {
+                    this.getWaitingRequests().releaseDelayedRequest(requestWrapper);
+                    this.getSchedulingVersion().incrementAndGet();
+                    this.checkWaitingRequests();
+                }
+            }, Math.max(1, delay.toMillis()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Cannot schedule retry check for request: {}", requestWrapper, e);
+            this.getWaitingRequests().releaseDelayedRequest(requestWrapper);
+        }
+    }
+
+    /**
+     * Makes sure the request is moved to the front of the queue once its deadline is at risk. The
+     * check is repeated until that point in time has been reached, since the prediction changes
+     * with the throughput observed in the meantime.
+     */
+    private void scheduleDeadlineCheck(DownloadRequestWrapper requestWrapper) {
+        if (requestWrapper.getDeadline() != null && !requestWrapper.isDeadlinePromoted()) {
+            Duration delay = Duration.between(this.getClock().instant(), this.computeDeadlineRiskTime(requestWrapper));
+            try {
+                this.getTimerScheduler().schedule(() -> {
+                    if (this.getWaitingRequests().contains(requestWrapper)) {
+                        if (this.getClock().instant().isBefore(this.computeDeadlineRiskTime(requestWrapper))) {
+                            this.scheduleDeadlineCheck(requestWrapper);
+                        } else {
+                            this.promoteRequest(requestWrapper);
+                        }
+                    }
+                }, Math.max(1, delay.toMillis()), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Cannot schedule deadline check for request: {}", requestWrapper, e);
+            }
+        }
+    }
+
+    /**
+     * Computes the point in time from which on the deadline of a request is considered to be at
+     * risk: the deadline minus the predicted transfer time minus the configured lead time.
+     */
+    private Instant computeDeadlineRiskTime(DownloadRequestWrapper requestWrapper) {
+        Duration transferTime = this.getThroughputEstimator().estimateTransferTime(requestWrapper.getRequest().getEstimatedSize());
+        return requestWrapper.getDeadline().minus(transferTime).minus(this.getDeadlineLeadTime());
+    }
+
+    private void promoteRequest(DownloadRequestWrapper requestWrapper) {
+        boolean requestMoved = false;
+        synchronized (requestWrapper) {
+            requestMoved = this.getWaitingRequests().remove(requestWrapper);
+            requestWrapper.setDeadlinePromoted(true);
+            if (requestMoved) {
+                this.getWaitingRequests().add(requestWrapper);
             }
+        }
+        if (requestMoved) {
+            log.info("Deadline {} at risk, moving request to front of queue: {}", requestWrapper.getDeadline(), requestWrapper.getRequest());
+            this.getSchedulingListeners().forEach(l -> l.onRequestDeadlineAtRisk(requestWrapper));
+            this.getSchedulingVersion().incrementAndGet();
+            this.checkWaitingRequests();
+        }
+    }
 
-            if (!DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
+    /**
+     * Transfers the data of an operation into its target file
+     *
+     * @return
+     *     {@code true} if the operation has been handed over to the post-processing pool, which
+     *     will complete the operation afterwards, {@code false} if the operation is done
+     */
+    private boolean startOperationTransferData(DownloadOperation operation, DownloadTask task, Path targetPath, DownloadStorageLane storageLane, ProgressListener progressListener) throws Exception {
+
+        DownloadRequest request = operation.getRequestWrapper().getRequest();
+        this.getSchedulingListeners().forEach(l -> l.onOperationTransferStarting(task, targetPath, operation));
+
+        boolean operationHandedOver = false;
+        if (DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
+            Path resumeStatePath = DownloadResumeState.resolveStatePath(targetPath);
+            try {
+
+                // The target file of a request that is going to be post-processed might be changed
+                // in place, so it must never share its data with any other file
+                List<DownloadPostProcessor> postProcessors = request.getPostProcessors();
+                boolean linkAllowed = postProcessors == null || postProcessors.isEmpty();
+                if (this.restoreContent(operation, targetPath, linkAllowed, progressListener)) {
+                    Files.deleteIfExists(resumeStatePath);
+                } else {
+                    DownloadResumableDataExtractor resumableDataExtractor = task.getDataExtractor() instanceof DownloadResumableDataExtractor r ? r : null;
+                    long resumeOffset = this.computeResumeOffset(resumableDataExtractor, targetPath, resumeStatePath);
+                    List<FileChannelOutputStream> fileStreams = new CopyOnWriteArrayList<>();
+                    try {
+                        Instant transferStartTime = this.getClock().instant();
+                        MessageDigest contentDigest = this.transferData(task.getDataExtractor(), resumeOffset, targetPath, fileStreams, this.createTokenBuckets(request), storageLane, progressListener, operation);
+                        if (DownloadOperationStatus.SUSPENDED.equals(operation.getStatus())) {
+                            this.writeResumeState(resumableDataExtractor, this.computeContiguousPosition(resumeOffset, fileStreams), resumeStatePath);
+                            this.deleteSuspendedTargetFile(targetPath, resumeStatePath);
+                        } else {
+                            this.getThroughputEstimator().addSample(Files.size(targetPath) - resumeOffset, Duration.between(transferStartTime, this.getClock().instant()));
+                            Files.deleteIfExists(resumeStatePath);
+                            if (DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
+                                this.storeContent(operation, targetPath, contentDigest, linkAllowed);
+                            }
+                        }
+                    } catch (Exception e) {
+                        this.writeResumeState(resumableDataExtractor, this.computeContiguousPosition(resumeOffset, fileStreams), resumeStatePath);
+                        throw e;
+                    }
+                }
+
+                if (!linkAllowed && this.enterPostProcessing(operation)) {
+                    operationHandedOver = this.handOverPostProcessing(operation, task, postProcessors, progressListener);
+                    if (!operationHandedOver) {
+                        this.runPostProcessors(operation, postProcessors, progressListener);
+                    }
+                }
+
+            } catch (Exception e) {
+                operation.setError(e);
+                log.warn("Error occured during data extraction [" + operation + "]", e);
+                if (Files.exists(resumeStatePath)) {
+                    log.debug("Keeping partial target file for resuming the transfer later at: {}", targetPath);
+                } else {
+                    try {
+                        Files.deleteIfExists(targetPath);
+                    } catch (Exception e2) {
+                        log.debug("Cannot delete target file (after error during transfer) at: " + targetPath, e2);
+                    }
+                }
+                throw e;
+            } finally {
+                if (!operationHandedOver) {
+                    this.getSchedulingListeners().forEach(l -> l.onOperationTransferCompleted(task, targetPath, operation));
+                }
+            }
+
+            if (!operationHandedOver && DownloadOperationStatus.CANCELLED.equals(operation.getStatus())) {
+                this.deleteCancelledTargetFile(targetPath);
+            }
+
+        }
+        return operationHandedOver;
+
+    }
+
+    /**
+     * Creates the target file from the {@link DownloadContentStore} if the request knows the hash
+     * of its content in advance and the content has been downloaded before. If the store cannot
+     * provide the content the data will be transferred as usual.
+     */
+    private boolean restoreContent(DownloadOperation operation, Path targetPath, boolean linkAllowed, ProgressListener progressListener) {
+        DownloadContentStore contentStore = this.getContentStore();
+        String contentHash = operation.getRequestWrapper().getRequest().getContentHash();
+        if (contentStore != null && contentHash != null) {
+            try {
+                if (contentStore.restore(contentHash, targetPath, linkAllowed)) {
+                    log.info("Content {} available within content store, skipping transfer into: {}", contentHash, targetPath);
+                    operation.setContentHash(contentHash.toLowerCase(Locale.ROOT));
+                    long targetSize = Files.size(targetPath);
+                    progressListener.onProgress(null, targetSize, targetSize);
+                    return true;
+                }
+            } catch (Exception e) {
+                log.warn("Cannot restore content " + contentHash + " from content store into: " + targetPath, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the content of a completed transfer within the {@link DownloadContentStore}. If the
+     * content has been downloaded before, the target file will share its data with the previous
+     * download. Since the target file itself is complete, any problem with the store is only
+     * logged but doesn't fail the operation.
+     */
+    private void storeContent(DownloadOperation operation, Path targetPath, MessageDigest contentDigest, boolean linkAllowed) {
+        DownloadContentStore contentStore = this.getContentStore();
+        if (contentStore != null) {
+            try {
+                String contentHash = contentDigest == null ? contentStore.computeHash(targetPath) : contentStore.formatHash(contentDigest);
+                String expectedContentHash = operation.getRequestWrapper().getRequest().getContentHash();
+                if (expectedContentHash != null && !expectedContentHash.equalsIgnoreCase(contentHash)) {
+                    log.warn("Content hash {} of target file {} doesn't match content hash {} of request", contentHash, targetPath, expectedContentHash);
+                }
+                operation.setContentHash(contentHash);
+                if (contentStore.store(contentHash, targetPath, linkAllowed)) {
+                    log.info("Target file shares content {} with previous download: {}", contentHash, targetPath);
+                }
+            } catch (Exception e) {
+                log.warn("Cannot record content of target file within content store: " + targetPath, e);
+            }
+        }
+    }
+
+    /**
+     * Removes the target file of a suspended operation unless a resume state has been written for
+     * it, since without one the transfer will start from the beginning anyway
+     */
+    private void deleteSuspendedTargetFile(Path targetPath, Path resumeStatePath) {
+        if (Files.exists(resumeStatePath)) {
+            log.debug("Keeping partial target file of suspended operation at: {}", targetPath);
+        } else {
+            try {
+                Files.deleteIfExists(targetPath);
+            } catch (Exception e) {
+                log.debug("Cannot delete target file (after suspend) at: " + targetPath, e);
+            }
+        }
+    }
+
+    private void deleteCancelledTargetFile(Path targetPath) {
+        try {
+            Files.deleteIfExists(targetPath);
+            Files.deleteIfExists(DownloadResumeState.resolveStatePath(targetPath));
+        } catch (Exception e) {
+            log.debug("Cannot delete target file (after cancel) at: " + targetPath, e);
+        }
+    }
+
+    /**
+     * Marks the operation as being post-processed, unless it has been cancelled during the
+     * transfer
+     */
+    private boolean enterPostProcessing(DownloadOperation operation) {
+        synchronized (operation) {
+            if (DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
+                operation.setStatus(DownloadOperationStatus.POST_PROCESSING);
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Hands the post-processing of an operation over to the post-processing pool and releases
+     * the processor slot of the operation, so that the next transfer can be started while the
+     * post-processors are running. If the queue of the pool is full the post-processing is
+     * performed by the processor thread itself while keeping the slot, so that the transfers
+     * slow down to the rate at which the post-processors are able to keep up.
+     *
+     * @return
+     *     {@code true} if the post-processing pool took over the operation, {@code false} if the
+     *     caller has to run the post-processors itself
+     */
+    private boolean handOverPostProcessing(DownloadOperation operation, DownloadTask task, List<DownloadPostProcessor> postProcessors, ProgressListener progressListener) {
+        if (this.getPostProcessingExecutor().getQueue().size() >= this.getPostProcessingQueueCapacity()) {
+            log.debug("Post-processing queue is full, running post-processors on processor thread for operation: {}", operation);
+            return false;
+        } else {
+            operation.setSlotsReleased(true);
+            this.releaseSlots(DownloadEngine.resolveHost(operation.getRequestWrapper()));
+            this.getSchedulingVersion().incrementAndGet();
+            this.checkWaitingRequests();
+            Runnable postProcessingRunnable = () -> this.startOperationPostProcessing(operation, task, postProcessors, progressListener);
+            try {
+                this.getPostProcessingExecutor().execute(postProcessingRunnable);
+            } catch (RejectedExecutionException e) {
+                log.debug("Post-processing rejected by pool, running post-processors on processor thread for operation: {}", operation);
+                postProcessingRunnable.run();
+            }
+            return true;
+        }
+    }
+
+    private void startOperationPostProcessing(DownloadOperation operation, DownloadTask task, List<DownloadPostProcessor> postProcessors, ProgressListener progressListener) {
+        Path targetPath = operation.getTargetFile();
+        try {
+
+            try {
+                this.runPostProcessors(operation, postProcessors, progressListener);
+            } catch (Exception e) {
+                log.warn("Error occured during post-processing [" + operation + "]", e);
                 try {
                     Files.deleteIfExists(targetPath);
-                } catch (Exception e) {
-                    log.debug("Cannot delete target file (after cancel) at: " + targetPath, e);
+                } catch (Exception e2) {
+                    log.debug("Cannot delete target file (after error during post-processing) at: " + targetPath, e2);
+                }
+                throw e;
+            } finally {
+                this.getSchedulingListeners().forEach(l -> l.onOperationTransferCompleted(task, targetPath, operation));
+            }
+
+            if (DownloadOperationStatus.CANCELLED.equals(operation.getStatus())) {
+                this.deleteCancelledTargetFile(targetPath);
+            }
+            this.finishOperation(operation, null);
+
+        } catch (Exception e) {
+            this.finishOperation(operation, e);
+        } finally {
+            this.completeOperation(operation);
+        }
+    }
+
+    private void runPostProcessors(DownloadOperation operation, List<DownloadPostProcessor> postProcessors, ProgressListener progressListener) throws Exception {
+        for (DownloadPostProcessor postProcessor : postProcessors) {
+            if (DownloadOperationStatus.POST_PROCESSING.equals(operation.getStatus())) {
+                postProcessor.afterDownloadCompleted(operation.getTargetFile(), progressListener);
+            }
+        }
+    }
+
+    /**
+     * Transfers the data into the target file. If a {@link DownloadContentStore} has been
+     * configured and the data is written from the beginning to the end in a single stream, its
+     * hash is computed along the way.
+     *
+     * @return
+     *     the digest fed with the complete content of the target file, or {@code null} if the hash
+     *     hasn't been computed while transferring the data
+     */
+    private MessageDigest transferData(DownloadDataExtractor dataExtractor, long offset, Path targetPath, List<FileChannelOutputStream> fileStreams, List<TokenBucket> tokenBuckets, DownloadStorageLane storageLane, ProgressListener progressListener, DownloadOperation operation) throws Exception {
+        MessageDigest contentDigest = null;
+        try (FileChannel fileChannel = FileChannel.open(targetPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            fileChannel.truncate(offset);
+            if (dataExtractor instanceof DownloadSegmentedDataExtractor segmentedDataExtractor) {
+                DownloadSegmentTarget segmentTarget = position -> {
+                    FileChannelOutputStream fileStream = new FileChannelOutputStream(fileChannel, position);
+                    fileStreams.add(fileStream);
+                    return new TokenBucketOutputStream(DownloadEngine.recordWriteLatency(fileStream, storageLane), tokenBuckets);
+                };
+                segmentedDataExtractor.extractData(segmentTarget, offset, progressListener, operation::getStatus);
+            } else {
+                contentDigest = offset == 0 && this.getContentStore() != null ? this.getContentStore().createDigest() : null;
+                FileChannelOutputStream fileStream = new FileChannelOutputStream(fileChannel, offset);
+                fileStreams.add(fileStream);
+                try (OutputStream targetStream = DownloadEngine.recordDigest(new TokenBucketOutputStream(DownloadEngine.recordWriteLatency(fileStream, storageLane), tokenBuckets), contentDigest)) {
+                    if (offset > 0) {
+                        ((DownloadResumableDataExtractor)dataExtractor).extractData(targetStream, offset, progressListener, operation::getStatus);
+                    } else {
+                        dataExtractor.extractData(targetStream, progressListener, operation::getStatus);
+                    }
+                }
+            }
+
+            // The data of a suspended operation has to survive the process being stopped right
+            // after the engine has been closed, so it is forced to disk before the resume state
+            // pointing to it is written
+            if (DownloadOperationStatus.SUSPENDED.equals(operation.getStatus())) {
+                fileChannel.force(false);
+            }
+
+        }
+        return contentDigest;
+    }
+
+    private static OutputStream recordDigest(OutputStream targetStream, MessageDigest contentDigest) {
+        return contentDigest == null ? targetStream : new DigestOutputStream(targetStream, contentDigest);
+    }
+
+    private static OutputStream recordWriteLatency(OutputStream fileStream, DownloadStorageLane storageLane) {
+        return storageLane == null ? fileStream : new LatencyRecordingOutputStream(fileStream, storageLane::recordWriteLatency);
+    }
+
+    /**
+     * Determines the lane of the store into which the target file will be written
+     *
+     * @return
+     *     the lane or {@code null} if the store cannot be determined
+     */
+    private DownloadStorageLane resolveStorageLane(Path targetPath) {
+        try {
+            return this.getStorageLanes().computeIfAbsent(Files.getFileStore(targetPath.getParent()), DownloadStorageLane::new);
+        } catch (Exception e) {
+            log.debug("Cannot determine file store for target file: {}", targetPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters a writer from the lane and hands the request that has been parked for the
+     * longest time back to the queue, so that it can try to enter the lane again
+     */
+    private void releaseStorageLane(DownloadStorageLane storageLane) {
+        storageLane.release();
+        for (DownloadRequestWrapper parkedRequest = storageLane.pollParkedRequest(); parkedRequest != null; parkedRequest = storageLane.pollParkedRequest()) {
+            if (this.unparkRequest(parkedRequest)) {
+                this.checkWaitingRequests();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts the request of an operation that couldn't enter its storage lane back into the queue.
+     * The operation hasn't been announced to the listeners yet, so it is simply discarded and the
+     * request is kept in the queue like a request waiting for a retry (without counting as another
+     * attempt): it doesn't occupy a processor slot or a thread while waiting and isn't picked up
+     * again until a writer has left the lane.
+     *
+     * @return
+     *     {@code true} if the request has been parked, {@code false} if the operation has been
+     *     cancelled or suspended in the meantime and has to be completed instead
+     */
+    private boolean parkRequest(DownloadOperation operation, DownloadTask task, DownloadStorageLane storageLane) {
+        DownloadRequestWrapper requestWrapper = operation.getRequestWrapper();
+        synchronized (requestWrapper) {
+            synchronized (operation) {
+                if (!DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
+                    return false;
+                } else {
+                    log.debug("Storage lane saturated, parking request until file store becomes available: {}", storageLane.getFileStore());
+                    this.getActiveOperations().remove(operation);
+                    this.keepResolvedTask(requestWrapper, task);
+                    requestWrapper.setOperation(null);
+                    requestWrapper.setNotBeforeTime(this.getClock().instant());
+                    this.getWaitingRequests().add(requestWrapper);
+                }
+            }
+        }
+        if (!storageLane.park(requestWrapper, this.getWriterCountForStore(storageLane.getFileStore()))) {
+            this.unparkRequest(requestWrapper);
+        }
+        this.releaseSlots(DownloadEngine.resolveHost(requestWrapper));
+        this.getSchedulingVersion().incrementAndGet();
+        this.checkWaitingRequests();
+        this.scheduleDeadlineCheck(requestWrapper);
+        return true;
+    }
+
+    /**
+     * Allows a parked request to be picked up again
+     *
+     * @return
+     *     {@code true} if the request is still waiting, {@code false} if it has been removed from
+     *     the queue in the meantime
+     */
+    private boolean unparkRequest(DownloadRequestWrapper requestWrapper) {
+        if (!this.getWaitingRequests().contains(requestWrapper)) {
+            return false;
+        } else {
+            this.getWaitingRequests().releaseDelayedRequest(requestWrapper);
+            this.getSchedulingVersion().incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Keeps the task of a request that is put back into the queue, so that it doesn't have to be
+     * created again once the request is picked up
+     */
+    private void keepResolvedTask(DownloadRequestWrapper requestWrapper, DownloadTask task) {
+        synchronized (requestWrapper) {
+            requestWrapper.setDiscoveredTask(CompletableFuture.completedFuture(task));
+            requestWrapper.setDiscoveryTime(this.getClock().instant());
+        }
+    }
+
+    /**
+     * Checks whether a previous attempt has left a partial target file that can be continued. This
+     * is only the case if the remote resource still reports the validator recorded when the
+     * previous attempt failed - otherwise the transfer has to start from the beginning.
+     */
+    private long computeResumeOffset(DownloadResumableDataExtractor resumableDataExtractor, Path targetPath, Path resumeStatePath) throws Exception {
+        if (resumableDataExtractor != null && Files.exists(resumeStatePath)) {
+            DownloadResumeState resumeState = null;
+            try {
+                resumeState = DownloadResumeState.read(resumeStatePath);
+            } catch (Exception e) {
+                log.debug("Cannot read resume state at: " + resumeStatePath, e);
+            }
+            if (resumeState != null && Files.exists(targetPath) && Files.size(targetPath) >= resumeState.getOffset()) {
+                String currentValidator = resumableDataExtractor.resolveResumeValidator();
+                if (resumeState.getValidator().equals(currentValidator)) {
+                    log.debug("Resuming transfer at offset {} into target file: {}", resumeState.getOffset(), targetPath);
+                    return resumeState.getOffset();
+                } else {
+                    log.debug("Remote resource has been modified since last attempt, restarting transfer into target file: {}", targetPath);
                 }
             }
+        }
+        Files.deleteIfExists(resumeStatePath);
+        return 0;
+    }
 
+    /**
+     * Computes the position up to which the target file has been written without any gaps. For a
+     * segmented transfer the content after the first gap is discarded and transferred again.
+     */
+    private long computeContiguousPosition(long offset, List<FileChannelOutputStream> fileStreams) {
+        long contiguousPosition = offset;
+        List<FileChannelOutputStream> sortedFileStreams = new ArrayList<>(fileStreams);
+        sortedFileStreams.sort(Comparator.comparingLong(FileChannelOutputStream::getStartPosition));
+        for (FileChannelOutputStream fileStream : sortedFileStreams) {
+            if (fileStream.getStartPosition() <= contiguousPosition) {
+                contiguousPosition = Math.max(contiguousPosition, fileStream.getPosition());
+            }
         }
+        return contiguousPosition;
+    }
 
+    private void writeResumeState(DownloadResumableDataExtractor resumableDataExtractor, long offset, Path resumeStatePath) {
+        try {
+            String validator = resumableDataExtractor == null || offset <= 0 ? null : resumableDataExtractor.resolveResumeValidator();
+            if (validator != null) {
+                new DownloadResumeState(validator, offset).write(resumeStatePath);
+            } else {
+                Files.deleteIfExists(resumeStatePath);
+            }
+        } catch (Exception e) {
+            log.debug("Cannot write resume state at: " + resumeStatePath, e);
+        }
+    }
+
+    private List<TokenBucket> createTokenBuckets(DownloadRequest request) {
+        if (request.getBandwidthLimit() > 0) {
+            return List.of(new TokenBucket(request.getBandwidthLimit()), this.getBandwidthTokenBucket());
+        } else {
+            return List.of(this.getBandwidthTokenBucket());
+        }
     }
 
     private Path computeTargetPath(String inputFileName) throws Exception {
@@ -266,90 +1600,589 @@ public class DownloadEngine {
         return targetPath;
     }
 
-    private synchronized void checkWaitingRequests() {
-        Queue<DownloadRequestWrapper> queue = this.getWaitingRequests();
-        int maxRequestsToRemove = this.getProcessorCount() - this.getActiveOperations().size();
-        if (maxRequestsToRemove > 0) {
-            List<DownloadRequestWrapper> removedRequests = new ArrayList<>(maxRequestsToRemove);
-            for (int i = 0; i < maxRequestsToRemove && !queue.isEmpty(); i++) {
-                removedRequests.add(queue.remove());
-            }
-            for (DownloadRequestWrapper requestWrapper : removedRequests) {
-                this.executeRequest(requestWrapper, false);
-            }
-        }
+    private void checkWaitingRequests() {
+        if (!this.isPaused()) {
+            this.readSpilledRequests();
+            this.startWaitingRequests();
+            this.discoverUpcomingTasks();
+        }
+    }
+
+    private void startWaitingRequests() {
+        while (true) {
+
+            // Every change that might allow a waiting request to be started (a new request, a
+            // slot being released) increments the scheduling version after it has been made. If
+            // we cannot find anything to start but the version has changed while we were looking,
+            // we might have missed that change and therefore need to look again.
+            long schedulingVersion = this.getSchedulingVersion().get();
+            if (this.getWaitingRequests().isEmpty() || !this.acquireSlot(false)) {
+                return;
+            } else {
+                DownloadRequestWrapper requestWrapper = this.pollWaitingRequest();
+                if (requestWrapper != null) {
+                    this.executeRequest(requestWrapper);
+                } else {
+                    this.releaseSlot();
+                    if (schedulingVersion == this.getSchedulingVersion().get()) {
+                        return;
+                    }
+                }
+            }
+
+        }
+    }
+
+    /**
+     * Starts the discovery of the tasks for the requests that are going to be started next, so
+     * that they are already available once a processor slot becomes free. A discovered task that
+     * has become too old is discovered again.
+     */
+    private void discoverUpcomingTasks() {
+        int lookAhead = this.getTaskDiscoveryLookAhead();
+        if (lookAhead > 0) {
+            Instant now = this.getClock().instant();
+            Iterator<DownloadRequestWrapper> waitingRequestsIterator = this.getWaitingRequests().iterator();
+            for (int i = 0; i < lookAhead && waitingRequestsIterator.hasNext(); i++) {
+                DownloadRequestWrapper requestWrapper = waitingRequestsIterator.next();
+                DownloadRequest request = requestWrapper.getRequest();
+                if (request != null) {
+                    synchronized (requestWrapper) {
+                        if (requestWrapper.getDiscoveredTask() == null || this.isDiscoveryExpired(requestWrapper.getDiscoveryTime(), now)) {
+                            this.startTaskDiscovery(requestWrapper, request, now);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void startTaskDiscovery(DownloadRequestWrapper requestWrapper, DownloadRequest request, Instant now) {
+
+        // There is no operation yet that could receive any progress reported by the factory, so
+        // we pass it on to whatever operation will be executing the request later on
+        ProgressListener progressListener = (message, bytesWritten, bytesTotal) -> {
+            DownloadOperation operation = requestWrapper.getOperation();
+            if (operation != null) {
+                ProgressListener.compose(operation.getProgressListeners()).onProgress(message, bytesWritten, bytesTotal);
+            }
+        };
+
+        CompletableFuture<DownloadTask> discoveredTask = new CompletableFuture<>();
+        try {
+            this.getDiscoveryExecutor().execute(() -> {
+                try {
+                    discoveredTask.complete(request.getTaskFactory().createTask(progressListener));
+                } catch (Exception e) {
+                    log.debug("Speculative task discovery failed for request: {}", request, e);
+                    discoveredTask.completeExceptionally(e);
+                }
+            });
+            requestWrapper.setDiscoveredTask(discoveredTask);
+            requestWrapper.setDiscoveryTime(now);
+        } catch (RejectedExecutionException e) {
+            log.debug("Cannot start speculative task discovery for request: {}", request, e);
+        }
+
+    }
+
+    /**
+     * Gets the task for the request of an operation, either by taking over the result of the
+     * speculative discovery or by asking the factory of the request directly. A discovery that is
+     * still in progress is awaited, since it will be done earlier than a new one.
+     */
+    private DownloadTask resolveTask(DownloadRequestWrapper requestWrapper, ProgressListener progressListener) throws Exception {
+        CompletableFuture<DownloadTask> discoveredTask = null;
+        Instant discoveryTime = null;
+        synchronized (requestWrapper) {
+            discoveredTask = requestWrapper.getDiscoveredTask();
+            discoveryTime = requestWrapper.getDiscoveryTime();
+            requestWrapper.setDiscoveredTask(null);
+            requestWrapper.setDiscoveryTime(null);
+        }
+        if (discoveredTask != null && !this.isDiscoveryExpired(discoveryTime, this.getClock().instant())) {
+            try {
+                return discoveredTask.get();
+            } catch (ExecutionException e) {
+                log.debug("Discovering task again after speculative discovery failed for request: {}", requestWrapper.getRequest());
+            }
+        }
+        return requestWrapper.getRequest().getTaskFactory().createTask(progressListener);
+    }
+
+    private boolean isDiscoveryExpired(Instant discoveryTime, Instant now) {
+        return discoveryTime == null || Duration.between(discoveryTime, now).compareTo(this.getTaskDiscoveryMaxAge()) > 0;
+    }
+
+    /**
+     * Removes the first waiting request for which a host slot is available from the queue. The
+     * host slot will already be acquired for the returned request.
+     *
+     * If the selected request cannot be taken (its host has become saturated or somebody else
+     * removed the request in the meantime) the scheduling version is changed, so that the caller
+     * looks for the next request again.
+     */
+    private DownloadRequestWrapper pollWaitingRequest() {
+        DownloadRequestWrapper requestWrapper = this.getWaitingRequests().selectNext(this::isHostSlotAvailable);
+        if (requestWrapper == null) {
+            return null;
+        } else {
+            String host = DownloadEngine.resolveHost(requestWrapper);
+            if (!this.acquireHostSlot(host, false)) {
+                this.getSchedulingVersion().incrementAndGet();
+                return null;
+            } else if (this.getWaitingRequests().remove(requestWrapper)) {
+                return requestWrapper;
+            } else {
+                this.releaseHostSlot(host);
+                this.getWaitingRequests().discardStaleRequest(requestWrapper);
+                this.getSchedulingVersion().incrementAndGet();
+                return null;
+            }
+        }
+    }
+
+    boolean cancelOperation(DownloadOperation operation, String reason) {
+        synchronized (operation) {
+            if (DownloadOperationStatus.CANCELLED.equals(operation.getStatus())) {
+
+                // The operation is already cancelled, so this call must come from someone else
+                // calling the cancel method twice. Nice try, but there is nothing that we should
+                // do now.
+                return true;
+
+            } else if (!this.getActiveOperations().contains(operation)) {
+
+                // The operation could not be found in the list of active operations, which means
+                // we have no way of handling it at all - so let's just exit.
+                return false;
+
+            } else {
+                log.debug("Cancelling operation {} with reason: {}", operation, reason);
+                operation.setStatus(DownloadOperationStatus.CANCELLED);
+                operation.setCancelTime(this.getClock().instant());
+                operation.setCancelReason(reason);
+            }
+        }
+        this.getSchedulingListeners().forEach(l -> l.onOperationCancelled(operation));
+        return true;
+    }
+
+    /**
+     * Tells an active operation to stop its transfer while keeping the data that has been written
+     * so far, so that it can be continued later
+     */
+    private boolean suspendOperation(DownloadOperation operation) {
+        synchronized (operation) {
+            if (DownloadOperationStatus.ACTIVE.equals(operation.getStatus())) {
+                log.debug("Suspending operation: {}", operation);
+                operation.setStatus(DownloadOperationStatus.SUSPENDED);
+                operation.setSuspendTime(this.getClock().instant());
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    boolean cancelRequest(DownloadRequestWrapper requestWrapper, String reason) {
+        while (true) {
+            boolean requestRemoved = false;
+            DownloadOperation operation = null;
+            synchronized (requestWrapper) {
+
+                // A spilled request stays inside the spill store, but it is discarded when being
+                // read back once it has been removed
+                requestRemoved = this.getWaitingRequests().remove(requestWrapper) || this.getSpilledRequests().remove(requestWrapper);
+                operation = requestWrapper.getOperation();
+
+            }
+            if (requestRemoved) {
+                this.getFairQueuingClock().onRequestRemoved(requestWrapper, DownloadEngine.resolveGroupKey(requestWrapper));
+                this.getSchedulingListeners().forEach(l -> l.onRequestCancelled(requestWrapper));
+                if (requestWrapper.getResultFuture() != null) {
+                    requestWrapper.getResultFuture().completeExceptionally(new CancellationException(reason));
+                }
+                this.checkIdle();
+                return true;
+            } else if (operation == null) {
+                return false;
+            } else if (this.cancelOperation(operation, reason)) {
+                return true;
+            } else if (requestWrapper.getOperation() == operation) {
+                return false;
+            }
+
+            // The operation has been discarded because its request has been parked in the queue
+            // in the meantime, so we need to look for the request there again
+
+        }
+    }
+
+    /**
+     * Wait until all operations currently executing and waiting inside this engine have been
+     * completed. If the calling thread is interrupted while waiting the method returns early with
+     * the interrupt flag of the thread being set.
+     */
+    public void waitUntilAllDownloadsComplete() {
+        try {
+            this.awaitIdle(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until all operations currently executing and waiting inside this engine have been
+     * completed, but no longer than the given timeout.
+     *
+     * @param timeout
+     *     the maximum time to wait or {@code null} to wait without any time limit
+     * @return
+     *     {@code true} if the engine became idle, {@code false} if the timeout elapsed before
+     * @throws InterruptedException
+     *     thrown if the calling thread has been interrupted while waiting
+     */
+    public boolean awaitIdle(Duration timeout) throws InterruptedException {
+        CompletableFuture<Void> idleFuture = this.whenIdle();
+        try {
+            if (timeout == null) {
+                idleFuture.get();
+            } else {
+                idleFuture.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot wait for engine to become idle", e.getCause());
+        } finally {
+            this.getIdleFutures().remove(idleFuture);
+        }
+    }
+
+    /**
+     * Gets a future that will be completed as soon as no operation is executing and no request is
+     * waiting inside this engine any more. If the engine is idle already the returned future is
+     * completed immediately.
+     */
+    public CompletableFuture<Void> whenIdle() {
+
+        // The future must be in place before we check the current state, otherwise the last
+        // operation might complete between our check and the registration of the future
+        CompletableFuture<Void> idleFuture = new CompletableFuture<>();
+        this.getIdleFutures().put(idleFuture, this.getIdleFutureSequence().incrementAndGet());
+        this.checkIdle();
+        return idleFuture;
+
+    }
+
+    private void checkIdle() {
+
+        // Only the futures registered before we have found the engine to be idle may be completed.
+        // A future registered afterwards might belong to a caller who has already submitted new
+        // requests, which would be reported as being done otherwise.
+        long idleFutureSequence = this.getIdleFutureSequence().get();
+        if (!this.getIdleFutures().isEmpty() && !this.isBusy()) {
+
+            // Several threads might be completing the futures at the same time. Completing them in
+            // the order of their registration and removing them only after they have been
+            // completed makes sure that nobody sees a future being done while an older one isn't.
+            List<Map.Entry<CompletableFuture<Void>, Long>> idleFutureEntries = new ArrayList<>(this.getIdleFutures().entrySet());
+            idleFutureEntries.sort(Map.Entry.comparingByValue());
+            for (Map.Entry<CompletableFuture<Void>, Long> idleFutureEntry : idleFutureEntries) {
+                if (idleFutureEntry.getValue() <= idleFutureSequence) {
+                    idleFutureEntry.getKey().complete(null);
+                    this.getIdleFutures().remove(idleFutureEntry.getKey(), idleFutureEntry.getValue());
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Shuts down this engine. No further requests will be accepted, but all requests that are
+     * already waiting inside the queue as well as all the currently active operations will still
+     * be executed. As soon as the last one of them has been completed the executor providing the
+     * processor threads will be shut down.
+     */
+    public void shutdown() {
+        if (!this.isShutdown()) {
+            log.info("Shutting down engine");
+            this.shutdown = true;
+            this.getWaitingRequests().signalCapacity();
+            if (!this.isBusy()) {
+                this.getExecutorService().shutdown();
+                this.getTimerScheduler().shutdown();
+                this.getPostProcessingExecutor().shutdown();
+                this.getDiscoveryExecutor().shutdown();
+            }
+        }
+    }
+
+    /**
+     * Shuts down this engine within a bounded amount of time. No further requests will be
+     * accepted and all requests that are still waiting inside the queue are removed from the
+     * engine without being executed. The currently active operations are given the time until the
+     * timeout elapses to complete - whatever is still running afterwards will be cancelled and
+     * the executor providing the processor threads will be terminated.
+     *
+     * The removed requests are not reported to the {@link DownloadSchedulingListener} instances
+     * as being cancelled, so that a journal (like the {@code JournalingSchedulingListener}) still
+     * considers them as pending and replays them when the next engine is started. The futures of
+     * the removed requests are completed with a {@link CancellationException}.
+     *
+     * @param timeout
+     *     the maximum time to wait for the active operations to complete
+     * @return
+     *     the requests that have been removed from the queue without being executed
+     * @throws InterruptedException
+     *     thrown if the calling thread has been interrupted while waiting
+     */
+    public List<DownloadRequest> shutdown(Duration timeout) throws InterruptedException {
+        Objects.requireNonNull(timeout, "Parameter 'timeout' must not be null!");
+        this.shutdown();
+        List<DownloadRequest> unexecutedRequests = new ArrayList<>(this.drainWaitingRequests());
+        if (!this.awaitIdle(timeout)) {
+            log.info("Cancelling {} operations still active after shutdown timeout of {}", this.getActiveOperations().size(), timeout);
+            this.getActiveOperations().forEach(operation -> operation.cancel("Engine shut down"));
+            unexecutedRequests.addAll(this.drainWaitingRequests());
+            this.getExecutorService().shutdownNow();
+            this.getTimerScheduler().shutdownNow();
+            this.getPostProcessingExecutor().shutdownNow();
+            this.getDiscoveryExecutor().shutdownNow();
+        }
+        return unexecutedRequests;
+    }
+
+    private List<DownloadRequest> drainWaitingRequests() {
+        List<DownloadRequest> drainedRequests = new ArrayList<>();
+        for (DownloadRequestWrapper requestWrapper = this.getWaitingRequests().pollFirst(); requestWrapper != null; requestWrapper = this.getWaitingRequests().pollFirst()) {
+            drainedRequests.add(requestWrapper.getRequest());
+            if (requestWrapper.getResultFuture() != null) {
+                requestWrapper.getResultFuture().completeExceptionally(new CancellationException("Engine shut down"));
+            }
+        }
+        for (DownloadRequestWrapper requestWrapper : this.getSpilledRequests().drain()) {
+            drainedRequests.add(requestWrapper.getRequest());
+            requestWrapper.getResultFuture().completeExceptionally(new CancellationException("Engine shut down"));
+        }
+        if (!drainedRequests.isEmpty()) {
+            log.info("Removed {} waiting requests from engine during shutdown", drainedRequests.size());
+            this.checkIdle();
+        }
+        return drainedRequests;
+    }
+
+    /**
+     * Checks whether or not the engine has been shut down and will therefore not accept any
+     * further requests
+     */
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    /**
+     * Starts the execution of waiting requests again after the engine has been paused. An engine
+     * is already running when it has been created, so calling this method is only needed after
+     * {@link #pause()}.
+     *
+     * @throws IllegalStateException
+     *     thrown if the engine has already been shut down or closed
+     */
+    public void start() {
+        if (this.isShutdown()) {
+            throw new IllegalStateException("Engine has already been shut down");
+        } else if (this.isPaused()) {
+            log.info("Starting engine");
+            this.paused = false;
+            this.getSchedulingVersion().incrementAndGet();
+            this.checkWaitingRequests();
+        }
+    }
+
+    /**
+     * Pauses this engine. New requests are still accepted and the currently active operations are
+     * still executed, but no further request will be picked up from the queue until the engine is
+     * started again (see {@link #start()}).
+     */
+    public void pause() {
+        if (!this.isPaused()) {
+            log.info("Pausing engine");
+            this.paused = true;
+        }
+    }
+
+    /**
+     * Checks whether or not the engine has been paused and will therefore not start any further
+     * operations
+     */
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * Closes this engine without waiting for the active operations to complete, which means that
+     * all of them will be suspended right away (see {@link #close(Duration)}).
+     */
+    @Override
+    public void close() {
+        try {
+            this.close(Duration.ZERO);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes this engine. No further requests will be accepted and all requests that are still
+     * waiting inside the queue are removed from the engine without being executed (just like
+     * when calling {@link #shutdown(Duration)}). The currently active operations are given the
+     * time until the {@code drainTimeout} elapses to complete.
+     *
+     * Whatever is still transferring data afterwards is suspended instead of being cancelled:
+     * the transfer is stopped, the data written so far is forced to disk and a resume state is
+     * written next to the target file, so that the transfer can be continued from that position
+     * when the request is submitted again. The operations are still reported to
+     * {@link DownloadSchedulingListener#onOperationCompleted(DownloadOperation)}, but they keep the
+     * status {@link DownloadOperationStatus#SUSPENDED} (and a {@code suspendTime}), so that the
+     * listeners don't mistake them for completed transfers. Their futures are completed with a
+     * {@link CancellationException}.
+     *
+     * The suspended operations are given the {@code checkpointTimeout} to stop their transfers.
+     * Once they are done (or the timeout has elapsed) all threads used by the engine are released
+     * and interrupted if they are still running.
+     *
+     * @param drainTimeout
+     *     the maximum time to wait for the active operations to complete before suspending them
+     * @return
+     *     the requests that have been removed from the queue or suspended
+     * @throws InterruptedException
+     *     thrown if the calling thread has been interrupted while waiting
+     */
+    public List<DownloadRequest> close(Duration drainTimeout) throws InterruptedException {
+        Objects.requireNonNull(drainTimeout, "Parameter 'drainTimeout' must not be null!");
+        this.shutdown();
+        List<DownloadRequest> unexecutedRequests = new ArrayList<>(this.drainWaitingRequests());
+        if (!this.awaitIdle(drainTimeout)) {
+            List<DownloadOperation> suspendedOperations = this.getActiveOperations().stream().filter(this::suspendOperation).toList();
+            log.info("Suspending {} operations still active after drain timeout of {}", suspendedOperations.size(), drainTimeout);
+            suspendedOperations.forEach(operation -> unexecutedRequests.add(operation.getRequestWrapper().getRequest()));
+            unexecutedRequests.addAll(this.drainWaitingRequests());
+            if (!this.awaitIdle(this.getCheckpointTimeout())) {
+
+                // Cancelling the operations would remove the data they have written so far, so
+                // instead their threads are interrupted below, which lets the transfer fail and
+                // the resume state be written from the error handling
+                log.info("Interrupting {} operations still active after checkpoint timeout of {}", this.getActiveOperations().size(), this.getCheckpointTimeout());
+
+            }
+        }
+        this.getExecutorService().shutdownNow();
+        this.getTimerScheduler().shutdownNow();
+        this.getPostProcessingExecutor().shutdownNow();
+        this.getDiscoveryExecutor().shutdownNow();
+        this.getExecutorService().awaitTermination(this.getCheckpointTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        return unexecutedRequests;
+    }
+
+    Clock getClock() {
+        return this.clock;
+    }
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    private Map<String, DownloadRequestWrapper> getInFlightRequests() {
+        return this.inFlightRequests;
+    }
+    private void setInFlightRequests(Map<String, DownloadRequestWrapper> inFlightRequests) {
+        this.inFlightRequests = inFlightRequests;
+    }
+
+    private DownloadRequestSpillQueue getSpilledRequests() {
+        return this.spilledRequests;
+    }
+    private void setSpilledRequests(DownloadRequestSpillQueue spilledRequests) {
+        this.spilledRequests = spilledRequests;
+    }
+
+    private Map<String, Integer> getGroupWeights() {
+        return this.groupWeights;
+    }
+    private void setGroupWeights(Map<String, Integer> groupWeights) {
+        this.groupWeights = groupWeights;
     }
 
-    synchronized boolean cancelOperation(DownloadOperation operation, String reason) {
-        if (DownloadOperationStatus.CANCELLED.equals(operation.getStatus())) {
+    private DownloadFairQueuingClock getFairQueuingClock() {
+        return this.fairQueuingClock;
+    }
+    private void setFairQueuingClock(DownloadFairQueuingClock fairQueuingClock) {
+        this.fairQueuingClock = fairQueuingClock;
+    }
 
-            // The operation is already cancelled, so this call must come from someone else calling
-            // the cancel method twice. Nice try, but there is nothing that we should do now.
-            return true;
+    private ThreadPoolExecutor getPostProcessingExecutor() {
+        return this.postProcessingExecutor;
+    }
+    private void setPostProcessingExecutor(ThreadPoolExecutor postProcessingExecutor) {
+        this.postProcessingExecutor = postProcessingExecutor;
+    }
 
-        } else if (!this.getActiveOperations().contains(operation)) {
+    private ThreadPoolExecutor getDiscoveryExecutor() {
+        return this.discoveryExecutor;
+    }
+    private void setDiscoveryExecutor(ThreadPoolExecutor discoveryExecutor) {
+        this.discoveryExecutor = discoveryExecutor;
+    }
 
-            // The operation could not be found in the list of active operations, which means we
-            // have no way of handling it at all - so let's just exit.
-            return false;
+    private Map<FileStore, DownloadStorageLane> getStorageLanes() {
+        return this.storageLanes;
+    }
+    private void setStorageLanes(Map<FileStore, DownloadStorageLane> storageLanes) {
+        this.storageLanes = storageLanes;
+    }
 
-        } else {
+    private Map<FileStore, Integer> getStoreWriterCounts() {
+        return this.storeWriterCounts;
+    }
+    private void setStoreWriterCounts(Map<FileStore, Integer> storeWriterCounts) {
+        this.storeWriterCounts = storeWriterCounts;
+    }
 
-            log.debug("Cancelling operation {} with reason: {}", operation, reason);
-            operation.setStatus(DownloadOperationStatus.CANCELLED);
-            operation.setCancelTime(this.getClock().instant());
-            operation.setCancelReason(reason);
-            this.getSchedulingListeners().forEach(l -> l.onOperationCancelled(operation));
-            this.checkWaitingRequests();
-            return true;
+    private AtomicLong getMaximumQueueWaitMillis() {
+        return this.maximumQueueWaitMillis;
+    }
+    private void setMaximumQueueWaitMillis(AtomicLong maximumQueueWaitMillis) {
+        this.maximumQueueWaitMillis = maximumQueueWaitMillis;
+    }
 
-        }
+    private DownloadThroughputEstimator getThroughputEstimator() {
+        return this.throughputEstimator;
+    }
+    private void setThroughputEstimator(DownloadThroughputEstimator throughputEstimator) {
+        this.throughputEstimator = throughputEstimator;
     }
 
-    synchronized boolean cancelRequest(DownloadRequestWrapper requestWrapper, String reason) {
-        if (this.getWaitingRequests().remove(requestWrapper)) {
-            this.getSchedulingListeners().forEach(l -> l.onRequestCancelled(requestWrapper));
-            return true;
-        } else if (requestWrapper.getOperation() != null) {
-            return this.cancelOperation(requestWrapper.getOperation(), reason);
-        } else {
-            return false;
-        }
+    private Map<CompletableFuture<Void>, Long> getIdleFutures() {
+        return this.idleFutures;
+    }
+    private void setIdleFutures(Map<CompletableFuture<Void>, Long> idleFutures) {
+        this.idleFutures = idleFutures;
     }
 
-    /**
-     * Wait until all operations currently executing and waiting inside this engine have been
-     * completed
-     */
-    public void waitUntilAllDownloadsComplete() {
-        synchronized (this) {
-            if (!this.isBusy()) {
-                return;
-            }
-        }
-        try {
-            CountDownLatch latch = new CountDownLatch(1);
-            this.addSchedulingListener(new DownloadSchedulingListener() {
-                @Override public void onOperationCompleted(DownloadOperation operation) {
-                    synchronized (DownloadEngine.this) {
-                        if (!DownloadEngine.this.isBusy()) {
-                            DownloadEngine.this.removeSchedulingListener(this);
-                            latch.countDown();
-                        }
-                    }
-                }
-            });
-            latch.await();
-        } catch (InterruptedException e) {
-            // Ignore here
-        }
+    private AtomicLong getIdleFutureSequence() {
+        return this.idleFutureSequence;
+    }
+    private void setIdleFutureSequence(AtomicLong idleFutureSequence) {
+        this.idleFutureSequence = idleFutureSequence;
     }
 
-    Clock getClock() {
-        return this.clock;
+    private ScheduledThreadPoolExecutor getTimerScheduler() {
+        return this.timerScheduler;
     }
-    void setClock(Clock clock) {
-        this.clock = clock;
+    private void setTimerScheduler(ScheduledThreadPoolExecutor timerScheduler) {
+        this.timerScheduler = timerScheduler;
     }
 
     private ExecutorService getExecutorService() {
@@ -400,26 +2233,75 @@ public class DownloadEngine {
     }
 
     /**
-     * Remove all currently queued requests that have not been picked up yet
+     * Lists the requests that will be picked up next, in the order in which they are waiting
+     * inside the queue. In contrast to {@link #listWaitingRequests()} only the requested number of
+     * requests are copied.
+     */
+    public List<DownloadRequestWrapper> listWaitingRequests(int maxCount) {
+        return this.getWaitingRequests().stream().limit(maxCount).toList();
+    }
+
+    /**
+     * Checks whether there is at least one request waiting to be picked up. In contrast to
+     * {@link #listWaitingRequests()} this doesn't need to copy the queue.
+     */
+    public boolean hasWaitingRequests() {
+        return !this.getWaitingRequests().isEmpty();
+    }
+
+    /**
+     * Remove all currently queued requests (including the ones that have been written into the
+     * {@code queueSpillStore}) that have not been picked up yet. The removed requests
+     * are treated just like requests that have been cancelled individually: the listeners are
+     * informed and their futures are completed with a {@link CancellationException}, so that an
+     * equal request can be submitted again afterwards.
      *
      * @return
      *     the requests that were cleared from this engine at the time this method was called.
      *     Subsequent changes in the engines state will not be reflected into this result list.
      *     The list itself will therefore be immutable.
      */
-    public synchronized List<DownloadRequestWrapper> clearWaitingRequests() {
-        List<DownloadRequestWrapper> resultList = new ArrayList<>(this.getWaitingRequests());
-        this.getWaitingRequests().clear();
+    public List<DownloadRequestWrapper> clearWaitingRequests() {
+        List<DownloadRequestWrapper> resultList = new ArrayList<>();
+        for (DownloadRequestWrapper requestWrapper = this.getWaitingRequests().pollFirst(); requestWrapper != null; requestWrapper = this.getWaitingRequests().pollFirst()) {
+            resultList.add(requestWrapper);
+        }
+        resultList.addAll(this.getSpilledRequests().drain());
+        for (DownloadRequestWrapper requestWrapper : resultList) {
+            this.getFairQueuingClock().onRequestRemoved(requestWrapper, DownloadEngine.resolveGroupKey(requestWrapper));
+            this.getSchedulingListeners().forEach(l -> l.onRequestCancelled(requestWrapper));
+            if (requestWrapper.getResultFuture() != null) {
+                requestWrapper.getResultFuture().completeExceptionally(new CancellationException("Waiting requests cleared"));
+            }
+        }
+        this.checkIdle();
         return Collections.unmodifiableList(resultList);
     }
 
-    Queue<DownloadRequestWrapper> getWaitingRequests() {
+    DownloadRequestQueue getWaitingRequests() {
         return this.waitingRequests;
     }
-    private void setWaitingRequests(Queue<DownloadRequestWrapper> waitingRequests) {
+    private void setWaitingRequests(DownloadRequestQueue waitingRequests) {
         this.waitingRequests = waitingRequests;
     }
 
+    /**
+     * Gets the number of requests waiting to be started, including the ones that have been
+     * written into the {@code queueSpillStore}
+     */
+    public int getQueueDepth() {
+        return this.getWaitingRequests().size() + this.getSpilledRequests().size();
+    }
+
+    /**
+     * Gets the heap (in bytes) estimated to be occupied by the requests inside the waiting queue.
+     * The estimate consists of a fixed overhead per request plus the data held by the request
+     * itself, like its title or a preview image kept in memory.
+     */
+    public long getQueueMemoryEstimate() {
+        return this.getWaitingRequests().estimateMemory();
+    }
+
     /**
      * List all currently active operations, which means the requests for which a processing slot
      * has been allocated and for which data is currently being transfered from the source to a
@@ -434,19 +2316,130 @@ public class DownloadEngine {
         return Collections.unmodifiableList(new ArrayList<>(this.getActiveOperations()));
     }
 
-    List<DownloadOperation> getActiveOperations() {
+    Set<DownloadOperation> getActiveOperations() {
         return this.activeOperations;
     }
-    private void setActiveOperations(List<DownloadOperation> activeOperations) {
+    private void setActiveOperations(Set<DownloadOperation> activeOperations) {
         this.activeOperations = activeOperations;
     }
 
+    private AtomicInteger getActiveSlotCount() {
+        return this.activeSlotCount;
+    }
+    private void setActiveSlotCount(AtomicInteger activeSlotCount) {
+        this.activeSlotCount = activeSlotCount;
+    }
+
+    private AtomicInteger getCompletingOperationCount() {
+        return this.completingOperationCount;
+    }
+    private void setCompletingOperationCount(AtomicInteger completingOperationCount) {
+        this.completingOperationCount = completingOperationCount;
+    }
+
+    private Map<String, AtomicInteger> getActiveHostSlotCounts() {
+        return this.activeHostSlotCounts;
+    }
+    private void setActiveHostSlotCounts(Map<String, AtomicInteger> activeHostSlotCounts) {
+        this.activeHostSlotCounts = activeHostSlotCounts;
+    }
+
+    private Map<String, Integer> getHostProcessorCounts() {
+        return this.hostProcessorCounts;
+    }
+    private void setHostProcessorCounts(Map<String, Integer> hostProcessorCounts) {
+        this.hostProcessorCounts = hostProcessorCounts;
+    }
+
+    private AtomicLong getSchedulingVersion() {
+        return this.schedulingVersion;
+    }
+    private void setSchedulingVersion(AtomicLong schedulingVersion) {
+        this.schedulingVersion = schedulingVersion;
+    }
+
+    private TokenBucket getBandwidthTokenBucket() {
+        return this.bandwidthTokenBucket;
+    }
+    private void setBandwidthTokenBucket(TokenBucket bandwidthTokenBucket) {
+        this.bandwidthTokenBucket = bandwidthTokenBucket;
+    }
+
+    private AtomicLong getRequestSequence() {
+        return this.requestSequence;
+    }
+    private void setRequestSequence(AtomicLong requestSequence) {
+        this.requestSequence = requestSequence;
+    }
+
     /**
      * Checks if there is any work to be done, meaning that either jobs are
      * waiting to be executed or are being executed right now
      */
-    public synchronized boolean isBusy() {
-        return !this.getWaitingRequests().isEmpty() || !this.getActiveOperations().isEmpty();
+    public boolean isBusy() {
+        return !this.getWaitingRequests().isEmpty() || !this.getSpilledRequests().isEmpty() || this.getActiveSlotCount().get() > 0 || !this.getActiveOperations().isEmpty() || this.getCompletingOperationCount().get() > 0;
+    }
+
+    /**
+     * Gets the store in which the content of all downloaded files is recorded, so that a content
+     * downloaded before is neither transferred nor stored twice. If no store is set (which is the
+     * default) the content of the target files isn't tracked at all.
+     */
+    public DownloadContentStore getContentStore() {
+        return this.contentStore;
+    }
+    public void setContentStore(DownloadContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    /**
+     * Gets the maximum number of requests that may be waiting inside the queue. Whenever the
+     * capacity has been reached, further requests are handled as defined by the
+     * {@code queueOverflowPolicy}. A capacity of {@code 0} (which is the default) doesn't limit
+     * the queue at all.
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Parameter 'queueCapacity' must not be negative");
+        } else {
+            this.queueCapacity = queueCapacity;
+            this.getWaitingRequests().signalCapacity();
+            this.checkWaitingRequests();
+        }
+    }
+
+    public DownloadQueueOverflowPolicy getQueueOverflowPolicy() {
+        return this.queueOverflowPolicy;
+    }
+    public void setQueueOverflowPolicy(DownloadQueueOverflowPolicy queueOverflowPolicy) {
+        this.queueOverflowPolicy = Objects.requireNonNull(queueOverflowPolicy, "Parameter 'queueOverflowPolicy' must not be null!");
+    }
+
+    /**
+     * Gets the maximum time a submitter is blocked while waiting for the queue to have room for
+     * its request, before the request is rejected
+     */
+    public Duration getQueueBlockTimeout() {
+        return this.queueBlockTimeout;
+    }
+    public void setQueueBlockTimeout(Duration queueBlockTimeout) {
+        this.queueBlockTimeout = Objects.requireNonNull(queueBlockTimeout, "Parameter 'queueBlockTimeout' must not be null!");
+    }
+
+    /**
+     * Gets the store into which requests are written when the queue is full and the
+     * {@code queueOverflowPolicy} is {@link DownloadQueueOverflowPolicy#SPILL}. The store is owned
+     * by the caller, so it will not be closed by the engine.
+     */
+    public DownloadRequestSpillStore getQueueSpillStore() {
+        return this.getSpilledRequests().getSpillStore();
+    }
+    public void setQueueSpillStore(DownloadRequestSpillStore queueSpillStore) {
+        this.getSpilledRequests().setSpillStore(queueSpillStore);
+        this.checkWaitingRequests();
     }
 
     public Path getTargetDirectory() {
@@ -470,14 +2463,349 @@ public class DownloadEngine {
         } else if (this.processorCount != processorCount) {
             int oldProcessorCount = this.processorCount;
             log.debug("Updating processor count from {} to {}", oldProcessorCount, processorCount);
-            synchronized (this) {
-                this.processorCount = processorCount;
-                if (processorCount > oldProcessorCount) {
-                    this.checkWaitingRequests();
-                }
+            this.processorCount = processorCount;
+            this.getSchedulingVersion().incrementAndGet();
+            if (processorCount > oldProcessorCount) {
+                this.checkWaitingRequests();
             }
             this.getEngineConfigurationListeners().forEach(l -> l.onProcessorCountUpdated(processorCount));
         }
     }
 
+    /**
+     * Gets the maximum number of operations that will be executed in parallel for a single host,
+     * unless a specific value has been defined for that host. A value of {@code 0} means that
+     * only the global {@code processorCount} is relevant.
+     */
+    public int getProcessorCountPerHost() {
+        return this.processorCountPerHost;
+    }
+    public void setProcessorCountPerHost(int processorCountPerHost) {
+        if (processorCountPerHost < 0) {
+            throw new IllegalArgumentException("Parameter 'processorCountPerHost' must not be negative");
+        } else if (this.processorCountPerHost != processorCountPerHost) {
+            log.debug("Updating processor count per host from {} to {}", this.processorCountPerHost, processorCountPerHost);
+            this.processorCountPerHost = processorCountPerHost;
+            this.getSchedulingVersion().incrementAndGet();
+            this.checkWaitingRequests();
+            this.getEngineConfigurationListeners().forEach(l -> l.onProcessorCountPerHostUpdated(processorCountPerHost));
+        }
+    }
+
+    /**
+     * Gets the maximum number of operations that will be executed in parallel for the given host
+     */
+    public int getProcessorCountForHost(String host) {
+        return this.getHostProcessorCounts().getOrDefault(host, this.getProcessorCountPerHost());
+    }
+
+    /**
+     * Defines the maximum number of operations that will be executed in parallel for the given
+     * host, overriding the value of {@code processorCountPerHost}. Passing {@code null} as value
+     * will remove a previously defined value.
+     */
+    public void setProcessorCountForHost(String host, Integer processorCount) {
+        if (host == null) {
+            throw new NullPointerException("Parameter 'host' must not be null!");
+        } else if (processorCount != null && processorCount < 0) {
+            throw new IllegalArgumentException("Parameter 'processorCount' must not be negative");
+        } else {
+            log.debug("Updating processor count for host {} to {}", host, processorCount);
+            if (processorCount == null) {
+                this.getHostProcessorCounts().remove(host);
+            } else {
+                this.getHostProcessorCounts().put(host, processorCount);
+            }
+            this.getSchedulingVersion().incrementAndGet();
+            this.checkWaitingRequests();
+        }
+    }
+
+    /**
+     * Gets the number of threads on which the post-processors of completed transfers are executed
+     */
+    public int getPostProcessorCount() {
+        return this.getPostProcessingExecutor().getMaximumPoolSize();
+    }
+    public void setPostProcessorCount(int postProcessorCount) {
+        if (postProcessorCount <= 0) {
+            throw new IllegalArgumentException("Parameter 'postProcessorCount' must be larger than 0");
+        } else {
+            DownloadEngine.resizeWorkerExecutor(this.getPostProcessingExecutor(), postProcessorCount);
+        }
+    }
+
+    /**
+     * Gets the maximum number of operations waiting for a post-processor thread. Once the limit
+     * has been reached, the post-processors of further operations are executed by their processor
+     * threads, which keep their processor slots in the meantime.
+     */
+    public int getPostProcessingQueueCapacity() {
+        return this.postProcessingQueueCapacity;
+    }
+    public void setPostProcessingQueueCapacity(int postProcessingQueueCapacity) {
+        if (postProcessingQueueCapacity < 0) {
+            throw new IllegalArgumentException("Parameter 'postProcessingQueueCapacity' must not be negative");
+        }
+        this.postProcessingQueueCapacity = postProcessingQueueCapacity;
+    }
+
+    /**
+     * Gets the number of waiting requests at the front of the queue for which the task is
+     * discovered in advance. A value of {@code 0} means that the task is only discovered once the
+     * request is started.
+     */
+    public int getTaskDiscoveryLookAhead() {
+        return this.taskDiscoveryLookAhead;
+    }
+    public void setTaskDiscoveryLookAhead(int taskDiscoveryLookAhead) {
+        if (taskDiscoveryLookAhead < 0) {
+            throw new IllegalArgumentException("Parameter 'taskDiscoveryLookAhead' must not be negative");
+        } else if (this.taskDiscoveryLookAhead != taskDiscoveryLookAhead) {
+            log.debug("Updating task discovery look ahead from {} to {}", this.taskDiscoveryLookAhead, taskDiscoveryLookAhead);
+            this.taskDiscoveryLookAhead = taskDiscoveryLookAhead;
+            DownloadEngine.resizeWorkerExecutor(this.getDiscoveryExecutor(), Math.max(1, taskDiscoveryLookAhead));
+            this.discoverUpcomingTasks();
+        }
+    }
+
+    /**
+     * Gets the time the operations suspended while closing the engine are given to stop their
+     * transfers and write their resume state
+     */
+    public Duration getCheckpointTimeout() {
+        return this.checkpointTimeout;
+    }
+    public void setCheckpointTimeout(Duration checkpointTimeout) {
+        this.checkpointTimeout = Objects.requireNonNull(checkpointTimeout, "Parameter 'checkpointTimeout' must not be null!");
+    }
+
+    /**
+     * Gets the time after which a task that has been discovered in advance is considered to be
+     * outdated and will be discovered again
+     */
+    public Duration getTaskDiscoveryMaxAge() {
+        return this.taskDiscoveryMaxAge;
+    }
+    public void setTaskDiscoveryMaxAge(Duration taskDiscoveryMaxAge) {
+        this.taskDiscoveryMaxAge = Objects.requireNonNull(taskDiscoveryMaxAge, "Parameter 'taskDiscoveryMaxAge' must not be null!");
+    }
+
+    /**
+     * Gets the maximum number of operations that will write into a single {@link FileStore} at
+     * the same time. A value of {@code 0} means that the number of writers is not limited.
+     */
+    public int getWriterCountPerStore() {
+        return this.writerCountPerStore;
+    }
+    public void setWriterCountPerStore(int writerCountPerStore) {
+        if (writerCountPerStore < 0) {
+            throw new IllegalArgumentException("Parameter 'writerCountPerStore' must not be negative");
+        } else if (this.writerCountPerStore != writerCountPerStore) {
+            log.debug("Updating writer count per store from {} to {}", this.writerCountPerStore, writerCountPerStore);
+            this.writerCountPerStore = writerCountPerStore;
+            this.getStorageLanes().values().forEach(this::releaseParkedRequests);
+        }
+    }
+
+    /**
+     * Gets the maximum number of operations that will write into the given store at the same time
+     */
+    public int getWriterCountForStore(FileStore fileStore) {
+        return this.getStoreWriterCounts().getOrDefault(fileStore, this.getWriterCountPerStore());
+    }
+
+    /**
+     * Defines the maximum number of operations that will write into the given store at the same
+     * time, overriding the value of {@code writerCountPerStore}. Passing {@code null} as value
+     * will remove a previously defined value.
+     */
+    public void setWriterCountForStore(FileStore fileStore, Integer writerCount) {
+        if (fileStore == null) {
+            throw new NullPointerException("Parameter 'fileStore' must not be null!");
+        } else if (writerCount != null && writerCount < 0) {
+            throw new IllegalArgumentException("Parameter 'writerCount' must not be negative");
+        } else {
+            log.debug("Updating writer count for store {} to {}", fileStore, writerCount);
+            if (writerCount == null) {
+                this.getStoreWriterCounts().remove(fileStore);
+            } else {
+                this.getStoreWriterCounts().put(fileStore, writerCount);
+            }
+            DownloadStorageLane storageLane = this.getStorageLanes().get(fileStore);
+            if (storageLane != null) {
+                this.releaseParkedRequests(storageLane);
+            }
+        }
+    }
+
+    /**
+     * Lets all requests parked within the lane try to enter it again, after the number of writers
+     * allowed for it might have been changed
+     */
+    private void releaseParkedRequests(DownloadStorageLane storageLane) {
+        storageLane.releaseParkedRequests().forEach(this::unparkRequest);
+        this.checkWaitingRequests();
+    }
+
+    /**
+     * Gets the average time a single write into the stores that have been written to so far has
+     * taken
+     */
+    public Map<FileStore, Duration> getStoreWriteLatencies() {
+        Map<FileStore, Duration> storeWriteLatencies = new LinkedHashMap<>();
+        this.getStorageLanes().forEach((fileStore, storageLane) -> storeWriteLatencies.put(fileStore, storageLane.getWriteLatency()));
+        return storeWriteLatencies;
+    }
+
+    /**
+     * Checks whether the processor slots are shared between the request groups instead of being
+     * assigned strictly in submission order (see {@link DownloadRequest#getGroupKey()}).
+     */
+    public boolean isFairQueuing() {
+        return this.fairQueuing;
+    }
+
+    /**
+     * Enables or disables fair queuing. The change applies to all requests submitted afterwards,
+     * requests that are already waiting keep their position.
+     */
+    public void setFairQueuing(boolean fairQueuing) {
+        log.debug("Updating fair queuing to {}", fairQueuing);
+        this.fairQueuing = fairQueuing;
+    }
+
+    /**
+     * Gets the weight of the given group when fair queuing is enabled. A group with weight
+     * {@code 2} gets twice as many processor slots assigned as a group with weight {@code 1}, as
+     * long as both of them have requests waiting.
+     */
+    public int getGroupWeight(String groupKey) {
+        return groupKey == null ? 1 : this.getGroupWeights().getOrDefault(groupKey, 1);
+    }
+
+    /**
+     * Defines the weight of the given group when fair queuing is enabled. Passing {@code null} as
+     * value will reset the weight to the default value of {@code 1}.
+     */
+    public void setGroupWeight(String groupKey, Integer weight) {
+        if (groupKey == null) {
+            throw new NullPointerException("Parameter 'groupKey' must not be null!");
+        } else if (weight != null && weight <= 0) {
+            throw new IllegalArgumentException("Parameter 'weight' must be larger than 0");
+        } else {
+            log.debug("Updating weight for group {} to {}", groupKey, weight);
+            if (weight == null) {
+                this.getGroupWeights().remove(groupKey);
+            } else {
+                this.getGroupWeights().put(groupKey, weight);
+            }
+        }
+    }
+
+    /**
+     * Gets the time after which the priority of a waiting request is raised by one, or
+     * {@code null} if the priority of a request doesn't change while it is waiting
+     */
+    public Duration getPriorityAgingInterval() {
+        return this.priorityAgingInterval;
+    }
+
+    /**
+     * Updates the aging interval. All requests that are currently waiting are moved to the
+     * position matching the new interval, which is an expensive operation for a long queue but
+     * only performed when the configuration changes.
+     */
+    public void setPriorityAgingInterval(Duration priorityAgingInterval) {
+        if (priorityAgingInterval != null && (priorityAgingInterval.isNegative() || priorityAgingInterval.toMillis() == 0)) {
+            throw new IllegalArgumentException("Parameter 'priorityAgingInterval' must be larger than 0");
+        }
+        log.debug("Updating priority aging interval to {}", priorityAgingInterval);
+        this.priorityAgingInterval = priorityAgingInterval;
+        for (DownloadRequestWrapper requestWrapper : List.copyOf(this.getWaitingRequests())) {
+            synchronized (requestWrapper) {
+                if (this.getWaitingRequests().remove(requestWrapper)) {
+                    requestWrapper.setAgedPriority(this.computeAgedPriority(requestWrapper, priorityAgingInterval));
+                    this.getWaitingRequests().add(requestWrapper);
+                }
+            }
+        }
+        this.getSchedulingVersion().incrementAndGet();
+        this.checkWaitingRequests();
+    }
+
+    /**
+     * Gets the longest time a request has been waiting inside the queue of the engine, either
+     * before it has been started or - if it's still waiting - up to now. Finding the oldest
+     * request that is still waiting requires a look at every waiting request, so this method
+     * should not be called too frequently for long queues.
+     */
+    public Duration getMaximumQueueWait() {
+        Instant now = this.getClock().instant();
+        long maximumQueueWaitMillis = this.getMaximumQueueWaitMillis().get();
+        for (DownloadRequestWrapper requestWrapper : this.getWaitingRequests()) {
+            if (requestWrapper.getScheduledTime() != null) {
+                maximumQueueWaitMillis = Math.max(maximumQueueWaitMillis, Duration.between(requestWrapper.getScheduledTime(), now).toMillis());
+            }
+        }
+        return Duration.ofMillis(maximumQueueWaitMillis);
+    }
+
+    /**
+     * Checks whether requests with the same priority are ordered by their deadline and requests
+     * whose deadline is at risk are moved to the front of the queue
+     */
+    public boolean isDeadlineScheduling() {
+        return this.deadlineScheduling;
+    }
+
+    /**
+     * Enables or disables deadline scheduling. The change applies to all requests submitted
+     * afterwards, requests that are already waiting keep their position.
+     */
+    public void setDeadlineScheduling(boolean deadlineScheduling) {
+        log.debug("Updating deadline scheduling to {}", deadlineScheduling);
+        this.deadlineScheduling = deadlineScheduling;
+    }
+
+    /**
+     * Gets the safety margin by which a request is moved to the front of the queue before the
+     * latest point in time at which it would still meet its deadline
+     */
+    public Duration getDeadlineLeadTime() {
+        return this.deadlineLeadTime;
+    }
+    public void setDeadlineLeadTime(Duration deadlineLeadTime) {
+        this.deadlineLeadTime = Objects.requireNonNull(deadlineLeadTime, "Parameter 'deadlineLeadTime' must not be null!");
+    }
+
+    /**
+     * Gets the maximum number of bytes per second that will be written by all active operations
+     * together. A value of {@code 0} means that the bandwidth is not limited.
+     */
+    public long getBandwidthLimit() {
+        return this.getBandwidthTokenBucket().getRate();
+    }
+    public void setBandwidthLimit(long bandwidthLimit) {
+        if (bandwidthLimit < 0) {
+            throw new IllegalArgumentException("Parameter 'bandwidthLimit' must not be negative");
+        } else if (this.getBandwidthTokenBucket().getRate() != bandwidthLimit) {
+            log.debug("Updating bandwidth limit from {} to {} bytes per second", this.getBandwidthTokenBucket().getRate(), bandwidthLimit);
+            this.getBandwidthTokenBucket().setRate(bandwidthLimit);
+            this.getEngineConfigurationListeners().forEach(l -> l.onBandwidthLimitUpdated(bandwidthLimit));
+        }
+    }
+
+    /**
+     * Gets the policy deciding whether a request will be executed again after an operation has
+     * failed. The policy can be overwritten for a single request within the
+     * {@link DownloadRequest}.
+     */
+    public DownloadRetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+    public void setRetryPolicy(DownloadRetryPolicy retryPolicy) {
+        this.retryPolicy = Objects.requireNonNull(retryPolicy, "Parameter 'retryPolicy' must not be null!");
+    }
+
 }
@@ -32,6 +32,20 @@ public interface DownloadEngineConfigurationListener {
     default void onProcessorCountUpdated(int newProcessorCount) {
     }
 
+    /**
+     * Called when the {@code processorCountPerHost} property of the
+     * {@link DownloadEngine} has been changed
+     */
+    default void onProcessorCountPerHostUpdated(int newProcessorCountPerHost) {
+    }
+
+    /**
+     * Called when the {@code bandwidthLimit} property of the
+     * {@link DownloadEngine} has been changed
+     */
+    default void onBandwidthLimitUpdated(long newBandwidthLimit) {
+    }
+
     /**
      * Called when the {@code targetDirectory} property of the
      * {@link DownloadEngine} has been changed
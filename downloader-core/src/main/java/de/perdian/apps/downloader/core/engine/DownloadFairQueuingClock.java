@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the virtual time used to share the processor slots of a {@link DownloadEngine}
+ * fairly between request groups (start-time fair queuing).
+ *
+ * Every request receives a start tag when it is submitted: either the current virtual time or the
+ * finish tag of the previous request of the same group, whichever is later. The finish tag of the
+ * request is its start tag plus a service time that is inversely proportional to the weight of
+ * its group. Ordering the waiting requests by their start tag therefore interleaves the groups
+ * according to their weights, no matter how many requests a single group has submitted. The
+ * virtual time itself advances to the start tag of every request that is being started.
+ *
+ * @author Christian Robert
+ */
+
+class DownloadFairQueuingClock {
+
+    static final long SERVICE_TIME = 1_000_000;
+
+    private AtomicLong virtualTime = new AtomicLong();
+    private Map<String, Long> groupFinishTags = new ConcurrentHashMap<>();
+
+    /**
+     * Computes the start and finish tag for a new request of the given group. Requests without a
+     * group are considered to be a group of their own.
+     */
+    void assignTags(DownloadRequestWrapper requestWrapper, String groupKey, int groupWeight) {
+        long serviceTime = SERVICE_TIME / Math.max(1, groupWeight);
+        if (groupKey == null) {
+            long startTag = this.getVirtualTime().get();
+            requestWrapper.setFairStartTag(startTag);
+            requestWrapper.setFairFinishTag(startTag + serviceTime);
+        } else {
+            this.getGroupFinishTags().compute(groupKey, (key, lastFinishTag) -> {
+                long startTag = Math.max(this.getVirtualTime().get(), lastFinishTag == null ? 0 : lastFinishTag);
+                requestWrapper.setFairStartTag(startTag);
+                requestWrapper.setFairFinishTag(startTag + serviceTime);
+                return startTag + serviceTime;
+            });
+        }
+    }
+
+    /**
+     * Advances the virtual time when a request is started
+     */
+    void onRequestStarted(DownloadRequestWrapper requestWrapper, String groupKey) {
+        this.getVirtualTime().accumulateAndGet(requestWrapper.getFairStartTag(), Math::max);
+        this.onRequestRemoved(requestWrapper, groupKey);
+    }
+
+    /**
+     * Forgets about a group once its last waiting request has left the queue, so that the state
+     * of groups that aren't active anymore doesn't pile up
+     */
+    void onRequestRemoved(DownloadRequestWrapper requestWrapper, String groupKey) {
+        if (groupKey != null) {
+            this.getGroupFinishTags().remove(groupKey, requestWrapper.getFairFinishTag());
+        }
+    }
+
+    long getCurrentVirtualTime() {
+        return this.getVirtualTime().get();
+    }
+
+    private AtomicLong getVirtualTime() {
+        return this.virtualTime;
+    }
+
+    private Map<String, Long> getGroupFinishTags() {
+        return this.groupFinishTags;
+    }
+
+}
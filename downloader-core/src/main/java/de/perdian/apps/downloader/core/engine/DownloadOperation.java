@@ -15,6 +15,7 @@
  */
 package de.perdian.apps.downloader.core.engine;
 
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -41,7 +42,12 @@ public class DownloadOperation {
     private Instant endTime = null;
     private Instant cancelTime = null;
     private String cancelReason = null;
+    private Instant suspendTime = null;
     private Exception error = null;
+    private Instant retryTime = null;
+    private Path targetFile = null;
+    private String contentHash = null;
+    private boolean slotsReleased = false;
     private List<ProgressListener> progressListeners = new CopyOnWriteArrayList<>();
 
     DownloadOperation() {
@@ -141,6 +147,17 @@ public class DownloadOperation {
         this.cancelReason = cancelReason;
     }
 
+    /**
+     * Gets the time when the operation has been suspended because the engine was closed while the
+     * transfer was still running
+     */
+    public Instant getSuspendTime() {
+        return this.suspendTime;
+    }
+    void setSuspendTime(Instant suspendTime) {
+        this.suspendTime = suspendTime;
+    }
+
     /**
      * Gets an {@code Exception} that occured during the transfer process.
      */
@@ -151,6 +168,50 @@ public class DownloadOperation {
         this.error = error;
     }
 
+    /**
+     * Gets the time at which the request will be executed again after this operation has failed,
+     * or {@code null} if the failure is final and no further attempt will be made.
+     */
+    public Instant getRetryTime() {
+        return this.retryTime;
+    }
+    void setRetryTime(Instant retryTime) {
+        this.retryTime = retryTime;
+    }
+
+    /**
+     * Gets the file into which the data of the operation is written, or {@code null} if the
+     * transfer hasn't been started yet
+     */
+    public Path getTargetFile() {
+        return this.targetFile;
+    }
+    void setTargetFile(Path targetFile) {
+        this.targetFile = targetFile;
+    }
+
+    /**
+     * Gets the hash of the data that has been written into the target file, or {@code null} if
+     * no {@link DownloadContentStore} has been configured within the engine
+     */
+    public String getContentHash() {
+        return this.contentHash;
+    }
+    void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Checks whether the processor slots of the operation have already been released before the
+     * operation has been completed, which happens when handing it over to the post-processors
+     */
+    boolean isSlotsReleased() {
+        return this.slotsReleased;
+    }
+    void setSlotsReleased(boolean slotsReleased) {
+        this.slotsReleased = slotsReleased;
+    }
+
     public boolean addProgressListener(ProgressListener progressListener) {
         return this.getProgressListeners().add(progressListener);
     }
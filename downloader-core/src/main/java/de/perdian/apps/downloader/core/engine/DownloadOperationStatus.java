@@ -31,6 +31,13 @@ public enum DownloadOperationStatus {
      */
     ACTIVE,
 
+    /**
+     * Signalizes that the data of a {@link DownloadOperation} has been completely transferred
+     * into the target file and the post-processors of the request are being executed. The
+     * operation doesn't occupy a processor slot of the {@link DownloadEngine} anymore.
+     */
+    POST_PROCESSING,
+
     /**
      * Signalizes that a {@link DownloadEngine} has completed the transfer
      * process for a {@link DownloadOperation}. No further interaction between the
@@ -43,4 +50,12 @@ public enum DownloadOperationStatus {
      */
     CANCELLED,
 
+    /**
+     * Signalizes that the {@link DownloadEngine} is being closed while the data of a
+     * {@link DownloadOperation} was still being transferred. The transfer stops, but the partially
+     * transferred target file is kept, so that it can be continued once the request is submitted
+     * into an engine again.
+     */
+    SUSPENDED,
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+/**
+ * Describes what a {@link DownloadEngine} does with a new request while its waiting queue has
+ * reached the configured {@code queueCapacity}.
+ *
+ * @author Christian Robert
+ */
+
+public enum DownloadQueueOverflowPolicy {
+
+    /**
+     * Blocks the submitting thread until the queue has room for the request again. If no room
+     * becomes available within the {@code queueBlockTimeout} of the engine the request is
+     * rejected.
+     */
+    BLOCK,
+
+    /**
+     * Rejects the request right away. {@link DownloadEngine#submit(DownloadRequest)} returns
+     * {@code null} and the future returned by {@link DownloadEngine#submitAsync(DownloadRequest)}
+     * is completed with a {@link DownloadRejectedException}.
+     */
+    REJECT,
+
+    /**
+     * Writes the recipe of the request into the {@link DownloadRequestSpillStore} of the engine,
+     * from which the request is created again as soon as the queue has room for it. As long as
+     * the store isn't empty, a new request is only put into the queue directly if the queue would
+     * order it before all requests inside the store. The request is spilled only after it has been
+     * accepted by the {@link DownloadSchedulingListener} instances, and the engine doesn't keep it
+     * on the heap afterwards: the wrapper returned to the submitter still completes once the
+     * request has been executed, but an equal request submitted in the meantime is no longer
+     * coalesced with it until the spilled request has been read back. Requests without a recipe
+     * (or an engine without a spill store) are handled as described for {@link #BLOCK}, and
+     * requests with a deadline are never spilled while deadline scheduling is enabled.
+     */
+    SPILL;
+
+}
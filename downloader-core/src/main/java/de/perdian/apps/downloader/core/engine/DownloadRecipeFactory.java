@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+/**
+ * Creates a {@link DownloadRequest} from the serializable information stored in a
+ * {@link DownloadRequestRecipe}
+ *
+ * @author Christian Robert
+ */
+
+@FunctionalInterface
+public interface DownloadRecipeFactory {
+
+    DownloadRequest createRequest(DownloadRequestRecipe recipe) throws Exception;
+
+}
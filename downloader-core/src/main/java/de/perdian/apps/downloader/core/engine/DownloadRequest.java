@@ -19,8 +19,12 @@ import de.perdian.apps.downloader.core.support.StreamFactory;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Transporter object to request the {@link DownloadEngine} to schedule a download operation for a
@@ -37,9 +41,18 @@ public class DownloadRequest {
 
     private String id = null;
     private String title = null;
+    private String host = null;
+    private String sourceKey = null;
+    private String contentHash = null;
+    private String groupKey = null;
     private DownloadTaskFactory taskFactory = null;
     private StreamFactory previewImageFactory = null;
     private int priority = 0;
+    private Instant deadline = null;
+    private long estimatedSize = 0;
+    private long bandwidthLimit = 0;
+    private DownloadRetryPolicy retryPolicy = null;
+    private DownloadRequestRecipe recipe = null;
     private List<DownloadPostProcessor> postProcessors = new ArrayList<>();
 
     @Override
@@ -61,6 +74,86 @@ public class DownloadRequest {
         this.title = title;
     }
 
+    /**
+     * Gets the host from which the data will be retrieved. The {@link DownloadEngine} uses the
+     * host to limit the number of operations running in parallel against a single remote server.
+     * If no host is set, only the global limits of the engine apply.
+     */
+    public String getHost() {
+        return this.host;
+    }
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Gets a canonical description of the remote resource from which the data will be retrieved
+     * (like its URL, see {@link #createSourceKey(String)}). As long as a request is being executed
+     * by the {@link DownloadEngine}, any further request with the same source key (or the same
+     * {@code id}) is attached to it instead of being executed a second time.
+     */
+    public String getSourceKey() {
+        return this.sourceKey;
+    }
+    public void setSourceKey(String sourceKey) {
+        this.sourceKey = sourceKey;
+    }
+
+    /**
+     * Gets the SHA-256 hash of the content that will be downloaded, if it is known in advance. If
+     * a {@link DownloadContentStore} has been configured within the {@link DownloadEngine} and
+     * already contains the content, the target file is created from the store and no data is
+     * transferred at all.
+     */
+    public String getContentHash() {
+        return this.contentHash;
+    }
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Creates the source key for a resource identified by the given URL. Different spellings of
+     * the same URL (upper case scheme or host, the default port being given explicitly, relative
+     * path segments or a fragment) result in the same key.
+     */
+    public static String createSourceKey(String url) {
+        if (url == null) {
+            throw new NullPointerException("Parameter 'url' must not be null!");
+        } else {
+            try {
+                URI uri = new URI(url.strip()).normalize();
+                if (uri.getScheme() == null || uri.getHost() == null) {
+                    return uri.toString();
+                } else {
+                    String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+                    int port = ("http".equals(scheme) && uri.getPort() == 80) || ("https".equals(scheme) && uri.getPort() == 443) ? -1 : uri.getPort();
+                    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                    StringBuilder sourceKey = new StringBuilder();
+                    sourceKey.append(scheme).append("://").append(uri.getHost().toLowerCase(Locale.ROOT));
+                    sourceKey.append(port > -1 ? ":" + port : "").append(path);
+                    sourceKey.append(uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+                    return sourceKey.toString();
+                }
+            } catch (URISyntaxException e) {
+                return url.strip();
+            }
+        }
+    }
+
+    /**
+     * Gets the key of the group to which the request belongs (like the album or playlist it has
+     * been created for). If fair queuing is enabled within the {@link DownloadEngine}, the
+     * processor slots are shared between all groups with waiting requests instead of being handed
+     * out strictly in the order in which the requests have been submitted.
+     */
+    public String getGroupKey() {
+        return this.groupKey;
+    }
+    public void setGroupKey(String groupKey) {
+        this.groupKey = groupKey;
+    }
+
     public DownloadTaskFactory getTaskFactory() {
         return this.taskFactory;
     }
@@ -82,6 +175,64 @@ public class DownloadRequest {
         this.priority = priority;
     }
 
+    /**
+     * Gets the time until which the download must have been completed. If deadline scheduling is
+     * enabled within the {@link DownloadEngine}, requests with the same priority are executed in
+     * the order of their deadlines and a request whose deadline is at risk is moved to the front
+     * of the queue.
+     */
+    public Instant getDeadline() {
+        return this.deadline;
+    }
+    public void setDeadline(Instant deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Gets the expected number of bytes to be transferred, which is used to predict whether the
+     * deadline can still be reached. A value of {@code 0} means that the size is unknown.
+     */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
+    public void setEstimatedSize(long estimatedSize) {
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * Gets the maximum number of bytes per second that will be written by the operation
+     * executing this request. A value of {@code 0} means that only the limit of the
+     * {@link DownloadEngine} applies.
+     */
+    public long getBandwidthLimit() {
+        return this.bandwidthLimit;
+    }
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
+    /**
+     * Gets the policy deciding whether the request will be executed again after an operation has
+     * failed. If no policy is set, the retry policy of the {@link DownloadEngine} applies.
+     */
+    public DownloadRetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+    public void setRetryPolicy(DownloadRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the serializable description from which this request can be created again. Only
+     * requests providing a recipe can be stored persistently outside of the running application.
+     */
+    public DownloadRequestRecipe getRecipe() {
+        return this.recipe;
+    }
+    public void setRecipe(DownloadRequestRecipe recipe) {
+        this.recipe = recipe;
+    }
+
     public DownloadRequest addProcessor(DownloadPostProcessor postProcessor) {
         if (this.postProcessors == null) {
             this.postProcessors = new ArrayList<>();
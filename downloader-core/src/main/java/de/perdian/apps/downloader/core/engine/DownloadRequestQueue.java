@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import de.perdian.apps.downloader.core.support.impl.ByteArrayStreamFactory;
+
+/**
+ * Queue holding the requests waiting inside a {@link DownloadEngine}. In addition to the ordering
+ * provided by the {@link DownloadRequestWrapper.PriorityComparator} it keeps track of the number
+ * of waiting requests and of the heap they are estimated to occupy, since computing the size of
+ * a skip list requires a traversal of all of its elements.
+ *
+ * To find the next request that can be started without walking past all requests of a saturated
+ * host, the requests that are ready to be started are indexed by their host as well (see
+ * {@link #selectNext(Predicate)}). A request waiting for its retry time (see
+ * {@link DownloadRequestWrapper#getNotBeforeTime()}) is left out of that index until it has been
+ * released using {@link #releaseDelayedRequest(DownloadRequestWrapper)}.
+ *
+ * Only {@link #add(DownloadRequestWrapper)}, {@link #remove(Object)}, {@link #pollFirst()},
+ * {@link #pollLast()} and {@link #clear()} are tracked, so elements must never be removed through
+ * an iterator or any of the bulk removal methods.
+ *
+ * @author Christian Robert
+ */
+
+class DownloadRequestQueue extends ConcurrentSkipListSet<DownloadRequestWrapper> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Heap estimated for the wrapper and the request themselves, including the factories and the
+     * lambdas they capture
+     */
+    static final long REQUEST_MEMORY_OVERHEAD = 1024;
+
+    private static final String NO_HOST = "";
+
+    private Map<String, NavigableSet<DownloadRequestWrapper>> readyRequestsByHost = new ConcurrentHashMap<>();
+    private AtomicInteger count = new AtomicInteger();
+    private AtomicLong memoryEstimate = new AtomicLong();
+    private transient Object capacityMonitor = new Object();
+    private volatile int capacityWaiterCount = 0;
+
+    DownloadRequestQueue() {
+        super(new DownloadRequestWrapper.PriorityComparator());
+    }
+
+    /**
+     * Estimates the heap occupied by a request. Only the data held directly by the request is
+     * considered - a preview image that is loaded from a remote resource on demand doesn't count.
+     */
+    static long estimateMemory(DownloadRequest request) {
+        long memoryEstimate = REQUEST_MEMORY_OVERHEAD;
+        memoryEstimate += request.getTitle() == null ? 0 : 2L * request.getTitle().length();
+        if (request.getPreviewImageFactory() instanceof ByteArrayStreamFactory previewImageFactory) {
+            try {
+                memoryEstimate += previewImageFactory.size();
+            } catch (IOException e) {
+                // Cannot happen for an in-memory factory, so we simply ignore the preview
+            }
+        }
+        if (request.getRecipe() != null) {
+            memoryEstimate += request.getRecipe().getParameters().size() * 128L;
+        }
+        return memoryEstimate;
+    }
+
+    @Override
+    public boolean add(DownloadRequestWrapper requestWrapper) {
+        if (super.add(requestWrapper)) {
+            if (requestWrapper.getNotBeforeTime() == null) {
+                this.addReadyRequest(requestWrapper);
+            }
+            this.getCount().incrementAndGet();
+            this.getMemoryEstimate().addAndGet(requestWrapper.getMemoryEstimate());
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean remove(Object requestWrapper) {
+        if (super.remove(requestWrapper)) {
+            this.onRemoved((DownloadRequestWrapper)requestWrapper);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public DownloadRequestWrapper pollFirst() {
+        return this.onRemoved(super.pollFirst());
+    }
+
+    @Override
+    public DownloadRequestWrapper pollLast() {
+        return this.onRemoved(super.pollLast());
+    }
+
+    @Override
+    public void clear() {
+        while (this.pollFirst() != null) {
+            // The counters are updated for every single request being removed
+        }
+    }
+
+    private DownloadRequestWrapper onRemoved(DownloadRequestWrapper requestWrapper) {
+        if (requestWrapper != null) {
+            this.removeReadyRequest(requestWrapper);
+            this.getCount().decrementAndGet();
+            this.getMemoryEstimate().addAndGet(-requestWrapper.getMemoryEstimate());
+            this.signalCapacity();
+        }
+        return requestWrapper;
+    }
+
+    private void addReadyRequest(DownloadRequestWrapper requestWrapper) {
+        this.getReadyRequestsByHost().compute(DownloadRequestQueue.resolveHostKey(requestWrapper), (hostKey, readyRequests) -> {
+            NavigableSet<DownloadRequestWrapper> hostReadyRequests = readyRequests == null ? new ConcurrentSkipListSet<>(this.comparator()) : readyRequests;
+            hostReadyRequests.add(requestWrapper);
+            return hostReadyRequests;
+        });
+    }
+
+    private void removeReadyRequest(DownloadRequestWrapper requestWrapper) {
+        this.getReadyRequestsByHost().computeIfPresent(DownloadRequestQueue.resolveHostKey(requestWrapper), (hostKey, readyRequests) -> {
+            readyRequests.remove(requestWrapper);
+            return readyRequests.isEmpty() ? null : readyRequests;
+        });
+    }
+
+    private static String resolveHostKey(DownloadRequestWrapper requestWrapper) {
+        String host = requestWrapper.getRequest() == null ? null : requestWrapper.getRequest().getHost();
+        return host == null ? NO_HOST : host;
+    }
+
+    /**
+     * Finds the request that is to be started next among all requests that are ready to be
+     * started and whose host is accepted by the given filter. Only the first request of every
+     * host needs to be looked at, so the effort depends on the number of hosts instead of the
+     * number of waiting requests. The request is not removed from the queue.
+     *
+     * @param hostFilter
+     *     decides whether a request for the given host (which might be {@code null}) can be
+     *     started right now
+     */
+    DownloadRequestWrapper selectNext(Predicate<String> hostFilter) {
+        DownloadRequestWrapper nextRequestWrapper = null;
+        for (Map.Entry<String, NavigableSet<DownloadRequestWrapper>> readyRequestsEntry : this.getReadyRequestsByHost().entrySet()) {
+            String host = NO_HOST.equals(readyRequestsEntry.getKey()) ? null : readyRequestsEntry.getKey();
+            DownloadRequestWrapper hostRequestWrapper = readyRequestsEntry.getValue().isEmpty() ? null : readyRequestsEntry.getValue().first();
+            if (hostRequestWrapper != null && (nextRequestWrapper == null || this.comparator().compare(hostRequestWrapper, nextRequestWrapper) < 0) && hostFilter.test(host)) {
+                nextRequestWrapper = hostRequestWrapper;
+            }
+        }
+        return nextRequestWrapper;
+    }
+
+    /**
+     * Makes a request that has been waiting for its retry time available to
+     * {@link #selectNext(Predicate)}
+     */
+    void releaseDelayedRequest(DownloadRequestWrapper requestWrapper) {
+        synchronized (requestWrapper) {
+            requestWrapper.setNotBeforeTime(null);
+            if (this.contains(requestWrapper)) {
+                this.addReadyRequest(requestWrapper);
+            }
+        }
+    }
+
+    /**
+     * Removes a request returned by {@link #selectNext(Predicate)} from the host index if it
+     * turned out to have left the queue in the meantime. The request is locked while checking,
+     * since a request is only ever taken out of the queue temporarily (to change its position)
+     * while being locked.
+     */
+    void discardStaleRequest(DownloadRequestWrapper requestWrapper) {
+        synchronized (requestWrapper) {
+            if (!this.contains(requestWrapper)) {
+                this.removeReadyRequest(requestWrapper);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.getCount().get();
+    }
+
+    /**
+     * Gets the heap estimated to be occupied by all requests inside the queue
+     */
+    long estimateMemory() {
+        return this.getMemoryEstimate().get();
+    }
+
+    /**
+     * Waits until the given condition is fulfilled. The condition is checked again whenever a
+     * request has been removed from the queue or {@link #signalCapacity()} has been called.
+     *
+     * @return
+     *     {@code true} if the condition has been fulfilled, {@code false} if the timeout has
+     *     elapsed before
+     */
+    boolean awaitCapacity(BooleanSupplier capacityAvailable, Duration timeout) throws InterruptedException {
+        if (capacityAvailable.getAsBoolean()) {
+            return true;
+        } else {
+            long deadlineNanos = System.nanoTime() + timeout.toNanos();
+            synchronized (this.getCapacityMonitor()) {
+                this.capacityWaiterCount++;
+                try {
+                    while (!capacityAvailable.getAsBoolean()) {
+                        long remainingNanos = deadlineNanos - System.nanoTime();
+                        if (remainingNanos <= 0) {
+                            return false;
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(this.getCapacityMonitor(), remainingNanos);
+                        }
+                    }
+                    return true;
+                } finally {
+                    this.capacityWaiterCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up all threads waiting for capacity, so that they check their condition again. The
+     * monitor is only entered if somebody is actually waiting, which keeps the removal of
+     * requests cheap as long as no submitter is being blocked.
+     */
+    void signalCapacity() {
+        if (this.capacityWaiterCount > 0) {
+            synchronized (this.getCapacityMonitor()) {
+                this.getCapacityMonitor().notifyAll();
+            }
+        }
+    }
+
+    private Map<String, NavigableSet<DownloadRequestWrapper>> getReadyRequestsByHost() {
+        return this.readyRequestsByHost;
+    }
+
+    private AtomicInteger getCount() {
+        return this.count;
+    }
+
+    private AtomicLong getMemoryEstimate() {
+        return this.memoryEstimate;
+    }
+
+    private Object getCapacityMonitor() {
+        return this.capacityMonitor;
+    }
+
+}
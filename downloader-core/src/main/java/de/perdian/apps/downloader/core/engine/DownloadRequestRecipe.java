@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serializable description of a {@link DownloadRequest}. In contrast to the request itself (which
+ * contains factories that cannot be stored outside of the running application) the recipe only
+ * consists of plain strings, from which the {@link DownloadRecipeFactory} registered for the
+ * {@code factoryId} is able to create an equivalent request again - for example after the
+ * application has been restarted.
+ *
+ * @author Christian Robert
+ */
+
+public class DownloadRequestRecipe {
+
+    private String factoryId = null;
+    private Map<String, String> parameters = null;
+
+    public DownloadRequestRecipe(String factoryId, Map<String, String> parameters) {
+        if (factoryId == null) {
+            throw new NullPointerException("Parameter 'factoryId' must not be null!");
+        } else {
+            this.setFactoryId(factoryId);
+            this.setParameters(parameters == null ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(parameters)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadRequestRecipe[factoryId=" + this.getFactoryId() + ",parameters=" + this.getParameters() + "]";
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        } else if (that instanceof DownloadRequestRecipe thatRecipe) {
+            return Objects.equals(this.getFactoryId(), thatRecipe.getFactoryId()) && Objects.equals(this.getParameters(), thatRecipe.getParameters());
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.getFactoryId(), this.getParameters());
+    }
+
+    public String getParameter(String parameterName) {
+        return this.getParameters().get(parameterName);
+    }
+
+    /**
+     * Gets the identifier of the {@link DownloadRecipeFactory} that is able to create a request
+     * from this recipe
+     */
+    public String getFactoryId() {
+        return this.factoryId;
+    }
+    private void setFactoryId(String factoryId) {
+        this.factoryId = factoryId;
+    }
+
+    public Map<String, String> getParameters() {
+        return this.parameters;
+    }
+    private void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+}
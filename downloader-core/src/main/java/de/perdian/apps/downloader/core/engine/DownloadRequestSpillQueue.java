@@ -0,0 +1,368 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the requests a {@link DownloadEngine} has written into its
+ * {@link DownloadRequestSpillStore}. Everything needed to execute a spilled request (its recipe,
+ * its {@code id} and {@code sourceKey} and the key by which it is ordered) is kept inside the
+ * store, so the heap doesn't grow with the number of spilled requests: the wrapper of a spilled
+ * request is only referenced weakly. If the wrapper is still in use once the request is read
+ * back, the request is handed back to it, otherwise a new wrapper is created for the request
+ * created from its recipe.
+ *
+ * The wrapper of a request whose result is being observed (see
+ * {@link DownloadRequestWrapper#toCompletableFuture()}) is retained, since its future has to be
+ * completed once the request has been executed.
+ *
+ * A request cannot be taken out of the store, so a spilled request that is removed (for example
+ * because it has been cancelled) is only marked as being discarded and skipped once it is read
+ * back.
+ *
+ * @author Christian Robert
+ */
+
+class DownloadRequestSpillQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadRequestSpillQueue.class);
+
+    private DownloadEngine owner = null;
+    private Map<Long, SpilledRequestHandle> handles = null;
+    private ReferenceQueue<DownloadRequestWrapper> collectedWrappers = null;
+    private AtomicBoolean reading = null;
+    private AtomicInteger discardedCount = null;
+    private volatile DownloadRequestSpillStore spillStore = null;
+
+    DownloadRequestSpillQueue(DownloadEngine owner) {
+        this.setOwner(owner);
+        this.setHandles(new ConcurrentHashMap<>());
+        this.setCollectedWrappers(new ReferenceQueue<>());
+        this.setReading(new AtomicBoolean());
+        this.setDiscardedCount(new AtomicInteger());
+    }
+
+    /**
+     * Checks whether the given request can be written into the spill store
+     */
+    boolean isSpillable(DownloadRequest request) {
+        DownloadRequestSpillStore spillStore = this.getSpillStore();
+        return spillStore != null && spillStore.isSpillable(request);
+    }
+
+    /**
+     * Checks whether the given request is to be executed before all requests inside the spill
+     * store (see {@link DownloadRequestSpillStore#precedes(DownloadRequestWrapper)})
+     */
+    boolean precedes(DownloadRequestWrapper requestWrapper) {
+        DownloadRequestSpillStore spillStore = this.getSpillStore();
+        return spillStore == null || spillStore.precedes(requestWrapper);
+    }
+
+    /**
+     * Writes the request of the given wrapper into the spill store. Must be called while holding
+     * the lock of the wrapper, so that the request cannot be read back before the caller has
+     * finished spilling it.
+     *
+     * @return
+     *     {@code true} if the request has been spilled, {@code false} if it cannot be written into
+     *     the store
+     */
+    boolean spill(DownloadRequestWrapper requestWrapper) throws IOException {
+        DownloadRequestSpillStore spillStore = this.getSpillStore();
+        if (spillStore == null) {
+            return false;
+        } else {
+            this.purgeHandles();
+            SpilledRequestHandle handle = new SpilledRequestHandle(requestWrapper, this.getCollectedWrappers());
+            if (requestWrapper.isResultObserved()) {
+                handle.setRetainedWrapper(requestWrapper);
+            }
+            this.getHandles().put(handle.getSequence(), handle);
+            requestWrapper.setSpilled(true);
+            boolean spilled = false;
+            try {
+                spilled = spillStore.spill(requestWrapper);
+                return spilled;
+            } finally {
+                if (!spilled) {
+                    requestWrapper.setSpilled(false);
+                    this.getHandles().remove(handle.getSequence(), handle);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure the wrapper of a spilled request isn't released while the request is inside the
+     * spill store. Must be called while holding the lock of the wrapper.
+     */
+    void retain(DownloadRequestWrapper requestWrapper) {
+        SpilledRequestHandle handle = requestWrapper.isSpilled() ? this.getHandles().get(requestWrapper.getSequence()) : null;
+        if (handle != null) {
+            handle.setRetainedWrapper(requestWrapper);
+        }
+    }
+
+    /**
+     * Removes a spilled request, so that it will be discarded once it is read back from the spill
+     * store. Must be called while holding the lock of the wrapper.
+     *
+     * @return
+     *     {@code true} if the request has been spilled and has now been removed, {@code false} if
+     *     the request isn't spilled (anymore)
+     */
+    boolean remove(DownloadRequestWrapper requestWrapper) {
+        if (!requestWrapper.isSpilled()) {
+            return false;
+        } else {
+            requestWrapper.setSpilled(false);
+            SpilledRequestHandle handle = this.getHandles().get(requestWrapper.getSequence());
+            if (handle != null) {
+                handle.setRetainedWrapper(null);
+                handle.setDiscarded(true);
+            }
+            this.getDiscardedCount().incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Reads requests from the spill store for as long as the given condition is met. Only one
+     * thread at a time reads from the spill store, every other one leaves the work to it.
+     *
+     * @param capacitySupplier
+     *     checks whether there is room for another request
+     * @param requestWrapperConsumer
+     *     receives the wrappers of the requests read back, while holding the lock of the wrapper
+     */
+    void read(BooleanSupplier capacitySupplier, Consumer<DownloadRequestWrapper> requestWrapperConsumer) {
+        DownloadRequestSpillStore spillStore = this.getSpillStore();
+        while (spillStore != null && !spillStore.isEmpty() && capacitySupplier.getAsBoolean() && this.getReading().compareAndSet(false, true)) {
+            try {
+                while (!spillStore.isEmpty() && capacitySupplier.getAsBoolean()) {
+                    DownloadRequestSpillStore.SpilledRequest spilledRequest = spillStore.poll();
+                    if (spilledRequest != null) {
+                        this.restore(spilledRequest, requestWrapperConsumer);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot read spilled requests from: {}", spillStore, e);
+                return;
+            } finally {
+                this.getReading().set(false);
+            }
+        }
+    }
+
+    /**
+     * Reads all requests from the spill store
+     *
+     * @return
+     *     the wrappers of the requests read back
+     */
+    List<DownloadRequestWrapper> drain() {
+        List<DownloadRequestWrapper> drainedRequestWrappers = new ArrayList<>();
+        DownloadRequestSpillStore spillStore = this.getSpillStore();
+        try {
+            for (DownloadRequestSpillStore.SpilledRequest spilledRequest = spillStore == null ? null : spillStore.poll(); spilledRequest != null; spilledRequest = spillStore.poll()) {
+                this.restore(spilledRequest, drainedRequestWrappers::add);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read spilled requests from: {}", spillStore, e);
+        }
+        return drainedRequestWrappers;
+    }
+
+    /**
+     * Hands a request that has been read back from the spill store over to the wrapper it has been
+     * spilled from or, if that wrapper isn't used anymore, to a new wrapper
+     */
+    private void restore(DownloadRequestSpillStore.SpilledRequest spilledRequest, Consumer<DownloadRequestWrapper> requestWrapperConsumer) {
+        this.purgeHandles();
+        SpilledRequestHandle handle = this.getHandles().remove(spilledRequest.getSequence());
+        DownloadRequestWrapper requestWrapper = handle == null ? null : handle.get();
+        if (requestWrapper != null) {
+            synchronized (requestWrapper) {
+                if (requestWrapper.isSpilled()) {
+                    requestWrapper.setSpilled(false);
+                    requestWrapperConsumer.accept(requestWrapper);
+                    return;
+                }
+            }
+        } else if (handle == null || !handle.isDiscarded()) {
+            DownloadRequestWrapper newRequestWrapper = this.createRequestWrapper(spilledRequest);
+            if (newRequestWrapper != null) {
+                synchronized (newRequestWrapper) {
+                    requestWrapperConsumer.accept(newRequestWrapper);
+                }
+            }
+            return;
+        }
+        log.debug("Discarding spilled request that has been removed: {}", spilledRequest);
+        this.getDiscardedCount().decrementAndGet();
+    }
+
+    /**
+     * Creates a new wrapper for a request whose original wrapper isn't used anymore
+     *
+     * @return
+     *     the wrapper or {@code null} if the request couldn't be created from its recipe
+     */
+    private DownloadRequestWrapper createRequestWrapper(DownloadRequestSpillStore.SpilledRequest spilledRequest) {
+        DownloadRequest request = spilledRequest.getRequest();
+        try {
+            DownloadEngine.validateRequest(request);
+        } catch (NullPointerException e) {
+            log.warn("Invalid request created from spilled recipe, discarding request: {}", spilledRequest, e);
+            return null;
+        }
+        DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
+        requestWrapper.setOwner(this.getOwner());
+        requestWrapper.setRequest(request);
+        requestWrapper.setMemoryEstimate(DownloadRequestQueue.estimateMemory(request));
+        requestWrapper.setScheduledTime(spilledRequest.getScheduledTime());
+        requestWrapper.setSequence(spilledRequest.getSequence());
+        requestWrapper.setPriority(spilledRequest.getPriority());
+        requestWrapper.setAgedPriority(spilledRequest.getAgedPriority());
+        requestWrapper.setDeadline(spilledRequest.getDeadline());
+        requestWrapper.setFairStartTag(spilledRequest.getFairStartTag());
+        requestWrapper.setFairFinishTag(spilledRequest.getFairFinishTag());
+        return requestWrapper;
+    }
+
+    /**
+     * Forgets about the wrappers that have been released by the garbage collector. The handle of a
+     * removed request is kept, since the request still has to be discarded once it is read back.
+     */
+    private void purgeHandles() {
+        for (Reference<? extends DownloadRequestWrapper> reference = this.getCollectedWrappers().poll(); reference != null; reference = this.getCollectedWrappers().poll()) {
+            SpilledRequestHandle handle = (SpilledRequestHandle) reference;
+            if (!handle.isDiscarded()) {
+                this.getHandles().remove(handle.getSequence(), handle);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of requests inside the spill store, without the ones that have been removed
+     */
+    int size() {
+        DownloadRequestSpillStore spillStore = this.getSpillStore();
+        return spillStore == null ? 0 : Math.max(0, spillStore.size() - this.getDiscardedCount().get());
+    }
+
+    boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * References the wrapper of a spilled request without keeping it on the heap, unless it has to
+     * be retained
+     */
+    static class SpilledRequestHandle extends WeakReference<DownloadRequestWrapper> {
+
+        private long sequence = 0;
+        private volatile DownloadRequestWrapper retainedWrapper = null;
+        private volatile boolean discarded = false;
+
+        SpilledRequestHandle(DownloadRequestWrapper requestWrapper, ReferenceQueue<DownloadRequestWrapper> referenceQueue) {
+            super(requestWrapper, referenceQueue);
+            this.sequence = requestWrapper.getSequence();
+        }
+
+        long getSequence() {
+            return this.sequence;
+        }
+
+        DownloadRequestWrapper getRetainedWrapper() {
+            return this.retainedWrapper;
+        }
+        void setRetainedWrapper(DownloadRequestWrapper retainedWrapper) {
+            this.retainedWrapper = retainedWrapper;
+        }
+
+        boolean isDiscarded() {
+            return this.discarded;
+        }
+        void setDiscarded(boolean discarded) {
+            this.discarded = discarded;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private DownloadEngine getOwner() {
+        return this.owner;
+    }
+    private void setOwner(DownloadEngine owner) {
+        this.owner = owner;
+    }
+
+    private Map<Long, SpilledRequestHandle> getHandles() {
+        return this.handles;
+    }
+    private void setHandles(Map<Long, SpilledRequestHandle> handles) {
+        this.handles = handles;
+    }
+
+    private ReferenceQueue<DownloadRequestWrapper> getCollectedWrappers() {
+        return this.collectedWrappers;
+    }
+    private void setCollectedWrappers(ReferenceQueue<DownloadRequestWrapper> collectedWrappers) {
+        this.collectedWrappers = collectedWrappers;
+    }
+
+    private AtomicBoolean getReading() {
+        return this.reading;
+    }
+    private void setReading(AtomicBoolean reading) {
+        this.reading = reading;
+    }
+
+    private AtomicInteger getDiscardedCount() {
+        return this.discardedCount;
+    }
+    private void setDiscardedCount(AtomicInteger discardedCount) {
+        this.discardedCount = discardedCount;
+    }
+
+    DownloadRequestSpillStore getSpillStore() {
+        return this.spillStore;
+    }
+    void setSpillStore(DownloadRequestSpillStore spillStore) {
+        this.spillStore = spillStore;
+    }
+
+}
@@ -0,0 +1,697 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+import de.perdian.apps.downloader.core.engine.DownloadRequestWrapper.PriorityComparator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the requests a {@link DownloadEngine} cannot keep inside its waiting queue on disk (see
+ * {@link DownloadQueueOverflowPolicy#SPILL}), so that the heap needed by the engine doesn't grow
+ * with the number of waiting requests. Together with the waiting queue (limited by the
+ * {@code queueCapacity} of the engine) it forms a tiered queue: the requests with the highest
+ * priority are kept in memory, all others are kept inside this store until the engine has room
+ * for them again.
+ *
+ * Only the {@link DownloadRequestRecipe} of a request is stored, together with its {@code id} and
+ * {@code sourceKey} and the key by which the waiting queue of the engine orders it (its aged
+ * priority, deadline, fair queuing tags, the time at which it has been scheduled and its sequence
+ * within the engine, see {@link DownloadRequestWrapper.PriorityComparator}). The request is created
+ * again using the {@link DownloadRecipeFactory} registered for the recipe once it is needed after
+ * having been read back. Requests are read back in the same order in which the waiting queue
+ * would execute them, so the two tiers of the queue never disagree about which request comes
+ * next.
+ *
+ * New records are collected in memory until {@code segmentRecordCount} records are available,
+ * which are then written into a new segment file sorted by the order in which they will be read
+ * back. The segment files are memory mapped, so their content is only paged in by the operating
+ * system when it is needed and the heap only holds the next record of every segment. Whenever
+ * there are more than {@code maxSegmentCount} segments, the smaller half of them is merged into
+ * a single segment, which keeps the number of segments low without rewriting the larger
+ * segments over and over again.
+ *
+ * The store is a scratch area, not a journal: all segment files inside the directory are
+ * deleted when the store is opened. Requests that are still inside the store when the
+ * application terminates are returned by {@link DownloadEngine#close(java.time.Duration)} and,
+ * since they have been announced to the listeners before being spilled, are replayed by a
+ * {@link de.perdian.apps.downloader.core.engine.impl.listeners.JournalingSchedulingListener}
+ * after a restart.
+ *
+ * @author Christian Robert
+ */
+
+public class DownloadRequestSpillStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadRequestSpillStore.class);
+    private static final String SEGMENT_FILE_SUFFIX = ".segment";
+    private static final long MAX_SEGMENT_FILE_SIZE = 1024 * 1024 * 1024;
+
+    private Path spillDirectory = null;
+    private Map<String, DownloadRecipeFactory> recipeFactories = null;
+    private PriorityQueue<SpillRecord> writeBuffer = new PriorityQueue<>();
+    private PriorityQueue<SpillSegment> segments = new PriorityQueue<>(Comparator.comparing(SpillSegment::getHeadRecord));
+    private long segmentSequence = 0;
+    private int segmentRecordCount = 4096;
+    private int maxSegmentCount = 32;
+    private volatile int size = 0;
+
+    public DownloadRequestSpillStore(Path spillDirectory, Map<String, DownloadRecipeFactory> recipeFactories) throws IOException {
+        this.setSpillDirectory(Objects.requireNonNull(spillDirectory, "Parameter 'spillDirectory' must not be null!"));
+        this.setRecipeFactories(Objects.requireNonNull(recipeFactories, "Parameter 'recipeFactories' must not be null!"));
+        Files.createDirectories(spillDirectory);
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(spillDirectory, "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path segmentFile : segmentFiles) {
+                Files.delete(segmentFile);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(this.getClass().getSimpleName());
+        result.append("[spillDirectory=").append(this.getSpillDirectory());
+        result.append(",size=").append(this.size());
+        return result.append("]").toString();
+    }
+
+    /**
+     * Checks whether the given request can be written into this store, which requires it to
+     * provide a recipe for which a factory has been registered
+     */
+    public boolean isSpillable(DownloadRequest request) {
+        return request.getRecipe() != null && this.getRecipeFactories().containsKey(request.getRecipe().getFactoryId());
+    }
+
+    /**
+     * Checks whether the given request is to be executed before all requests inside this store,
+     * which is the case if the store is empty or the waiting queue of the engine would order the
+     * request before any of the requests inside the store.
+     */
+    public synchronized boolean precedes(DownloadRequestWrapper requestWrapper) {
+        SpillRecord nextRecord = this.peekRecord();
+        return nextRecord == null || new SpillRecord(requestWrapper, null).compareTo(nextRecord) < 0;
+    }
+
+    /**
+     * Writes the request of the given wrapper into the store, together with the key by which it is
+     * ordered inside the waiting queue of the engine. The sequence of the wrapper is handed back
+     * when the request is read back, so that the engine is able to tell which request it is.
+     *
+     * @return
+     *     {@code true} if the request has been written, {@code false} if it cannot be stored
+     *     since it doesn't provide a recipe for which a factory has been registered
+     */
+    public synchronized boolean spill(DownloadRequestWrapper requestWrapper) throws IOException {
+        DownloadRequest request = requestWrapper.getRequest();
+        if (!this.isSpillable(request)) {
+            return false;
+        } else {
+            this.getWriteBuffer().add(new SpillRecord(requestWrapper, DownloadRequestSpillStore.formatRecipe(request.getRecipe())));
+            this.size++;
+            if (this.getWriteBuffer().size() >= this.getSegmentRecordCount()) {
+                this.flushWriteBuffer();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the next request from the store
+     *
+     * @return
+     *     the next request or {@code null} if the store is empty. The request itself is only
+     *     created from its recipe when it is requested from the returned value.
+     */
+    public synchronized SpilledRequest poll() throws IOException {
+        if (this.size <= 0) {
+            return null;
+        } else {
+            SpillRecord record = this.pollRecord();
+            this.size--;
+            return new SpilledRequest(this, record);
+        }
+    }
+
+    private SpillRecord peekRecord() {
+        SpillRecord bufferRecord = this.getWriteBuffer().peek();
+        SpillSegment segment = this.getSegments().peek();
+        if (segment == null || (bufferRecord != null && bufferRecord.compareTo(segment.getHeadRecord()) < 0)) {
+            return bufferRecord;
+        } else {
+            return segment.getHeadRecord();
+        }
+    }
+
+    private SpillRecord pollRecord() throws IOException {
+        SpillRecord bufferRecord = this.getWriteBuffer().peek();
+        SpillSegment segment = this.getSegments().peek();
+        if (segment == null || (bufferRecord != null && bufferRecord.compareTo(segment.getHeadRecord()) < 0)) {
+            return this.getWriteBuffer().poll();
+        } else {
+            return this.pollSegmentRecord(this.getSegments().poll());
+        }
+    }
+
+    /**
+     * Takes the next record from a segment that has already been removed from the segment
+     * queue, and puts the segment back into the queue if it contains further records
+     */
+    private SpillRecord pollSegmentRecord(SpillSegment segment) throws IOException {
+        SpillRecord record = segment.getHeadRecord();
+        if (segment.advance()) {
+            this.getSegments().add(segment);
+        } else {
+            this.deleteSegment(segment);
+        }
+        return record;
+    }
+
+    /**
+     * Deletes the file of a segment that has been read completely. Some platforms don't allow a
+     * file to be deleted while it is still mapped into memory, in which case the file is left
+     * behind and will be deleted the next time the store is opened.
+     */
+    private void deleteSegment(SpillSegment segment) {
+        try {
+            Files.deleteIfExists(segment.getFile());
+        } catch (IOException e) {
+            log.debug("Cannot delete spill segment: {}", segment.getFile(), e);
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        List<SpillSegment> flushedSegments = new ArrayList<>(1);
+        try (SegmentWriter segmentWriter = new SegmentWriter(flushedSegments)) {
+            for (SpillRecord record = this.getWriteBuffer().poll(); record != null; record = this.getWriteBuffer().poll()) {
+                segmentWriter.write(record);
+            }
+        }
+        this.getSegments().addAll(flushedSegments);
+        if (this.getSegments().size() > this.getMaxSegmentCount()) {
+            this.mergeSegments();
+        }
+    }
+
+    private void mergeSegments() throws IOException {
+        List<SpillSegment> mergeSegments = new ArrayList<>(this.getSegments());
+        mergeSegments.sort(Comparator.comparingLong(SpillSegment::getFileSize));
+        mergeSegments = mergeSegments.subList(0, mergeSegments.size() / 2 + 1);
+        log.debug("Merging {} spill segments in: {}", mergeSegments.size(), this.getSpillDirectory());
+
+        PriorityQueue<SpillSegment> mergeQueue = new PriorityQueue<>(this.getSegments().comparator());
+        mergeSegments.forEach(this.getSegments()::remove);
+        mergeQueue.addAll(mergeSegments);
+        List<SpillSegment> mergedSegments = new ArrayList<>();
+        try (SegmentWriter segmentWriter = new SegmentWriter(mergedSegments)) {
+            while (!mergeQueue.isEmpty()) {
+                SpillSegment segment = mergeQueue.poll();
+                segmentWriter.write(segment.getHeadRecord());
+                if (segment.advance()) {
+                    mergeQueue.add(segment);
+                } else {
+                    this.deleteSegment(segment);
+                }
+            }
+        }
+        this.getSegments().addAll(mergedSegments);
+    }
+
+    private DownloadRequest createRequest(SpillRecord record) {
+        DownloadRequestRecipe recipe = DownloadRequestSpillStore.parseRecipe(record.getRecipe());
+        try {
+            DownloadRequest request = this.getRecipeFactories().get(recipe.getFactoryId()).createRequest(recipe);
+            if (request != null) {
+                request.setPriority(record.getPriority());
+                if (record.getId() != null) {
+                    request.setId(record.getId());
+                }
+                if (record.getSourceKey() != null) {
+                    request.setSourceKey(record.getSourceKey());
+                }
+                if (request.getRecipe() == null) {
+                    request.setRecipe(recipe);
+                }
+            }
+            return request;
+        } catch (Exception e) {
+            log.warn("Cannot create request from spilled recipe, discarding request: " + recipe, e);
+            return null;
+        }
+    }
+
+    private static String formatRecipe(DownloadRequestRecipe recipe) {
+        StringBuilder result = new StringBuilder();
+        result.append(URLEncoder.encode(recipe.getFactoryId(), StandardCharsets.UTF_8));
+        for (Map.Entry<String, String> parameter : recipe.getParameters().entrySet()) {
+            result.append(' ').append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8));
+            result.append('=').append(URLEncoder.encode(parameter.getValue() == null ? "" : parameter.getValue(), StandardCharsets.UTF_8));
+        }
+        return result.toString();
+    }
+
+    private static DownloadRequestRecipe parseRecipe(String value) {
+        String[] tokens = value.split(" ");
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (int i = 1; i < tokens.length; i++) {
+            int separatorIndex = tokens[i].indexOf('=');
+            parameters.put(URLDecoder.decode(tokens[i].substring(0, separatorIndex), StandardCharsets.UTF_8), URLDecoder.decode(tokens[i].substring(separatorIndex + 1), StandardCharsets.UTF_8));
+        }
+        return new DownloadRequestRecipe(URLDecoder.decode(tokens[0], StandardCharsets.UTF_8), parameters);
+    }
+
+    /**
+     * Removes all requests from the store and deletes the segment files
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.getWriteBuffer().clear();
+        for (SpillSegment segment = this.getSegments().poll(); segment != null; segment = this.getSegments().poll()) {
+            this.deleteSegment(segment);
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Gets the number of requests inside the store
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * A request that has been read back from the store, together with the key by which it has
+     * been ordered inside the waiting queue of the engine
+     */
+    public static class SpilledRequest {
+
+        private DownloadRequestSpillStore store = null;
+        private SpillRecord record = null;
+        private DownloadRequest request = null;
+        private boolean requestCreated = false;
+
+        SpilledRequest(DownloadRequestSpillStore store, SpillRecord record) {
+            this.store = store;
+            this.record = record;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(this.getClass().getSimpleName());
+            result.append("[sequence=").append(this.getSequence());
+            result.append(",recipe=").append(this.record.getRecipe());
+            return result.append("]").toString();
+        }
+
+        /**
+         * Gets the request created from the recipe, or {@code null} if it couldn't be created. The
+         * request is created upon the first call, so a caller that still knows the request doesn't
+         * need to create it again.
+         */
+        public synchronized DownloadRequest getRequest() {
+            if (!this.requestCreated) {
+                this.request = this.store.createRequest(this.record);
+                this.requestCreated = true;
+            }
+            return this.request;
+        }
+
+        public String getId() {
+            return this.record.getId();
+        }
+
+        public String getSourceKey() {
+            return this.record.getSourceKey();
+        }
+
+        public int getPriority() {
+            return this.record.getPriority();
+        }
+
+        long getAgedPriority() {
+            return this.record.getAgedPriority();
+        }
+
+        public Instant getDeadline() {
+            return this.record.getDeadline();
+        }
+
+        long getFairStartTag() {
+            return this.record.getFairStartTag();
+        }
+
+        long getFairFinishTag() {
+            return this.record.getFairFinishTag();
+        }
+
+        public Instant getScheduledTime() {
+            return this.record.getScheduledTime();
+        }
+
+        public long getSequence() {
+            return this.record.getSequence();
+        }
+
+    }
+
+    /**
+     * A single request inside the store. Records are ordered exactly like the
+     * {@link PriorityComparator} orders the wrappers inside the waiting queue: by the aged priority
+     * of the request (highest first), its deadline (earliest first), its fair queuing start tag,
+     * the time at which it has been scheduled and the order in which it has been accepted by the
+     * engine. A request that has been promoted because of its deadline is never spilled, so the
+     * promotion itself doesn't need to be stored.
+     */
+    static class SpillRecord implements Comparable<SpillRecord> {
+
+        private String id = null;
+        private String sourceKey = null;
+        private int priority = 0;
+        private long agedPriority = 0;
+        private Instant deadline = null;
+        private long fairStartTag = 0;
+        private long fairFinishTag = 0;
+        private Instant scheduledTime = null;
+        private long sequence = 0;
+        private String recipe = null;
+
+        SpillRecord(DownloadRequestWrapper requestWrapper, String recipe) {
+            this(requestWrapper.getRequest().getId(), requestWrapper.getRequest().getSourceKey(), requestWrapper.getPriority(), requestWrapper.getAgedPriority(), requestWrapper.getDeadline(), requestWrapper.getFairStartTag(), requestWrapper.getFairFinishTag(), requestWrapper.getScheduledTime(), requestWrapper.getSequence(), recipe);
+        }
+
+        SpillRecord(String id, String sourceKey, int priority, long agedPriority, Instant deadline, long fairStartTag, long fairFinishTag, Instant scheduledTime, long sequence, String recipe) {
+            this.id = id;
+            this.sourceKey = sourceKey;
+            this.priority = priority;
+            this.agedPriority = agedPriority;
+            this.deadline = deadline;
+            this.fairStartTag = fairStartTag;
+            this.fairFinishTag = fairFinishTag;
+            this.scheduledTime = scheduledTime;
+            this.sequence = sequence;
+            this.recipe = recipe;
+        }
+
+        @Override
+        public int compareTo(SpillRecord that) {
+            if (this.getAgedPriority() != that.getAgedPriority()) {
+                return Long.compare(that.getAgedPriority(), this.getAgedPriority());
+            } else if (!Objects.equals(this.getDeadline(), that.getDeadline())) {
+                return Comparator.nullsLast(Comparator.<Instant>naturalOrder()).compare(this.getDeadline(), that.getDeadline());
+            } else if (this.getFairStartTag() != that.getFairStartTag()) {
+                return Long.compare(this.getFairStartTag(), that.getFairStartTag());
+            } else if (Objects.equals(this.getScheduledTime(), that.getScheduledTime())) {
+                return Long.compare(this.getSequence(), that.getSequence());
+            } else {
+                return this.getScheduledTime().compareTo(that.getScheduledTime());
+            }
+        }
+
+        String getId() {
+            return this.id;
+        }
+
+        String getSourceKey() {
+            return this.sourceKey;
+        }
+
+        int getPriority() {
+            return this.priority;
+        }
+
+        long getAgedPriority() {
+            return this.agedPriority;
+        }
+
+        Instant getDeadline() {
+            return this.deadline;
+        }
+
+        long getFairStartTag() {
+            return this.fairStartTag;
+        }
+
+        long getFairFinishTag() {
+            return this.fairFinishTag;
+        }
+
+        Instant getScheduledTime() {
+            return this.scheduledTime;
+        }
+
+        long getSequence() {
+            return this.sequence;
+        }
+
+        String getRecipe() {
+            return this.recipe;
+        }
+
+    }
+
+    /**
+     * A sorted segment file, of which only the next record is held in memory. The file itself is
+     * mapped into memory, so reading through it doesn't need any buffers on the heap.
+     */
+    static class SpillSegment {
+
+        private Path file = null;
+        private long fileSize = 0;
+        private MappedByteBuffer buffer = null;
+        private SpillRecord headRecord = null;
+
+        SpillSegment(Path file) throws IOException {
+            this.file = file;
+            try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                this.fileSize = fileChannel.size();
+                this.buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, this.fileSize);
+            }
+            this.advance();
+        }
+
+        /**
+         * Reads the next record from the segment
+         *
+         * @return
+         *     {@code true} if a record has been read, {@code false} if the end of the segment has
+         *     been reached
+         */
+        boolean advance() {
+            if (!this.buffer.hasRemaining()) {
+                this.headRecord = null;
+                this.buffer = null;
+                return false;
+            } else {
+                String id = this.readString();
+                String sourceKey = this.readString();
+                int priority = this.buffer.getInt();
+                long agedPriority = this.buffer.getLong();
+                Instant deadline = this.buffer.get() == 0 ? null : this.readInstant();
+                long fairStartTag = this.buffer.getLong();
+                long fairFinishTag = this.buffer.getLong();
+                Instant scheduledTime = this.readInstant();
+                long sequence = this.buffer.getLong();
+                String recipe = this.readString();
+                this.headRecord = new SpillRecord(id, sourceKey, priority, agedPriority, deadline, fairStartTag, fairFinishTag, scheduledTime, sequence, recipe);
+                return true;
+            }
+        }
+
+        private String readString() {
+            int length = this.buffer.getInt();
+            if (length < 0) {
+                return null;
+            } else {
+                byte[] bytes = new byte[length];
+                this.buffer.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        private Instant readInstant() {
+            long epochSecond = this.buffer.getLong();
+            return Instant.ofEpochSecond(epochSecond, this.buffer.getInt());
+        }
+
+        Path getFile() {
+            return this.file;
+        }
+
+        long getFileSize() {
+            return this.fileSize;
+        }
+
+        SpillRecord getHeadRecord() {
+            return this.headRecord;
+        }
+
+    }
+
+    /**
+     * Writes a sorted sequence of records into new segment files. A new file is started once the
+     * current one has become too large to be mapped into memory as a whole, which is fine since
+     * every file on its own is still sorted.
+     */
+    class SegmentWriter implements Closeable {
+
+        private List<SpillSegment> writtenSegments = null;
+        private Path segmentFile = null;
+        private DataOutputStream segmentStream = null;
+
+        SegmentWriter(List<SpillSegment> writtenSegments) {
+            this.writtenSegments = writtenSegments;
+        }
+
+        void write(SpillRecord record) throws IOException {
+            if (this.segmentStream != null && this.segmentStream.size() >= MAX_SEGMENT_FILE_SIZE - 1024 * 1024) {
+                this.closeSegment();
+            }
+            if (this.segmentStream == null) {
+                this.segmentFile = DownloadRequestSpillStore.this.getSpillDirectory().resolve(++DownloadRequestSpillStore.this.segmentSequence + SEGMENT_FILE_SUFFIX);
+                this.segmentStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.segmentFile), 64 * 1024));
+            }
+            this.writeString(record.getId());
+            this.writeString(record.getSourceKey());
+            this.segmentStream.writeInt(record.getPriority());
+            this.segmentStream.writeLong(record.getAgedPriority());
+            this.segmentStream.writeBoolean(record.getDeadline() != null);
+            if (record.getDeadline() != null) {
+                this.writeInstant(record.getDeadline());
+            }
+            this.segmentStream.writeLong(record.getFairStartTag());
+            this.segmentStream.writeLong(record.getFairFinishTag());
+            this.writeInstant(record.getScheduledTime());
+            this.segmentStream.writeLong(record.getSequence());
+            this.writeString(record.getRecipe());
+        }
+
+        /**
+         * Writes a string prefixed by its length, using a length of {@code -1} for {@code null}
+         */
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                this.segmentStream.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                this.segmentStream.writeInt(bytes.length);
+                this.segmentStream.write(bytes);
+            }
+        }
+
+        private void writeInstant(Instant instant) throws IOException {
+            this.segmentStream.writeLong(instant.getEpochSecond());
+            this.segmentStream.writeInt(instant.getNano());
+        }
+
+        private void closeSegment() throws IOException {
+            this.segmentStream.close();
+            this.segmentStream = null;
+            this.writtenSegments.add(new SpillSegment(this.segmentFile));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.segmentStream != null) {
+                this.closeSegment();
+            }
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public Path getSpillDirectory() {
+        return this.spillDirectory;
+    }
+    private void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    private Map<String, DownloadRecipeFactory> getRecipeFactories() {
+        return this.recipeFactories;
+    }
+    private void setRecipeFactories(Map<String, DownloadRecipeFactory> recipeFactories) {
+        this.recipeFactories = recipeFactories;
+    }
+
+    private PriorityQueue<SpillRecord> getWriteBuffer() {
+        return this.writeBuffer;
+    }
+
+    private PriorityQueue<SpillSegment> getSegments() {
+        return this.segments;
+    }
+
+    /**
+     * Gets the number of records collected in memory before they are written into a new segment
+     */
+    public synchronized int getSegmentRecordCount() {
+        return this.segmentRecordCount;
+    }
+    public synchronized void setSegmentRecordCount(int segmentRecordCount) {
+        if (segmentRecordCount <= 0) {
+            throw new IllegalArgumentException("Parameter 'segmentRecordCount' must be larger than 0");
+        } else {
+            this.segmentRecordCount = segmentRecordCount;
+        }
+    }
+
+    /**
+     * Gets the number of segments from which on the smaller segments are merged together
+     */
+    public synchronized int getMaxSegmentCount() {
+        return this.maxSegmentCount;
+    }
+    public synchronized void setMaxSegmentCount(int maxSegmentCount) {
+        if (maxSegmentCount <= 1) {
+            throw new IllegalArgumentException("Parameter 'maxSegmentCount' must be larger than 1");
+        } else {
+            this.maxSegmentCount = maxSegmentCount;
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package de.perdian.apps.downloader.core.engine;
 import java.time.Instant;
 import java.util.Comparator;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
@@ -28,6 +29,21 @@ public class DownloadRequestWrapper {
     private DownloadRequest request = null;
     private DownloadOperation operation = null;
     private Instant scheduledTime = null;
+    private long sequence = 0;
+    private volatile int priority = 0;
+    private long agedPriority = 0;
+    private long fairStartTag = 0;
+    private long fairFinishTag = 0;
+    private Instant deadline = null;
+    private volatile boolean deadlinePromoted = false;
+    private int attempt = 1;
+    private Instant notBeforeTime = null;
+    private CompletableFuture<DownloadResult> resultFuture = new CompletableFuture<>();
+    private CompletableFuture<DownloadTask> discoveredTask = null;
+    private Instant discoveryTime = null;
+    private long memoryEstimate = 0;
+    private boolean spilled = false;
+    private volatile boolean resultObserved = false;
 
     DownloadRequestWrapper() {
     }
@@ -48,7 +64,7 @@ public class DownloadRequestWrapper {
      * do nothing at all.
      */
     public void forceStart() {
-        this.getOwner().executeRequest(this, true);
+        this.getOwner().forceStartRequest(this);
     }
 
     /**
@@ -65,20 +81,69 @@ public class DownloadRequestWrapper {
         this.getOwner().cancelRequest(this, reason);
     }
 
+    /**
+     * Changes the priority of this request. If the request is still waiting to be executed, its
+     * position within the queue of the {@link DownloadEngine} will be updated accordingly.
+     *
+     * @param priority
+     *     the new priority
+     */
+    public void updatePriority(int priority) {
+        this.getOwner().updateRequestPriority(this, priority);
+    }
+
+    /**
+     * Gets a future that will be completed once the request has been finally executed. It
+     * completes normally with the {@link DownloadResult} after a successful transfer, with a
+     * {@link java.util.concurrent.CancellationException} if the request or its operation has been
+     * cancelled and with the error of the last attempt if the transfer has failed. A failed attempt
+     * that is going to be retried doesn't complete the future.
+     *
+     * Every call returns a new future, so that completing or cancelling it doesn't affect the
+     * request itself or any other caller. While the request is spilled (see
+     * {@link DownloadQueueOverflowPolicy#SPILL}) the engine keeps this wrapper on the heap as soon
+     * as a future has been requested, since the future has to be completed even if the caller
+     * doesn't keep a reference to the wrapper itself.
+     */
+    public CompletableFuture<DownloadResult> toCompletableFuture() {
+        this.setResultObserved(true);
+        this.getOwner().retainSpilledRequest(this);
+        CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+        this.getResultFuture().whenComplete((result, error) -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
     public static class PriorityComparator implements Comparator<DownloadRequestWrapper> {
 
         @Override
         public int compare(DownloadRequestWrapper o1, DownloadRequestWrapper o2) {
-            if (o1 == null) {
-                return o2 == null ? 0 : -1;
+            if (o1 == o2) {
+                return 0;
+            } else if (o1 == null) {
+                return -1;
             } else if (o2 == null) {
                 return 1;
+            } else if (o1.isDeadlinePromoted() != o2.isDeadlinePromoted()) {
+                return o1.isDeadlinePromoted() ? -1 : 1;
             } else {
-                int p1 = o1.getRequest().getPriority();
-                int p2 = o2.getRequest().getPriority();
+                long p1 = o1.getAgedPriority();
+                long p2 = o2.getAgedPriority();
                 if (p1 == p2) {
-                    if (Objects.equals(o1.getScheduledTime(), o2.getScheduledTime())) {
-                        return 0;
+                    if (!Objects.equals(o1.getDeadline(), o2.getDeadline())) {
+                        return Comparator.nullsLast(Comparator.<Instant>naturalOrder()).compare(o1.getDeadline(), o2.getDeadline());
+                    } else if (o1.getFairStartTag() != o2.getFairStartTag()) {
+                        return Long.compare(o1.getFairStartTag(), o2.getFairStartTag());
+                    } else if (Objects.equals(o1.getScheduledTime(), o2.getScheduledTime())) {
+                        // Requests are stored inside sorted sets which would silently drop a
+                        // request considered equal to another one, so whenever priority and time
+                        // are identical the submission order decides
+                        return Long.compare(o1.getSequence(), o2.getSequence());
                     } else {
                         return o1.getScheduledTime().compareTo(o2.getScheduledTime());
                     }
@@ -122,4 +187,160 @@ public class DownloadRequestWrapper {
         this.scheduledTime = scheduledTime;
     }
 
+    /**
+     * Gets the position in which the request has been accepted by the {@link DownloadEngine}. The
+     * sequence identifies a request even if it has been spilled and is executed by a new wrapper
+     * after being read back (see {@link DownloadSchedulingListener#onRequestRestored(DownloadRequestWrapper)}).
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Gets the priority by which the request is ordered inside the queue of the
+     * {@link DownloadEngine}. It is taken from the request upon submission and will only change
+     * when calling {@link #updatePriority(int)}, so that modifying the request itself can never
+     * corrupt the order of the queue.
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Gets the key by which the request is ordered inside the queue of the {@link DownloadEngine}.
+     * It equals the priority unless priority aging is enabled, in which case it also reflects the
+     * time at which the request has been scheduled, so that older requests overtake newer ones
+     * with a higher priority after a while.
+     */
+    long getAgedPriority() {
+        return this.agedPriority;
+    }
+    void setAgedPriority(long agedPriority) {
+        this.agedPriority = agedPriority;
+    }
+
+    /**
+     * Gets the virtual time at which the request is entitled to be started when fair queuing is
+     * enabled within the {@link DownloadEngine}, otherwise {@code 0}
+     */
+    long getFairStartTag() {
+        return this.fairStartTag;
+    }
+    void setFairStartTag(long fairStartTag) {
+        this.fairStartTag = fairStartTag;
+    }
+
+    long getFairFinishTag() {
+        return this.fairFinishTag;
+    }
+    void setFairFinishTag(long fairFinishTag) {
+        this.fairFinishTag = fairFinishTag;
+    }
+
+    /**
+     * Gets the deadline by which the request is ordered inside the queue when deadline scheduling
+     * is enabled within the {@link DownloadEngine}, otherwise {@code null}
+     */
+    public Instant getDeadline() {
+        return this.deadline;
+    }
+    void setDeadline(Instant deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Checks whether the request has been moved to the front of the queue because its deadline
+     * would have been missed otherwise
+     */
+    public boolean isDeadlinePromoted() {
+        return this.deadlinePromoted;
+    }
+    void setDeadlinePromoted(boolean deadlinePromoted) {
+        this.deadlinePromoted = deadlinePromoted;
+    }
+
+    /**
+     * Gets the number of the attempt in which the request is executed, starting with {@code 1}
+     * for the initial execution
+     */
+    public int getAttempt() {
+        return this.attempt;
+    }
+    void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    /**
+     * Gets the time before which the request will not be picked up from the queue, because a
+     * previous attempt has failed and the engine waits before trying again
+     */
+    public Instant getNotBeforeTime() {
+        return this.notBeforeTime;
+    }
+    void setNotBeforeTime(Instant notBeforeTime) {
+        this.notBeforeTime = notBeforeTime;
+    }
+
+    /**
+     * Gets the task that is being discovered in advance, before the request is started
+     */
+    CompletableFuture<DownloadTask> getDiscoveredTask() {
+        return this.discoveredTask;
+    }
+    void setDiscoveredTask(CompletableFuture<DownloadTask> discoveredTask) {
+        this.discoveredTask = discoveredTask;
+    }
+
+    Instant getDiscoveryTime() {
+        return this.discoveryTime;
+    }
+    void setDiscoveryTime(Instant discoveryTime) {
+        this.discoveryTime = discoveryTime;
+    }
+
+    /**
+     * Gets the heap estimated to be occupied by this wrapper and its request while it is waiting
+     * inside the queue
+     */
+    long getMemoryEstimate() {
+        return this.memoryEstimate;
+    }
+    void setMemoryEstimate(long memoryEstimate) {
+        this.memoryEstimate = memoryEstimate;
+    }
+
+    /**
+     * Checks whether the request has been written into the spill store of the
+     * {@link DownloadEngine} and not been read back yet. Guarded by the lock of the wrapper.
+     */
+    boolean isSpilled() {
+        return this.spilled;
+    }
+    void setSpilled(boolean spilled) {
+        this.spilled = spilled;
+    }
+
+    /**
+     * Checks whether a future has been requested from this wrapper (see {@link #toCompletableFuture()})
+     */
+    boolean isResultObserved() {
+        return this.resultObserved;
+    }
+    void setResultObserved(boolean resultObserved) {
+        this.resultObserved = resultObserved;
+    }
+
+    CompletableFuture<DownloadResult> getResultFuture() {
+        return this.resultFuture;
+    }
+    void setResultFuture(CompletableFuture<DownloadResult> resultFuture) {
+        this.resultFuture = resultFuture;
+    }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Describes the outcome of a request that has been successfully executed by a
+ * {@link DownloadEngine}. Results are made available through the future returned by
+ * {@link DownloadEngine#submitAsync(DownloadRequest)} or
+ * {@link DownloadRequestWrapper#toCompletableFuture()}.
+ *
+ * @author Christian Robert
+ */
+
+public class DownloadResult {
+
+    private DownloadRequestWrapper requestWrapper = null;
+    private Path targetFile = null;
+    private Instant startTime = null;
+    private Instant endTime = null;
+
+    DownloadResult() {
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+    }
+
+    /**
+     * Gets the time it took the operation to complete, from the assignment of a processor thread
+     * until the transfer and all post processors have been finished
+     */
+    public Duration getDuration() {
+        return Duration.between(this.getStartTime(), this.getEndTime());
+    }
+
+    public DownloadRequestWrapper getRequestWrapper() {
+        return this.requestWrapper;
+    }
+    void setRequestWrapper(DownloadRequestWrapper requestWrapper) {
+        this.requestWrapper = requestWrapper;
+    }
+
+    /**
+     * Gets the file into which the engine has written the data. Please note that listeners (like
+     * the {@code MoveCompletedDownloadsSchedulingListener}) might have moved the file to a
+     * different location afterwards.
+     */
+    public Path getTargetFile() {
+        return this.targetFile;
+    }
+    void setTargetFile(Path targetFile) {
+        this.targetFile = targetFile;
+    }
+
+    /**
+     * Gets the time when the final operation for the request has been started
+     */
+    public Instant getStartTime() {
+        return this.startTime;
+    }
+    void setStartTime(Instant startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Gets the time when the final operation for the request has been completed
+     */
+    public Instant getEndTime() {
+        return this.endTime;
+    }
+    void setEndTime(Instant endTime) {
+        this.endTime = endTime;
+    }
+
+}
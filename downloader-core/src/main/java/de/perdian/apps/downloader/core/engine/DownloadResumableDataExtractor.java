@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+import de.perdian.apps.downloader.core.support.ProgressListener;
+
+/**
+ * A {@link DownloadDataExtractor} that is able to continue a transfer that has been interrupted
+ * before, instead of transferring the complete content again.
+ *
+ * @author Christian Robert
+ */
+
+public interface DownloadResumableDataExtractor extends DownloadDataExtractor {
+
+    /**
+     * Resolves the value identifying the current version of the remote resource
+     *
+     * @return
+     *     the validator or <code>null</code> if the transfer cannot be continued later on, for
+     *     example because the remote resource cannot be read partially
+     */
+    String resolveResumeValidator() throws Exception;
+
+    /**
+     * Transfers the content of the remote resource starting at the given offset. All bytes
+     * before the offset have already been written into the target during a previous transfer.
+     */
+    void extractData(OutputStream targetStream, long offset, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception;
+
+}
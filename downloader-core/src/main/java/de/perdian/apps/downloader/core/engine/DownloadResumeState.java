@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Describes a partially transferred target file, which is stored in a small sidecar file next to
+ * the target file itself, so that a later attempt can continue the transfer at the recorded
+ * offset as long as the remote resource hasn't been modified in between.
+ *
+ * @author Christian Robert
+ */
+
+class DownloadResumeState {
+
+    static final String FILE_NAME_SUFFIX = ".resume";
+
+    private String validator = null;
+    private long offset = 0;
+
+    DownloadResumeState(String validator, long offset) {
+        this.setValidator(validator);
+        this.setOffset(offset);
+    }
+
+    static Path resolveStatePath(Path targetPath) {
+        return targetPath.resolveSibling(targetPath.getFileName().toString() + FILE_NAME_SUFFIX);
+    }
+
+    static DownloadResumeState read(Path statePath) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream stateStream = Files.newInputStream(statePath)) {
+            properties.load(stateStream);
+        }
+        String validator = properties.getProperty("validator");
+        String offset = properties.getProperty("offset");
+        if (validator == null || offset == null) {
+            throw new IOException("Invalid resume state found at: " + statePath);
+        } else {
+            return new DownloadResumeState(validator, Long.parseLong(offset));
+        }
+    }
+
+    void write(Path statePath) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("validator", this.getValidator());
+        properties.setProperty("offset", String.valueOf(this.getOffset()));
+        try (OutputStream stateStream = Files.newOutputStream(statePath)) {
+            properties.store(stateStream, null);
+        }
+    }
+
+    String getValidator() {
+        return this.validator;
+    }
+    private void setValidator(String validator) {
+        this.validator = validator;
+    }
+
+    long getOffset() {
+        return this.offset;
+    }
+    private void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Defines whether and when the {@link DownloadEngine} will try to execute a request again after
+ * an operation has failed.
+ *
+ * The delay before the next attempt grows exponentially, starting at the {@code initialDelay} and
+ * being multiplied by the {@code multiplier} for every further attempt, but never exceeding the
+ * {@code maxDelay}. To prevent multiple requests that failed at the same time (for example because
+ * their common host became unavailable) from hitting the remote resource again all at the same
+ * moment, a random part of the delay (defined by the {@code jitter}) is subtracted.
+ *
+ * @author Christian Robert
+ */
+
+public class DownloadRetryPolicy {
+
+    private int maxAttempts = 1;
+    private Duration initialDelay = Duration.ofSeconds(1);
+    private Duration maxDelay = Duration.ofMinutes(5);
+    private double multiplier = 2;
+    private double jitter = 0.5;
+    private Predicate<Exception> retryableErrorPredicate = DownloadRetryPolicy::isTransientError;
+
+    public DownloadRetryPolicy() {
+    }
+
+    public DownloadRetryPolicy(int maxAttempts) {
+        this.setMaxAttempts(maxAttempts);
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+    }
+
+    /**
+     * Checks whether a request should be executed again after the given error occured
+     *
+     * @param error
+     *     the error that made the operation fail
+     * @param attempt
+     *     the number of the attempt that failed, starting with {@code 1} for the initial attempt
+     */
+    public boolean isRetryable(Exception error, int attempt) {
+        return attempt < this.getMaxAttempts() && error != null && this.getRetryableErrorPredicate().test(error);
+    }
+
+    /**
+     * Computes the time to wait before starting the next attempt
+     *
+     * @param attempt
+     *     the number of the attempt that failed, starting with {@code 1} for the initial attempt
+     */
+    public Duration computeDelay(int attempt) {
+        return this.computeDelay(attempt, ThreadLocalRandom.current().nextDouble());
+    }
+
+    Duration computeDelay(int attempt, double random) {
+        double exponentialDelayMillis = this.getInitialDelay().toMillis() * Math.pow(this.getMultiplier(), Math.max(0, attempt - 1));
+        double cappedDelayMillis = Math.min(exponentialDelayMillis, this.getMaxDelay().toMillis());
+        return Duration.ofMillis((long)(cappedDelayMillis * (1d - this.getJitter() * random)));
+    }
+
+    /**
+     * Default check for errors that may go away when trying again: Every {@link IOException} is
+     * considered to be transient, except those signaling a missing remote resource or a problem
+     * with the local file system.
+     */
+    public static boolean isTransientError(Exception error) {
+        for (Throwable currentError = error; currentError != null; currentError = currentError.getCause()) {
+            if (currentError instanceof FileNotFoundException || currentError instanceof FileSystemException) {
+                return false;
+            } else if (currentError instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the maximum number of attempts (including the initial one) that will be made to execute
+     * a request. A value of {@code 1} disables any retries.
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Parameter 'maxAttempts' must be larger than 0");
+        } else {
+            this.maxAttempts = maxAttempts;
+        }
+    }
+
+    public Duration getInitialDelay() {
+        return this.initialDelay;
+    }
+    public void setInitialDelay(Duration initialDelay) {
+        if (initialDelay == null) {
+            throw new NullPointerException("Parameter 'initialDelay' must not be null!");
+        } else {
+            this.initialDelay = initialDelay;
+        }
+    }
+
+    public Duration getMaxDelay() {
+        return this.maxDelay;
+    }
+    public void setMaxDelay(Duration maxDelay) {
+        if (maxDelay == null) {
+            throw new NullPointerException("Parameter 'maxDelay' must not be null!");
+        } else {
+            this.maxDelay = maxDelay;
+        }
+    }
+
+    public double getMultiplier() {
+        return this.multiplier;
+    }
+    public void setMultiplier(double multiplier) {
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("Parameter 'multiplier' must not be less than 1");
+        } else {
+            this.multiplier = multiplier;
+        }
+    }
+
+    /**
+     * Gets the fraction of the computed delay (between {@code 0} and {@code 1}) up to which the
+     * actual delay will randomly be shortened.
+     */
+    public double getJitter() {
+        return this.jitter;
+    }
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Parameter 'jitter' must be between 0 and 1");
+        } else {
+            this.jitter = jitter;
+        }
+    }
+
+    /**
+     * Gets the check deciding which errors are worth another attempt
+     */
+    public Predicate<Exception> getRetryableErrorPredicate() {
+        return this.retryableErrorPredicate;
+    }
+    public void setRetryableErrorPredicate(Predicate<Exception> retryableErrorPredicate) {
+        if (retryableErrorPredicate == null) {
+            throw new NullPointerException("Parameter 'retryableErrorPredicate' must not be null!");
+        } else {
+            this.retryableErrorPredicate = retryableErrorPredicate;
+        }
+    }
+
+}
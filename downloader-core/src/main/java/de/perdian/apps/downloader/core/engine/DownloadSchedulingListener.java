@@ -16,6 +16,7 @@
 package de.perdian.apps.downloader.core.engine;
 
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Callback interface to get notified when a new request is being executed.
@@ -44,6 +45,56 @@ public interface DownloadSchedulingListener {
     default void onRequestScheduled(DownloadRequestWrapper requestWrapper) {
     }
 
+    /**
+     * Called when a batch of jobs has been submitted into the {@link DownloadEngine} instance
+     * using {@link DownloadEngine#submitAll(java.util.Collection)}, has been accepted and
+     * scheduled for future execution. By default {@link #onRequestScheduled(DownloadRequestWrapper)}
+     * is called for each of the requests, listeners that can handle the whole batch more
+     * efficiently should override this method.
+     */
+    default void onRequestsScheduled(List<DownloadRequestWrapper> requestWrappers) {
+        requestWrappers.forEach(this::onRequestScheduled);
+    }
+
+    /**
+     * Called when a request has been submitted (or restored from the spill store) while an equal
+     * request (one with the same {@code id} or {@code sourceKey}) is still being executed. The
+     * request is not executed itself but shares the outcome of the given wrapper of the request
+     * in flight.
+     */
+    default void onRequestCoalesced(DownloadRequest request, DownloadRequestWrapper requestWrapper) {
+    }
+
+    /**
+     * Called when the deadline of a waiting request cannot be reached anymore unless it is started
+     * right away. The engine has already moved the request to the front of the queue when this
+     * method is called.
+     */
+    default void onRequestDeadlineAtRisk(DownloadRequestWrapper requestWrapper) {
+    }
+
+    /**
+     * Called when a request is written into the spill store of the engine instead of being put
+     * into the waiting queue (see {@link DownloadQueueOverflowPolicy#SPILL}). The engine doesn't
+     * keep the request on the heap while it is spilled, so a listener shouldn't do so either: once
+     * the request is read back it may be executed by a new wrapper with the same sequence (see
+     * {@link DownloadRequestWrapper#getSequence()}), which is announced using
+     * {@link #onRequestRestored(DownloadRequestWrapper)}.
+     */
+    default void onRequestSpilled(DownloadRequestWrapper requestWrapper) {
+    }
+
+    /**
+     * Called when a spilled request has been taken out of the spill store again, before it is put
+     * back into the waiting queue. The wrapper is either the one the request has been spilled
+     * from or, if that one isn't used anymore, a new wrapper with the same sequence referencing the
+     * request created from its recipe. If an equal request has been submitted while the request
+     * has been spilled, {@link #onRequestCoalesced(DownloadRequest, DownloadRequestWrapper)} is
+     * called right afterwards and the request isn't executed on its own.
+     */
+    default void onRequestRestored(DownloadRequestWrapper requestWrapper) {
+    }
+
     /**
      * Called when a request operation has been cancelled
      */
@@ -51,13 +102,18 @@ public interface DownloadSchedulingListener {
     }
 
     /**
-     * Called when an operation has been started, that is: it's execution has begun
+     * Called when an operation has been started, that is: it's execution has begun. The task of
+     * the request has already been resolved and the operation has entered the storage lane of its
+     * target file, so a request that has to wait for its storage lane is not reported before it is
+     * actually executed.
      */
     default void onOperationStarting(DownloadOperation operation) {
     }
 
     /**
-     * Called when an operation has been completed by a {@link DownloadEngine} instance
+     * Called when an operation has been completed by a {@link DownloadEngine} instance. An
+     * operation that has been suspended while closing the engine is reported as well, but keeps
+     * the status {@link DownloadOperationStatus#SUSPENDED}, since its transfer is not finished.
      */
     default void onOperationCompleted(DownloadOperation operation) {
     }
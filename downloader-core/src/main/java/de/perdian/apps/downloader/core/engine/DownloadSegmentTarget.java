@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Provides access to the target file of a {@link DownloadOperation} for a
+ * {@link DownloadSegmentedDataExtractor}, allowing different regions of the file to be written
+ * at the same time.
+ *
+ * @author Christian Robert
+ */
+
+@FunctionalInterface
+public interface DownloadSegmentTarget {
+
+    /**
+     * Opens a stream writing into the target file
+     *
+     * @param position
+     *     the position within the target file at which the first byte written into the stream
+     *     will be stored
+     */
+    OutputStream openStream(long position) throws IOException;
+
+}
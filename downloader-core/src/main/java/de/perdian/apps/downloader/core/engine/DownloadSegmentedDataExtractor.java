@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.util.function.Supplier;
+
+import de.perdian.apps.downloader.core.support.ProgressListener;
+
+/**
+ * {@link DownloadDataExtractor} that is able to write the content of the target file in multiple
+ * segments that are not necessarily transferred in order. If a task provides such an extractor
+ * the {@link DownloadEngine} will prefer this method over the sequential
+ * {@link #extractData(java.io.OutputStream, ProgressListener, Supplier)} method.
+ *
+ * @author Christian Robert
+ */
+
+public interface DownloadSegmentedDataExtractor extends DownloadResumableDataExtractor {
+
+    /**
+     * Transfers the content of the remote resource into the target
+     *
+     * @param offset
+     *     the position of the first byte to be transferred. All bytes before the offset have
+     *     already been written into the target during a previous transfer.
+     */
+    void extractData(DownloadSegmentTarget target, long offset, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception;
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.nio.file.FileStore;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Controls the operations writing into a single {@link FileStore}. The number of operations
+ * writing into the store at the same time can be limited, so that a slow device cannot occupy
+ * more operations than it is able to serve, and the time needed to write into the store is
+ * tracked as an exponentially weighted moving average.
+ *
+ * Requests that cannot write into the store because the lane is saturated are parked within the
+ * lane without occupying a thread, and are handed back one by one whenever a writer leaves the
+ * lane.
+ *
+ * @author Christian Robert
+ */
+
+class DownloadStorageLane {
+
+    private static final double SMOOTHING_FACTOR = 0.1;
+
+    private FileStore fileStore = null;
+    private int writerCount = 0;
+    private double writeLatencyNanos = 0;
+    private Queue<DownloadRequestWrapper> parkedRequests = new ArrayDeque<>();
+
+    DownloadStorageLane(FileStore fileStore) {
+        this.setFileStore(fileStore);
+    }
+
+    /**
+     * Registers a new writer if the number of current writers is below the given limit. A limit
+     * of {@code 0} means that the number of writers is not limited.
+     */
+    synchronized boolean tryAcquire(int writerLimit) {
+        if (writerLimit > 0 && this.getWriterCount() >= writerLimit) {
+            return false;
+        } else {
+            this.setWriterCount(this.getWriterCount() + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Parks a request until a writer leaves the lane. If a writer has left the lane since the
+     * caller has found it to be saturated the request isn't parked, since there would be nobody
+     * to hand it back.
+     *
+     * @return
+     *     {@code true} if the request has been parked, {@code false} if the lane isn't saturated
+     *     anymore
+     */
+    synchronized boolean park(DownloadRequestWrapper requestWrapper, int writerLimit) {
+        if (writerLimit <= 0 || this.getWriterCount() < writerLimit) {
+            return false;
+        } else {
+            this.getParkedRequests().add(requestWrapper);
+            return true;
+        }
+    }
+
+    synchronized void release() {
+        this.setWriterCount(Math.max(0, this.getWriterCount() - 1));
+    }
+
+    /**
+     * Removes the request that has been parked for the longest time, so that it can try to enter
+     * the lane again
+     *
+     * @return
+     *     the request or {@code null} if no request is parked
+     */
+    synchronized DownloadRequestWrapper pollParkedRequest() {
+        return this.getParkedRequests().poll();
+    }
+
+    /**
+     * Removes all parked requests, so that they can try to enter the lane again (after the limit
+     * has been changed)
+     */
+    synchronized List<DownloadRequestWrapper> releaseParkedRequests() {
+        List<DownloadRequestWrapper> parkedRequests = new ArrayList<>(this.getParkedRequests());
+        this.getParkedRequests().clear();
+        return parkedRequests;
+    }
+
+    /**
+     * Records the time a single write into the store has taken
+     */
+    synchronized void recordWriteLatency(long nanos) {
+        this.writeLatencyNanos = this.writeLatencyNanos <= 0 ? nanos : this.writeLatencyNanos + SMOOTHING_FACTOR * (nanos - this.writeLatencyNanos);
+    }
+
+    synchronized Duration getWriteLatency() {
+        return Duration.ofNanos((long)this.writeLatencyNanos);
+    }
+
+    FileStore getFileStore() {
+        return this.fileStore;
+    }
+    private void setFileStore(FileStore fileStore) {
+        this.fileStore = fileStore;
+    }
+
+    private Queue<DownloadRequestWrapper> getParkedRequests() {
+        return this.parkedRequests;
+    }
+
+    synchronized int getWriterCount() {
+        return this.writerCount;
+    }
+    private void setWriterCount(int writerCount) {
+        this.writerCount = writerCount;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine;
+
+import java.time.Duration;
+
+/**
+ * Estimates how long the transfer of a given number of bytes will take, based upon an
+ * exponentially weighted moving average of the throughput of the operations completed before.
+ *
+ * @author Christian Robert
+ */
+
+class DownloadThroughputEstimator {
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private double bytesPerSecond = 0;
+
+    /**
+     * Records the throughput of a completed transfer
+     */
+    synchronized void addSample(long bytes, Duration duration) {
+        if (bytes > 0 && duration.toNanos() > 0) {
+            double sampleBytesPerSecond = bytes / (duration.toNanos() / 1_000_000_000d);
+            this.bytesPerSecond = this.bytesPerSecond <= 0 ? sampleBytesPerSecond : this.bytesPerSecond + SMOOTHING_FACTOR * (sampleBytesPerSecond - this.bytesPerSecond);
+        }
+    }
+
+    /**
+     * Estimates the transfer time for the given number of bytes, or {@link Duration#ZERO} if
+     * either the number of bytes is unknown or no transfer has been completed yet
+     */
+    synchronized Duration estimateTransferTime(long bytes) {
+        if (bytes <= 0 || this.bytesPerSecond <= 0) {
+            return Duration.ZERO;
+        } else {
+            return Duration.ofNanos((long)(bytes / this.bytesPerSecond * 1_000_000_000d));
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine.impl.dataextractors;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.downloader.core.engine.DownloadOperationStatus;
+import de.perdian.apps.downloader.core.engine.DownloadSegmentTarget;
+import de.perdian.apps.downloader.core.engine.DownloadSegmentedDataExtractor;
+import de.perdian.apps.downloader.core.support.ProgressListener;
+import de.perdian.apps.downloader.core.support.StreamFactory;
+
+/**
+ * Transfers the content of a {@link StreamFactory} using multiple connections in parallel, each
+ * of them reading a separate range of the remote resource.
+ *
+ * Whenever a connection has finished its segment it takes over half of the remaining work of the
+ * segment with the most bytes left, so that a single slow connection doesn't determine the total
+ * duration of the transfer. If the remote resource doesn't support reading ranges or is too small
+ * to be split, the content is transferred using a single connection.
+ *
+ * @author Christian Robert
+ */
+
+public class SegmentedStreamFactoryDataExtractor implements DownloadSegmentedDataExtractor {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedStreamFactoryDataExtractor.class);
+
+    private StreamFactory streamFactory = null;
+    private int segmentCount = 4;
+    private long minimumSegmentSize = 1024 * 1024; // 1 MiB
+    private int bufferSize = 1024 * 8; // 8 KiB
+    private int notificationSize = 1024 * 64; // 64 KiB
+
+    public SegmentedStreamFactoryDataExtractor(StreamFactory streamFactory) {
+        this.setStreamFactory(streamFactory);
+    }
+
+    @Override
+    public void extractData(OutputStream targetStream, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception {
+        this.createSequentialDataExtractor().extractData(targetStream, progressListener, statusSupplier);
+    }
+
+    @Override
+    public String resolveResumeValidator() throws Exception {
+        return this.createSequentialDataExtractor().resolveResumeValidator();
+    }
+
+    @Override
+    public void extractData(OutputStream targetStream, long offset, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception {
+        this.createSequentialDataExtractor().extractData(targetStream, offset, progressListener, statusSupplier);
+    }
+
+    @Override
+    public void extractData(DownloadSegmentTarget target, long offset, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception {
+        long size = this.getStreamFactory().isRangeSupported() ? this.getStreamFactory().size() : -1;
+        int segmentCount = size < 0 ? 1 : (int)Math.min(this.getSegmentCount(), (size - offset) / this.getMinimumSegmentSize());
+        if (segmentCount < 2) {
+            log.debug("Transferring data using a single connection from: {}", this.getStreamFactory());
+            try (OutputStream targetStream = target.openStream(offset)) {
+                if (offset > 0) {
+                    this.createSequentialDataExtractor().extractData(targetStream, offset, progressListener, statusSupplier);
+                } else {
+                    this.createSequentialDataExtractor().extractData(targetStream, progressListener, statusSupplier);
+                }
+            }
+        } else {
+
+            log.debug("Transferring {} bytes using {} segments from: {}", size - offset, segmentCount, this.getStreamFactory());
+            SegmentedTransfer transfer = new SegmentedTransfer(size, offset, target, progressListener, statusSupplier);
+            progressListener.onProgress(null, offset, size);
+
+            Exception transferException = null;
+            try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> segmentFutures = new ArrayList<>(segmentCount);
+                for (int i = 0; i < segmentCount; i++) {
+                    Segment segment = transfer.addSegment(offset + (size - offset) * i / segmentCount, offset + (size - offset) * (i + 1) / segmentCount);
+                    segmentFutures.add(executorService.submit(() -> { transfer.transferSegments(segment); return null; }));
+                }
+                for (Future<?> segmentFuture : segmentFutures) {
+                    try {
+                        segmentFuture.get();
+                    } catch (ExecutionException e) {
+                        transfer.abort();
+                        if (transferException == null) {
+                            transferException = e.getCause() instanceof Exception cause ? cause : e;
+                        }
+                    }
+                }
+            }
+            if (transferException != null) {
+                throw transferException;
+            }
+            progressListener.onProgress(null, transfer.getBytesWritten(), size);
+
+        }
+    }
+
+    private StreamFactoryDataExtractor createSequentialDataExtractor() {
+        StreamFactoryDataExtractor sequentialDataExtractor = new StreamFactoryDataExtractor(this.getStreamFactory());
+        sequentialDataExtractor.setBufferSize(this.getBufferSize());
+        sequentialDataExtractor.setNotificationSize(this.getNotificationSize());
+        return sequentialDataExtractor;
+    }
+
+    static class Segment {
+
+        private long position = 0;
+        private long end = 0;
+
+        Segment(long position, long end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        synchronized long remaining() {
+            return this.end - this.position;
+        }
+
+    }
+
+    class SegmentedTransfer {
+
+        private long size = 0;
+        private DownloadSegmentTarget target = null;
+        private ProgressListener progressListener = null;
+        private Supplier<DownloadOperationStatus> statusSupplier = null;
+        private List<Segment> segments = new ArrayList<>();
+        private volatile boolean aborted = false;
+        private long bytesWritten = 0;
+        private long nextNotification = 0;
+
+        SegmentedTransfer(long size, long offset, DownloadSegmentTarget target, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) {
+            this.size = size;
+            this.target = target;
+            this.progressListener = progressListener;
+            this.statusSupplier = statusSupplier;
+            this.bytesWritten = offset;
+            this.nextNotification = offset + this.getNotificationBlockSize();
+        }
+
+        synchronized Segment addSegment(long position, long end) {
+            Segment segment = new Segment(position, end);
+            this.segments.add(segment);
+            return segment;
+        }
+
+        void transferSegments(Segment initialSegment) throws Exception {
+            try {
+                for (Segment segment = initialSegment; segment != null && this.isActive(); segment = this.splitLargestSegment()) {
+                    this.transferSegment(segment);
+                }
+            } catch (Exception e) {
+                this.abort();
+                throw e;
+            }
+        }
+
+        private void transferSegment(Segment segment) throws Exception {
+            long startPosition = 0;
+            long length = 0;
+            synchronized (segment) {
+                startPosition = segment.position;
+                length = segment.end - segment.position;
+            }
+            if (length > 0) {
+                StreamFactory streamFactory = SegmentedStreamFactoryDataExtractor.this.getStreamFactory();
+                try (InputStream inStream = streamFactory.openStream(startPosition, length); OutputStream outStream = this.target.openStream(startPosition)) {
+                    byte[] buffer = new byte[SegmentedStreamFactoryDataExtractor.this.getBufferSize()];
+                    for (int maxBytes = this.computeMaxBytes(segment, buffer.length); maxBytes > 0 && this.isActive(); maxBytes = this.computeMaxBytes(segment, buffer.length)) {
+                        int bytesRead = inStream.read(buffer, 0, maxBytes);
+                        if (bytesRead < 0) {
+                            throw new EOFException("Remote resource ended before segment was completed at position " + segment.position + ": " + streamFactory);
+                        } else {
+                            outStream.write(buffer, 0, bytesRead);
+                            synchronized (segment) {
+                                segment.position += bytesRead;
+                            }
+                            this.onBytesWritten(bytesRead);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int computeMaxBytes(Segment segment, int bufferSize) {
+            return (int)Math.min(bufferSize, segment.remaining());
+        }
+
+        /**
+         * Takes over the second half of the segment with the most bytes left. The bytes that the
+         * segment owner might currently be reading (at most one buffer) are never taken over.
+         */
+        private synchronized Segment splitLargestSegment() {
+            Segment largestSegment = null;
+            long largestRemaining = 0;
+            for (Segment segment : this.segments) {
+                long segmentRemaining = segment.remaining();
+                if (segmentRemaining > largestRemaining) {
+                    largestSegment = segment;
+                    largestRemaining = segmentRemaining;
+                }
+            }
+            if (largestSegment != null) {
+                synchronized (largestSegment) {
+                    long splittableBytes = largestSegment.end - largestSegment.position - SegmentedStreamFactoryDataExtractor.this.getBufferSize();
+                    if (splittableBytes >= 2 * SegmentedStreamFactoryDataExtractor.this.getMinimumSegmentSize()) {
+                        Segment newSegment = new Segment(largestSegment.end - splittableBytes / 2, largestSegment.end);
+                        largestSegment.end = newSegment.position;
+                        this.segments.add(newSegment);
+                        log.trace("Split segment at position {} to balance transfer", newSegment.position);
+                        return newSegment;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private synchronized void onBytesWritten(long bytes) {
+            this.bytesWritten += bytes;
+            if (this.bytesWritten > this.nextNotification) {
+                this.nextNotification += this.getNotificationBlockSize();
+                this.progressListener.onProgress(null, this.bytesWritten, this.size);
+            }
+        }
+
+        private long getNotificationBlockSize() {
+            return Math.max(SegmentedStreamFactoryDataExtractor.this.getBufferSize(), SegmentedStreamFactoryDataExtractor.this.getNotificationSize());
+        }
+
+        synchronized long getBytesWritten() {
+            return this.bytesWritten;
+        }
+
+        void abort() {
+            this.aborted = true;
+        }
+
+        boolean isActive() {
+            return !this.aborted && DownloadOperationStatus.ACTIVE.equals(this.statusSupplier.get());
+        }
+
+    }
+
+    public StreamFactory getStreamFactory() {
+        return this.streamFactory;
+    }
+    public void setStreamFactory(StreamFactory streamFactory) {
+        this.streamFactory = streamFactory;
+    }
+
+    public int getSegmentCount() {
+        return this.segmentCount;
+    }
+    public void setSegmentCount(int segmentCount) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("Parameter 'segmentCount' must be larger than 0");
+        } else {
+            this.segmentCount = segmentCount;
+        }
+    }
+
+    public long getMinimumSegmentSize() {
+        return this.minimumSegmentSize;
+    }
+    public void setMinimumSegmentSize(long minimumSegmentSize) {
+        if (minimumSegmentSize < 1) {
+            throw new IllegalArgumentException("Parameter 'minimumSegmentSize' must be larger than 0");
+        } else {
+            this.minimumSegmentSize = minimumSegmentSize;
+        }
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Parameter 'bufferSize' must be larger than 1");
+        } else {
+            this.bufferSize = bufferSize;
+        }
+    }
+
+    public int getNotificationSize() {
+        return this.notificationSize;
+    }
+    public void setNotificationSize(int notificationSize) {
+        if (notificationSize < 1) {
+            throw new IllegalArgumentException("Parameter 'notificationSize' must be larger than 1");
+        } else {
+            this.notificationSize = notificationSize;
+        }
+    }
+
+}
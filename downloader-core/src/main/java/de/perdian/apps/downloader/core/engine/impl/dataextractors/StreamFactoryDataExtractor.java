@@ -19,12 +19,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.function.Supplier;
 
-import de.perdian.apps.downloader.core.engine.DownloadDataExtractor;
+import de.perdian.apps.downloader.core.engine.DownloadResumableDataExtractor;
 import de.perdian.apps.downloader.core.engine.DownloadOperationStatus;
 import de.perdian.apps.downloader.core.support.ProgressListener;
 import de.perdian.apps.downloader.core.support.StreamFactory;
 
-public class StreamFactoryDataExtractor implements DownloadDataExtractor {
+public class StreamFactoryDataExtractor implements DownloadResumableDataExtractor {
 
     private StreamFactory streamFactory = null;
     private int bufferSize = 1024 * 8; // 8 KiB
@@ -38,24 +38,41 @@ public class StreamFactoryDataExtractor implements DownloadDataExtractor {
     public void extractData(OutputStream targetStream, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception {
         long inStreamSize = this.getStreamFactory().size();
         try (InputStream inStream = this.getStreamFactory().openStream()) {
+            this.transferData(inStream, targetStream, 0, inStreamSize, progressListener, statusSupplier);
+        }
+    }
 
-            long notificationBlockSize = Math.max(this.getBufferSize(), this.getNotificationSize());
-            long nextNotification = notificationBlockSize;
-            long totalBytesWritten = 0;
-            progressListener.onProgress(null, 0L, inStreamSize);
-
-            byte[] buffer = new byte[this.getBufferSize()];
-            for (int bufferSize = inStream.read(buffer); bufferSize > -1 && DownloadOperationStatus.ACTIVE.equals(statusSupplier.get()); bufferSize = inStream.read(buffer)) {
-                targetStream.write(buffer, 0, bufferSize);
-                totalBytesWritten += bufferSize;
-                if (totalBytesWritten > nextNotification) {
-                    nextNotification += notificationBlockSize;
-                    progressListener.onProgress(null, totalBytesWritten, inStreamSize);
-                }
-            }
-            progressListener.onProgress(null, totalBytesWritten, inStreamSize);
+    @Override
+    public String resolveResumeValidator() throws Exception {
+        return this.getStreamFactory().isRangeSupported() ? this.getStreamFactory().validator() : null;
+    }
+
+    @Override
+    public void extractData(OutputStream targetStream, long offset, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception {
+        long inStreamSize = this.getStreamFactory().size();
+        try (InputStream inStream = this.getStreamFactory().openStream(offset, -1)) {
+            this.transferData(inStream, targetStream, offset, inStreamSize, progressListener, statusSupplier);
+        }
+    }
+
+    private void transferData(InputStream inStream, OutputStream targetStream, long offset, long inStreamSize, ProgressListener progressListener, Supplier<DownloadOperationStatus> statusSupplier) throws Exception {
 
+        long notificationBlockSize = Math.max(this.getBufferSize(), this.getNotificationSize());
+        long nextNotification = offset + notificationBlockSize;
+        long totalBytesWritten = offset;
+        progressListener.onProgress(null, totalBytesWritten, inStreamSize);
+
+        byte[] buffer = new byte[this.getBufferSize()];
+        for (int bufferSize = inStream.read(buffer); bufferSize > -1 && DownloadOperationStatus.ACTIVE.equals(statusSupplier.get()); bufferSize = inStream.read(buffer)) {
+            targetStream.write(buffer, 0, bufferSize);
+            totalBytesWritten += bufferSize;
+            if (totalBytesWritten > nextNotification) {
+                nextNotification += notificationBlockSize;
+                progressListener.onProgress(null, totalBytesWritten, inStreamSize);
+            }
         }
+        progressListener.onProgress(null, totalBytesWritten, inStreamSize);
+
     }
 
     public StreamFactory getStreamFactory() {
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadEngineConfigurationListener;
+import de.perdian.apps.downloader.core.engine.DownloadOperation;
+import de.perdian.apps.downloader.core.engine.DownloadSchedulingListener;
+import de.perdian.apps.downloader.core.support.ProgressListener;
+
+/**
+ * Tunes the {@code processorCount} of a {@link DownloadEngine} automatically, using an additive
+ * increase / multiplicative decrease (AIMD) strategy.
+ *
+ * In regular intervals the throughput of all operations together and the rate of failed
+ * operations are sampled. As long as all processor slots are occupied, requests are waiting and
+ * no congestion has been detected, the processor count is increased by a fixed amount. When too
+ * many operations fail or the throughput drops after the last increase, the processor count is
+ * reduced by a fixed factor. The result always stays within the configured bounds.
+ *
+ * Every change is applied through {@link DownloadEngine#setProcessorCount(int)}, so that it is
+ * published to all {@link DownloadEngineConfigurationListener} instances just like a change made
+ * by the user.
+ *
+ * @author Christian Robert
+ */
+
+public class AdaptiveProcessorCountSchedulingListener implements DownloadSchedulingListener, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveProcessorCountSchedulingListener.class);
+
+    private int minProcessorCount = 1;
+    private int maxProcessorCount = 64;
+    private int additiveIncrease = 1;
+    private double multiplicativeDecrease = 0.5;
+    private double maxErrorRate = 0.1;
+    private double throughputDropTolerance = 0.2;
+    private Duration sampleInterval = Duration.ofSeconds(5);
+    private LongAdder bytesTransferred = new LongAdder();
+    private LongAdder completedOperationCount = new LongAdder();
+    private LongAdder failedOperationCount = new LongAdder();
+    private DownloadEngine engine = null;
+    private ScheduledExecutorService sampleScheduler = null;
+
+    // The following properties are only accessed while holding the lock of this instance
+    private long lastSampleTime = 0;
+    private double lastThroughput = 0;
+    private boolean lastDecisionIncrease = false;
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(this.getClass().getSimpleName());
+        result.append("[minProcessorCount=").append(this.getMinProcessorCount());
+        result.append(",maxProcessorCount=").append(this.getMaxProcessorCount());
+        return result.append("]").toString();
+    }
+
+    /**
+     * Starts tuning the processor count of the given engine
+     */
+    public synchronized void attach(DownloadEngine engine) {
+        if (this.getEngine() != null) {
+            throw new IllegalStateException("Controller has already been attached to an engine");
+        } else {
+            ScheduledThreadPoolExecutor sampleScheduler = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("download-processor-count-controller").daemon().factory());
+            long sampleIntervalMillis = Math.max(1, this.getSampleInterval().toMillis());
+            this.setEngine(engine);
+            this.setLastSampleTime(System.nanoTime());
+            this.setSampleScheduler(sampleScheduler);
+            engine.addSchedulingListener(this);
+            sampleScheduler.scheduleWithFixedDelay(this::adjustProcessorCount, sampleIntervalMillis, sampleIntervalMillis, TimeUnit.MILLISECONDS);
+            log.info("Adaptive processor count controller attached to engine: {}", this);
+        }
+    }
+
+    /**
+     * Stops tuning the processor count. The engine keeps the processor count that has been set
+     * last.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.getEngine() != null) {
+            this.getEngine().removeSchedulingListener(this);
+            this.getSampleScheduler().shutdownNow();
+        }
+    }
+
+    @Override
+    public void onOperationStarting(DownloadOperation operation) {
+        operation.addProgressListener(new ThroughputProgressListener());
+    }
+
+    @Override
+    public void onOperationCompleted(DownloadOperation operation) {
+        if (operation.getCancelTime() == null && operation.getSuspendTime() == null) {
+            this.getCompletedOperationCount().increment();
+            if (operation.getError() != null) {
+                this.getFailedOperationCount().increment();
+            }
+        }
+    }
+
+    /**
+     * Evaluates the sample collected since the last call and updates the processor count of the
+     * engine if necessary
+     */
+    synchronized void adjustProcessorCount() {
+        DownloadEngine engine = this.getEngine();
+        if (engine != null) {
+            try {
+
+                long sampleTime = System.nanoTime();
+                double sampleSeconds = Math.max(1, sampleTime - this.getLastSampleTime()) / 1_000_000_000d;
+                double throughput = this.getBytesTransferred().sumThenReset() / sampleSeconds;
+                long completedOperationCount = this.getCompletedOperationCount().sumThenReset();
+                long failedOperationCount = this.getFailedOperationCount().sumThenReset();
+                double errorRate = completedOperationCount == 0 ? 0 : (double)failedOperationCount / completedOperationCount;
+
+                int currentProcessorCount = engine.getProcessorCount();
+                boolean saturated = engine.hasWaitingRequests() && engine.listActiveOperations().size() >= currentProcessorCount;
+                boolean throughputDropped = this.isLastDecisionIncrease() && saturated && throughput < this.getLastThroughput() * (1 - this.getThroughputDropTolerance());
+                int newProcessorCount = Math.max(this.getMinProcessorCount(), Math.min(this.getMaxProcessorCount(), currentProcessorCount));
+                if (errorRate > this.getMaxErrorRate() || throughputDropped) {
+                    newProcessorCount = Math.max(this.getMinProcessorCount(), (int)(currentProcessorCount * this.getMultiplicativeDecrease()));
+                } else if (saturated) {
+                    newProcessorCount = Math.min(this.getMaxProcessorCount(), currentProcessorCount + this.getAdditiveIncrease());
+                }
+
+                log.debug("Sampled throughput of {} bytes/s with error rate {} (saturated: {}), updating processor count from {} to {}", (long)throughput, errorRate, saturated, currentProcessorCount, newProcessorCount);
+                this.setLastSampleTime(sampleTime);
+                this.setLastThroughput(throughput);
+                this.setLastDecisionIncrease(newProcessorCount > currentProcessorCount);
+                if (newProcessorCount != currentProcessorCount) {
+                    engine.setProcessorCount(newProcessorCount);
+                }
+
+            } catch (Exception e) {
+                log.warn("Cannot adjust processor count of engine", e);
+            }
+        }
+    }
+
+    /**
+     * Adds the number of bytes written by a single operation since its last progress notification
+     * to the total number of bytes transferred within the current sample
+     */
+    class ThroughputProgressListener implements ProgressListener {
+
+        private long lastBytesWritten = -1;
+
+        @Override
+        public synchronized void onProgress(String message, Long bytesWritten, Long bytesTotal) {
+            if (bytesWritten != null) {
+
+                // The first notification might include the bytes transferred by a previous
+                // attempt, which must not be accounted to the current sample
+                if (this.lastBytesWritten >= 0 && bytesWritten > this.lastBytesWritten) {
+                    AdaptiveProcessorCountSchedulingListener.this.getBytesTransferred().add(bytesWritten - this.lastBytesWritten);
+                }
+                this.lastBytesWritten = bytesWritten;
+
+            }
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public int getMinProcessorCount() {
+        return this.minProcessorCount;
+    }
+    public void setMinProcessorCount(int minProcessorCount) {
+        if (minProcessorCount <= 0) {
+            throw new IllegalArgumentException("Parameter 'minProcessorCount' must be larger than 0");
+        } else {
+            this.minProcessorCount = minProcessorCount;
+        }
+    }
+
+    public int getMaxProcessorCount() {
+        return this.maxProcessorCount;
+    }
+    public void setMaxProcessorCount(int maxProcessorCount) {
+        if (maxProcessorCount <= 0) {
+            throw new IllegalArgumentException("Parameter 'maxProcessorCount' must be larger than 0");
+        } else {
+            this.maxProcessorCount = maxProcessorCount;
+        }
+    }
+
+    /**
+     * Gets the number of processors added whenever the engine is saturated and no congestion has
+     * been detected
+     */
+    public int getAdditiveIncrease() {
+        return this.additiveIncrease;
+    }
+    public void setAdditiveIncrease(int additiveIncrease) {
+        if (additiveIncrease <= 0) {
+            throw new IllegalArgumentException("Parameter 'additiveIncrease' must be larger than 0");
+        } else {
+            this.additiveIncrease = additiveIncrease;
+        }
+    }
+
+    /**
+     * Gets the factor by which the processor count is multiplied when a congestion has been
+     * detected
+     */
+    public double getMultiplicativeDecrease() {
+        return this.multiplicativeDecrease;
+    }
+    public void setMultiplicativeDecrease(double multiplicativeDecrease) {
+        if (multiplicativeDecrease <= 0 || multiplicativeDecrease >= 1) {
+            throw new IllegalArgumentException("Parameter 'multiplicativeDecrease' must be larger than 0 and smaller than 1");
+        } else {
+            this.multiplicativeDecrease = multiplicativeDecrease;
+        }
+    }
+
+    /**
+     * Gets the share of operations that may fail within a single sample before the processor
+     * count is reduced
+     */
+    public double getMaxErrorRate() {
+        return this.maxErrorRate;
+    }
+    public void setMaxErrorRate(double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * Gets the share by which the throughput may drop after the processor count has been
+     * increased before the increase is considered to have caused a congestion
+     */
+    public double getThroughputDropTolerance() {
+        return this.throughputDropTolerance;
+    }
+    public void setThroughputDropTolerance(double throughputDropTolerance) {
+        this.throughputDropTolerance = throughputDropTolerance;
+    }
+
+    public Duration getSampleInterval() {
+        return this.sampleInterval;
+    }
+    public void setSampleInterval(Duration sampleInterval) {
+        this.sampleInterval = Objects.requireNonNull(sampleInterval, "Parameter 'sampleInterval' must not be null!");
+    }
+
+    private LongAdder getBytesTransferred() {
+        return this.bytesTransferred;
+    }
+
+    private LongAdder getCompletedOperationCount() {
+        return this.completedOperationCount;
+    }
+
+    private LongAdder getFailedOperationCount() {
+        return this.failedOperationCount;
+    }
+
+    private DownloadEngine getEngine() {
+        return this.engine;
+    }
+    private void setEngine(DownloadEngine engine) {
+        this.engine = engine;
+    }
+
+    private ScheduledExecutorService getSampleScheduler() {
+        return this.sampleScheduler;
+    }
+    private void setSampleScheduler(ScheduledExecutorService sampleScheduler) {
+        this.sampleScheduler = sampleScheduler;
+    }
+
+    private long getLastSampleTime() {
+        return this.lastSampleTime;
+    }
+    private void setLastSampleTime(long lastSampleTime) {
+        this.lastSampleTime = lastSampleTime;
+    }
+
+    private double getLastThroughput() {
+        return this.lastThroughput;
+    }
+    private void setLastThroughput(double lastThroughput) {
+        this.lastThroughput = lastThroughput;
+    }
+
+    private boolean isLastDecisionIncrease() {
+        return this.lastDecisionIncrease;
+    }
+    private void setLastDecisionIncrease(boolean lastDecisionIncrease) {
+        this.lastDecisionIncrease = lastDecisionIncrease;
+    }
+
+}
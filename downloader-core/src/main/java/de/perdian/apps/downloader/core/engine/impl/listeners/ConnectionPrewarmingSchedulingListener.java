@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadOperation;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
+import de.perdian.apps.downloader.core.engine.DownloadRequestWrapper;
+import de.perdian.apps.downloader.core.engine.DownloadSchedulingListener;
+import de.perdian.apps.downloader.core.engine.DownloadTask;
+import de.perdian.apps.downloader.core.support.ProgressListener;
+import de.perdian.apps.downloader.core.support.impl.OkHttpClientRequestStreamFactory;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Opens the connections for the requests waiting at the front of the queue before they are being
+ * started, so that the DNS lookup as well as the TCP and TLS handshakes have already been
+ * performed once a processor slot becomes available.
+ *
+ * As soon as an operation has transferred a given share of its data a {@code HEAD} request is
+ * sent to the host of the next waiting requests. The connection used for it is put into the
+ * {@link okhttp3.ConnectionPool} of the {@link OkHttpClient}, from where it will be taken by the
+ * {@link OkHttpClientRequestStreamFactory} executing the request - provided both use the same
+ * client (or clients derived from it, which share its pool).
+ *
+ * Small transfers usually complete before they report any progress in between, so for a transfer
+ * not larger than the {@code smallTransferSize} the connections are opened as soon as its size is
+ * known. If the size isn't reported at all the connections are opened once the transfer has been
+ * completed.
+ *
+ * @author Christian Robert
+ */
+
+public class ConnectionPrewarmingSchedulingListener implements DownloadSchedulingListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPrewarmingSchedulingListener.class);
+
+    private OkHttpClient httpClient = null;
+    private Function<DownloadRequest, String> urlResolver = request -> request.getHost() == null ? null : "https://" + request.getHost() + "/";
+    private double completionThreshold = 0.8;
+    private long smallTransferSize = 1024 * 1024;
+    private int lookAhead = 1;
+    private Duration prewarmInterval = Duration.ofSeconds(30);
+    private Map<String, Long> prewarmTimes = new ConcurrentHashMap<>();
+
+    public ConnectionPrewarmingSchedulingListener() {
+        this(OkHttpClientRequestStreamFactory.getDefaultHttpClient());
+    }
+
+    public ConnectionPrewarmingSchedulingListener(OkHttpClient httpClient) {
+        this.setHttpClient(httpClient);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(this.getClass().getSimpleName());
+        result.append("[completionThreshold=").append(this.getCompletionThreshold());
+        result.append(",lookAhead=").append(this.getLookAhead());
+        return result.append("]").toString();
+    }
+
+    @Override
+    public void onOperationStarting(DownloadOperation operation) {
+        operation.addProgressListener(new CompletionProgressListener(operation.getOwner()));
+    }
+
+    @Override
+    public void onOperationTransferCompleted(DownloadTask task, Path targetFile, DownloadOperation operation) {
+        this.prewarmConnections(operation.getOwner());
+    }
+
+    /**
+     * Opens the connections for the requests that will be started next within the given engine.
+     * A host that has been pre-warmed within the {@code prewarmInterval} is skipped, since its
+     * connection is still expected to be available inside the pool.
+     */
+    void prewarmConnections(DownloadEngine engine) {
+        if (engine != null) {
+            for (DownloadRequestWrapper requestWrapper : engine.listWaitingRequests(this.getLookAhead())) {
+                HttpUrl prewarmUrl = this.resolvePrewarmUrl(requestWrapper.getRequest());
+                if (prewarmUrl != null && this.acquirePrewarmPermit(prewarmUrl)) {
+                    log.debug("Pre-warming connection for request: {}", requestWrapper.getRequest());
+                    Request prewarmRequest = new Request.Builder().url(prewarmUrl).head().build();
+                    this.getHttpClient().newCall(prewarmRequest).enqueue(new Callback() {
+
+                        @Override
+                        public void onResponse(Call call, Response response) {
+                            response.close();
+                        }
+
+                        @Override
+                        public void onFailure(Call call, IOException e) {
+                            log.debug("Cannot pre-warm connection to: {}", prewarmUrl, e);
+                        }
+
+                    });
+                }
+            }
+        }
+    }
+
+    private HttpUrl resolvePrewarmUrl(DownloadRequest request) {
+        String prewarmUrl = request == null ? null : this.getUrlResolver().apply(request);
+        return prewarmUrl == null ? null : HttpUrl.parse(prewarmUrl);
+    }
+
+    private boolean acquirePrewarmPermit(HttpUrl prewarmUrl) {
+        String connectionKey = prewarmUrl.scheme() + "://" + prewarmUrl.host() + ":" + prewarmUrl.port();
+        long now = System.nanoTime();
+        long prewarmIntervalNanos = this.getPrewarmInterval().toNanos();
+
+        // Hosts that haven't been pre-warmed within the interval don't need to be remembered any
+        // longer, so that the map doesn't grow with every host that has ever been requested
+        this.getPrewarmTimes().values().removeIf(lastPrewarmTime -> now - lastPrewarmTime > prewarmIntervalNanos);
+
+        Long prewarmTime = this.getPrewarmTimes().compute(connectionKey, (key, lastPrewarmTime) -> lastPrewarmTime == null || now - lastPrewarmTime > prewarmIntervalNanos ? now : lastPrewarmTime);
+        return prewarmTime.longValue() == now;
+    }
+
+    /**
+     * Starts the pre-warming once the operation has transferred the share of its data defined by
+     * the {@code completionThreshold}, or right away for a small transfer
+     */
+    class CompletionProgressListener implements ProgressListener {
+
+        private DownloadEngine engine = null;
+        private AtomicBoolean thresholdReached = new AtomicBoolean();
+
+        CompletionProgressListener(DownloadEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public void onProgress(String message, Long bytesWritten, Long bytesTotal) {
+            if (!this.thresholdReached.get() && bytesWritten != null && bytesTotal != null && bytesTotal > 0 && (bytesTotal <= ConnectionPrewarmingSchedulingListener.this.getSmallTransferSize() || bytesWritten >= bytesTotal * ConnectionPrewarmingSchedulingListener.this.getCompletionThreshold())) {
+                if (this.thresholdReached.compareAndSet(false, true)) {
+                    ConnectionPrewarmingSchedulingListener.this.prewarmConnections(this.engine);
+                }
+            }
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public OkHttpClient getHttpClient() {
+        return this.httpClient;
+    }
+    public void setHttpClient(OkHttpClient httpClient) {
+        this.httpClient = Objects.requireNonNull(httpClient, "Parameter 'httpClient' must not be null!");
+    }
+
+    /**
+     * Gets the function computing the URL to which the connection for a request will be opened.
+     * By default the root of the host of the request is used via HTTPS. If the function returns
+     * {@code null} no connection will be opened for the request.
+     */
+    public Function<DownloadRequest, String> getUrlResolver() {
+        return this.urlResolver;
+    }
+    public void setUrlResolver(Function<DownloadRequest, String> urlResolver) {
+        this.urlResolver = Objects.requireNonNull(urlResolver, "Parameter 'urlResolver' must not be null!");
+    }
+
+    /**
+     * Gets the share of its data an operation has to have transferred before the connections for
+     * the next requests are opened
+     */
+    public double getCompletionThreshold() {
+        return this.completionThreshold;
+    }
+    public void setCompletionThreshold(double completionThreshold) {
+        if (completionThreshold < 0 || completionThreshold > 1) {
+            throw new IllegalArgumentException("Parameter 'completionThreshold' must be between 0 and 1");
+        } else {
+            this.completionThreshold = completionThreshold;
+        }
+    }
+
+    /**
+     * Gets the size up to which a transfer is considered to be too small to wait for it to reach
+     * the {@code completionThreshold} before opening the connections for the next requests
+     */
+    public long getSmallTransferSize() {
+        return this.smallTransferSize;
+    }
+    public void setSmallTransferSize(long smallTransferSize) {
+        this.smallTransferSize = smallTransferSize;
+    }
+
+    /**
+     * Gets the number of waiting requests for which connections will be opened
+     */
+    public int getLookAhead() {
+        return this.lookAhead;
+    }
+    public void setLookAhead(int lookAhead) {
+        if (lookAhead <= 0) {
+            throw new IllegalArgumentException("Parameter 'lookAhead' must be larger than 0");
+        } else {
+            this.lookAhead = lookAhead;
+        }
+    }
+
+    /**
+     * Gets the time during which no further connection will be opened to a host that has just
+     * been pre-warmed
+     */
+    public Duration getPrewarmInterval() {
+        return this.prewarmInterval;
+    }
+    public void setPrewarmInterval(Duration prewarmInterval) {
+        this.prewarmInterval = Objects.requireNonNull(prewarmInterval, "Parameter 'prewarmInterval' must not be null!");
+    }
+
+    private Map<String, Long> getPrewarmTimes() {
+        return this.prewarmTimes;
+    }
+
+}
@@ -54,9 +54,14 @@ public class IdentifierValidationSchedulingListener implements DownloadSchedulin
         }
     }
 
+    /**
+     * Writes the marker once the request has been finally executed. A suspended operation will be
+     * continued after the engine has been restarted, so it must not leave a marker that would
+     * reject the request when it is submitted again.
+     */
     @Override
     public void onOperationCompleted(DownloadOperation operation) {
-        if (operation.getRequestWrapper().getRequest().getId() != null) {
+        if (operation.getRequestWrapper().getRequest().getId() != null && operation.getRetryTime() == null && operation.getSuspendTime() == null) {
             if (operation.getError() != null) {
                 this.pushIdentifier(operation.getRequestWrapper().getRequest().getId(), "ERROR [" + operation.getError() + "]");
             } else if (operation.getCancelTime() != null) {
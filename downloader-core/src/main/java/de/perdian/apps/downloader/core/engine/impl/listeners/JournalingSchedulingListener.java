@@ -0,0 +1,567 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadOperation;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
+import de.perdian.apps.downloader.core.engine.DownloadRecipeFactory;
+import de.perdian.apps.downloader.core.engine.DownloadRequestRecipe;
+import de.perdian.apps.downloader.core.engine.DownloadRequestWrapper;
+import de.perdian.apps.downloader.core.engine.DownloadSchedulingListener;
+
+/**
+ * Records the lifecycle of all requests providing a {@link DownloadRequestRecipe} in an
+ * append-only journal file, so that requests which have not been completed yet can be submitted
+ * into the engine again after the application has been restarted.
+ *
+ * Callers never wait for the journal to be written: all records are handed over to a single
+ * writer thread, which writes every record that has piled up in the meantime in one go and
+ * forces them to disk together (group commit). Whenever the journal contains too many records of
+ * requests that have already been completed or cancelled, it is compacted by writing the records
+ * of the still pending requests into a new file that replaces the journal atomically.
+ *
+ * @author Christian Robert
+ */
+
+public class JournalingSchedulingListener implements DownloadSchedulingListener, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalingSchedulingListener.class);
+
+    private static final char RECORD_SUBMITTED = 'S';
+    private static final char RECORD_STARTED = 'A';
+    private static final char RECORD_COMPLETED = 'C';
+    private static final char RECORD_CANCELLED = 'X';
+    private static final char CONTROL_FLUSH = 'F';
+    private static final char CONTROL_COMPACT = 'K';
+    private static final char CONTROL_CLOSE = 'Q';
+
+    private Path journalFile = null;
+    private Map<String, DownloadRecipeFactory> requestFactories = null;
+    private int compactionThreshold = 10_000;
+    private Map<DownloadRequest, Long> entryIds = new ConcurrentHashMap<>();
+    private Map<Long, Long> spilledEntryIds = new ConcurrentHashMap<>();
+    private AtomicLong entrySequence = new AtomicLong();
+    private BlockingQueue<JournalRecord> pendingRecords = new LinkedBlockingQueue<>();
+    private DownloadEngine engine = null;
+    private Thread writerThread = null;
+
+    // The following properties are only accessed by the writer thread once it has been started
+    private Map<Long, JournalEntry> liveEntries = new LinkedHashMap<>();
+    private FileChannel journalChannel = null;
+    private long journalRecordCount = 0;
+
+    public JournalingSchedulingListener(Path journalFile, Map<String, DownloadRecipeFactory> requestFactories) {
+        this.setJournalFile(Objects.requireNonNull(journalFile, "Parameter 'journalFile' must not be null!"));
+        this.setRequestFactories(Objects.requireNonNull(requestFactories, "Parameter 'requestFactories' must not be null!"));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(this.getClass().getSimpleName());
+        result.append("[journalFile=").append(this.getJournalFile());
+        return result.append("]").toString();
+    }
+
+    /**
+     * Reads the journal, submits all requests that have not been completed before into the given
+     * engine and starts recording the lifecycle of all further requests of the engine. Requests
+     * that had already been started are submitted first, since they are the ones most likely to
+     * have left a partially transferred file that can be continued.
+     *
+     * @return
+     *     the number of requests that have been submitted from the journal
+     */
+    public synchronized int attach(DownloadEngine engine) throws IOException {
+        if (this.getEngine() != null) {
+            throw new IllegalStateException("Journal has already been attached to an engine");
+        } else {
+
+            this.readJournal();
+            this.setJournalChannel(FileChannel.open(this.getJournalFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+            this.setEngine(engine);
+            this.setWriterThread(Thread.ofPlatform().name("download-journal-writer").daemon().start(this::writeRecords));
+
+            List<Map.Entry<Long, JournalEntry>> replayEntries = new ArrayList<>(this.getLiveEntries().entrySet());
+            replayEntries.sort((e1, e2) -> Boolean.compare(e2.getValue().isStarted(), e1.getValue().isStarted()));
+            log.info("Replaying {} pending requests from journal at: {}", replayEntries.size(), this.getJournalFile());
+
+            engine.addSchedulingListener(this);
+            int replayCount = 0;
+            for (Map.Entry<Long, JournalEntry> replayEntry : replayEntries) {
+                DownloadRequest request = this.createRequest(replayEntry.getValue().getRecipe());
+                if (request == null) {
+                    this.getPendingRecords().add(new JournalRecord(RECORD_CANCELLED, replayEntry.getKey(), null));
+                } else {
+                    request.setRecipe(replayEntry.getValue().getRecipe());
+                    this.getEntryIds().put(request, replayEntry.getKey());
+                    if (engine.submit(request) != null) {
+                        replayCount++;
+                    } else if (this.getEntryIds().remove(request) != null) {
+                        this.getPendingRecords().add(new JournalRecord(RECORD_CANCELLED, replayEntry.getKey(), null));
+                    }
+                }
+            }
+            this.getPendingRecords().add(JournalRecord.control(CONTROL_COMPACT, null));
+            return replayCount;
+
+        }
+    }
+
+    private DownloadRequest createRequest(DownloadRequestRecipe recipe) {
+        DownloadRecipeFactory requestFactory = this.getRequestFactories().get(recipe.getFactoryId());
+        if (requestFactory == null) {
+            log.warn("No request factory available for journal entry, discarding request: {}", recipe);
+            return null;
+        } else {
+            try {
+                return requestFactory.createRequest(recipe);
+            } catch (Exception e) {
+                log.warn("Cannot create request from journal entry, discarding request: " + recipe, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Waits until all records that have been created so far are written to disk
+     */
+    public void flush() throws InterruptedException {
+        if (this.getWriterThread() != null && this.getWriterThread().isAlive()) {
+            CountDownLatch flushLatch = new CountDownLatch(1);
+            this.getPendingRecords().add(JournalRecord.control(CONTROL_FLUSH, flushLatch));
+            flushLatch.await();
+        }
+    }
+
+    /**
+     * Stops recording the requests of the engine. All records that have been created so far are
+     * written to disk before the journal is closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.getEngine() != null) {
+            this.getEngine().removeSchedulingListener(this);
+            try {
+                if (this.getWriterThread().isAlive()) {
+                    CountDownLatch closeLatch = new CountDownLatch(1);
+                    this.getPendingRecords().add(JournalRecord.control(CONTROL_CLOSE, closeLatch));
+                    closeLatch.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                this.getJournalChannel().close();
+            }
+        }
+    }
+
+    /**
+     * Records the request as soon as it is submitted, since a request that can be executed
+     * immediately will never be reported as being scheduled. If the request is rejected by
+     * another listener afterwards, it will be rejected again (and then removed from the journal)
+     * when the journal is replayed.
+     */
+    @Override
+    public void onRequestSubmit(DownloadRequest request) {
+        this.recordSubmitted(request);
+    }
+
+    /**
+     * Remembers the entry of a request that is being written into the spill store of the engine
+     * by the sequence of its wrapper, since neither the request nor its wrapper are kept on the
+     * heap while the request is spilled. The entry itself stays inside the journal, so that the
+     * request is still replayed if the application terminates while the request is spilled.
+     */
+    @Override
+    public void onRequestSpilled(DownloadRequestWrapper requestWrapper) {
+        Long entryId = this.getEntryIds().remove(requestWrapper.getRequest());
+        if (entryId != null) {
+            this.getSpilledEntryIds().put(requestWrapper.getSequence(), entryId);
+        }
+    }
+
+    @Override
+    public void onRequestRestored(DownloadRequestWrapper requestWrapper) {
+        Long spilledEntryId = this.getSpilledEntryIds().remove(requestWrapper.getSequence());
+        if (spilledEntryId != null) {
+            this.getEntryIds().put(requestWrapper.getRequest(), spilledEntryId);
+        }
+    }
+
+    /**
+     * Records a request that has been restored from the spill store but is coalesced with an equal
+     * request as being completed, since it will never be executed on its own. A request coalesced
+     * upon submission hasn't been recorded at all, so there is nothing to be done for it.
+     */
+    @Override
+    public void onRequestCoalesced(DownloadRequest request, DownloadRequestWrapper requestWrapper) {
+        if (requestWrapper.getRequest() != request) {
+            this.recordFinished(request, RECORD_COMPLETED);
+        }
+    }
+
+    @Override
+    public void onOperationStarting(DownloadOperation operation) {
+        Long entryId = this.recordSubmitted(operation.getRequestWrapper().getRequest());
+        if (entryId != null) {
+            this.getPendingRecords().add(new JournalRecord(RECORD_STARTED, entryId, null));
+        }
+    }
+
+    /**
+     * Records the request as being completed, unless it will be executed again - either because it
+     * is going to be retried or because its transfer has been suspended while closing the engine
+     */
+    @Override
+    public void onOperationCompleted(DownloadOperation operation) {
+        if (operation.getRetryTime() == null && operation.getSuspendTime() == null) {
+            this.recordFinished(operation.getRequestWrapper().getRequest(), RECORD_COMPLETED);
+        }
+    }
+
+    @Override
+    public void onOperationCancelled(DownloadOperation operation) {
+        this.recordFinished(operation.getRequestWrapper().getRequest(), RECORD_CANCELLED);
+    }
+
+    @Override
+    public void onRequestCancelled(DownloadRequestWrapper requestWrapper) {
+        Long spilledEntryId = this.getSpilledEntryIds().remove(requestWrapper.getSequence());
+        if (spilledEntryId != null) {
+            this.getPendingRecords().add(new JournalRecord(RECORD_CANCELLED, spilledEntryId, null));
+        } else {
+            this.recordFinished(requestWrapper.getRequest(), RECORD_CANCELLED);
+        }
+    }
+
+    private Long recordSubmitted(DownloadRequest request) {
+        if (request == null || request.getRecipe() == null) {
+            return null;
+        } else {
+            return this.getEntryIds().computeIfAbsent(request, key -> {
+                long entryId = this.getEntrySequence().incrementAndGet();
+                this.getPendingRecords().add(new JournalRecord(RECORD_SUBMITTED, entryId, key.getRecipe()));
+                return entryId;
+            });
+        }
+    }
+
+    private void recordFinished(DownloadRequest request, char recordType) {
+        Long entryId = request == null ? null : this.getEntryIds().remove(request);
+        if (entryId != null) {
+            this.getPendingRecords().add(new JournalRecord(recordType, entryId, null));
+        }
+    }
+
+    private void readJournal() throws IOException {
+        if (Files.exists(this.getJournalFile())) {
+            for (String line : Files.readAllLines(this.getJournalFile(), StandardCharsets.UTF_8)) {
+                try {
+                    JournalRecord record = JournalRecord.parse(line);
+                    this.applyRecord(record);
+                    this.getEntrySequence().accumulateAndGet(record.getEntryId(), Math::max);
+                    this.setJournalRecordCount(this.getJournalRecordCount() + 1);
+                } catch (Exception e) {
+                    // Most probably the last line has only been written partially because the
+                    // application was stopped while writing it, so we simply ignore it
+                    log.debug("Ignoring invalid journal record: {}", line, e);
+                }
+            }
+        }
+    }
+
+    private void applyRecord(JournalRecord record) {
+        switch (record.getType()) {
+            case RECORD_SUBMITTED -> this.getLiveEntries().put(record.getEntryId(), new JournalEntry(record.getRecipe()));
+            case RECORD_STARTED -> this.getLiveEntries().computeIfPresent(record.getEntryId(), (key, entry) -> entry.markStarted());
+            default -> this.getLiveEntries().remove(record.getEntryId());
+        }
+    }
+
+    private void writeRecords() {
+        List<JournalRecord> records = new ArrayList<>();
+        for (boolean closeRequested = false; !closeRequested; records.clear()) {
+            try {
+                records.add(this.getPendingRecords().take());
+            } catch (InterruptedException e) {
+                log.debug("Journal writer has been interrupted, stopping to write journal at: {}", this.getJournalFile());
+                return;
+            }
+            this.getPendingRecords().drainTo(records);
+
+            boolean compactRequested = false;
+            StringBuilder journalLines = new StringBuilder();
+            for (JournalRecord record : records) {
+                if (record.getType() == CONTROL_CLOSE) {
+                    closeRequested = true;
+                } else if (record.getType() == CONTROL_COMPACT) {
+                    compactRequested = true;
+                } else if (record.getType() != CONTROL_FLUSH) {
+                    journalLines.append(record.format()).append('\n');
+                    this.applyRecord(record);
+                    this.setJournalRecordCount(this.getJournalRecordCount() + 1);
+                }
+            }
+            try {
+                if (!journalLines.isEmpty()) {
+                    JournalingSchedulingListener.writeFully(this.getJournalChannel(), journalLines);
+                }
+                if (compactRequested || this.getJournalRecordCount() - this.getLiveEntries().size() > this.getCompactionThreshold()) {
+                    this.compactJournal();
+                }
+            } catch (IOException e) {
+                log.warn("Cannot write journal at: " + this.getJournalFile(), e);
+            }
+            records.stream().filter(record -> record.getLatch() != null).forEach(record -> record.getLatch().countDown());
+        }
+    }
+
+    private void compactJournal() throws IOException {
+        Path compactFile = this.getJournalFile().resolveSibling(this.getJournalFile().getFileName() + ".compact");
+        StringBuilder compactLines = new StringBuilder();
+        long compactRecordCount = 0;
+        for (Map.Entry<Long, JournalEntry> liveEntry : this.getLiveEntries().entrySet()) {
+            compactLines.append(new JournalRecord(RECORD_SUBMITTED, liveEntry.getKey(), liveEntry.getValue().getRecipe()).format()).append('\n');
+            compactRecordCount++;
+            if (liveEntry.getValue().isStarted()) {
+                compactLines.append(new JournalRecord(RECORD_STARTED, liveEntry.getKey(), null).format()).append('\n');
+                compactRecordCount++;
+            }
+        }
+        try (FileChannel compactChannel = FileChannel.open(compactFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            JournalingSchedulingListener.writeFully(compactChannel, compactLines);
+        }
+        log.debug("Compacting journal from {} to {} records at: {}", this.getJournalRecordCount(), compactRecordCount, this.getJournalFile());
+        this.getJournalChannel().close();
+        Files.move(compactFile, this.getJournalFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.setJournalChannel(FileChannel.open(this.getJournalFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        this.setJournalRecordCount(compactRecordCount);
+    }
+
+    private static void writeFully(FileChannel channel, CharSequence content) throws IOException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(content.toString());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    static class JournalEntry {
+
+        private DownloadRequestRecipe recipe = null;
+        private boolean started = false;
+
+        JournalEntry(DownloadRequestRecipe recipe) {
+            this.recipe = recipe;
+        }
+
+        JournalEntry markStarted() {
+            this.started = true;
+            return this;
+        }
+
+        DownloadRequestRecipe getRecipe() {
+            return this.recipe;
+        }
+
+        boolean isStarted() {
+            return this.started;
+        }
+
+    }
+
+    /**
+     * A single line within the journal, consisting of the record type, the id of the journal entry
+     * and (for submitted requests) the URL encoded recipe. Control records are never written into
+     * the journal but only used to signal the writer thread.
+     */
+    static class JournalRecord {
+
+        private char type = 0;
+        private long entryId = 0;
+        private DownloadRequestRecipe recipe = null;
+        private CountDownLatch latch = null;
+
+        JournalRecord(char type, long entryId, DownloadRequestRecipe recipe) {
+            this.type = type;
+            this.entryId = entryId;
+            this.recipe = recipe;
+        }
+
+        static JournalRecord control(char type, CountDownLatch latch) {
+            JournalRecord controlRecord = new JournalRecord(type, 0, null);
+            controlRecord.latch = latch;
+            return controlRecord;
+        }
+
+        static JournalRecord parse(String line) {
+            String[] tokens = line.split(" ");
+            char type = tokens[0].length() == 1 ? tokens[0].charAt(0) : 0;
+            long entryId = Long.parseLong(tokens[1]);
+            if (type == RECORD_SUBMITTED) {
+                Map<String, String> parameters = new LinkedHashMap<>();
+                for (int i = 3; i < tokens.length; i++) {
+                    int separatorIndex = tokens[i].indexOf('=');
+                    parameters.put(URLDecoder.decode(tokens[i].substring(0, separatorIndex), StandardCharsets.UTF_8), URLDecoder.decode(tokens[i].substring(separatorIndex + 1), StandardCharsets.UTF_8));
+                }
+                return new JournalRecord(type, entryId, new DownloadRequestRecipe(URLDecoder.decode(tokens[2], StandardCharsets.UTF_8), parameters));
+            } else if (type == RECORD_STARTED || type == RECORD_COMPLETED || type == RECORD_CANCELLED) {
+                return new JournalRecord(type, entryId, null);
+            } else {
+                throw new IllegalArgumentException("Invalid record type: " + tokens[0]);
+            }
+        }
+
+        String format() {
+            StringBuilder result = new StringBuilder();
+            result.append(this.getType()).append(' ').append(this.getEntryId());
+            if (this.getRecipe() != null) {
+                result.append(' ').append(URLEncoder.encode(this.getRecipe().getFactoryId(), StandardCharsets.UTF_8));
+                for (Map.Entry<String, String> parameter : this.getRecipe().getParameters().entrySet()) {
+                    result.append(' ').append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8));
+                    result.append('=').append(URLEncoder.encode(parameter.getValue() == null ? "" : parameter.getValue(), StandardCharsets.UTF_8));
+                }
+            }
+            return result.toString();
+        }
+
+        char getType() {
+            return this.type;
+        }
+
+        long getEntryId() {
+            return this.entryId;
+        }
+
+        DownloadRequestRecipe getRecipe() {
+            return this.recipe;
+        }
+
+        CountDownLatch getLatch() {
+            return this.latch;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public Path getJournalFile() {
+        return this.journalFile;
+    }
+    private void setJournalFile(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    private Map<String, DownloadRecipeFactory> getRequestFactories() {
+        return this.requestFactories;
+    }
+    private void setRequestFactories(Map<String, DownloadRecipeFactory> requestFactories) {
+        this.requestFactories = requestFactories;
+    }
+
+    /**
+     * Gets the number of records of completed or cancelled requests that may pile up inside the
+     * journal before it is compacted
+     */
+    public int getCompactionThreshold() {
+        return this.compactionThreshold;
+    }
+    public void setCompactionThreshold(int compactionThreshold) {
+        if (compactionThreshold < 0) {
+            throw new IllegalArgumentException("Parameter 'compactionThreshold' must not be negative");
+        } else {
+            this.compactionThreshold = compactionThreshold;
+        }
+    }
+
+    private Map<DownloadRequest, Long> getEntryIds() {
+        return this.entryIds;
+    }
+
+    private Map<Long, Long> getSpilledEntryIds() {
+        return this.spilledEntryIds;
+    }
+
+    private AtomicLong getEntrySequence() {
+        return this.entrySequence;
+    }
+
+    private BlockingQueue<JournalRecord> getPendingRecords() {
+        return this.pendingRecords;
+    }
+
+    private DownloadEngine getEngine() {
+        return this.engine;
+    }
+    private void setEngine(DownloadEngine engine) {
+        this.engine = engine;
+    }
+
+    private Thread getWriterThread() {
+        return this.writerThread;
+    }
+    private void setWriterThread(Thread writerThread) {
+        this.writerThread = writerThread;
+    }
+
+    private Map<Long, JournalEntry> getLiveEntries() {
+        return this.liveEntries;
+    }
+
+    private FileChannel getJournalChannel() {
+        return this.journalChannel;
+    }
+    private void setJournalChannel(FileChannel journalChannel) {
+        this.journalChannel = journalChannel;
+    }
+
+    private long getJournalRecordCount() {
+        return this.journalRecordCount;
+    }
+    private void setJournalRecordCount(long journalRecordCount) {
+        this.journalRecordCount = journalRecordCount;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@code OutputStream} writing into a {@link FileChannel} starting at a fixed position. The
+ * position of the channel itself is never modified, so that multiple streams can write into
+ * different regions of the same channel at the same time. Closing the stream will not close the
+ * underlying channel.
+ *
+ * @author Christian Robert
+ */
+
+public class FileChannelOutputStream extends OutputStream {
+
+    private FileChannel channel = null;
+    private long startPosition = 0;
+    private long position = 0;
+
+    public FileChannelOutputStream(FileChannel channel, long position) {
+        this.setChannel(channel);
+        this.setStartPosition(position);
+        this.setPosition(position);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            this.setPosition(this.getPosition() + this.getChannel().write(buffer, this.getPosition()));
+        }
+    }
+
+    private FileChannel getChannel() {
+        return this.channel;
+    }
+    private void setChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public long getStartPosition() {
+        return this.startPosition;
+    }
+    private void setStartPosition(long startPosition) {
+        this.startPosition = startPosition;
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+    private void setPosition(long position) {
+        this.position = position;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.support;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * {@code OutputStream} that measures how long every write into the underlying stream takes and
+ * passes the duration in nanoseconds to a consumer.
+ *
+ * @author Christian Robert
+ */
+
+public class LatencyRecordingOutputStream extends FilterOutputStream {
+
+    private LongConsumer latencyConsumer = null;
+
+    public LatencyRecordingOutputStream(OutputStream out, LongConsumer latencyConsumer) {
+        super(out);
+        this.setLatencyConsumer(latencyConsumer);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long startTime = System.nanoTime();
+        this.out.write(b);
+        this.getLatencyConsumer().accept(System.nanoTime() - startTime);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long startTime = System.nanoTime();
+        this.out.write(b, off, len);
+        this.getLatencyConsumer().accept(System.nanoTime() - startTime);
+    }
+
+    private LongConsumer getLatencyConsumer() {
+        return this.latencyConsumer;
+    }
+    private void setLatencyConsumer(LongConsumer latencyConsumer) {
+        this.latencyConsumer = latencyConsumer;
+    }
+
+}
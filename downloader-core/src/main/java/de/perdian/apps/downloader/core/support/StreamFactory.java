@@ -52,4 +52,47 @@ public interface StreamFactory {
         return -1;
     }
 
+    /**
+     * Returns a value identifying the current version of the remote resource, like an HTTP
+     * {@code ETag} or {@code Last-Modified} header. A partially transferred resource may only be
+     * continued if the validator still matches the one recorded when the transfer was started.
+     *
+     * @return
+     *     the validator or <code>null</code> if the remote resource doesn't provide one
+     * @throws IOException
+     *     thrown if the remote resource cannot be accessed
+     */
+    default String validator() throws IOException {
+        return null;
+    }
+
+    /**
+     * Checks whether or not the remote resource allows reading only a part of its content by
+     * calling {@link #openStream(long, long)}.
+     *
+     * @throws IOException
+     *     thrown if the remote resource cannot be accessed
+     */
+    default boolean isRangeSupported() throws IOException {
+        return false;
+    }
+
+    /**
+     * Open a stream from which only a part of the information will be read
+     *
+     * @param offset
+     *     the position of the first byte to be read
+     * @param length
+     *     the number of bytes to be read. If the value is negative, all bytes until the end of the
+     *     remote resource will be read.
+     * @return
+     *     the stream
+     * @throws IOException
+     *     thrown if the remote resource cannot be accessed or doesn't support reading only a part
+     *     of its content
+     */
+    default InputStream openStream(long offset, long length) throws IOException {
+        throw new IOException("Remote resource doesn't support reading a range of its content: " + this);
+    }
+
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which tokens (usually bytes) can be consumed. Tokens are refilled
+ * continuously according to the configured rate and up to one second worth of tokens can be
+ * accumulated while the bucket isn't used.
+ *
+ * Callers reserve tokens in the order in which they arrive and then wait until their
+ * reservation is covered, so multiple threads consuming tokens from the same bucket in small
+ * chunks will get a roughly equal share of the available rate. Waiting callers are woken up
+ * whenever the rate is changed, so that the new rate applies to them right away instead of only
+ * to the tokens reserved afterwards.
+ *
+ * @author Christian Robert
+ */
+
+public class TokenBucket {
+
+    private long rate = 0;
+    private double availableTokens = 0;
+    private long reservedTokens = 0;
+    private long lastRefillTime = 0;
+
+    /**
+     * Creates a new bucket
+     *
+     * @param rate
+     *     the number of tokens per second that will be refilled. A value of {@code 0} means that
+     *     the rate is unlimited.
+     */
+    public TokenBucket(long rate) {
+        this.setRate(rate);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(this.getClass().getSimpleName());
+        result.append("[rate=").append(this.getRate());
+        return result.append("]").toString();
+    }
+
+    /**
+     * Consumes the given number of tokens, blocking the current thread until enough tokens are
+     * available
+     */
+    public synchronized void acquire(long tokens) throws InterruptedException {
+        long waitNanos = this.reserve(tokens, System.nanoTime());
+        long reservationEnd = this.reservedTokens;
+        while (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+            waitNanos = this.computeWaitNanos(reservationEnd, System.nanoTime());
+        }
+    }
+
+    /**
+     * Reserves the given number of tokens
+     *
+     * @return
+     *     the number of nanoseconds the caller has to wait until the reservation is covered
+     */
+    synchronized long reserve(long tokens, long currentTime) {
+        if (this.rate <= 0) {
+            return 0;
+        } else {
+            this.refill(currentTime);
+            this.availableTokens -= tokens;
+            this.reservedTokens += tokens;
+            return this.computeWaitNanos(this.reservedTokens, currentTime);
+        }
+    }
+
+    /**
+     * Computes how long the caller that made the reservation ending at the given position still
+     * has to wait. All reservations made afterwards are already included in the deficit of the
+     * bucket, so they are taken out again - the caller only waits for its own tokens and the ones
+     * reserved before it.
+     */
+    private long computeWaitNanos(long reservationEnd, long currentTime) {
+        if (this.rate <= 0) {
+            return 0;
+        } else {
+            this.refill(currentTime);
+            double missingTokens = -(this.availableTokens + (this.reservedTokens - reservationEnd));
+            return missingTokens <= 0 ? 0 : Math.max(1, (long)(missingTokens * TimeUnit.SECONDS.toNanos(1) / this.rate));
+        }
+    }
+
+    private void refill(long currentTime) {
+        if (this.rate > 0 && currentTime > this.lastRefillTime) {
+            double refilledTokens = (currentTime - this.lastRefillTime) * this.rate / (double)TimeUnit.SECONDS.toNanos(1);
+            this.availableTokens = Math.min(this.rate, this.availableTokens + refilledTokens);
+        }
+        this.lastRefillTime = Math.max(this.lastRefillTime, currentTime);
+    }
+
+    public synchronized long getRate() {
+        return this.rate;
+    }
+    public synchronized void setRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Parameter 'rate' must not be negative");
+        } else if (this.rate != rate) {
+
+            // The tokens refilled so far are still computed using the previous rate, and the
+            // tokens reserved but not yet covered are refilled using the new rate from now on
+            this.refill(System.nanoTime());
+            this.rate = rate;
+            this.availableTokens = rate == 0 ? 0 : Math.min(this.availableTokens, rate);
+            this.notifyAll();
+
+        }
+    }
+
+}
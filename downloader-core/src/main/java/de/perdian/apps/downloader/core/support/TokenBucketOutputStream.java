@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2019 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.downloader.core.support;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * {@code OutputStream} that consumes tokens from one or more {@link TokenBucket} instances for
+ * every byte written, which means that a transfer loop writing into this stream will be slowed
+ * down to the lowest rate of all the buckets.
+ *
+ * @author Christian Robert
+ */
+
+public class TokenBucketOutputStream extends FilterOutputStream {
+
+    private List<TokenBucket> tokenBuckets = null;
+
+    public TokenBucketOutputStream(OutputStream out, List<TokenBucket> tokenBuckets) {
+        super(out);
+        this.setTokenBuckets(tokenBuckets);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.acquireTokens(1);
+        this.out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.acquireTokens(len);
+        this.out.write(b, off, len);
+    }
+
+    private void acquireTokens(long tokens) throws IOException {
+        try {
+            for (TokenBucket tokenBucket : this.getTokenBuckets()) {
+                tokenBucket.acquire(tokens);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    private List<TokenBucket> getTokenBuckets() {
+        return this.tokenBuckets;
+    }
+    private void setTokenBuckets(List<TokenBucket> tokenBuckets) {
+        this.tokenBuckets = tokenBuckets;
+    }
+
+}
@@ -39,6 +39,18 @@ public class ByteArrayStreamFactory implements StreamFactory {
         return this.getBytes().length;
     }
 
+    @Override
+    public boolean isRangeSupported() throws IOException {
+        return true;
+    }
+
+    @Override
+    public InputStream openStream(long offset, long length) throws IOException {
+        int rangeOffset = (int)Math.min(offset, this.getBytes().length);
+        int rangeLength = length < 0 ? this.getBytes().length - rangeOffset : (int)Math.min(length, this.getBytes().length - rangeOffset);
+        return new ByteArrayInputStream(this.getBytes(), rangeOffset, rangeLength);
+    }
+
     private byte[] getBytes() {
         return this.bytes;
     }
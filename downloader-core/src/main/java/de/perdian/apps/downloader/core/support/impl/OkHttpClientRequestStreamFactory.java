@@ -27,12 +27,17 @@ import java.io.InputStream;
 
 public class OkHttpClientRequestStreamFactory implements StreamFactory {
 
+    private static final OkHttpClient DEFAULT_HTTP_CLIENT = new OkHttpClient.Builder().build();
+
     private OkHttpClient httpClient = null;
     private String url = null;
     private Response response = null;
+    private Boolean rangeSupported = null;
+    private Long rangeProbeSize = null;
+    private String rangeProbeValidator = null;
 
     public OkHttpClientRequestStreamFactory(String url) {
-        this(url, new OkHttpClient.Builder().build());
+        this(url, DEFAULT_HTTP_CLIENT);
     }
 
     public OkHttpClientRequestStreamFactory(String url, OkHttpClient httpClient) {
@@ -40,6 +45,16 @@ public class OkHttpClientRequestStreamFactory implements StreamFactory {
         this.setHttpClient(httpClient);
     }
 
+    /**
+     * Gets the client used by all factories created without an explicit client. Since they share
+     * a single {@link okhttp3.ConnectionPool}, a connection opened by one of them (or opened in
+     * advance for a request that is about to be started) can be reused by the others. Clients
+     * created using {@link OkHttpClient#newBuilder()} of this client share its pool as well.
+     */
+    public static OkHttpClient getDefaultHttpClient() {
+        return DEFAULT_HTTP_CLIENT;
+    }
+
     @Override
     public String toString() {
         ToStringBuilder toStringBuilder = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
@@ -54,7 +69,78 @@ public class OkHttpClientRequestStreamFactory implements StreamFactory {
 
     @Override
     public long size() throws IOException {
-        return this.ensureResponse().body().contentLength();
+        Long rangeProbeSize = this.getRangeProbeSize();
+        if (this.getResponse() == null && rangeProbeSize != null) {
+            return rangeProbeSize.longValue();
+        } else {
+            return this.ensureResponse().body().contentLength();
+        }
+    }
+
+    /**
+     * Checks whether the server supports range requests by asking for the very first byte of
+     * the resource. A server supporting ranges will answer with a partial response, which also
+     * tells us the total size of the resource, so that no complete response needs to be opened
+     * by a subsequent call to {@link #size()}. If the complete response has already been opened,
+     * its {@code Accept-Ranges} header is evaluated instead.
+     */
+    @Override
+    public synchronized boolean isRangeSupported() throws IOException {
+        Response response = this.getResponse();
+        if (this.getRangeSupported() == null && response != null) {
+            this.setRangeSupported(Boolean.valueOf("bytes".equalsIgnoreCase(response.header("Accept-Ranges"))));
+        } else if (this.getRangeSupported() == null) {
+            Request probeRequest = new Request.Builder().url(this.getUrl()).header("Range", "bytes=0-0").build();
+            try (Response probeResponse = this.getHttpClient().newCall(probeRequest).execute()) {
+                String contentRange = probeResponse.header("Content-Range");
+                String contentRangeSize = contentRange == null || contentRange.indexOf('/') < 0 ? null : contentRange.substring(contentRange.indexOf('/') + 1).strip();
+                if (probeResponse.code() == 206 && contentRangeSize != null && !"*".equals(contentRangeSize)) {
+                    this.setRangeProbeSize(Long.valueOf(contentRangeSize));
+                    this.setRangeProbeValidator(this.resolveValidator(probeResponse));
+                    this.setRangeSupported(Boolean.TRUE);
+                } else {
+                    this.setRangeSupported(Boolean.FALSE);
+                }
+            }
+        }
+        return this.getRangeSupported().booleanValue();
+    }
+
+    /**
+     * Uses the validator of the already opened response if available, so that no additional
+     * request is required after a transfer has failed.
+     */
+    @Override
+    public synchronized String validator() throws IOException {
+        Response response = this.getResponse();
+        if (response != null) {
+            return this.resolveValidator(response);
+        } else {
+            this.isRangeSupported();
+            return this.getRangeProbeValidator();
+        }
+    }
+
+    private String resolveValidator(Response response) {
+        String entityTag = response.header("ETag");
+        if (entityTag != null && !entityTag.startsWith("W/")) {
+            return entityTag;
+        } else {
+            return response.header("Last-Modified");
+        }
+    }
+
+    @Override
+    public InputStream openStream(long offset, long length) throws IOException {
+        String rangeHeader = "bytes=" + offset + "-" + (length < 0 ? "" : String.valueOf(offset + length - 1));
+        Request rangeRequest = new Request.Builder().url(this.getUrl()).header("Range", rangeHeader).build();
+        Response rangeResponse = this.getHttpClient().newCall(rangeRequest).execute();
+        if (rangeResponse.code() != 206) {
+            rangeResponse.close();
+            throw new IOException("Server answered range request '" + rangeHeader + "' with status " + rangeResponse.code() + ": " + this.getUrl());
+        } else {
+            return rangeResponse.body().byteStream();
+        }
     }
 
     public OkHttpClient getHttpClient() {
@@ -84,4 +170,25 @@ public class OkHttpClientRequestStreamFactory implements StreamFactory {
         this.response = response;
     }
 
+    private Boolean getRangeSupported() {
+        return this.rangeSupported;
+    }
+    private void setRangeSupported(Boolean rangeSupported) {
+        this.rangeSupported = rangeSupported;
+    }
+
+    private Long getRangeProbeSize() {
+        return this.rangeProbeSize;
+    }
+    private void setRangeProbeSize(Long rangeProbeSize) {
+        this.rangeProbeSize = rangeProbeSize;
+    }
+
+    private String getRangeProbeValidator() {
+        return this.rangeProbeValidator;
+    }
+    private void setRangeProbeValidator(String rangeProbeValidator) {
+        this.rangeProbeValidator = rangeProbeValidator;
+    }
+
 }
@@ -0,0 +1,75 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.nio.file.FileSystem;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.LoggerFactory;
+
+import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Measures how the submit and completion paths of the {@link DownloadEngine} scale when multiple
+ * producer threads push requests into the engine at the same time. Not executed as part of the
+ * regular test run - start the {@code main} method manually to get the numbers.
+ */
+
+public class DownloadEngineContentionBenchmark {
+
+    private static final int REQUESTS_PER_RUN = 200_000;
+    private static final int PROCESSOR_COUNT = 8;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        DownloadEngineContentionBenchmark.runBenchmark(1); // Warmup
+        for (int producerCount : List.of(1, 2, 4, 8, 16)) {
+            Duration duration = DownloadEngineContentionBenchmark.runBenchmark(producerCount);
+            long requestsPerSecond = (long)(REQUESTS_PER_RUN / (duration.toNanos() / 1_000_000_000d));
+            System.out.printf("producers=%2d, requests=%d, duration=%5d ms, throughput=%,d requests/s%n", producerCount, REQUESTS_PER_RUN, duration.toMillis(), requestsPerSecond);
+        }
+    }
+
+    private static Duration runBenchmark(int producerCount) throws Exception {
+        try (FileSystem fileSystem = MemoryFileSystemBuilder.newEmpty().build(UUID.randomUUID().toString())) {
+
+            DownloadEngine engine = new DownloadEngine(fileSystem.getPath("target/"));
+            engine.setProcessorCount(PROCESSOR_COUNT);
+            DownloadTask task = new DownloadTask("target", (targetStream, progressListener, statusSupplier) -> {});
+
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Thread> producerThreads = new ArrayList<>(producerCount);
+            for (int producerIndex = 0; producerIndex < producerCount; producerIndex++) {
+                producerThreads.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < REQUESTS_PER_RUN / producerCount; i++) {
+                            DownloadRequest request = new DownloadRequest();
+                            request.setTitle("Request " + i);
+                            request.setPriority(i % 3);
+                            request.setTaskFactory(progressListener -> task);
+                            engine.submit(request);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+
+            long startTime = System.nanoTime();
+            startLatch.countDown();
+            for (Thread producerThread : producerThreads) {
+                producerThread.join();
+            }
+            engine.waitUntilAllDownloadsComplete();
+            return Duration.ofNanos(System.nanoTime() - startTime);
+
+        }
+    }
+
+}
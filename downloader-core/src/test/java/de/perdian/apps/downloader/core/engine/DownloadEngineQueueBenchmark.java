@@ -0,0 +1,73 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Supplier;
+
+/**
+ * Compares the cost of removing and reprioritizing waiting requests inside the queue structure
+ * previously used by the {@link DownloadEngine} (a {@link PriorityQueue} with linear removal)
+ * against the current one (a {@link ConcurrentSkipListSet} with logarithmic removal) for 10k, 100k
+ * and 1M queued requests. Not executed as part of the regular test run - start the {@code main}
+ * method manually to get the numbers.
+ */
+
+public class DownloadEngineQueueBenchmark {
+
+    private static final int OPERATIONS_PER_RUN = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        DownloadEngineQueueBenchmark.runBenchmark("warmup", 10_000, () -> new PriorityQueue<>(new DownloadRequestWrapper.PriorityComparator()));
+        DownloadEngineQueueBenchmark.runBenchmark("warmup", 10_000, () -> new ConcurrentSkipListSet<>(new DownloadRequestWrapper.PriorityComparator()));
+        for (int queueSize : List.of(10_000, 100_000, 1_000_000)) {
+            DownloadEngineQueueBenchmark.runBenchmark("PriorityQueue", queueSize, () -> new PriorityQueue<>(new DownloadRequestWrapper.PriorityComparator()));
+            DownloadEngineQueueBenchmark.runBenchmark("ConcurrentSkipListSet", queueSize, () -> new ConcurrentSkipListSet<>(new DownloadRequestWrapper.PriorityComparator()));
+        }
+    }
+
+    private static void runBenchmark(String mode, int queueSize, Supplier<Collection<DownloadRequestWrapper>> queueSupplier) {
+
+        Random random = new Random(42);
+        Instant scheduledTime = Instant.now();
+        List<DownloadRequestWrapper> requestWrappers = new ArrayList<>(queueSize);
+        Collection<DownloadRequestWrapper> queue = queueSupplier.get();
+        for (int i = 0; i < queueSize; i++) {
+            DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
+            requestWrapper.setPriority(random.nextInt(10));
+            requestWrapper.setAgedPriority(requestWrapper.getPriority());
+            requestWrapper.setScheduledTime(scheduledTime);
+            requestWrapper.setSequence(i);
+            requestWrappers.add(requestWrapper);
+            queue.add(requestWrapper);
+        }
+
+        // Reprioritizing means taking the request out of the queue and inserting it again at the
+        // position matching the new priority
+        long reprioritizeStartTime = System.nanoTime();
+        for (int i = 0; i < OPERATIONS_PER_RUN; i++) {
+            DownloadRequestWrapper requestWrapper = requestWrappers.get(random.nextInt(queueSize));
+            if (queue.remove(requestWrapper)) {
+                requestWrapper.setPriority(random.nextInt(10));
+                requestWrapper.setAgedPriority(requestWrapper.getPriority());
+                queue.add(requestWrapper);
+            }
+        }
+        Duration reprioritizeDuration = Duration.ofNanos(System.nanoTime() - reprioritizeStartTime);
+
+        long removeStartTime = System.nanoTime();
+        for (int i = 0; i < OPERATIONS_PER_RUN; i++) {
+            queue.remove(requestWrappers.get(random.nextInt(queueSize)));
+        }
+        Duration removeDuration = Duration.ofNanos(System.nanoTime() - removeStartTime);
+
+        System.out.printf("mode=%-22s queued=%,10d, reprioritize=%,10.2f us/op, remove=%,10.2f us/op%n", mode, queueSize, reprioritizeDuration.toNanos() / 1000d / OPERATIONS_PER_RUN, removeDuration.toNanos() / 1000d / OPERATIONS_PER_RUN);
+
+    }
+
+}
@@ -0,0 +1,75 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.file.PathUtils;
+
+/**
+ * Measures the heap retained by a {@link DownloadEngine} after 10k, 100k and 1M requests have been
+ * submitted past its {@code queueCapacity} using {@link DownloadQueueOverflowPolicy#SPILL}, with
+ * the submitter dropping the returned wrappers. The retained heap should stay the same no matter
+ * how many requests have been spilled. Not executed as part of the regular test run - start the
+ * {@code main} method manually to get the numbers.
+ */
+
+public class DownloadEngineSpillBenchmark {
+
+    private static final int QUEUE_CAPACITY = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        DownloadEngineSpillBenchmark.runBenchmark("warmup", 10_000);
+        for (int requestCount : List.of(10_000, 100_000, 1_000_000)) {
+            DownloadEngineSpillBenchmark.runBenchmark("spill", requestCount);
+        }
+    }
+
+    private static void runBenchmark(String mode, int requestCount) throws Exception {
+        Path workDirectory = Files.createTempDirectory("engine-spill-benchmark-");
+        DownloadRecipeFactory recipeFactory = recipe -> {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(recipe.getParameter("title"));
+            request.setTaskFactory(progressListener -> new DownloadTask(recipe.getParameter("title"), (targetStream, progressListener2, statusSupplier) -> {}));
+            return request;
+        };
+        DownloadEngine engine = new DownloadEngine(workDirectory.resolve("target"));
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(workDirectory.resolve("spill"), Map.of("benchmark", recipeFactory))) {
+
+            engine.pause();
+            engine.setQueueCapacity(QUEUE_CAPACITY);
+            engine.setQueueOverflowPolicy(DownloadQueueOverflowPolicy.SPILL);
+            engine.setQueueSpillStore(spillStore);
+
+            long heapBefore = DownloadEngineSpillBenchmark.measureHeap();
+            long submitStartTime = System.nanoTime();
+            for (int i = 0; i < requestCount; i++) {
+                DownloadRequestRecipe recipe = new DownloadRequestRecipe("benchmark", Map.of("title", "Request " + i, "url", "https://example.com/catalog/item/" + i));
+                DownloadRequest request = recipeFactory.createRequest(recipe);
+                request.setId("request-" + i);
+                request.setPriority(i % 10);
+                request.setRecipe(recipe);
+                engine.submit(request);
+            }
+            long submitDuration = System.nanoTime() - submitStartTime;
+            long heapAfter = DownloadEngineSpillBenchmark.measureHeap();
+
+            System.out.printf("mode=%-6s requests=%,10d, spilled=%,10d, retained heap=%,8d KiB, submit=%,6d ms%n", mode, requestCount, spillStore.size(), (heapAfter - heapBefore) / 1024, submitDuration / 1_000_000);
+
+        } finally {
+            engine.shutdown(Duration.ZERO);
+            PathUtils.deleteDirectory(workDirectory);
+        }
+    }
+
+    private static long measureHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
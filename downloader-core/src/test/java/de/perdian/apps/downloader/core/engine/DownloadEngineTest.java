@@ -1,21 +1,52 @@
 package de.perdian.apps.downloader.core.engine;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
 
+import de.perdian.apps.downloader.core.engine.impl.dataextractors.SegmentedStreamFactoryDataExtractor;
 import de.perdian.apps.downloader.core.engine.impl.dataextractors.StreamFactoryDataExtractor;
+import de.perdian.apps.downloader.core.engine.impl.listeners.IdentifierValidationSchedulingListener;
 import de.perdian.apps.downloader.core.support.StreamFactory;
 import de.perdian.apps.downloader.core.support.impl.ByteArrayStreamFactory;
 
@@ -181,6 +212,425 @@ public class DownloadEngineTest {
 
     }
 
+    @Test
+    public void completeCycleResumeAfterError() throws Exception {
+
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        InterruptingStreamFactory streamFactory = new InterruptingStreamFactory(content, "\"v1\"", 100 * 1024);
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", new StreamFactoryDataExtractor(streamFactory)));
+
+        DownloadRequestWrapper failedRequestWrapper = this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Path targetFile = this.getFileSystem().getPath("target/targetFileName");
+        Path resumeStateFile = this.getFileSystem().getPath("target/targetFileName.resume");
+        Assertions.assertNotNull(failedRequestWrapper);
+        Assertions.assertTrue(Files.exists(resumeStateFile));
+        Assertions.assertEquals(100 * 1024, Files.size(targetFile));
+
+        streamFactory.setInterruptAfter(-1);
+        this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(List.of(0L, 100L * 1024), streamFactory.getRequestedOffsets());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(targetFile));
+        Assertions.assertFalse(Files.exists(resumeStateFile));
+
+    }
+
+    @Test
+    public void completeCycleRestartAfterModification() throws Exception {
+
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        InterruptingStreamFactory streamFactory = new InterruptingStreamFactory(content, "\"v1\"", 100 * 1024);
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", new StreamFactoryDataExtractor(streamFactory)));
+
+        this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+        streamFactory.setInterruptAfter(-1);
+        streamFactory.setValidator("\"v2\"");
+        this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(List.of(0L, 0L), streamFactory.getRequestedOffsets());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(this.getFileSystem().getPath("target/targetFileName")));
+
+    }
+
+    /**
+     * Serves a fixed content supporting range requests, optionally failing after the given number
+     * of bytes has been read or slowing down to a trickle after the given number of bytes.
+     */
+    static class InterruptingStreamFactory implements StreamFactory {
+
+        private byte[] content = null;
+        private String validator = null;
+        private long interruptAfter = -1;
+        private long throttleAfter = -1;
+        private CountDownLatch throttledLatch = new CountDownLatch(1);
+        private List<Long> requestedOffsets = new CopyOnWriteArrayList<>();
+
+        InterruptingStreamFactory(byte[] content, String validator, long interruptAfter) {
+            this.content = content;
+            this.setValidator(validator);
+            this.setInterruptAfter(interruptAfter);
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return this.openStream(0, -1);
+        }
+
+        @Override
+        public InputStream openStream(long offset, long length) throws IOException {
+            this.getRequestedOffsets().add(offset);
+            long interruptAfter = this.interruptAfter;
+            long throttleAfter = this.throttleAfter;
+            CountDownLatch throttledLatch = this.throttledLatch;
+            return new ByteArrayInputStream(this.content, (int)offset, this.content.length - (int)offset) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    if (interruptAfter > -1 && this.pos + len > interruptAfter) {
+                        if (this.pos >= interruptAfter) {
+                            throw new UncheckedIOException(new IOException("Connection reset"));
+                        }
+                        len = (int)(interruptAfter - this.pos);
+                    }
+                    if (throttleAfter > -1 && this.pos >= throttleAfter) {
+                        throttledLatch.countDown();
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        len = Math.min(len, 1024);
+                    } else if (throttleAfter > -1 && this.pos + len > throttleAfter) {
+                        len = (int)(throttleAfter - this.pos);
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.content.length;
+        }
+
+        @Override
+        public boolean isRangeSupported() throws IOException {
+            return true;
+        }
+
+        @Override
+        public String validator() throws IOException {
+            return this.validator;
+        }
+
+        void setValidator(String validator) {
+            this.validator = validator;
+        }
+
+        void setInterruptAfter(long interruptAfter) {
+            this.interruptAfter = interruptAfter;
+        }
+
+        void setThrottleAfter(long throttleAfter) {
+            this.throttleAfter = throttleAfter;
+        }
+
+        CountDownLatch getThrottledLatch() {
+            return this.throttledLatch;
+        }
+
+        List<Long> getRequestedOffsets() {
+            return this.requestedOffsets;
+        }
+
+    }
+
+    @Test
+    public void completeCycleWithRetry() throws Exception {
+
+        AtomicInteger attemptCount = new AtomicInteger();
+        DownloadTask task = new DownloadTask("targetFileName", (targetStream, progressListener, statusSupplier) -> {
+            if (attemptCount.incrementAndGet() < 3) {
+                throw new IOException("Connection reset");
+            } else {
+                targetStream.write("TEST".getBytes());
+            }
+        });
+        DownloadRetryPolicy retryPolicy = new DownloadRetryPolicy(3);
+        retryPolicy.setInitialDelay(Duration.ofMillis(10));
+        retryPolicy.setJitter(0);
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setRetryPolicy(retryPolicy);
+        request.setTaskFactory(progressListener -> task);
+
+        List<DownloadOperation> completedOperations = new CopyOnWriteArrayList<>();
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onOperationCompleted(DownloadOperation operation) {
+                completedOperations.add(operation);
+            }
+        });
+
+        DownloadRequestWrapper requestWrapper = this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+        Assertions.assertEquals(3, attemptCount.get());
+        Assertions.assertEquals(3, requestWrapper.getAttempt());
+        Assertions.assertEquals(3, completedOperations.size());
+        Assertions.assertNotNull(completedOperations.get(0).getRetryTime());
+        Assertions.assertNotNull(completedOperations.get(1).getRetryTime());
+        Assertions.assertNull(completedOperations.get(2).getRetryTime());
+        Assertions.assertNull(completedOperations.get(2).getError());
+        Assertions.assertArrayEquals("TEST".getBytes(), Files.readAllBytes(this.getFileSystem().getPath("target/targetFileName")));
+
+    }
+
+    @Test
+    public void completeCycleWithRetryReleasesSlot() throws Exception {
+
+        AtomicInteger attemptCount = new AtomicInteger();
+        DownloadTask failingTask = new DownloadTask("failing", (targetStream, progressListener, statusSupplier) -> {
+            if (attemptCount.incrementAndGet() < 2) {
+                throw new IOException("Connection reset");
+            }
+        });
+        CountDownLatch otherStartedLatch = new CountDownLatch(1);
+        DownloadTask otherTask = new DownloadTask("other", (targetStream, progressListener, statusSupplier) -> otherStartedLatch.countDown());
+
+        DownloadRetryPolicy retryPolicy = new DownloadRetryPolicy(2);
+        retryPolicy.setInitialDelay(Duration.ofMillis(500));
+        retryPolicy.setJitter(0);
+        this.getEngine().setRetryPolicy(retryPolicy);
+        this.getEngine().setProcessorCount(1);
+
+        DownloadRequest failingRequest = new DownloadRequest();
+        failingRequest.setTitle("Failing");
+        failingRequest.setPriority(10);
+        failingRequest.setTaskFactory(progressListener -> failingTask);
+        DownloadRequestWrapper failingRequestWrapper = this.getEngine().submit(failingRequest);
+        DownloadRequest otherRequest = new DownloadRequest();
+        otherRequest.setTitle("Other");
+        otherRequest.setTaskFactory(progressListener -> otherTask);
+        this.getEngine().submit(otherRequest);
+
+        // While the failing request waits for its next attempt the slot must be used by the other
+        // request, even though the failing request has the higher priority
+        Assertions.assertTrue(otherStartedLatch.await(400, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(1, attemptCount.get());
+        Assertions.assertNotNull(failingRequestWrapper.getNotBeforeTime());
+
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(2, attemptCount.get());
+        Assertions.assertFalse(this.getEngine().isBusy());
+
+    }
+
+    @Test
+    public void completeCycleWithoutRetryForPermanentError() throws Exception {
+
+        AtomicInteger attemptCount = new AtomicInteger();
+        DownloadTask task = new DownloadTask("targetFileName", (targetStream, progressListener, statusSupplier) -> {
+            attemptCount.incrementAndGet();
+            throw new FileNotFoundException("Not found");
+        });
+        this.getEngine().setRetryPolicy(new DownloadRetryPolicy(3));
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> task);
+
+        DownloadRequestWrapper requestWrapper = this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(1, attemptCount.get());
+        Assertions.assertNull(requestWrapper.getOperation().getRetryTime());
+
+    }
+
+    @Test
+    public void awaitIdle() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("blocking", (targetStream, progressListener2, statusSupplier) -> releaseLatch.await()));
+        this.getEngine().submit(request);
+
+        CompletableFuture<Void> idleFuture = this.getEngine().whenIdle();
+        Assertions.assertFalse(this.getEngine().awaitIdle(Duration.ofMillis(50)));
+        Assertions.assertFalse(idleFuture.isDone());
+
+        releaseLatch.countDown();
+        Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+        Assertions.assertTrue(idleFuture.isDone());
+        Assertions.assertTrue(this.getEngine().whenIdle().isDone());
+
+    }
+
+    @Test
+    public void awaitIdleAfterWaitingRequestCancelled() throws Exception {
+
+        DownloadRetryPolicy retryPolicy = new DownloadRetryPolicy(2);
+        retryPolicy.setInitialDelay(Duration.ofHours(1));
+        this.getEngine().setRetryPolicy(retryPolicy);
+
+        CountDownLatch completedLatch = new CountDownLatch(1);
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onOperationCompleted(DownloadOperation operation) {
+                completedLatch.countDown();
+            }
+        });
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("failing", (targetStream, progressListener2, statusSupplier) -> {
+            throw new IOException("Connection reset");
+        }));
+        DownloadRequestWrapper requestWrapper = this.getEngine().submit(request);
+        Assertions.assertTrue(completedLatch.await(5, TimeUnit.SECONDS));
+
+        // No operation is active anymore, so cancelling the request waiting for its retry is the
+        // only thing that can make the engine idle
+        CompletableFuture<Void> idleFuture = this.getEngine().whenIdle();
+        Assertions.assertFalse(idleFuture.isDone());
+        requestWrapper.cancel("Cancelled");
+        idleFuture.get(5, TimeUnit.SECONDS);
+
+    }
+
+    @Test
+    public void shutdownWithTimeout() throws Exception {
+
+        CountDownLatch startedLatch = new CountDownLatch(1);
+        DownloadTask task = new DownloadTask("active", (targetStream, progressListener, statusSupplier) -> {
+            startedLatch.countDown();
+            while (DownloadOperationStatus.ACTIVE.equals(statusSupplier.get())) {
+                Thread.sleep(5);
+            }
+        });
+        this.getEngine().setProcessorCount(1);
+        List<CompletableFuture<DownloadResult>> resultFutures = new ArrayList<>();
+        List<DownloadRequest> requests = new ArrayList<>();
+        for (String title : List.of("active", "waiting")) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setTaskFactory(progressListener -> task);
+            requests.add(request);
+            resultFutures.add(this.getEngine().submitAsync(request));
+        }
+        Assertions.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+
+        List<DownloadRequest> unexecutedRequests = this.getEngine().shutdown(Duration.ofMillis(100));
+        Assertions.assertEquals(List.of(requests.get(1)), unexecutedRequests);
+        Assertions.assertTrue(resultFutures.get(1).isCancelled());
+        Assertions.assertThrows(CancellationException.class, () -> resultFutures.get(0).get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+        Assertions.assertNull(this.getEngine().submit(requests.get(0)));
+
+    }
+
+    @Test
+    public void closeSuspendsActiveOperation() throws Exception {
+
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        InterruptingStreamFactory streamFactory = new InterruptingStreamFactory(content, "\"v1\"", -1);
+        streamFactory.setThrottleAfter(100 * 1024);
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", new StreamFactoryDataExtractor(streamFactory)));
+
+        CompletableFuture<DownloadResult> resultFuture = this.getEngine().submitAsync(request);
+        Assertions.assertTrue(streamFactory.getThrottledLatch().await(5, TimeUnit.SECONDS));
+        List<DownloadRequest> unexecutedRequests = this.getEngine().close(Duration.ofMillis(50));
+        Path targetFile = this.getFileSystem().getPath("target/targetFileName");
+        Path resumeStateFile = this.getFileSystem().getPath("target/targetFileName.resume");
+        Assertions.assertEquals(List.of(request), unexecutedRequests);
+        Assertions.assertThrows(CancellationException.class, () -> resultFuture.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(Files.exists(resumeStateFile));
+        Assertions.assertEquals(DownloadResumeState.read(resumeStateFile).getOffset(), Files.size(targetFile));
+        Assertions.assertTrue(Files.size(targetFile) >= 100 * 1024);
+        Assertions.assertTrue(this.getEngine().isShutdown());
+        Assertions.assertNull(this.getEngine().submit(request));
+
+        long suspendedOffset = Files.size(targetFile);
+        streamFactory.setThrottleAfter(-1);
+        DownloadEngine nextEngine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        nextEngine.submit(request);
+        nextEngine.waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(List.of(0L, suspendedOffset), streamFactory.getRequestedOffsets());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(targetFile));
+        Assertions.assertFalse(Files.exists(resumeStateFile));
+
+    }
+
+    @Test
+    public void closeSuspendsActiveOperationWithoutMarker() throws Exception {
+
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        InterruptingStreamFactory streamFactory = new InterruptingStreamFactory(content, "\"v1\"", -1);
+        streamFactory.setThrottleAfter(100 * 1024);
+        DownloadRequest request = new DownloadRequest();
+        request.setId("42");
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", new StreamFactoryDataExtractor(streamFactory)));
+
+        Path markerDirectory = this.getFileSystem().getPath("markers/");
+        Path markerFile = markerDirectory.resolve("42.marker");
+        List<DownloadOperationStatus> completedStatuses = new CopyOnWriteArrayList<>();
+        this.getEngine().addSchedulingListener(new IdentifierValidationSchedulingListener(markerDirectory));
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onOperationCompleted(DownloadOperation operation) {
+                completedStatuses.add(operation.getStatus());
+            }
+        });
+
+        this.getEngine().submit(request);
+        Assertions.assertTrue(streamFactory.getThrottledLatch().await(5, TimeUnit.SECONDS));
+        this.getEngine().close(Duration.ofMillis(50));
+        Assertions.assertEquals(List.of(DownloadOperationStatus.SUSPENDED), completedStatuses);
+        Assertions.assertFalse(Files.exists(markerFile));
+
+        // The marker is only written once the suspended transfer has been continued
+        streamFactory.setThrottleAfter(-1);
+        DownloadEngine nextEngine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        nextEngine.addSchedulingListener(new IdentifierValidationSchedulingListener(markerDirectory));
+        Assertions.assertNotNull(nextEngine.submit(request));
+        nextEngine.waitUntilAllDownloadsComplete();
+        Assertions.assertArrayEquals(content, Files.readAllBytes(this.getFileSystem().getPath("target/targetFileName")));
+        Assertions.assertTrue(Files.readString(markerFile).contains("COMPLETED"));
+
+    }
+
+    @Test
+    public void pauseAndStart() throws Exception {
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", new StreamFactoryDataExtractor(new ByteArrayStreamFactory("TEST".getBytes()))));
+
+        this.getEngine().pause();
+        CompletableFuture<DownloadResult> resultFuture = this.getEngine().submitAsync(request);
+        Assertions.assertFalse(this.getEngine().awaitIdle(Duration.ofMillis(100)));
+        Assertions.assertEquals(1, this.getEngine().listWaitingRequests().size());
+        Assertions.assertFalse(resultFuture.isDone());
+
+        this.getEngine().start();
+        Assertions.assertNotNull(resultFuture.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("TEST", Files.readString(this.getFileSystem().getPath("target/targetFileName")));
+
+        this.getEngine().close();
+        Assertions.assertThrows(IllegalStateException.class, () -> this.getEngine().start());
+
+    }
+
     @Test
     public void submitWithListenerReject() throws Exception {
 
@@ -198,6 +648,929 @@ public class DownloadEngineTest {
 
     }
 
+    @Test
+    public void submitConcurrently() throws Exception {
+
+        AtomicInteger currentTransferCount = new AtomicInteger();
+        AtomicInteger maxTransferCount = new AtomicInteger();
+        AtomicInteger completedTransferCount = new AtomicInteger();
+        DownloadTask task = new DownloadTask("targetFileName", (targetStream, progressListener, statusSupplier) -> {
+            maxTransferCount.accumulateAndGet(currentTransferCount.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            currentTransferCount.decrementAndGet();
+            completedTransferCount.incrementAndGet();
+        });
+        this.getEngine().setProcessorCount(3);
+
+        List<Thread> producerThreads = new ArrayList<>();
+        for (int producerIndex = 0; producerIndex < 4; producerIndex++) {
+            producerThreads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 50; i++) {
+                    DownloadRequest request = new DownloadRequest();
+                    request.setTitle("Request " + i);
+                    request.setTaskFactory(progressListener -> task);
+                    this.getEngine().submit(request);
+                }
+            }));
+        }
+        for (Thread producerThread : producerThreads) {
+            producerThread.join();
+        }
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+        Assertions.assertEquals(200, completedTransferCount.get());
+        Assertions.assertTrue(maxTransferCount.get() <= 3, "Processor count exceeded: " + maxTransferCount.get());
+        Assertions.assertFalse(this.getEngine().isBusy());
+
+    }
+
+    @Test
+    public void submitWithHostLimitSkipsSaturatedHost() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        CountDownLatch otherHostStartedLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        DownloadTask otherHostTask = new DownloadTask("otherHost", (targetStream, progressListener, statusSupplier) -> otherHostStartedLatch.countDown());
+
+        DownloadRequest firstRequest = new DownloadRequest();
+        firstRequest.setTitle("First");
+        firstRequest.setHost("a.example.com");
+        firstRequest.setTaskFactory(progressListener -> blockingTask);
+        DownloadRequest secondRequest = new DownloadRequest();
+        secondRequest.setTitle("Second");
+        secondRequest.setHost("a.example.com");
+        secondRequest.setTaskFactory(progressListener -> blockingTask);
+        DownloadRequest otherHostRequest = new DownloadRequest();
+        otherHostRequest.setTitle("Other host");
+        otherHostRequest.setHost("b.example.com");
+        otherHostRequest.setTaskFactory(progressListener -> otherHostTask);
+
+        this.getEngine().submit(firstRequest);
+        DownloadRequestWrapper secondRequestWrapper = this.getEngine().submit(secondRequest);
+        this.getEngine().submit(otherHostRequest);
+        Assertions.assertEquals(2, this.getEngine().listWaitingRequests().size());
+
+        // The second request is first in line, but since its host is saturated the request for
+        // the other host must be picked up instead
+        this.getEngine().setProcessorCountPerHost(1);
+        this.getEngine().setProcessorCount(2);
+        Assertions.assertTrue(otherHostStartedLatch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of(secondRequestWrapper), this.getEngine().listWaitingRequests());
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertFalse(this.getEngine().isBusy());
+
+    }
+
+    @Test
+    public void submitAfterShutdown() throws Exception {
+
+        DownloadSchedulingListener listener = Mockito.mock(DownloadSchedulingListener.class);
+        this.getEngine().addSchedulingListener(listener);
+        this.getEngine().shutdown();
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> null);
+
+        Assertions.assertTrue(this.getEngine().isShutdown());
+        Assertions.assertNull(this.getEngine().submit(request));
+        Mockito.verifyNoMoreInteractions(listener);
+
+    }
+
+    @Test
+    public void completeCycleWithSegments() throws Exception {
+
+        byte[] content = new byte[1024 * 1024];
+        new Random(42).nextBytes(content);
+        SegmentedStreamFactoryDataExtractor dataExtractor = new SegmentedStreamFactoryDataExtractor(new ByteArrayStreamFactory(content));
+        dataExtractor.setMinimumSegmentSize(64 * 1024);
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("TITLE");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", dataExtractor));
+        this.getEngine().submit(request);
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+        Path targetFile = this.getFileSystem().getPath("target/targetFileName");
+        Assertions.assertArrayEquals(content, Files.readAllBytes(targetFile));
+
+    }
+
+    @Test
+    public void submitAll() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        List<DownloadRequest> requests = new ArrayList<>();
+        for (String title : List.of("first", "second", "rejected", "third")) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setTaskFactory(progressListener -> blockingTask);
+            requests.add(request);
+        }
+
+        DownloadSchedulingListener schedulingListener = Mockito.mock(DownloadSchedulingListener.class);
+        Mockito.doThrow(new DownloadRejectedException("Rejected")).when(schedulingListener).onRequestSubmit(Mockito.same(requests.get(2)));
+        this.getEngine().addSchedulingListener(schedulingListener);
+
+        List<DownloadRequestWrapper> requestWrappers = this.getEngine().submitAll(requests);
+        Assertions.assertEquals(List.of(requests.get(0), requests.get(1), requests.get(3)), requestWrappers.stream().map(DownloadRequestWrapper::getRequest).toList());
+        Assertions.assertEquals(requestWrappers.subList(1, 3), this.getEngine().listWaitingRequests());
+        Assertions.assertEquals(1, this.getEngine().listActiveOperations().size());
+        Assertions.assertSame(requestWrappers.get(0), this.getEngine().listActiveOperations().get(0).getRequestWrapper());
+        Mockito.verify(schedulingListener).onRequestsScheduled(Mockito.eq(requestWrappers));
+        Mockito.verify(schedulingListener, Mockito.never()).onRequestScheduled(Mockito.any());
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+    }
+
+    @Test
+    public void submitCoalescesRequestsInFlight() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        AtomicInteger taskCount = new AtomicInteger();
+        List<DownloadRequest> requests = new ArrayList<>();
+        for (String title : List.of("first", "sameId", "sameSource", "other")) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setTaskFactory(progressListener -> {
+                taskCount.incrementAndGet();
+                return new DownloadTask(title, (targetStream, progressListener2, statusSupplier) -> releaseLatch.await());
+            });
+            requests.add(request);
+        }
+        requests.get(0).setId("A");
+        requests.get(0).setSourceKey(DownloadRequest.createSourceKey("HTTPS://Example.com:443/music/../file.mp3#top"));
+        requests.get(1).setId("A");
+        requests.get(2).setId("B");
+        requests.get(2).setSourceKey(DownloadRequest.createSourceKey("https://example.com/file.mp3"));
+        requests.get(3).setId("C");
+
+        DownloadSchedulingListener schedulingListener = Mockito.mock(DownloadSchedulingListener.class);
+        this.getEngine().addSchedulingListener(schedulingListener);
+        DownloadRequestWrapper firstRequestWrapper = this.getEngine().submit(requests.get(0));
+        Assertions.assertSame(firstRequestWrapper, this.getEngine().submit(requests.get(1)));
+        Assertions.assertSame(firstRequestWrapper, this.getEngine().submit(requests.get(2)));
+        List<DownloadRequestWrapper> requestWrappers = this.getEngine().submitAll(List.of(requests.get(1), requests.get(3)));
+        Assertions.assertSame(firstRequestWrapper, requestWrappers.get(0));
+        Assertions.assertSame(requests.get(3), requestWrappers.get(1).getRequest());
+        CompletableFuture<DownloadResult> coalescedFuture = this.getEngine().submitAsync(requests.get(2));
+        Mockito.verify(schedulingListener, Mockito.times(4)).onRequestCoalesced(Mockito.any(), Mockito.same(firstRequestWrapper));
+        Mockito.verify(schedulingListener, Mockito.times(2)).onRequestSubmit(Mockito.any());
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(2, taskCount.get());
+        Assertions.assertEquals(this.getFileSystem().getPath("target/first"), coalescedFuture.get(5, TimeUnit.SECONDS).getTargetFile());
+
+        // Once the request is done an equal request is executed again
+        Assertions.assertNotSame(firstRequestWrapper, this.getEngine().submit(requests.get(1)));
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(3, taskCount.get());
+
+    }
+
+    @Test
+    public void clearWaitingRequestsReleasesRequestsInFlight() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        DownloadRequest blockingRequest = new DownloadRequest();
+        blockingRequest.setTitle("blocking");
+        blockingRequest.setTaskFactory(progressListener -> blockingTask);
+        this.getEngine().submit(blockingRequest);
+
+        DownloadRequest waitingRequest = new DownloadRequest();
+        waitingRequest.setId("A");
+        waitingRequest.setTitle("waiting");
+        waitingRequest.setTaskFactory(progressListener -> new DownloadTask("waiting", new StreamFactoryDataExtractor(new ByteArrayStreamFactory("TEST".getBytes()))));
+        CompletableFuture<DownloadResult> clearedFuture = this.getEngine().submitAsync(waitingRequest);
+        Assertions.assertEquals(1, this.getEngine().clearWaitingRequests().size());
+        Assertions.assertTrue(clearedFuture.isCancelled());
+
+        // The cleared request is no longer in flight, so submitting it again is not coalesced into it
+        CompletableFuture<DownloadResult> resubmittedFuture = this.getEngine().submitAsync(waitingRequest);
+        Assertions.assertEquals(1, this.getEngine().listWaitingRequests().size());
+        releaseLatch.countDown();
+        Assertions.assertEquals("TEST", Files.readString(resubmittedFuture.get(5, TimeUnit.SECONDS).getTargetFile()));
+
+    }
+
+    @Test
+    public void submitAllWithInvalidRequest() throws Exception {
+
+        DownloadRequest validRequest = new DownloadRequest();
+        validRequest.setTitle("valid");
+        validRequest.setTaskFactory(progressListener -> new DownloadTask("valid", (targetStream, progressListener2, statusSupplier) -> {}));
+        DownloadRequest invalidRequest = new DownloadRequest();
+        invalidRequest.setTaskFactory(validRequest.getTaskFactory());
+
+        Assertions.assertThrows(NullPointerException.class, () -> this.getEngine().submitAll(List.of(validRequest, invalidRequest)));
+        Assertions.assertTrue(this.getEngine().listWaitingRequests().isEmpty());
+        Assertions.assertTrue(this.getEngine().listActiveOperations().isEmpty());
+
+    }
+
+    @Test
+    public void submitAsync() throws Exception {
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("Foo");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", new StreamFactoryDataExtractor(new ByteArrayStreamFactory("TEST".getBytes()))));
+
+        DownloadResult result = this.getEngine().submitAsync(request).get(5, TimeUnit.SECONDS);
+        Assertions.assertSame(request, result.getRequestWrapper().getRequest());
+        Assertions.assertEquals(this.getFileSystem().getPath("target/targetFileName"), result.getTargetFile());
+        Assertions.assertEquals("TEST", Files.readString(result.getTargetFile()));
+        Assertions.assertNotNull(result.getStartTime());
+        Assertions.assertFalse(result.getDuration().isNegative());
+
+    }
+
+    @Test
+    public void submitAsyncWithError() throws Exception {
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("Foo");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", (targetStream, progressListener2, statusSupplier) -> {
+            throw new FileNotFoundException("Not there");
+        }));
+
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> this.getEngine().submitAsync(request).get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(FileNotFoundException.class, exception.getCause());
+
+    }
+
+    @Test
+    public void submitAsyncWithCancel() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        DownloadRequest blockingRequest = new DownloadRequest();
+        blockingRequest.setTitle("blocking");
+        blockingRequest.setTaskFactory(progressListener -> blockingTask);
+        CompletableFuture<DownloadResult> blockingFuture = this.getEngine().submitAsync(blockingRequest);
+
+        DownloadRequest waitingRequest = new DownloadRequest();
+        waitingRequest.setTitle("waiting");
+        waitingRequest.setTaskFactory(progressListener -> blockingTask);
+        CompletableFuture<DownloadResult> waitingFuture = this.getEngine().submitAsync(waitingRequest);
+        this.getEngine().listWaitingRequests().get(0).cancel("Cancelled");
+        Assertions.assertTrue(waitingFuture.isCancelled());
+
+        releaseLatch.countDown();
+        Assertions.assertNotNull(blockingFuture.get(5, TimeUnit.SECONDS));
+
+    }
+
+    @Test
+    public void submitAsyncRejected() throws Exception {
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("Foo");
+        request.setTaskFactory(progressListener -> new DownloadTask("targetFileName", (targetStream, progressListener2, statusSupplier) -> {}));
+        this.getEngine().shutdown();
+
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> this.getEngine().submitAsync(request).get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(DownloadRejectedException.class, exception.getCause());
+
+    }
+
+    @Test
+    public void queueCapacityReject() throws Exception {
+
+        this.getEngine().pause();
+        this.getEngine().setQueueCapacity(2);
+        this.getEngine().setQueueOverflowPolicy(DownloadQueueOverflowPolicy.REJECT);
+        List<DownloadRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request " + i);
+            request.setPreviewImageFactory(new ByteArrayStreamFactory(new byte[10_000]));
+            request.setTaskFactory(progressListener -> new DownloadTask(UUID.randomUUID().toString(), (targetStream, progressListener2, statusSupplier) -> {}));
+            requests.add(request);
+        }
+
+        Assertions.assertNotNull(this.getEngine().submit(requests.get(0)));
+        Assertions.assertNotNull(this.getEngine().submit(requests.get(1)));
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> this.getEngine().submitAsync(requests.get(2)).get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(DownloadRejectedException.class, exception.getCause());
+        Assertions.assertEquals(2, this.getEngine().getQueueDepth());
+        Assertions.assertTrue(this.getEngine().getQueueMemoryEstimate() >= 20_000);
+
+        this.getEngine().start();
+        Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+        Assertions.assertEquals(0, this.getEngine().getQueueDepth());
+        Assertions.assertEquals(0, this.getEngine().getQueueMemoryEstimate());
+
+    }
+
+    @Test
+    public void queueCapacityBlock() throws Exception {
+
+        this.getEngine().pause();
+        this.getEngine().setQueueCapacity(1);
+        this.getEngine().setQueueBlockTimeout(Duration.ofMillis(50));
+        List<DownloadRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request " + i);
+            request.setTaskFactory(progressListener -> new DownloadTask(UUID.randomUUID().toString(), (targetStream, progressListener2, statusSupplier) -> {}));
+            requests.add(request);
+        }
+
+        Assertions.assertNotNull(this.getEngine().submit(requests.get(0)));
+        Assertions.assertNull(this.getEngine().submit(requests.get(1)));
+
+        this.getEngine().setQueueBlockTimeout(Duration.ofSeconds(5));
+        CompletableFuture<DownloadRequestWrapper> blockedSubmit = CompletableFuture.supplyAsync(() -> this.getEngine().submit(requests.get(2)));
+        Thread.sleep(100);
+        Assertions.assertFalse(blockedSubmit.isDone());
+
+        this.getEngine().start();
+        Assertions.assertNotNull(blockedSubmit.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+
+    }
+
+    @Test
+    public void queueCapacitySpill(@TempDir Path spillDirectory) throws Exception {
+
+        List<String> createdTitles = new CopyOnWriteArrayList<>();
+        DownloadRecipeFactory recipeFactory = recipe -> {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(recipe.getParameter("title"));
+            request.setTaskFactory(progressListener -> new DownloadTask(recipe.getParameter("title"), (targetStream, progressListener2, statusSupplier) -> {}));
+            createdTitles.add(request.getTitle());
+            return request;
+        };
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", recipeFactory))) {
+
+            this.getEngine().pause();
+            this.getEngine().setQueueCapacity(1);
+            this.getEngine().setQueueOverflowPolicy(DownloadQueueOverflowPolicy.SPILL);
+            this.getEngine().setQueueSpillStore(spillStore);
+
+            List<DownloadRequestWrapper> requestWrappers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                DownloadRequestRecipe recipe = new DownloadRequestRecipe("test", Map.of("title", "Request " + i));
+                DownloadRequest request = recipeFactory.createRequest(recipe);
+                request.setId("request-" + i);
+                request.setPriority(i == 3 ? 5 : 0);
+                request.setRecipe(recipe);
+                requestWrappers.add(this.getEngine().submit(request));
+            }
+            Assertions.assertEquals(4, this.getEngine().getQueueDepth());
+            Assertions.assertEquals(3, spillStore.size());
+            requestWrappers.forEach(requestWrapper -> Assertions.assertNotNull(requestWrapper.getRequest()));
+            requestWrappers.forEach(requestWrapper -> Assertions.assertFalse(requestWrapper.toCompletableFuture().isDone()));
+            Instant spilledScheduledTime = requestWrappers.get(1).getScheduledTime();
+
+            // Force starting a spilled request takes it out of the spill store right away
+            requestWrappers.get(2).forceStart();
+            Assertions.assertNotNull(requestWrappers.get(2).toCompletableFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(3, this.getEngine().getQueueDepth());
+
+            // A spilled request is no longer in flight, so an equal request is accepted on its own,
+            // but the spilled request is coalesced with it once it is taken out of the spill store
+            requestWrappers.get(0).cancel("Making room");
+            DownloadRequest duplicateRequest = recipeFactory.createRequest(new DownloadRequestRecipe("test", Map.of("title", "Request 1")));
+            duplicateRequest.setId("request-1");
+            duplicateRequest.setPriority(10);
+            DownloadRequestWrapper duplicateRequestWrapper = this.getEngine().submit(duplicateRequest);
+            Assertions.assertNotSame(requestWrappers.get(1), duplicateRequestWrapper);
+            requestWrappers.get(1).updatePriority(10);
+            Assertions.assertEquals(List.of(duplicateRequestWrapper), this.getEngine().listWaitingRequests());
+            Assertions.assertEquals(2, this.getEngine().getQueueDepth());
+
+            this.getEngine().start();
+            Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+            Assertions.assertEquals(0, this.getEngine().getQueueDepth());
+            Assertions.assertSame(duplicateRequestWrapper.toCompletableFuture().get(5, TimeUnit.SECONDS), requestWrappers.get(1).toCompletableFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertNotNull(requestWrappers.get(3).toCompletableFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(10, requestWrappers.get(1).getPriority());
+            Assertions.assertEquals(spilledScheduledTime, requestWrappers.get(1).getScheduledTime());
+
+            // The wrappers have been kept by the caller, so the requests haven't been created from
+            // their recipes again
+            Assertions.assertEquals(List.of("Request 0", "Request 1", "Request 2", "Request 3", "Request 1"), createdTitles);
+            Assertions.assertTrue(Files.exists(this.getFileSystem().getPath("target/Request 2")));
+
+        }
+
+    }
+
+    @Test
+    public void queueCapacitySpillReleasesRequests(@TempDir Path spillDirectory) throws Exception {
+
+        List<String> startedIds = new CopyOnWriteArrayList<>();
+        DownloadRecipeFactory recipeFactory = recipe -> {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(recipe.getParameter("title"));
+            request.setTaskFactory(progressListener -> new DownloadTask(recipe.getParameter("title"), (targetStream, progressListener2, statusSupplier) -> {}));
+            return request;
+        };
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", recipeFactory))) {
+
+            this.getEngine().pause();
+            this.getEngine().setQueueCapacity(1);
+            this.getEngine().setQueueOverflowPolicy(DownloadQueueOverflowPolicy.SPILL);
+            this.getEngine().setQueueSpillStore(spillStore);
+            this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+                @Override public void onOperationStarting(DownloadOperation operation) {
+                    startedIds.add(operation.getRequestWrapper().getRequest().getId());
+                }
+            });
+
+            List<WeakReference<DownloadRequestWrapper>> requestWrapperReferences = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                DownloadRequestRecipe recipe = new DownloadRequestRecipe("test", Map.of("title", "Request " + i));
+                DownloadRequest request = recipeFactory.createRequest(recipe);
+                request.setId("request-" + i);
+                request.setRecipe(recipe);
+                requestWrapperReferences.add(new WeakReference<>(this.getEngine().submit(request)));
+            }
+            Assertions.assertEquals(99, spillStore.size());
+
+            // Neither the engine nor the spill store keep the spilled requests on the heap
+            List<WeakReference<DownloadRequestWrapper>> spilledReferences = requestWrapperReferences.subList(1, requestWrapperReferences.size());
+            for (int i = 0; i < 100 && spilledReferences.stream().anyMatch(reference -> reference.get() != null); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            spilledReferences.forEach(reference -> Assertions.assertNull(reference.get()));
+
+            // The requests are created from their recipes again, keeping their ids
+            this.getEngine().start();
+            Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+            Assertions.assertEquals(IntStream.range(0, 100).mapToObj(i -> "request-" + i).collect(Collectors.toSet()), Set.copyOf(startedIds));
+            Assertions.assertEquals(100, startedIds.size());
+
+        }
+
+    }
+
+    @Test
+    public void queueCapacitySpillOrderedLikeWaitingQueue(@TempDir Path spillDirectory) throws Exception {
+
+        DownloadRecipeFactory recipeFactory = recipe -> {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(recipe.getParameter("title"));
+            request.setGroupKey(recipe.getParameter("group"));
+            request.setTaskFactory(progressListener -> new DownloadTask(recipe.getParameter("title"), (targetStream, progressListener2, statusSupplier) -> {}));
+            return request;
+        };
+        List<String> startedTitles = new CopyOnWriteArrayList<>();
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onOperationStarting(DownloadOperation operation) {
+                startedTitles.add(operation.getRequestWrapper().getRequest().getTitle());
+            }
+        });
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", recipeFactory))) {
+
+            this.getEngine().pause();
+            this.getEngine().setFairQueuing(true);
+            this.getEngine().setDeadlineScheduling(true);
+            this.getEngine().setQueueCapacity(2);
+            this.getEngine().setQueueOverflowPolicy(DownloadQueueOverflowPolicy.SPILL);
+            this.getEngine().setQueueSpillStore(spillStore);
+            Map<String, DownloadRequestWrapper> requestWrappers = new LinkedHashMap<>();
+            for (String title : List.of("a-1", "a-2", "a-3", "b-1", "deadline")) {
+                DownloadRequestRecipe recipe = new DownloadRequestRecipe("test", Map.of("title", title, "group", title.substring(0, 1)));
+                DownloadRequest request = recipeFactory.createRequest(recipe);
+                request.setRecipe(recipe);
+                if ("deadline".equals(title)) {
+                    requestWrappers.get("a-2").cancel("Making room");
+                    request.setPriority(-1);
+                    request.setDeadline(Instant.now().plus(Duration.ofHours(1)));
+                }
+                requestWrappers.put(title, this.getEngine().submit(request));
+            }
+
+            // The request with a deadline would have to be spilled because of its lower priority,
+            // but it has to stay in memory so that it can still be promoted
+            Assertions.assertEquals(2, spillStore.size());
+            Assertions.assertEquals(List.of("a-1", "deadline"), this.getEngine().listWaitingRequests().stream().map(wrapper -> wrapper.getRequest().getTitle()).toList());
+
+            // The spilled requests are read back in the order of their fair queuing tags, so the
+            // first request of the second group overtakes the remaining request of the first one
+            this.getEngine().start();
+            Assertions.assertTrue(this.getEngine().awaitIdle(Duration.ofSeconds(5)));
+            Assertions.assertEquals(List.of("a-1", "b-1", "a-3", "deadline"), startedTitles);
+
+        }
+
+    }
+
+    @Test
+    public void fairQueuing() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        this.getEngine().setFairQueuing(true);
+        this.getEngine().setGroupWeight("weighted", 2);
+
+        List<String> titles = List.of("blocking", "bulk-1", "bulk-2", "bulk-3", "bulk-4", "small-1", "small-2", "weighted-1", "weighted-2", "weighted-3");
+        for (String title : titles) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setGroupKey(title.contains("-") ? title.substring(0, title.indexOf('-')) : null);
+            request.setTaskFactory(progressListener -> blockingTask);
+            this.getEngine().submit(request);
+        }
+
+        // The small and the weighted group are not blocked by the bulk group submitted before them,
+        // and the weighted group gets two slots for every slot of the other groups
+        List<String> waitingTitles = this.getEngine().listWaitingRequests().stream().map(wrapper -> wrapper.getRequest().getTitle()).toList();
+        Assertions.assertEquals(List.of("bulk-1", "small-1", "weighted-1", "weighted-2", "bulk-2", "small-2", "weighted-3", "bulk-3", "bulk-4"), waitingTitles);
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+    }
+
+    @Test
+    public void fairQueuingWithPriorityAging() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        Instant startTime = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        this.getEngine().setFairQueuing(true);
+        this.getEngine().setPriorityAgingInterval(Duration.ofMinutes(1));
+
+        // Every request is scheduled a few milliseconds after the previous one, which must not
+        // cause the bulk group to be preferred just because it has been submitted first
+        List<String> titles = List.of("blocking", "bulk-1", "bulk-2", "bulk-3", "small-1", "small-2");
+        for (int i = 0; i < titles.size(); i++) {
+            this.getEngine().setClock(Clock.fixed(startTime.plusMillis(i * 10), ZoneId.systemDefault()));
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(titles.get(i));
+            request.setGroupKey(titles.get(i).contains("-") ? titles.get(i).substring(0, titles.get(i).indexOf('-')) : null);
+            request.setTaskFactory(progressListener -> blockingTask);
+            this.getEngine().submit(request);
+        }
+
+        // A request that has been waiting for several intervals is still moved ahead of the others
+        this.getEngine().setClock(Clock.fixed(startTime.minus(Duration.ofMinutes(5)), ZoneId.systemDefault()));
+        DownloadRequest staleRequest = new DownloadRequest();
+        staleRequest.setTitle("stale");
+        staleRequest.setGroupKey("bulk");
+        staleRequest.setTaskFactory(progressListener -> blockingTask);
+        this.getEngine().submit(staleRequest);
+
+        List<String> waitingTitles = this.getEngine().listWaitingRequests().stream().map(wrapper -> wrapper.getRequest().getTitle()).toList();
+        Assertions.assertEquals(List.of("stale", "bulk-1", "small-1", "bulk-2", "small-2", "bulk-3"), waitingTitles);
+
+        this.getEngine().setClock(Clock.systemDefaultZone());
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+    }
+
+    @Test
+    public void deadlineScheduling() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        CountDownLatch atRiskLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        this.getEngine().setDeadlineScheduling(true);
+        this.getEngine().setDeadlineLeadTime(Duration.ZERO);
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onRequestDeadlineAtRisk(DownloadRequestWrapper requestWrapper) {
+                atRiskLatch.countDown();
+            }
+        });
+
+        Instant now = Instant.now();
+        Map<String, Instant> deadlines = Map.of("late", now.plus(Duration.ofHours(2)), "early", now.plus(Duration.ofHours(1)), "urgent", now.plusMillis(200));
+        Map<String, Integer> priorities = Map.of("blocking", 5, "bulk-1", 5, "bulk-2", 5);
+        for (String title : List.of("blocking", "bulk-1", "bulk-2", "late", "early", "urgent")) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setPriority(priorities.getOrDefault(title, 0));
+            request.setDeadline(deadlines.get(title));
+            request.setTaskFactory(progressListener -> blockingTask);
+            this.getEngine().submit(request);
+        }
+
+        // Requests with the same priority are ordered by their deadline
+        List<String> waitingTitles = this.getEngine().listWaitingRequests().stream().map(wrapper -> wrapper.getRequest().getTitle()).toList();
+        Assertions.assertEquals(List.of("bulk-1", "bulk-2", "urgent", "early", "late"), waitingTitles);
+
+        // Once the deadline is at risk the request is moved ahead of all other priorities
+        Assertions.assertTrue(atRiskLatch.await(5, TimeUnit.SECONDS));
+        DownloadRequestWrapper firstWaitingRequest = this.getEngine().listWaitingRequests().get(0);
+        Assertions.assertEquals("urgent", firstWaitingRequest.getRequest().getTitle());
+        Assertions.assertTrue(firstWaitingRequest.isDeadlinePromoted());
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+    }
+
+    @Test
+    public void priorityAging() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        Instant startTime = Instant.now();
+        this.getEngine().setPriorityAgingInterval(Duration.ofMinutes(1));
+
+        Map<String, Integer> priorities = Map.of("blocking", 0, "old", 0, "newer", 5, "urgent", 20);
+        Map<String, Duration> submitDelays = Map.of("blocking", Duration.ZERO, "old", Duration.ZERO, "newer", Duration.ofMinutes(10), "urgent", Duration.ofMinutes(10));
+        for (String title : List.of("blocking", "old", "newer", "urgent")) {
+            this.getEngine().setClock(Clock.fixed(startTime.plus(submitDelays.get(title)), ZoneId.systemDefault()));
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setPriority(priorities.get(title));
+            request.setTaskFactory(progressListener -> blockingTask);
+            this.getEngine().submit(request);
+        }
+
+        // After waiting for ten minutes the old request has gained a priority of ten, which is
+        // enough to overtake the newer request but not the urgent one
+        List<String> waitingTitles = this.getEngine().listWaitingRequests().stream().map(wrapper -> wrapper.getRequest().getTitle()).toList();
+        Assertions.assertEquals(List.of("urgent", "old", "newer"), waitingTitles);
+        Assertions.assertEquals(Duration.ofMinutes(10), this.getEngine().getMaximumQueueWait());
+
+        // Without aging the old request falls back to the end of the queue
+        this.getEngine().setPriorityAgingInterval(null);
+        List<String> waitingTitlesWithoutAging = this.getEngine().listWaitingRequests().stream().map(wrapper -> wrapper.getRequest().getTitle()).toList();
+        Assertions.assertEquals(List.of("urgent", "newer", "old"), waitingTitlesWithoutAging);
+
+        this.getEngine().setClock(Clock.systemDefaultZone());
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+    }
+
+    @Test
+    public void storageLanes() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        AtomicInteger writingCount = new AtomicInteger();
+        AtomicInteger maximumWritingCount = new AtomicInteger();
+        AtomicInteger maximumRunningCount = new AtomicInteger();
+        DownloadTaskFactory taskFactory = progressListener -> new DownloadTask(UUID.randomUUID().toString(), (targetStream, taskProgressListener, statusSupplier) -> {
+            maximumWritingCount.accumulateAndGet(writingCount.incrementAndGet(), Math::max);
+            releaseLatch.await();
+            targetStream.write(new byte[] { 1, 2, 3 });
+            writingCount.decrementAndGet();
+        });
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onOperationStarting(DownloadOperation operation) {
+                maximumRunningCount.accumulateAndGet(DownloadEngineTest.this.getEngine().listActiveOperations().size(), Math::max);
+            }
+        });
+        this.getEngine().setProcessorCount(2);
+        this.getEngine().setWriterCountPerStore(1);
+
+        List<DownloadRequestWrapper> requestWrappers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request " + i);
+            request.setTaskFactory(taskFactory);
+            requestWrappers.add(this.getEngine().submit(request));
+        }
+
+        // The requests that cannot enter the saturated lane are parked within the queue, so that
+        // they occupy neither a processor slot nor a thread while only a single one is writing
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while ((this.countParkedRequests() != 2 || writingCount.get() != 1) && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, this.countParkedRequests());
+        Assertions.assertEquals(1, this.getEngine().listActiveOperations().size());
+        Assertions.assertEquals(1, writingCount.get());
+
+        releaseLatch.countDown();
+        for (DownloadRequestWrapper requestWrapper : requestWrappers) {
+            requestWrapper.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        }
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(1, maximumWritingCount.get());
+        Assertions.assertTrue(maximumRunningCount.get() <= 2, "Processor count exceeded: " + maximumRunningCount.get());
+        Assertions.assertEquals(1, this.getEngine().getStoreWriteLatencies().size());
+
+    }
+
+    @Test
+    public void storageLanesParkWithoutLifecycleEvents() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        AtomicInteger writingCount = new AtomicInteger();
+        DownloadTaskFactory taskFactory = progressListener -> new DownloadTask(UUID.randomUUID().toString(), (targetStream, taskProgressListener, statusSupplier) -> {
+            writingCount.incrementAndGet();
+            releaseLatch.await();
+            targetStream.write(new byte[] { 1, 2, 3 });
+        });
+        Map<DownloadRequest, AtomicInteger> startingCounts = new ConcurrentHashMap<>();
+        Map<DownloadRequest, AtomicInteger> completedCounts = new ConcurrentHashMap<>();
+        Map<DownloadRequest, AtomicInteger> scheduledCounts = new ConcurrentHashMap<>();
+        this.getEngine().addSchedulingListener(new DownloadSchedulingListener() {
+            @Override public void onRequestScheduled(DownloadRequestWrapper requestWrapper) {
+                scheduledCounts.computeIfAbsent(requestWrapper.getRequest(), r -> new AtomicInteger()).incrementAndGet();
+            }
+            @Override public void onOperationStarting(DownloadOperation operation) {
+                startingCounts.computeIfAbsent(operation.getRequestWrapper().getRequest(), r -> new AtomicInteger()).incrementAndGet();
+            }
+            @Override public void onOperationCompleted(DownloadOperation operation) {
+                completedCounts.computeIfAbsent(operation.getRequestWrapper().getRequest(), r -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+        this.getEngine().setProcessorCount(2);
+        this.getEngine().setWriterCountPerStore(1);
+
+        List<DownloadRequestWrapper> requestWrappers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request " + i);
+            request.setTaskFactory(taskFactory);
+            requestWrappers.add(this.getEngine().submit(request));
+        }
+
+        // Parking a request must not be visible to the listeners, so only the single operation
+        // that is actually writing has been announced so far
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while ((this.countParkedRequests() != 2 || writingCount.get() != 1) && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, this.countParkedRequests());
+        Assertions.assertEquals(1, startingCounts.size());
+        Assertions.assertEquals(0, completedCounts.size());
+
+        releaseLatch.countDown();
+        for (DownloadRequestWrapper requestWrapper : requestWrappers) {
+            requestWrapper.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        }
+        this.getEngine().waitUntilAllDownloadsComplete();
+        for (DownloadRequestWrapper requestWrapper : requestWrappers) {
+            Assertions.assertEquals(1, startingCounts.get(requestWrapper.getRequest()).get());
+            Assertions.assertEquals(1, completedCounts.get(requestWrapper.getRequest()).get());
+            AtomicInteger scheduledCount = scheduledCounts.get(requestWrapper.getRequest());
+            Assertions.assertTrue(scheduledCount == null || scheduledCount.get() == 1, "Request scheduled again when being parked");
+        }
+
+    }
+
+    @Test
+    public void postProcessing() throws Exception {
+
+        CountDownLatch postProcessingStartedLatch = new CountDownLatch(1);
+        CountDownLatch postProcessingReleaseLatch = new CountDownLatch(1);
+        DownloadPostProcessor blockingPostProcessor = (downloadedFile, progressListener) -> {
+            postProcessingStartedLatch.countDown();
+            try {
+                postProcessingReleaseLatch.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        };
+        this.getEngine().setPostProcessorCount(1);
+
+        List<DownloadRequestWrapper> requestWrappers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request " + i);
+            request.setPostProcessors(List.of(blockingPostProcessor));
+            request.setTaskFactory(progressListener -> new DownloadTask(UUID.randomUUID().toString(), new StreamFactoryDataExtractor(new ByteArrayStreamFactory(new byte[] { 1, 2, 3 }))));
+            requestWrappers.add(this.getEngine().submit(request));
+        }
+
+        // While the first operation is being post-processed its slot has already been released,
+        // so that the transfer of the second request can be performed in the meantime
+        Assertions.assertTrue(postProcessingStartedLatch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(DownloadOperationStatus.POST_PROCESSING, requestWrappers.get(0).getOperation().getStatus());
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while (!this.getEngine().listWaitingRequests().isEmpty() && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, this.getEngine().listWaitingRequests().size());
+
+        postProcessingReleaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+        for (DownloadRequestWrapper requestWrapper : requestWrappers) {
+            DownloadResult result = requestWrapper.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(Files.exists(result.getTargetFile()));
+            Assertions.assertEquals(DownloadOperationStatus.COMPLETED, requestWrapper.getOperation().getStatus());
+        }
+
+    }
+
+    @Test
+    public void contentStore() throws Exception {
+
+        byte[] content = "SAME CONTENT".getBytes();
+        String contentHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        this.getEngine().setContentStore(new DownloadContentStore(this.getFileSystem().getPath("store/")));
+        AtomicInteger openCount = new AtomicInteger();
+        StreamFactory streamFactory = new ByteArrayStreamFactory(content) {
+            @Override public InputStream openStream() throws IOException {
+                openCount.incrementAndGet();
+                return super.openStream();
+            }
+        };
+
+        Map<String, DownloadResult> results = new LinkedHashMap<>();
+        for (String title : List.of("first", "second", "hinted", "postProcessed")) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setTaskFactory(progressListener -> new DownloadTask(title, new StreamFactoryDataExtractor(streamFactory)));
+            if (!"first".equals(title) && !"second".equals(title)) {
+                request.setContentHash(contentHash.toUpperCase());
+            }
+            if ("postProcessed".equals(title)) {
+                request.addProcessor((downloadedFile, progressListener) -> Files.writeString(downloadedFile, "CHANGED"));
+            }
+            results.put(title, this.getEngine().submitAsync(request).get(5, TimeUnit.SECONDS));
+        }
+
+        // The content of the hinted requests is taken from the store without any transfer
+        Assertions.assertEquals(2, openCount.get());
+        for (DownloadResult result : results.values()) {
+            Assertions.assertEquals(contentHash, result.getRequestWrapper().getOperation().getContentHash());
+        }
+        Assertions.assertArrayEquals(content, Files.readAllBytes(results.get("hinted").getTargetFile()));
+        Assertions.assertTrue(Files.isSameFile(results.get("first").getTargetFile(), results.get("second").getTargetFile()));
+        Assertions.assertTrue(Files.isSameFile(results.get("first").getTargetFile(), results.get("hinted").getTargetFile()));
+
+        // A post-processed file must never change the content of any other file
+        Assertions.assertEquals("CHANGED", Files.readString(results.get("postProcessed").getTargetFile()));
+        Assertions.assertArrayEquals(content, Files.readAllBytes(results.get("first").getTargetFile()));
+
+    }
+
+    @Test
+    public void taskDiscoveryLookAhead() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        CountDownLatch discoveredLatch = new CountDownLatch(1);
+        AtomicInteger discoveryCount = new AtomicInteger();
+        List<String> discoveryThreadNames = new CopyOnWriteArrayList<>();
+        this.getEngine().setTaskDiscoveryLookAhead(1);
+
+        DownloadRequest blockingRequest = new DownloadRequest();
+        blockingRequest.setTitle("blocking");
+        blockingRequest.setTaskFactory(progressListener -> new DownloadTask("blocking", (targetStream, progressListener2, statusSupplier) -> releaseLatch.await()));
+        this.getEngine().submit(blockingRequest);
+
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("discovered");
+        request.setTaskFactory(progressListener -> {
+            discoveryCount.incrementAndGet();
+            discoveryThreadNames.add(Thread.currentThread().getName());
+            discoveredLatch.countDown();
+            return new DownloadTask("discovered", new StreamFactoryDataExtractor(new ByteArrayStreamFactory("TEST".getBytes())));
+        });
+        DownloadRequestWrapper requestWrapper = this.getEngine().submit(request);
+
+        // The task is discovered while the request is still waiting for a processor slot
+        Assertions.assertTrue(discoveredLatch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of(requestWrapper), this.getEngine().listWaitingRequests());
+        Assertions.assertTrue(discoveryThreadNames.get(0).startsWith("download-engine-discovery-"));
+
+        // Once the request is started the discovered task is used instead of creating a new one
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+        Assertions.assertEquals(1, discoveryCount.get());
+        Assertions.assertEquals("TEST", Files.readString(this.getFileSystem().getPath("target/discovered")));
+
+    }
+
+    @Test
+    public void updatePriority() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        DownloadTask blockingTask = new DownloadTask("blocking", (targetStream, progressListener, statusSupplier) -> releaseLatch.await());
+        List<DownloadRequestWrapper> requestWrappers = new ArrayList<>();
+        for (String title : List.of("first", "second", "third")) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(title);
+            request.setTaskFactory(progressListener -> blockingTask);
+            requestWrappers.add(this.getEngine().submit(request));
+        }
+        Assertions.assertEquals(requestWrappers.subList(1, 3), this.getEngine().listWaitingRequests());
+
+        requestWrappers.get(2).updatePriority(10);
+        Assertions.assertEquals(List.of(requestWrappers.get(2), requestWrappers.get(1)), this.getEngine().listWaitingRequests());
+        Assertions.assertEquals(10, requestWrappers.get(2).getRequest().getPriority());
+
+        // Modifying the request directly must not affect the queue
+        requestWrappers.get(1).getRequest().setPriority(20);
+        Assertions.assertEquals(List.of(requestWrappers.get(2), requestWrappers.get(1)), this.getEngine().listWaitingRequests());
+        requestWrappers.get(1).cancel("Cancelled");
+        Assertions.assertEquals(List.of(requestWrappers.get(2)), this.getEngine().listWaitingRequests());
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+    }
+
     @Test
     public void cancelOperation() throws Exception {
 
@@ -279,6 +1652,10 @@ public class DownloadEngineTest {
 
     }
 
+    private long countParkedRequests() {
+        return this.getEngine().listWaitingRequests().stream().filter(requestWrapper -> requestWrapper.getNotBeforeTime() != null).count();
+    }
+
     private FileSystem getFileSystem() {
         return this.myFileSystem;
     }
@@ -0,0 +1,122 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.slf4j.LoggerFactory;
+
+import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import de.perdian.apps.downloader.core.engine.impl.dataextractors.StreamFactoryDataExtractor;
+
+/**
+ * Compares the number of threads and the memory footprint of the {@link DownloadEngine} when
+ * running 500 slow transfers in parallel on platform threads versus virtual threads. Not executed
+ * as part of the regular test run - start the {@code main} method manually (ideally once per
+ * mode in a fresh JVM by passing either {@code platform} or {@code virtual} as argument) to get
+ * the numbers.
+ */
+
+public class DownloadEngineThreadingBenchmark {
+
+    private static final int OPERATION_COUNT = 500;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        String mode = args.length > 0 ? args[0] : null;
+        if (mode == null || "platform".equals(mode)) {
+            DownloadEngineThreadingBenchmark.runBenchmark("platform", Executors::newCachedThreadPool);
+        }
+        if (mode == null || "virtual".equals(mode)) {
+            DownloadEngineThreadingBenchmark.runBenchmark("virtual", Executors::newVirtualThreadPerTaskExecutor);
+        }
+    }
+
+    private static void runBenchmark(String mode, Supplier<ExecutorService> executorServiceSupplier) throws Exception {
+        try (FileSystem fileSystem = MemoryFileSystemBuilder.newEmpty().build(UUID.randomUUID().toString())) {
+
+            System.gc();
+            int threadCountBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+            long residentMemoryBefore = DownloadEngineThreadingBenchmark.readResidentMemory();
+
+            DownloadEngine engine = new DownloadEngine(fileSystem.getPath("target/"), executorServiceSupplier.get());
+            engine.setProcessorCount(OPERATION_COUNT);
+
+            CountDownLatch allStartedLatch = new CountDownLatch(OPERATION_COUNT);
+            CountDownLatch releaseLatch = new CountDownLatch(1);
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+                DownloadRequest request = new DownloadRequest();
+                request.setTitle("Request " + i);
+                request.setTaskFactory(progressListener -> new DownloadTask(UUID.randomUUID().toString(), new StreamFactoryDataExtractor(() -> new SlowInputStream(allStartedLatch, releaseLatch))));
+                engine.submit(request);
+            }
+
+            allStartedLatch.await();
+            int threadCountDuring = ManagementFactory.getThreadMXBean().getThreadCount();
+            long residentMemoryDuring = DownloadEngineThreadingBenchmark.readResidentMemory();
+            releaseLatch.countDown();
+            engine.waitUntilAllDownloadsComplete();
+            engine.shutdown();
+
+            System.out.printf("mode=%-8s operations=%d, live threads=%4d (+%d), resident memory=%,d KiB (+%,d KiB)%n", mode, OPERATION_COUNT, threadCountDuring, threadCountDuring - threadCountBefore, residentMemoryDuring, residentMemoryDuring - residentMemoryBefore);
+
+        }
+    }
+
+    private static long readResidentMemory() throws IOException {
+        Path statusFile = Path.of("/proc/self/status");
+        if (Files.exists(statusFile)) {
+            for (String line : Files.readAllLines(statusFile)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").strip());
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Simulates a slow remote resource: the first read blocks until all operations are running,
+     * afterwards a single byte is returned before the end of the stream is reached.
+     */
+    static class SlowInputStream extends InputStream {
+
+        private CountDownLatch startedLatch = null;
+        private CountDownLatch releaseLatch = null;
+        private boolean dataReturned = false;
+
+        SlowInputStream(CountDownLatch startedLatch, CountDownLatch releaseLatch) {
+            this.startedLatch = startedLatch;
+            this.releaseLatch = releaseLatch;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.dataReturned) {
+                return -1;
+            } else {
+                try {
+                    this.startedLatch.countDown();
+                    this.releaseLatch.await();
+                    this.dataReturned = true;
+                    return 42;
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while waiting for data", e);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DownloadRequestQueueTest {
+
+    @Test
+    public void selectNextSkipsSaturatedHost() {
+
+        DownloadRequestQueue queue = new DownloadRequestQueue();
+        for (int i = 0; i < 1000; i++) {
+            queue.add(DownloadRequestQueueTest.createRequestWrapper("busy.example.com", i));
+        }
+        DownloadRequestWrapper otherRequestWrapper = DownloadRequestQueueTest.createRequestWrapper("other.example.com", 1000);
+        DownloadRequestWrapper noHostRequestWrapper = DownloadRequestQueueTest.createRequestWrapper(null, 1001);
+        queue.add(otherRequestWrapper);
+        queue.add(noHostRequestWrapper);
+
+        Assertions.assertEquals("busy.example.com", queue.selectNext(host -> true).getRequest().getHost());
+        Assertions.assertSame(otherRequestWrapper, queue.selectNext(host -> !"busy.example.com".equals(host)));
+        Assertions.assertSame(noHostRequestWrapper, queue.selectNext(host -> host == null));
+
+        queue.remove(otherRequestWrapper);
+        Assertions.assertSame(noHostRequestWrapper, queue.selectNext(host -> !"busy.example.com".equals(host)));
+        Assertions.assertEquals(1001, queue.size());
+
+    }
+
+    @Test
+    public void selectNextIgnoresDelayedRequest() {
+
+        DownloadRequestQueue queue = new DownloadRequestQueue();
+        DownloadRequestWrapper delayedRequestWrapper = DownloadRequestQueueTest.createRequestWrapper("example.com", 1);
+        delayedRequestWrapper.setNotBeforeTime(Instant.now().plusSeconds(60));
+        queue.add(delayedRequestWrapper);
+        Assertions.assertNull(queue.selectNext(host -> true));
+        Assertions.assertEquals(1, queue.size());
+
+        queue.releaseDelayedRequest(delayedRequestWrapper);
+        Assertions.assertSame(delayedRequestWrapper, queue.selectNext(host -> true));
+        Assertions.assertSame(delayedRequestWrapper, queue.pollFirst());
+        Assertions.assertNull(queue.selectNext(host -> true));
+
+    }
+
+    private static DownloadRequestWrapper createRequestWrapper(String host, long sequence) {
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle("Request " + sequence);
+        request.setHost(host);
+        DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
+        requestWrapper.setRequest(request);
+        requestWrapper.setScheduledTime(Instant.EPOCH);
+        requestWrapper.setSequence(sequence);
+        return requestWrapper;
+    }
+
+}
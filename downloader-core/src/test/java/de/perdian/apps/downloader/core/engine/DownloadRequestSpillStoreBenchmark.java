@@ -0,0 +1,68 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+
+import org.apache.commons.io.file.PathUtils;
+
+/**
+ * Measures the heap occupied by the {@link DownloadRequestSpillStore} while it holds one million
+ * requests, together with the time needed to write them into the store and to read them back.
+ * Not executed as part of the regular test run - start the {@code main} method manually to get
+ * the numbers.
+ */
+
+public class DownloadRequestSpillStoreBenchmark {
+
+    private static final int REQUEST_COUNT = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Path spillDirectory = Files.createTempDirectory("spill-benchmark-");
+        DownloadRecipeFactory recipeFactory = recipe -> {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle(recipe.getParameter("title"));
+            return request;
+        };
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("benchmark", recipeFactory))) {
+
+            long heapBefore = DownloadRequestSpillStoreBenchmark.measureHeap();
+            long spillStartTime = System.nanoTime();
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                DownloadRequest request = new DownloadRequest();
+                request.setPriority(i % 10);
+                request.setRecipe(new DownloadRequestRecipe("benchmark", Map.of("title", "Request " + i, "url", "https://example.com/catalog/item/" + i)));
+                DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
+                requestWrapper.setRequest(request);
+                requestWrapper.setScheduledTime(Instant.ofEpochMilli(i));
+                requestWrapper.setSequence(i);
+                requestWrapper.setPriority(request.getPriority());
+                requestWrapper.setAgedPriority(request.getPriority());
+                spillStore.spill(requestWrapper);
+            }
+            long spillDuration = System.nanoTime() - spillStartTime;
+            long heapDuring = DownloadRequestSpillStoreBenchmark.measureHeap();
+
+            long pollStartTime = System.nanoTime();
+            while (spillStore.poll() != null) {
+                // Read back all requests
+            }
+            long pollDuration = System.nanoTime() - pollStartTime;
+
+            System.out.printf("requests=%,d, heap before=%,d KiB, heap while spilled=%,d KiB (+%,d KiB), spill=%,d ms, poll=%,d ms%n", REQUEST_COUNT, heapBefore / 1024, heapDuring / 1024, (heapDuring - heapBefore) / 1024, spillDuration / 1_000_000, pollDuration / 1_000_000);
+
+        } finally {
+            PathUtils.deleteDirectory(spillDirectory);
+        }
+    }
+
+    private static long measureHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
@@ -0,0 +1,158 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DownloadRequestSpillStoreTest {
+
+    private static final DownloadRecipeFactory RECIPE_FACTORY = recipe -> {
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle(recipe.getParameter("title"));
+        return request;
+    };
+
+    @Test
+    public void pollOrderedLikeWaitingQueue(@TempDir Path spillDirectory) throws Exception {
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", RECIPE_FACTORY))) {
+            spillStore.setSegmentRecordCount(3);
+            spillStore.setMaxSegmentCount(2);
+
+            Random random = new Random(42);
+            List<DownloadRequestWrapper> spilledRequestWrappers = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                DownloadRequest request = new DownloadRequest();
+                request.setTitle("Request " + i + " with a title containing spaces & symbols");
+                request.setId(random.nextBoolean() ? null : "request-" + i);
+                request.setSourceKey(random.nextBoolean() ? null : "http://example.com/" + i);
+                request.setPriority(random.nextInt(3));
+                request.setRecipe(new DownloadRequestRecipe("test", Map.of("title", request.getTitle())));
+                DownloadRequestWrapper requestWrapper = DownloadRequestSpillStoreTest.createRequestWrapper(request, Instant.ofEpochSecond(random.nextInt(3), random.nextInt(3)), i);
+                requestWrapper.setAgedPriority(request.getPriority() - random.nextInt(2));
+                requestWrapper.setDeadline(random.nextBoolean() ? null : Instant.ofEpochSecond(random.nextInt(3)));
+                requestWrapper.setFairStartTag(random.nextInt(3));
+                requestWrapper.setFairFinishTag(requestWrapper.getFairStartTag() + 1);
+                Assertions.assertTrue(spillStore.spill(requestWrapper));
+                spilledRequestWrappers.add(requestWrapper);
+            }
+            Assertions.assertEquals(100, spillStore.size());
+            Assertions.assertTrue(DownloadRequestSpillStoreTest.countFiles(spillDirectory) <= 2);
+
+            // Both tiers of the queue have to agree about the order of the requests, otherwise a
+            // request read back from the store might overtake a request inside the waiting queue
+            spilledRequestWrappers.sort(new DownloadRequestWrapper.PriorityComparator());
+            for (DownloadRequestWrapper spilledRequestWrapper : spilledRequestWrappers) {
+                DownloadRequestSpillStore.SpilledRequest polledSpilledRequest = spillStore.poll();
+                DownloadRequest polledRequest = polledSpilledRequest.getRequest();
+                Assertions.assertEquals(spilledRequestWrapper.getSequence(), polledSpilledRequest.getSequence());
+                Assertions.assertEquals(spilledRequestWrapper.getRequest().getTitle(), polledRequest.getTitle());
+                Assertions.assertEquals(spilledRequestWrapper.getRequest().getId(), polledRequest.getId());
+                Assertions.assertEquals(spilledRequestWrapper.getRequest().getSourceKey(), polledRequest.getSourceKey());
+                Assertions.assertEquals(spilledRequestWrapper.getPriority(), polledRequest.getPriority());
+                Assertions.assertEquals(spilledRequestWrapper.getRequest().getRecipe(), polledRequest.getRecipe());
+                Assertions.assertEquals(spilledRequestWrapper.getAgedPriority(), polledSpilledRequest.getAgedPriority());
+                Assertions.assertEquals(spilledRequestWrapper.getDeadline(), polledSpilledRequest.getDeadline());
+                Assertions.assertEquals(spilledRequestWrapper.getFairStartTag(), polledSpilledRequest.getFairStartTag());
+                Assertions.assertEquals(spilledRequestWrapper.getFairFinishTag(), polledSpilledRequest.getFairFinishTag());
+                Assertions.assertEquals(spilledRequestWrapper.getScheduledTime(), polledSpilledRequest.getScheduledTime());
+            }
+            Assertions.assertNull(spillStore.poll());
+            Assertions.assertTrue(spillStore.isEmpty());
+            Assertions.assertEquals(0, DownloadRequestSpillStoreTest.countFiles(spillDirectory));
+
+        }
+    }
+
+    @Test
+    public void precedes(@TempDir Path spillDirectory) throws Exception {
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", RECIPE_FACTORY))) {
+
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request");
+            request.setPriority(1);
+            request.setRecipe(new DownloadRequestRecipe("test", Map.of("title", "Request")));
+            DownloadRequestWrapper requestWrapper = DownloadRequestSpillStoreTest.createRequestWrapper(request, Instant.ofEpochSecond(10), 1);
+            requestWrapper.setFairStartTag(5);
+            Assertions.assertTrue(spillStore.precedes(requestWrapper));
+            spillStore.spill(requestWrapper);
+
+            DownloadRequestWrapper samePriorityRequestWrapper = DownloadRequestSpillStoreTest.createRequestWrapper(new DownloadRequest(), Instant.ofEpochSecond(20), 2);
+            samePriorityRequestWrapper.setAgedPriority(1);
+            samePriorityRequestWrapper.setFairStartTag(5);
+            DownloadRequestWrapper higherPriorityRequestWrapper = DownloadRequestSpillStoreTest.createRequestWrapper(new DownloadRequest(), Instant.ofEpochSecond(20), 3);
+            higherPriorityRequestWrapper.setAgedPriority(2);
+            higherPriorityRequestWrapper.setFairStartTag(5);
+            Assertions.assertFalse(spillStore.precedes(samePriorityRequestWrapper));
+            Assertions.assertTrue(spillStore.precedes(higherPriorityRequestWrapper));
+
+            // Within the same priority a group that hasn't received its fair share yet comes
+            // first, just like inside the waiting queue
+            DownloadRequestWrapper earlierFairStartRequestWrapper = DownloadRequestSpillStoreTest.createRequestWrapper(new DownloadRequest(), Instant.ofEpochSecond(20), 4);
+            earlierFairStartRequestWrapper.setAgedPriority(1);
+            earlierFairStartRequestWrapper.setFairStartTag(4);
+            Assertions.assertTrue(spillStore.precedes(earlierFairStartRequestWrapper));
+
+        }
+    }
+
+    @Test
+    public void spillWithoutRecipe(@TempDir Path spillDirectory) throws Exception {
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", RECIPE_FACTORY))) {
+
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request");
+            Assertions.assertFalse(spillStore.spill(DownloadRequestSpillStoreTest.createRequestWrapper(request, Instant.now(), 1)));
+            request.setRecipe(new DownloadRequestRecipe("unknown", Map.of()));
+            Assertions.assertFalse(spillStore.spill(DownloadRequestSpillStoreTest.createRequestWrapper(request, Instant.now(), 1)));
+            Assertions.assertTrue(spillStore.isEmpty());
+
+        }
+    }
+
+    @Test
+    public void pollWithFailingRecipeFactory(@TempDir Path spillDirectory) throws Exception {
+        DownloadRecipeFactory failingRecipeFactory = recipe -> {
+            throw new IllegalStateException("Cannot create request");
+        };
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(spillDirectory, Map.of("test", failingRecipeFactory))) {
+
+            DownloadRequest request = new DownloadRequest();
+            request.setRecipe(new DownloadRequestRecipe("test", Map.of()));
+            spillStore.spill(DownloadRequestSpillStoreTest.createRequestWrapper(request, Instant.ofEpochMilli(42), 7));
+
+            DownloadRequestSpillStore.SpilledRequest spilledRequest = spillStore.poll();
+            Assertions.assertNull(spilledRequest.getRequest());
+            Assertions.assertEquals(7, spilledRequest.getSequence());
+            Assertions.assertEquals(Instant.ofEpochMilli(42), spilledRequest.getScheduledTime());
+            Assertions.assertNull(spillStore.poll());
+
+        }
+    }
+
+    private static DownloadRequestWrapper createRequestWrapper(DownloadRequest request, Instant scheduledTime, long sequence) {
+        DownloadRequestWrapper requestWrapper = new DownloadRequestWrapper();
+        requestWrapper.setRequest(request);
+        requestWrapper.setScheduledTime(scheduledTime);
+        requestWrapper.setSequence(sequence);
+        requestWrapper.setPriority(request.getPriority());
+        requestWrapper.setAgedPriority(request.getPriority());
+        return requestWrapper;
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+}
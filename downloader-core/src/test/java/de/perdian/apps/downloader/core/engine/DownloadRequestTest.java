@@ -0,0 +1,20 @@
+package de.perdian.apps.downloader.core.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DownloadRequestTest {
+
+    @Test
+    public void createSourceKey() {
+
+        Assertions.assertEquals("https://example.com/file.mp3", DownloadRequest.createSourceKey("https://example.com/file.mp3"));
+        Assertions.assertEquals("https://example.com/file.mp3", DownloadRequest.createSourceKey(" HTTPS://Example.COM:443/music/../file.mp3#top "));
+        Assertions.assertEquals("http://example.com/", DownloadRequest.createSourceKey("http://example.com:80"));
+        Assertions.assertEquals("http://example.com:8080/file?a=1", DownloadRequest.createSourceKey("http://example.com:8080/file?a=1"));
+        Assertions.assertEquals("file.mp3", DownloadRequest.createSourceKey("file.mp3"));
+        Assertions.assertThrows(NullPointerException.class, () -> DownloadRequest.createSourceKey(null));
+
+    }
+
+}
@@ -0,0 +1,63 @@
+package de.perdian.apps.downloader.core.engine;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DownloadRetryPolicyTest {
+
+    @Test
+    public void computeDelay() {
+
+        DownloadRetryPolicy retryPolicy = new DownloadRetryPolicy();
+        retryPolicy.setInitialDelay(Duration.ofSeconds(1));
+        retryPolicy.setMaxDelay(Duration.ofSeconds(10));
+        retryPolicy.setMultiplier(2);
+        retryPolicy.setJitter(0.5);
+
+        Assertions.assertEquals(Duration.ofSeconds(1), retryPolicy.computeDelay(1, 0));
+        Assertions.assertEquals(Duration.ofSeconds(2), retryPolicy.computeDelay(2, 0));
+        Assertions.assertEquals(Duration.ofSeconds(4), retryPolicy.computeDelay(3, 0));
+        Assertions.assertEquals(Duration.ofSeconds(10), retryPolicy.computeDelay(5, 0));
+        Assertions.assertEquals(Duration.ofSeconds(2), retryPolicy.computeDelay(3, 1));
+        Assertions.assertEquals(Duration.ofSeconds(5), retryPolicy.computeDelay(20, 1));
+
+    }
+
+    @Test
+    public void isRetryable() {
+
+        DownloadRetryPolicy retryPolicy = new DownloadRetryPolicy(3);
+
+        Assertions.assertTrue(retryPolicy.isRetryable(new IOException("Connection reset"), 1));
+        Assertions.assertTrue(retryPolicy.isRetryable(new IOException("Connection reset"), 2));
+        Assertions.assertFalse(retryPolicy.isRetryable(new IOException("Connection reset"), 3));
+        Assertions.assertFalse(retryPolicy.isRetryable(null, 1));
+
+    }
+
+    @Test
+    public void isRetryableDefaultPolicy() {
+        Assertions.assertFalse(new DownloadRetryPolicy().isRetryable(new IOException("Connection reset"), 1));
+    }
+
+    @Test
+    public void isTransientError() {
+        Assertions.assertTrue(DownloadRetryPolicy.isTransientError(new IOException("Connection reset")));
+        Assertions.assertTrue(DownloadRetryPolicy.isTransientError(new UncheckedIOException(new IOException("Connection reset"))));
+        Assertions.assertFalse(DownloadRetryPolicy.isTransientError(new FileNotFoundException("http://example.com/missing")));
+        Assertions.assertFalse(DownloadRetryPolicy.isTransientError(new NoSuchFileException("/target/missing")));
+        Assertions.assertFalse(DownloadRetryPolicy.isTransientError(new IllegalStateException("Broken")));
+    }
+
+    @Test
+    public void setJitterInvalid() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DownloadRetryPolicy().setJitter(1.5));
+    }
+
+}
@@ -0,0 +1,234 @@
+package de.perdian.apps.downloader.core.engine.impl.dataextractors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.perdian.apps.downloader.core.engine.DownloadOperationStatus;
+import de.perdian.apps.downloader.core.engine.DownloadSegmentTarget;
+import de.perdian.apps.downloader.core.support.impl.OkHttpClientRequestStreamFactory;
+
+public class SegmentedStreamFactoryDataExtractorTest {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private HttpServer server = null;
+    private ExecutorService serverExecutor = null;
+    private byte[] content = null;
+    private List<String> requestedRanges = null;
+    private boolean rangeSupported = true;
+    private boolean firstSegmentSlow = false;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        this.setContent(new byte[3 * 1024 * 1024]);
+        new Random(42).nextBytes(this.getContent());
+        this.setRequestedRanges(new CopyOnWriteArrayList<>());
+        this.setServerExecutor(Executors.newCachedThreadPool());
+        this.setServer(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0));
+        this.getServer().createContext("/file", this::handleExchange);
+        this.getServer().setExecutor(this.getServerExecutor());
+        this.getServer().start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        this.getServer().stop(0);
+        this.getServerExecutor().shutdownNow();
+    }
+
+    @Test
+    public void extractDataWithSegments() throws Exception {
+
+        SegmentedStreamFactoryDataExtractor dataExtractor = new SegmentedStreamFactoryDataExtractor(new OkHttpClientRequestStreamFactory(this.createUrl()));
+        dataExtractor.setSegmentCount(3);
+        dataExtractor.setMinimumSegmentSize(256 * 1024);
+
+        ByteArraySegmentTarget segmentTarget = new ByteArraySegmentTarget(this.getContent().length);
+        List<Long> progressValues = new CopyOnWriteArrayList<>();
+        dataExtractor.extractData(segmentTarget, 0, (message, progress, total) -> progressValues.add(progress), () -> DownloadOperationStatus.ACTIVE);
+
+        Assertions.assertArrayEquals(this.getContent(), segmentTarget.getBytes());
+        Assertions.assertEquals("bytes=0-0", this.getRequestedRanges().get(0));
+        Assertions.assertTrue(this.getRequestedRanges().contains("bytes=0-1048575"), "First segment not requested: " + this.getRequestedRanges());
+        Assertions.assertTrue(this.getRequestedRanges().stream().anyMatch(range -> range.startsWith("bytes=1048576-")), "Second segment not requested: " + this.getRequestedRanges());
+        Assertions.assertTrue(this.getRequestedRanges().stream().anyMatch(range -> range.startsWith("bytes=2097152-")), "Third segment not requested: " + this.getRequestedRanges());
+        Assertions.assertEquals(Long.valueOf(this.getContent().length), progressValues.get(progressValues.size() - 1));
+
+    }
+
+    @Test
+    public void extractDataWithSlowSegmentRebalanced() throws Exception {
+        this.setFirstSegmentSlow(true);
+
+        SegmentedStreamFactoryDataExtractor dataExtractor = new SegmentedStreamFactoryDataExtractor(new OkHttpClientRequestStreamFactory(this.createUrl()));
+        dataExtractor.setSegmentCount(3);
+        dataExtractor.setMinimumSegmentSize(64 * 1024);
+
+        ByteArraySegmentTarget segmentTarget = new ByteArraySegmentTarget(this.getContent().length);
+        dataExtractor.extractData(segmentTarget, 0, (message, progress, total) -> {}, () -> DownloadOperationStatus.ACTIVE);
+
+        Assertions.assertArrayEquals(this.getContent(), segmentTarget.getBytes());
+        Assertions.assertTrue(this.getRequestedRanges().size() > 4, "Expected remaining work of slow segment to be taken over: " + this.getRequestedRanges());
+
+    }
+
+    @Test
+    public void extractDataWithoutRangeSupport() throws Exception {
+        this.setRangeSupported(false);
+
+        SegmentedStreamFactoryDataExtractor dataExtractor = new SegmentedStreamFactoryDataExtractor(new OkHttpClientRequestStreamFactory(this.createUrl()));
+        dataExtractor.setMinimumSegmentSize(256 * 1024);
+
+        ByteArraySegmentTarget segmentTarget = new ByteArraySegmentTarget(this.getContent().length);
+        dataExtractor.extractData(segmentTarget, 0, (message, progress, total) -> {}, () -> DownloadOperationStatus.ACTIVE);
+
+        Assertions.assertArrayEquals(this.getContent(), segmentTarget.getBytes());
+        Assertions.assertEquals(List.of("bytes=0-0", "<none>"), this.getRequestedRanges());
+
+    }
+
+    @Test
+    public void extractDataCancelled() throws Exception {
+
+        SegmentedStreamFactoryDataExtractor dataExtractor = new SegmentedStreamFactoryDataExtractor(new OkHttpClientRequestStreamFactory(this.createUrl()));
+        dataExtractor.setMinimumSegmentSize(256 * 1024);
+
+        ByteArraySegmentTarget segmentTarget = new ByteArraySegmentTarget(this.getContent().length);
+        dataExtractor.extractData(segmentTarget, 0, (message, progress, total) -> {}, () -> DownloadOperationStatus.CANCELLED);
+
+        Assertions.assertEquals(0, segmentTarget.getBytesWritten());
+
+    }
+
+    private void handleExchange(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+            this.getRequestedRanges().add(rangeHeader == null ? "<none>" : rangeHeader);
+            Matcher rangeMatcher = rangeHeader == null || !this.isRangeSupported() ? null : RANGE_PATTERN.matcher(rangeHeader);
+            if (rangeMatcher != null && rangeMatcher.matches()) {
+                int start = Integer.parseInt(rangeMatcher.group(1));
+                int end = rangeMatcher.group(2).isEmpty() ? this.getContent().length - 1 : Math.min(Integer.parseInt(rangeMatcher.group(2)), this.getContent().length - 1);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + this.getContent().length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+                this.writeContent(exchange.getResponseBody(), start, end - start + 1, this.isFirstSegmentSlow() && start == 0 && end > 0);
+            } else {
+                exchange.sendResponseHeaders(200, this.getContent().length);
+                this.writeContent(exchange.getResponseBody(), 0, this.getContent().length, false);
+            }
+        } catch (IOException e) {
+            // Client closed the connection before all data has been received
+        }
+    }
+
+    private void writeContent(OutputStream outputStream, int offset, int length, boolean slow) throws IOException {
+        for (int position = offset; position < offset + length; position += 8 * 1024) {
+            outputStream.write(this.getContent(), position, Math.min(8 * 1024, offset + length - position));
+            outputStream.flush();
+            if (slow) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private String createUrl() {
+        return "http://127.0.0.1:" + this.getServer().getAddress().getPort() + "/file";
+    }
+
+    static class ByteArraySegmentTarget implements DownloadSegmentTarget {
+
+        private byte[] bytes = null;
+        private long bytesWritten = 0;
+
+        ByteArraySegmentTarget(int size) {
+            this.bytes = new byte[size];
+        }
+
+        @Override
+        public OutputStream openStream(long position) throws IOException {
+            ByteArrayOutputStream bufferStream = new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    synchronized (ByteArraySegmentTarget.this) {
+                        System.arraycopy(this.buf, 0, ByteArraySegmentTarget.this.bytes, (int)position, this.count);
+                        ByteArraySegmentTarget.this.bytesWritten += this.count;
+                    }
+                }
+            };
+            return bufferStream;
+        }
+
+        synchronized byte[] getBytes() {
+            return this.bytes;
+        }
+
+        synchronized long getBytesWritten() {
+            return this.bytesWritten;
+        }
+
+    }
+
+    private HttpServer getServer() {
+        return this.server;
+    }
+    private void setServer(HttpServer server) {
+        this.server = server;
+    }
+
+    private ExecutorService getServerExecutor() {
+        return this.serverExecutor;
+    }
+    private void setServerExecutor(ExecutorService serverExecutor) {
+        this.serverExecutor = serverExecutor;
+    }
+
+    private byte[] getContent() {
+        return this.content;
+    }
+    private void setContent(byte[] content) {
+        this.content = content;
+    }
+
+    private List<String> getRequestedRanges() {
+        return this.requestedRanges;
+    }
+    private void setRequestedRanges(List<String> requestedRanges) {
+        this.requestedRanges = requestedRanges;
+    }
+
+    private boolean isRangeSupported() {
+        return this.rangeSupported;
+    }
+    private void setRangeSupported(boolean rangeSupported) {
+        this.rangeSupported = rangeSupported;
+    }
+
+    private boolean isFirstSegmentSlow() {
+        return this.firstSegmentSlow;
+    }
+    private void setFirstSegmentSlow(boolean firstSegmentSlow) {
+        this.firstSegmentSlow = firstSegmentSlow;
+    }
+
+}
@@ -0,0 +1,131 @@
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
+
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadEngineConfigurationListener;
+import de.perdian.apps.downloader.core.engine.DownloadOperation;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
+import de.perdian.apps.downloader.core.engine.DownloadTask;
+
+public class AdaptiveProcessorCountSchedulingListenerTest {
+
+    private FileSystem myFileSystem = null;
+    private DownloadEngine myEngine = null;
+    private AdaptiveProcessorCountSchedulingListener myListener = null;
+
+    @BeforeEach
+    public void prepareProperties() throws IOException {
+        FileSystem fileSystem = MemoryFileSystemBuilder.newEmpty().build(UUID.randomUUID().toString());
+        AdaptiveProcessorCountSchedulingListener listener = new AdaptiveProcessorCountSchedulingListener();
+        listener.setSampleInterval(Duration.ofHours(1));
+        this.setFileSystem(fileSystem);
+        this.setEngine(new DownloadEngine(fileSystem.getPath("target/")));
+        this.setListener(listener);
+    }
+
+    @AfterEach
+    public void cleanupProperties() throws IOException {
+        this.getListener().close();
+        this.getFileSystem().close();
+    }
+
+    @Test
+    public void increaseWhenSaturated() throws Exception {
+
+        DownloadEngineConfigurationListener configurationListener = Mockito.mock(DownloadEngineConfigurationListener.class);
+        this.getEngine().setProcessorCount(2);
+        this.getEngine().addEngineConfigurationListener(configurationListener);
+        this.getListener().attach(this.getEngine());
+
+        CountDownLatch startedLatch = new CountDownLatch(3);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            DownloadRequest request = new DownloadRequest();
+            request.setTitle("Request " + i);
+            request.setTaskFactory(progressListener -> new DownloadTask(UUID.randomUUID().toString(), (targetStream, progressListener2, statusSupplier) -> {
+                startedLatch.countDown();
+                releaseLatch.await();
+            }));
+            this.getEngine().submit(request);
+        }
+
+        this.getListener().adjustProcessorCount();
+        Assertions.assertEquals(3, this.getEngine().getProcessorCount());
+        Assertions.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+        Mockito.verify(configurationListener).onProcessorCountUpdated(Mockito.eq(3));
+
+        releaseLatch.countDown();
+        this.getEngine().waitUntilAllDownloadsComplete();
+
+        // Nothing is waiting anymore, so there is no reason to change the processor count
+        this.getListener().adjustProcessorCount();
+        Assertions.assertEquals(3, this.getEngine().getProcessorCount());
+
+    }
+
+    @Test
+    public void decreaseOnErrors() throws Exception {
+
+        this.getEngine().setProcessorCount(8);
+        this.getListener().setMinProcessorCount(3);
+        this.getListener().attach(this.getEngine());
+
+        DownloadOperation failedOperation = Mockito.mock(DownloadOperation.class);
+        Mockito.when(failedOperation.getError()).thenReturn(new IOException("Connection reset"));
+        DownloadOperation cancelledOperation = Mockito.mock(DownloadOperation.class);
+        Mockito.when(cancelledOperation.getError()).thenReturn(new IOException("Cancelled"));
+        Mockito.when(cancelledOperation.getCancelTime()).thenReturn(Instant.now());
+
+        this.getListener().onOperationCompleted(failedOperation);
+        this.getListener().onOperationCompleted(Mockito.mock(DownloadOperation.class));
+        this.getListener().adjustProcessorCount();
+        Assertions.assertEquals(4, this.getEngine().getProcessorCount());
+
+        this.getListener().onOperationCompleted(failedOperation);
+        this.getListener().adjustProcessorCount();
+        Assertions.assertEquals(3, this.getEngine().getProcessorCount());
+
+        // Cancelled operations are not considered to be errors
+        this.getListener().onOperationCompleted(cancelledOperation);
+        this.getListener().adjustProcessorCount();
+        Assertions.assertEquals(3, this.getEngine().getProcessorCount());
+
+    }
+
+    private FileSystem getFileSystem() {
+        return this.myFileSystem;
+    }
+    private void setFileSystem(FileSystem fileSystem) {
+        this.myFileSystem = fileSystem;
+    }
+
+    private DownloadEngine getEngine() {
+        return this.myEngine;
+    }
+    private void setEngine(DownloadEngine engine) {
+        this.myEngine = engine;
+    }
+
+    private AdaptiveProcessorCountSchedulingListener getListener() {
+        return this.myListener;
+    }
+    private void setListener(AdaptiveProcessorCountSchedulingListener listener) {
+        this.myListener = listener;
+    }
+
+}
@@ -0,0 +1,114 @@
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystem;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.LoggerFactory;
+
+import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
+import de.perdian.apps.downloader.core.engine.DownloadTask;
+import de.perdian.apps.downloader.core.engine.impl.dataextractors.StreamFactoryDataExtractor;
+import de.perdian.apps.downloader.core.support.impl.OkHttpClientRequestStreamFactory;
+import okhttp3.OkHttpClient;
+
+/**
+ * Measures how long it takes to download a series of small files from different hosts with and
+ * without pre-warming the connections, against a local server whose connections need a fixed
+ * time to be established. Not executed as part of the regular test run - start the {@code main}
+ * method manually to get the numbers.
+ */
+
+public class ConnectionPrewarmingBenchmark {
+
+    private static final int REQUEST_COUNT = 20;
+    private static final Duration CONNECT_LATENCY = Duration.ofMillis(150);
+    private static final int CHUNK_COUNT = 10;
+    private static final Duration CHUNK_DELAY = Duration.ofMillis(20);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        ExecutorService serverExecutor = Executors.newCachedThreadPool();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", ConnectionPrewarmingBenchmark::handleExchange);
+        server.setExecutor(serverExecutor);
+        server.start();
+        try {
+            ConnectionPrewarmingBenchmark.runBenchmark(server.getAddress().getPort(), false); // Warmup
+            for (boolean prewarming : List.of(false, true, false, true)) {
+                ConnectionPrewarmingBenchmark.runBenchmark(server.getAddress().getPort(), prewarming);
+            }
+        } finally {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+    }
+
+    private static void runBenchmark(int port, boolean prewarming) throws Exception {
+        try (FileSystem fileSystem = MemoryFileSystemBuilder.newEmpty().build(UUID.randomUUID().toString())) {
+
+            LatencySocketFactory socketFactory = new LatencySocketFactory(CONNECT_LATENCY);
+            OkHttpClient httpClient = new OkHttpClient.Builder().dns(hostname -> List.of(InetAddress.getLoopbackAddress())).socketFactory(socketFactory).build();
+            DownloadEngine engine = new DownloadEngine(fileSystem.getPath("target/"));
+            if (prewarming) {
+                ConnectionPrewarmingSchedulingListener listener = new ConnectionPrewarmingSchedulingListener(httpClient);
+                listener.setUrlResolver(request -> "http://" + request.getHost() + ":" + port + "/");
+                engine.addSchedulingListener(listener);
+            }
+
+            long startTime = System.nanoTime();
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                String host = "host-" + i + ".example.com";
+                DownloadRequest request = new DownloadRequest();
+                request.setTitle("Request " + i);
+                request.setHost(host);
+                request.setTaskFactory(progressListener -> new DownloadTask(UUID.randomUUID().toString(), new StreamFactoryDataExtractor(new OkHttpClientRequestStreamFactory("http://" + host + ":" + port + "/file", httpClient))));
+                engine.submit(request);
+            }
+            engine.waitUntilAllDownloadsComplete();
+            Duration duration = Duration.ofNanos(System.nanoTime() - startTime);
+            engine.shutdown();
+
+            System.out.printf("prewarming=%-5s requests=%d, connect latency=%d ms, duration=%5d ms (%d ms per request), connections=%d%n", prewarming, REQUEST_COUNT, CONNECT_LATENCY.toMillis(), duration.toMillis(), duration.toMillis() / REQUEST_COUNT, socketFactory.getConnectCount());
+
+        }
+    }
+
+    /**
+     * Sends a small file in chunks, so that a transfer takes a noticeable amount of time during
+     * which the connection for the next request can be opened
+     */
+    private static void handleExchange(HttpExchange exchange) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            byte[] chunk = new byte[1024];
+            exchange.sendResponseHeaders(200, (long)chunk.length * CHUNK_COUNT);
+            try (OutputStream responseStream = exchange.getResponseBody()) {
+                for (int i = 0; i < CHUNK_COUNT; i++) {
+                    responseStream.write(chunk);
+                    responseStream.flush();
+                    Thread.sleep(CHUNK_DELAY);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.close();
+    }
+
+}
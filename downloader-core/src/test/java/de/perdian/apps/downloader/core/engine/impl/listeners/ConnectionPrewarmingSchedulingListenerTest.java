@@ -0,0 +1,130 @@
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
+import de.perdian.apps.downloader.core.engine.DownloadTask;
+import de.perdian.apps.downloader.core.engine.impl.dataextractors.StreamFactoryDataExtractor;
+import de.perdian.apps.downloader.core.support.impl.OkHttpClientRequestStreamFactory;
+import okhttp3.OkHttpClient;
+
+public class ConnectionPrewarmingSchedulingListenerTest {
+
+    private FileSystem fileSystem = null;
+    private HttpServer server = null;
+    private ExecutorService serverExecutor = null;
+
+    @BeforeEach
+    public void prepareProperties() throws IOException {
+        this.setFileSystem(MemoryFileSystemBuilder.newEmpty().build(UUID.randomUUID().toString()));
+        this.setServerExecutor(Executors.newCachedThreadPool());
+        this.setServer(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0));
+        this.getServer().createContext("/", this::handleExchange);
+        this.getServer().setExecutor(this.getServerExecutor());
+        this.getServer().start();
+    }
+
+    @AfterEach
+    public void cleanupProperties() throws IOException {
+        this.getServer().stop(0);
+        this.getServerExecutor().shutdownNow();
+        this.getFileSystem().close();
+    }
+
+    private void handleExchange(HttpExchange exchange) throws IOException {
+        byte[] content = "TEST".getBytes();
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream responseStream = exchange.getResponseBody()) {
+                responseStream.write(content);
+            }
+        }
+        exchange.close();
+    }
+
+    @Test
+    public void prewarmConnectionForNextRequest() throws Exception {
+
+        LatencySocketFactory socketFactory = new LatencySocketFactory(Duration.ofMillis(10));
+        OkHttpClient httpClient = new OkHttpClient.Builder().dns(hostname -> List.of(InetAddress.getLoopbackAddress())).socketFactory(socketFactory).build();
+        int port = this.getServer().getAddress().getPort();
+
+        ConnectionPrewarmingSchedulingListener listener = new ConnectionPrewarmingSchedulingListener(httpClient);
+        listener.setUrlResolver(request -> "http://" + request.getHost() + ":" + port + "/");
+        DownloadEngine engine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        engine.addSchedulingListener(listener);
+
+        // The first request doesn't report its progress before the second request is waiting and
+        // doesn't complete its transfer before the connection for it has been put into the pool
+        DownloadRequest firstRequest = new DownloadRequest();
+        firstRequest.setTitle("first");
+        firstRequest.setHost("first.example.com");
+        firstRequest.setTaskFactory(progressListener -> new DownloadTask("first", (targetStream, progressListener2, statusSupplier) -> {
+            long waitUntil = System.currentTimeMillis() + 5000;
+            while (engine.listWaitingRequests(1).isEmpty() && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(10);
+            }
+            progressListener2.onProgress(null, 90L, 100L);
+            while (httpClient.connectionPool().idleConnectionCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(10);
+            }
+            targetStream.write("FIRST".getBytes());
+        }));
+        engine.submit(firstRequest);
+
+        DownloadRequest secondRequest = new DownloadRequest();
+        secondRequest.setTitle("second");
+        secondRequest.setHost("second.example.com");
+        secondRequest.setTaskFactory(progressListener -> new DownloadTask("second", new StreamFactoryDataExtractor(new OkHttpClientRequestStreamFactory("http://second.example.com:" + port + "/file", httpClient))));
+        engine.submit(secondRequest);
+
+        engine.waitUntilAllDownloadsComplete();
+        Assertions.assertEquals("TEST", Files.readString(this.getFileSystem().getPath("target/second")));
+        Assertions.assertEquals(1, socketFactory.getConnectCount());
+
+    }
+
+    private FileSystem getFileSystem() {
+        return this.fileSystem;
+    }
+    private void setFileSystem(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    private HttpServer getServer() {
+        return this.server;
+    }
+    private void setServer(HttpServer server) {
+        this.server = server;
+    }
+
+    private ExecutorService getServerExecutor() {
+        return this.serverExecutor;
+    }
+    private void setServerExecutor(ExecutorService serverExecutor) {
+        this.serverExecutor = serverExecutor;
+    }
+
+}
@@ -0,0 +1,194 @@
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
+
+import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadQueueOverflowPolicy;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
+import de.perdian.apps.downloader.core.engine.DownloadRecipeFactory;
+import de.perdian.apps.downloader.core.engine.DownloadRequestRecipe;
+import de.perdian.apps.downloader.core.engine.DownloadRequestSpillStore;
+import de.perdian.apps.downloader.core.engine.DownloadTask;
+
+public class JournalingSchedulingListenerTest {
+
+    private FileSystem fileSystem = null;
+    private CountDownLatch releaseLatch = null;
+    private List<DownloadRequestRecipe> createdRecipes = null;
+
+    @BeforeEach
+    public void prepareFileSystem() throws IOException {
+        this.setFileSystem(MemoryFileSystemBuilder.newEmpty().build(UUID.randomUUID().toString()));
+        this.setReleaseLatch(new CountDownLatch(1));
+        this.setCreatedRecipes(new CopyOnWriteArrayList<>());
+    }
+
+    @AfterEach
+    public void cleanupFileSystem() throws IOException {
+        this.getReleaseLatch().countDown();
+        this.getFileSystem().close();
+    }
+
+    @Test
+    public void attachReplaysPendingRequests() throws Exception {
+
+        Path journalFile = this.getFileSystem().getPath("queue.journal");
+        DownloadEngine firstEngine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        JournalingSchedulingListener firstJournal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest));
+        Assertions.assertEquals(0, firstJournal.attach(firstEngine));
+        for (String name : List.of("first", "second", "third file")) {
+            firstEngine.submit(this.createRequest(new DownloadRequestRecipe("test", Map.of("name", name))));
+        }
+        firstEngine.submit(this.createRequest(null));
+        firstJournal.close();
+
+        // The first request is blocked inside the first engine, the others are still waiting
+        // when the journal is read again, which simulates a crash of the application
+        this.getCreatedRecipes().clear();
+        DownloadEngine secondEngine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        JournalingSchedulingListener secondJournal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest));
+        Assertions.assertEquals(3, secondJournal.attach(secondEngine));
+        Assertions.assertEquals(List.of("first", "second", "third file"), this.getCreatedRecipes().stream().map(recipe -> recipe.getParameter("name")).toList());
+
+        this.getReleaseLatch().countDown();
+        secondEngine.waitUntilAllDownloadsComplete();
+        secondJournal.close();
+
+        DownloadEngine thirdEngine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        try (JournalingSchedulingListener thirdJournal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest))) {
+            Assertions.assertEquals(0, thirdJournal.attach(thirdEngine));
+        }
+
+    }
+
+    @Test
+    public void attachReplaysStartedRequestsFirst() throws Exception {
+
+        Path journalFile = this.getFileSystem().getPath("queue.journal");
+        Files.writeString(journalFile, "S 1 test name=first\nS 2 test name=second\nA 2\nS 3 test name=third\nC 1\nS 4 test na", StandardCharsets.UTF_8);
+
+        JournalingSchedulingListener journal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest));
+        Assertions.assertEquals(2, journal.attach(new DownloadEngine(this.getFileSystem().getPath("target/"))));
+        Assertions.assertEquals(List.of("second", "third"), this.getCreatedRecipes().stream().map(recipe -> recipe.getParameter("name")).toList());
+        journal.close();
+
+    }
+
+    @Test
+    public void attachDiscardsUnknownFactory() throws Exception {
+
+        Path journalFile = this.getFileSystem().getPath("queue.journal");
+        Files.writeString(journalFile, "S 1 unknown name=first\nS 2 test name=second\n", StandardCharsets.UTF_8);
+
+        JournalingSchedulingListener journal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest));
+        Assertions.assertEquals(1, journal.attach(new DownloadEngine(this.getFileSystem().getPath("target/"))));
+        journal.flush();
+        Assertions.assertEquals("S 2 test name=second", Files.readAllLines(journalFile).get(0));
+        Assertions.assertTrue(Files.readAllLines(journalFile).stream().noneMatch(line -> line.startsWith("S 1 ")));
+        journal.close();
+
+    }
+
+    @Test
+    public void spilledRequests() throws Exception {
+
+        Path journalFile = this.getFileSystem().getPath("queue.journal");
+        DownloadEngine engine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        try (DownloadRequestSpillStore spillStore = new DownloadRequestSpillStore(this.getFileSystem().getPath("spill/"), Map.of("test", this::createRequest))) {
+            engine.pause();
+            engine.setQueueCapacity(1);
+            engine.setQueueOverflowPolicy(DownloadQueueOverflowPolicy.SPILL);
+            engine.setQueueSpillStore(spillStore);
+            JournalingSchedulingListener journal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest));
+            journal.attach(engine);
+            for (String name : List.of("first", "second", "third")) {
+                engine.submit(this.createRequest(new DownloadRequestRecipe("test", Map.of("name", name))));
+            }
+            Assertions.assertEquals(2, spillStore.size());
+
+            // The spilled requests have been recorded before being spilled, so that they would be
+            // replayed if the application terminated now
+            journal.flush();
+            Assertions.assertEquals(3, Files.readAllLines(journalFile).stream().filter(line -> line.startsWith("S ")).count());
+
+            this.getReleaseLatch().countDown();
+            engine.start();
+            engine.waitUntilAllDownloadsComplete();
+            journal.close();
+        }
+
+        DownloadEngine secondEngine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        try (JournalingSchedulingListener secondJournal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest))) {
+            Assertions.assertEquals(0, secondJournal.attach(secondEngine));
+        }
+
+    }
+
+    @Test
+    public void compaction() throws Exception {
+
+        Path journalFile = this.getFileSystem().getPath("queue.journal");
+        DownloadEngine engine = new DownloadEngine(this.getFileSystem().getPath("target/"));
+        JournalingSchedulingListener journal = new JournalingSchedulingListener(journalFile, Map.of("test", this::createRequest));
+        journal.setCompactionThreshold(5);
+        journal.attach(engine);
+        this.getReleaseLatch().countDown();
+        for (int i = 0; i < 50; i++) {
+            engine.submit(this.createRequest(new DownloadRequestRecipe("test", Map.of("name", "request" + i))));
+        }
+        engine.waitUntilAllDownloadsComplete();
+        journal.flush();
+        Assertions.assertTrue(Files.readAllLines(journalFile).size() <= 3 * 5, "Journal not compacted: " + Files.readAllLines(journalFile));
+        journal.close();
+
+    }
+
+    private DownloadRequest createRequest(DownloadRequestRecipe recipe) {
+        if (recipe != null) {
+            this.getCreatedRecipes().add(recipe);
+        }
+        DownloadRequest request = new DownloadRequest();
+        request.setTitle(recipe == null ? "Without recipe" : recipe.getParameter("name"));
+        request.setRecipe(recipe);
+        request.setTaskFactory(progressListener -> new DownloadTask(request.getTitle(), (targetStream, innerProgressListener, statusSupplier) -> this.getReleaseLatch().await()));
+        return request;
+    }
+
+    private FileSystem getFileSystem() {
+        return this.fileSystem;
+    }
+    private void setFileSystem(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    private CountDownLatch getReleaseLatch() {
+        return this.releaseLatch;
+    }
+    private void setReleaseLatch(CountDownLatch releaseLatch) {
+        this.releaseLatch = releaseLatch;
+    }
+
+    private List<DownloadRequestRecipe> getCreatedRecipes() {
+        return this.createdRecipes;
+    }
+    private void setCreatedRecipes(List<DownloadRequestRecipe> createdRecipes) {
+        this.createdRecipes = createdRecipes;
+    }
+
+}
@@ -0,0 +1,68 @@
+package de.perdian.apps.downloader.core.engine.impl.listeners;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.SocketFactory;
+
+/**
+ * Creates sockets that wait for a given time before actually connecting, to simulate the latency
+ * of the handshakes required to connect to a remote host. All connections are counted.
+ */
+
+class LatencySocketFactory extends SocketFactory {
+
+    private Duration latency = null;
+    private AtomicInteger connectCount = new AtomicInteger();
+
+    LatencySocketFactory(Duration latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new Socket() {
+            @Override
+            public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                LatencySocketFactory.this.connectCount.incrementAndGet();
+                try {
+                    Thread.sleep(LatencySocketFactory.this.latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while simulating connect latency");
+                }
+                super.connect(endpoint, timeout);
+            }
+        };
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    int getConnectCount() {
+        return this.connectCount.get();
+    }
+
+}
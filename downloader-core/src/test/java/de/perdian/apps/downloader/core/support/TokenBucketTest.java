@@ -0,0 +1,79 @@
+package de.perdian.apps.downloader.core.support;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void reserveUnlimited() {
+        TokenBucket tokenBucket = new TokenBucket(0);
+        Assertions.assertEquals(0, tokenBucket.reserve(Long.MAX_VALUE, 0));
+        Assertions.assertEquals(0, tokenBucket.reserve(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void reserveLimited() {
+
+        TokenBucket tokenBucket = new TokenBucket(1000);
+        long startTime = System.nanoTime();
+
+        // After half a second 500 tokens have been refilled
+        long halfSecond = TimeUnit.MILLISECONDS.toNanos(500);
+        Assertions.assertEquals(0, tokenBucket.reserve(500, startTime + halfSecond));
+
+        // Without any time passing the next reservation has to wait for its tokens to be refilled
+        Assertions.assertEquals(halfSecond, tokenBucket.reserve(500, startTime + halfSecond), TimeUnit.MILLISECONDS.toNanos(1));
+        Assertions.assertEquals(2 * halfSecond, tokenBucket.reserve(500, startTime + halfSecond), TimeUnit.MILLISECONDS.toNanos(1));
+
+    }
+
+    @Test
+    public void reserveNeverAccumulatesMoreThanOneSecond() {
+
+        TokenBucket tokenBucket = new TokenBucket(1000);
+        long startTime = System.nanoTime();
+
+        long tenSeconds = TimeUnit.SECONDS.toNanos(10);
+        Assertions.assertEquals(0, tokenBucket.reserve(1000, startTime + tenSeconds));
+        Assertions.assertTrue(tokenBucket.reserve(1, startTime + tenSeconds) > 0);
+
+    }
+
+    @Test
+    public void setRateUnlimited() {
+
+        TokenBucket tokenBucket = new TokenBucket(1);
+        Assertions.assertTrue(tokenBucket.reserve(1000, System.nanoTime()) > 0);
+
+        tokenBucket.setRate(0);
+        Assertions.assertEquals(0, tokenBucket.reserve(1000, System.nanoTime()));
+
+    }
+
+    @Test
+    public void setRateWakesWaitingThreads() throws Exception {
+
+        TokenBucket tokenBucket = new TokenBucket(1);
+        tokenBucket.acquire(1);
+
+        // At one token per second the second acquisition would block for more than fifteen minutes
+        CompletableFuture<Void> acquireFuture = CompletableFuture.runAsync(() -> {
+            try {
+                tokenBucket.acquire(1000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        Assertions.assertFalse(acquireFuture.isDone());
+
+        tokenBucket.setRate(1_000_000);
+        acquireFuture.get(5, TimeUnit.SECONDS);
+
+    }
+
+}
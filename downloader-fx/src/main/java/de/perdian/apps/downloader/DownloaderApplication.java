@@ -15,7 +15,11 @@
  */
 package de.perdian.apps.downloader;
 
+import java.time.Duration;
+import java.util.List;
+
 import de.perdian.apps.downloader.core.engine.DownloadEngine;
+import de.perdian.apps.downloader.core.engine.DownloadRequest;
 import de.perdian.apps.downloader.core.engine.DownloadRequestFactory;
 import de.perdian.apps.downloader.fx.EngineSettingsPane;
 import javafx.application.Application;
@@ -44,7 +48,14 @@ public class DownloaderApplication extends Application {
         log.info("Opening JavaFX stage");
         primaryStage.getIcons().add(new Image(this.getClass().getResourceAsStream("/icons/96/download.png")));
         primaryStage.setScene(new Scene(downloaderPane));
-        primaryStage.setOnCloseRequest(event -> System.exit(0));
+        primaryStage.setOnCloseRequest(event -> {
+
+            // Suspending the active operations forces their data to disk, which might take a
+            // while, so the engine is closed in the background instead of blocking the UI
+            Thread closeThread = new Thread(() -> this.closeEngine(engine), "DownloadEngine-Close");
+            closeThread.start();
+
+        });
         primaryStage.setMinWidth(800);
         primaryStage.setMinHeight(600);
         primaryStage.setTitle("Downloader");
@@ -56,6 +67,21 @@ public class DownloaderApplication extends Application {
 
     }
 
+    private void closeEngine(DownloadEngine engine) {
+        try {
+            log.info("Closing DownloadEngine");
+            List<DownloadRequest> unexecutedRequests = engine.close(Duration.ZERO);
+            if (!unexecutedRequests.isEmpty()) {
+                log.info("Closed DownloadEngine with {} requests not yet executed", unexecutedRequests.size());
+                unexecutedRequests.forEach(request -> log.info("Request not yet executed: {}", request));
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while closing DownloadEngine", e);
+        } finally {
+            System.exit(0);
+        }
+    }
+
     protected DownloaderConfiguration createConfiguration(DownloadEngine engine) {
         DownloaderConfiguration configuration = new DownloaderConfiguration();
         configuration.getSettingsPanes().put("Engine", new EngineSettingsPane(engine));
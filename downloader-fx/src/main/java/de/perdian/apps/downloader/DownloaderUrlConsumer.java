@@ -63,6 +63,10 @@ class DownloaderUrlConsumer implements Consumer<String> {
                     try {
                         List<DownloadRequest> requests = requestFactory.createRequests(inputUrl);
                         if (requests != null) {
+
+                            // All requests created from the same input belong together, so that
+                            // a large album doesn't block other inputs when fair queuing is active
+                            requests.stream().filter(request -> request.getGroupKey() == null).forEach(request -> request.setGroupKey(inputUrl.toString()));
                             this.getEngine().submitAll(requests);
                             return;
                         }
@@ -84,6 +88,8 @@ class DownloaderUrlConsumer implements Consumer<String> {
                     DownloadRequest downloadRequest = new DownloadRequest();
                     downloadRequest.setId(UUID.randomUUID().toString());
                     downloadRequest.setTitle(inputUrl.toString());
+                    downloadRequest.setHost(inputUrl.getHost());
+                    downloadRequest.setSourceKey(DownloadRequest.createSourceKey(inputUrl.toString()));
                     downloadRequest.setTaskFactory(ProgressListener -> new DownloadTask(inputUrl.getFile(), new StreamFactoryDataExtractor(new URLStreamFactory(inputUrl))));
                     this.getEngine().submit(downloadRequest);
                 }
@@ -59,6 +59,26 @@ public class EngineSettingsPane extends VBox {
         processorCountPane.add(plusButton, 4, 1);
         this.getChildren().add(processorCountPane);
 
+        TextField bandwidthLimitField = new TextField(String.valueOf(engine.getBandwidthLimit() / 1024));
+        bandwidthLimitField.setAlignment(Pos.CENTER);
+        bandwidthLimitField.setMaxWidth(94);
+        bandwidthLimitField.setOnAction(action -> {
+            try {
+                engine.setBandwidthLimit(Math.max(0, Long.parseLong(bandwidthLimitField.getText().strip())) * 1024);
+            } catch (NumberFormatException e) {
+                bandwidthLimitField.setText(String.valueOf(engine.getBandwidthLimit() / 1024));
+            }
+        });
+        Label bandwidthLimitLabel = new Label("Bandwidth limit (KiB/s, 0 = unlimited)");
+        bandwidthLimitLabel.setMaxWidth(Double.MAX_VALUE);
+        GridPane.setHgrow(bandwidthLimitLabel, Priority.ALWAYS);
+
+        GridPane bandwidthLimitPane = new GridPane();
+        bandwidthLimitPane.setHgap(2);
+        bandwidthLimitPane.add(bandwidthLimitLabel, 1, 1);
+        bandwidthLimitPane.add(bandwidthLimitField, 2, 1);
+        this.getChildren().add(bandwidthLimitPane);
+
         Label targetDirectoryLabel = new Label("Target directory");
         TextField targetDirectoryField = new TextField(engine.getTargetDirectory().toFile().getAbsolutePath());
         targetDirectoryField.setEditable(false);
@@ -91,6 +111,11 @@ public class EngineSettingsPane extends VBox {
                     plusButton.setDisable(newProcessorCount >= maxProcessorValue);
                 });
             }
+            @Override public void onBandwidthLimitUpdated(long newBandwidthLimit) {
+                Platform.runLater(() -> {
+                    bandwidthLimitField.setText(String.valueOf(newBandwidthLimit / 1024));
+                });
+            }
             @Override public void onTargetDirectoryUpdated(Path newTargetDirectory) {
                 Platform.runLater(() -> {
                     targetDirectoryField.setText(newTargetDirectory.toFile().getAbsolutePath());
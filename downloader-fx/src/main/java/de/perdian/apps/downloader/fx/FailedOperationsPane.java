@@ -105,7 +105,7 @@ public class FailedOperationsPane extends BorderPane implements DownloadScheduli
 
     @Override
     public void onOperationCompleted(DownloadOperation operation) {
-        if (operation.getError() != null) {
+        if (operation.getError() != null && operation.getRetryTime() == null && operation.getSuspendTime() == null) {
             Platform.runLater(() -> this.getOperations().add(0, operation));
         }
     }
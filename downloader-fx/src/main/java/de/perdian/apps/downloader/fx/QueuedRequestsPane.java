@@ -15,7 +15,9 @@
  */
 package de.perdian.apps.downloader.fx;
 
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 import de.perdian.apps.downloader.core.engine.DownloadEngine;
@@ -71,6 +73,19 @@ public class QueuedRequestsPane extends BorderPane implements DownloadScheduling
         }
     }
 
+    @Override
+    public void onRequestsScheduled(List<DownloadRequestWrapper> requestWrappers) {
+        List<QueuedRequestsPane.DownloadEngineRequestWrapperPane> requestWrapperPanes = new ArrayList<>(requestWrappers.size());
+        for (DownloadRequestWrapper requestWrapper : requestWrappers) {
+            synchronized (requestWrapper) {
+                QueuedRequestsPane.DownloadEngineRequestWrapperPane requestWrapperPane = new QueuedRequestsPane.DownloadEngineRequestWrapperPane(requestWrapper);
+                this.getRequestWrapperPanesByRequestWrapper().put(requestWrapper, requestWrapperPane);
+                requestWrapperPanes.add(requestWrapperPane);
+            }
+        }
+        Platform.runLater(() -> this.getRequestWrapperPanesBox().getChildren().addAll(requestWrapperPanes));
+    }
+
     @Override
     public void onRequestCancelled(DownloadRequestWrapper requestWrapper) {
         synchronized (requestWrapper) {
@@ -4,12 +4,17 @@ import de.perdian.apps.downloader.DownloaderEngineProvider;
 import de.perdian.apps.downloader.core.engine.DownloadEngine;
 
 import java.io.File;
+import java.time.Duration;
 
 public class DefaultEngineProvider implements DownloaderEngineProvider {
 
     @Override
     public DownloadEngine createEngine() {
-        return new DownloadEngine(new File(System.getProperty("user.home"), "Downloads").toPath());
+        DownloadEngine engine = new DownloadEngine(new File(System.getProperty("user.home"), "Downloads").toPath());
+        engine.setFairQueuing(true);
+        engine.setPriorityAgingInterval(Duration.ofMinutes(10));
+        engine.setTaskDiscoveryLookAhead(2);
+        return engine;
     }
 
 }
@@ -3,7 +3,8 @@ package de.perdian.apps.downloader.impl.khinsider;
 import de.perdian.apps.downloader.DownloaderApplicationLauncher;
 import de.perdian.apps.downloader.DownloaderEngineProviderRegistry;
 import de.perdian.apps.downloader.core.engine.*;
-import de.perdian.apps.downloader.core.engine.impl.dataextractors.StreamFactoryDataExtractor;
+import de.perdian.apps.downloader.core.engine.impl.dataextractors.SegmentedStreamFactoryDataExtractor;
+import de.perdian.apps.downloader.core.engine.impl.listeners.ConnectionPrewarmingSchedulingListener;
 import de.perdian.apps.downloader.core.support.StreamFactory;
 import de.perdian.apps.downloader.core.support.impl.ByteArrayStreamFactory;
 import de.perdian.apps.downloader.core.support.impl.OkHttpClientRequestStreamFactory;
@@ -29,6 +30,7 @@ import java.text.NumberFormat;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class DownloaderLauncher {
@@ -51,13 +53,14 @@ public class DownloaderLauncher {
     public static void main(String[] args) throws Exception {
 
         log.info("Opening UI");
-        DownloadEngine downloadEngine = new DownloadEngine(Path.of(System.getProperty("user.home"), "Downloads/khinsider"));
+        DownloadEngine downloadEngine = new DownloadEngine(Path.of(System.getProperty("user.home"), "Downloads/khinsider"), Executors.newVirtualThreadPerTaskExecutor());
         downloadEngine.setProcessorCount(5);
+        downloadEngine.addSchedulingListener(new ConnectionPrewarmingSchedulingListener());
         DownloaderEngineProviderRegistry.setProvider(() -> downloadEngine);
         Thread.ofPlatform().name("JavaFX Launcher Thread").start(() -> DownloaderApplicationLauncher.main(args));
 
         log.info("Adding download jobs");
-        OkHttpClient httpClient = new OkHttpClient();
+        OkHttpClient httpClient = OkHttpClientRequestStreamFactory.getDefaultHttpClient();
         for (String page : pages) {
             DownloaderLauncher.addJobs(page, downloadEngine, httpClient);
         }
@@ -132,12 +135,14 @@ public class DownloaderLauncher {
                             downloadFilePath.append(".").append(FilenameUtils.getExtension(downloadUrl));
 
                             StreamFactory downloadStreamFactory = new OkHttpClientRequestStreamFactory(downloadUrl, httpClient);
-                            DownloadDataExtractor downloadDataExtractor = new StreamFactoryDataExtractor(downloadStreamFactory);
+                            DownloadDataExtractor downloadDataExtractor = new SegmentedStreamFactoryDataExtractor(downloadStreamFactory);
                             DownloadTaskFactory downloadTaskFactory = progressListener -> new DownloadTask(downloadFilePath.toString(), downloadDataExtractor);
                             DownloadRequest downloadRequest = new DownloadRequest();
                             downloadRequest.setPreviewImageFactory(albumImageBytes == null ? null : new ByteArrayStreamFactory(albumImageBytes));
                             downloadRequest.setTaskFactory(downloadTaskFactory);
                             downloadRequest.setTitle(songFileName.toString());
+                            downloadRequest.setHost(URI.create(downloadUrl).getHost());
+                            downloadRequest.setSourceKey(DownloadRequest.createSourceKey(downloadUrl));
                             if (downloadUrl.toLowerCase().endsWith(".mp3")) {
                                 MP3DownloadPostProcessor mp3PostProcessor = new MP3DownloadPostProcessor();
                                 downloadRequest.addProcessor(mp3PostProcessor);